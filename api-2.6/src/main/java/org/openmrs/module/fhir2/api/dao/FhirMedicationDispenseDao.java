@@ -38,6 +38,14 @@ public interface FhirMedicationDispenseDao<T extends OpenmrsObject & Auditable>
 	@Authorized(PrivilegeConstants.GET_MEDICATION_DISPENSE)
 	int getSearchResultsCount(@Nonnull SearchParameterMap theParams);
 	
+	@Override
+	@Authorized(PrivilegeConstants.GET_MEDICATION_DISPENSE)
+	List<Integer> getSearchResultIds(@Nonnull SearchParameterMap theParams);
+	
+	@Override
+	@Authorized(PrivilegeConstants.GET_MEDICATION_DISPENSE)
+	List<T> getSearchResultsByIds(@Nonnull List<Integer> ids);
+	
 	@Override
 	@Authorized(PrivilegeConstants.EDIT_MEDICATION_DISPENSE)
 	T createOrUpdate(@Nonnull T newEntry);
@@ -9,7 +9,6 @@
  */
 package org.openmrs.module.fhir2.api.search;
 
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
@@ -51,17 +50,15 @@ public class SearchQueryIncludeImpl2_6<U extends IBaseResource> extends SearchQu
 	}
 	
 	@Override
-	protected Set<IBaseResource> handlePatientInclude(List<U> resourceList, String paramType) {
+	protected Set<String> getPatientReferences(List<U> resourceList, String paramType) {
 		switch (paramType) {
 			case FhirConstants.MEDICATION_DISPENSE:
-				Set<String> uniquePatientUUIDs = resourceList.stream()
+				return resourceList.stream()
 				        .map(resource -> getIdFromReference(((MedicationDispense) resource).getSubject()))
 				        .filter(Objects::nonNull).collect(Collectors.toSet());
-				
-				return new LinkedHashSet<>(getPatientService().get(uniquePatientUUIDs));
 		}
 		
-		return super.handlePatientInclude(resourceList, paramType);
+		return super.getPatientReferences(resourceList, paramType);
 	}
 	
 	protected IBundleProvider handlePrescriptionReverseInclude(ReferenceAndListParam params, String targetType) {
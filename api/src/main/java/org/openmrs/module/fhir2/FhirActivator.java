@@ -33,11 +33,19 @@ import org.openmrs.module.Module;
 import org.openmrs.module.ModuleException;
 import org.openmrs.module.ModuleFactory;
 import org.openmrs.module.fhir2.api.FhirService;
+import org.openmrs.module.fhir2.api.cache.ConceptCodingIndex;
+import org.openmrs.module.fhir2.api.cache.ConceptReverseIndex;
+import org.openmrs.module.fhir2.api.cache.ConceptSourceUrlIndex;
+import org.openmrs.module.fhir2.api.dao.FhirConceptTokenDao;
 import org.openmrs.module.fhir2.api.dao.FhirDao;
+import org.openmrs.module.fhir2.api.dao.FhirLocationAncestorDao;
+import org.openmrs.module.fhir2.api.mappings.EncounterClassMap;
+import org.openmrs.module.fhir2.api.mappings.ObservationCategoryMap;
 import org.openmrs.module.fhir2.api.spi.ModuleLifecycleListener;
 import org.openmrs.module.fhir2.api.spi.ServiceClassLoader;
 import org.openmrs.module.fhir2.api.translators.FhirTranslator;
 import org.openmrs.module.fhir2.api.util.FhirGlobalPropertyHolder;
+import org.openmrs.module.fhir2.api.util.FhirStatisticsReporter;
 import org.openmrs.module.fhir2.model.GroupMember;
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
@@ -70,6 +78,11 @@ public class FhirActivator extends BaseModuleActivator implements ApplicationCon
 		}
 		
 		loadModules();
+		rebuildLocationAncestors();
+		buildConceptIndexes();
+		rebuildConceptTokens();
+		loadMappingSnapshots();
+		startStatisticsReporter();
 		started = true;
 		log.info("Started FHIR");
 		
@@ -161,6 +174,75 @@ public class FhirActivator extends BaseModuleActivator implements ApplicationCon
 		services.remove(moduleName);
 	}
 	
+	/**
+	 * Locations may have been changed while this module was not running, so the closure table for the
+	 * location hierarchy is checked in the background each time the module starts and rebuilt if it
+	 * is out of step
+	 */
+	protected void rebuildLocationAncestors() {
+		try {
+			applicationContext.getBean(FhirLocationAncestorDao.class).rebuildAncestorsIfOutOfStep();
+		}
+		catch (Exception e) {
+			log.error("Could not start checking the location hierarchy used for Location?partof:below searches", e);
+		}
+	}
+	
+	/**
+	 * Concept mappings may have been changed while this module was not running, so the table of the
+	 * tokens each concept can be searched by is rebuilt in the background each time the module starts
+	 */
+	protected void rebuildConceptTokens() {
+		try {
+			applicationContext.getBean(FhirConceptTokenDao.class).rebuildTokensInBackground();
+		}
+		catch (Exception e) {
+			log.error("Could not start rebuilding the concept tokens used for code searches", e);
+		}
+	}
+	
+	/**
+	 * Starts logging the statistics of the module's caches and includes, as often as
+	 * {@link FhirConstants#OPENMRS_FHIR_STATISTICS_REPORT_INTERVAL} asks for
+	 */
+	protected void startStatisticsReporter() {
+		try {
+			applicationContext.getBean(FhirStatisticsReporter.class).start();
+		}
+		catch (Exception e) {
+			log.error("Could not start reporting the FHIR module statistics", e);
+		}
+	}
+	
+	/**
+	 * Starts indexing the codings of every concept, and the concepts mapped to every code, in the
+	 * background, so that translating concepts and codings does not have to load concept mappings
+	 */
+	protected void buildConceptIndexes() {
+		try {
+			applicationContext.getBean(ConceptSourceUrlIndex.class).rebuild();
+			applicationContext.getBean(ConceptCodingIndex.class).rebuild();
+			applicationContext.getBean(ConceptReverseIndex.class).rebuild();
+		}
+		catch (Exception e) {
+			log.error("Could not start building the concept indexes", e);
+		}
+	}
+	
+	/**
+	 * Loads the observation category and encounter class mappings, so that translating observations
+	 * and encounters does not need to query them
+	 */
+	protected void loadMappingSnapshots() {
+		try {
+			applicationContext.getBean(ObservationCategoryMap.class).reload();
+			applicationContext.getBean(EncounterClassMap.class).reload();
+		}
+		catch (Exception e) {
+			log.error("Could not load the observation category and encounter class mappings", e);
+		}
+	}
+	
 	private void loadModuleInternal(Module module) {
 		ClassLoader cl = ModuleFactory.getModuleClassLoader(module);
 		
@@ -129,6 +129,26 @@ public final class FhirConstants {
 	
 	public static final String OPENMRS_FHIR_MAXIMUM_PAGE_SIZE = "fhir2.paging.maximum";
 	
+	public static final String OPENMRS_FHIR_KEYSET_PAGING = "fhir2.paging.keyset";
+	
+	public static final String OPENMRS_FHIR_SEARCH_SNAPSHOT_MAXIMUM_RESULTS = "fhir2.paging.snapshot.maximumResults";
+	
+	public static final String OPENMRS_FHIR_SEARCH_SNAPSHOT_TIME_TO_LIVE = "fhir2.paging.snapshot.timeToLive";
+	
+	public static final String OPENMRS_FHIR_INCLUDE_MAXIMUM_THREADS = "fhir2.include.maximumThreads";
+	
+	public static final String OPENMRS_FHIR_REVERSE_INCLUDE_MAXIMUM_RESULTS = "fhir2.revinclude.maximumResults";
+	
+	public static final String OPENMRS_FHIR_EXPORT_DIRECTORY = "fhir2.export.directory";
+	
+	public static final String OPENMRS_FHIR_IMPORT_DIRECTORY = "fhir2.import.directory";
+	
+	public static final String OPENMRS_FHIR_CACHE_CONTROL_PREFIX = "fhir2.cacheControl.";
+	
+	public static final String OPENMRS_FHIR_CACHE_PREFIX = "fhir2.cache.";
+	
+	public static final String OPENMRS_FHIR_STATISTICS_REPORT_INTERVAL = "fhir2.statistics.reportInterval";
+	
 	public static final String ALLERGY_INTOLERANCE = "AllergyIntolerance";
 	
 	public static final String CONDITION = "Condition";
@@ -185,8 +205,6 @@ public final class FhirConstants {
 	
 	public static final String ADMINISTERING_ENCOUNTER_ROLE_PROPERTY = "fhir2.administeringEncounterRoleUuid";
 	
-	public static final String SUPPORTED_LOCATION_HIERARCHY_SEARCH_DEPTH = "fhir.supportedLocationHierarchySearchDepth";
-	
 	public static final String GLOBAL_PROPERTY_MILD = "allergy.concept.severity.mild";
 	
 	public static final String GLOBAL_PROPERTY_SEVERE = "allergy.concept.severity.severe";
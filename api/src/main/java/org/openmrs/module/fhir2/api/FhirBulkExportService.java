@@ -0,0 +1,66 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.openmrs.module.fhir2.model.FhirBulkExportJob;
+
+/**
+ * Runs the bulk data $export operation, writing the exported resources to one NDJSON file for each
+ * type of resource. Exports run in the background and are resumed from the last chunk recorded if
+ * they are interrupted.
+ */
+public interface FhirBulkExportService {
+	
+	/**
+	 * @param exportLevel the level the export was requested at
+	 * @return the resource types that can be exported at that level, in the order they are exported
+	 */
+	List<String> getSupportedResourceTypes(@Nonnull FhirBulkExportJob.ExportLevel exportLevel);
+	
+	/**
+	 * Starts a new export in the background
+	 *
+	 * @param exportLevel whether all resources, all resources in any patient compartment or the
+	 *            resources in the compartments of the members of a group are exported
+	 * @param groupUuid the group whose members are exported, for group-level exports
+	 * @param resourceTypes the resource types to export or null for every supported type
+	 * @param since if not null, only resources changed at or after this time are exported
+	 * @param requestUrl the url of the kick-off request
+	 * @return the export job
+	 */
+	FhirBulkExportJob startExport(@Nonnull FhirBulkExportJob.ExportLevel exportLevel, @Nullable String groupUuid,
+	        @Nullable Collection<String> resourceTypes, @Nullable Date since, @Nonnull String requestUrl);
+	
+	/**
+	 * Retrieves an export started by the current user. An export that is not complete and is no longer
+	 * running, e.g. because the server was restarted, is resumed.
+	 *
+	 * @param uuid the id of the export
+	 * @return the export job
+	 */
+	FhirBulkExportJob getExportJob(@Nonnull String uuid);
+	
+	/**
+	 * Retrieves the NDJSON file written by a completed export for a resource type
+	 *
+	 * @param uuid the id of the export
+	 * @param resourceType the resource type
+	 * @return the file
+	 */
+	File getExportFile(@Nonnull String uuid, @Nonnull String resourceType);
+}
@@ -0,0 +1,73 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api;
+
+import javax.annotation.Nonnull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.openmrs.module.fhir2.model.FhirBulkImportInput;
+import org.openmrs.module.fhir2.model.FhirBulkImportJob;
+
+/**
+ * Runs the bulk data $import operation, reading NDJSON files through the translators used to create
+ * single resources and saving the resulting objects in chunks. Imports run in the background and
+ * are restarted from the last committed chunk if they are interrupted.
+ */
+public interface FhirBulkImportService {
+	
+	/**
+	 * @return the resource types that can be imported
+	 */
+	List<String> getSupportedResourceTypes();
+	
+	/**
+	 * Starts a new import of files that are already available in the import directory
+	 *
+	 * @param inputs the files to import, each with its resource type and url set, in the order they
+	 *            should be imported
+	 * @param requestUrl the url of the kick-off request
+	 * @return the import job
+	 */
+	FhirBulkImportJob startImport(@Nonnull List<FhirBulkImportInput> inputs, @Nonnull String requestUrl);
+	
+	/**
+	 * Stores an uploaded NDJSON file and starts a new import of it
+	 *
+	 * @param resourceType the type of the resources in the file
+	 * @param ndjson the content of the file
+	 * @param requestUrl the url of the kick-off request
+	 * @return the import job
+	 */
+	FhirBulkImportJob startUpload(@Nonnull String resourceType, @Nonnull InputStream ndjson, @Nonnull String requestUrl)
+	        throws IOException;
+	
+	/**
+	 * Retrieves an import started by the current user. An import that is not complete and is no longer
+	 * running, e.g. because the server was restarted, is restarted from its last committed chunk.
+	 *
+	 * @param uuid the id of the import
+	 * @return the import job
+	 */
+	FhirBulkImportJob getImportJob(@Nonnull String uuid);
+	
+	/**
+	 * Retrieves the file of OperationOutcomes describing the lines of an input that could not be
+	 * imported
+	 *
+	 * @param uuid the id of the import
+	 * @param inputIndex the index of the input
+	 * @return the file
+	 */
+	File getErrorFile(@Nonnull String uuid, int inputIndex);
+}
@@ -9,6 +9,7 @@
  */
 package org.openmrs.module.fhir2.api;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -21,9 +22,13 @@ public interface FhirConceptService {
 	
 	Concept get(String uuid);
 	
+	List<Concept> get(Collection<String> uuids);
+	
 	Optional<Concept> getConceptWithSameAsMappingInSource(ConceptSource conceptSource, String mappingCode);
 	
 	Optional<String> getSameAsMappingForConceptInSource(ConceptSource source, Concept concept);
 	
 	List<Concept> getConceptsWithAnyMappingInSource(ConceptSource conceptSource, String mappingCode);
+	
+	List<Concept> getConceptsMappedToCodesInSource(ConceptSource conceptSource, Collection<String> mappingCodes);
 }
@@ -9,6 +9,9 @@
  */
 package org.openmrs.module.fhir2.api;
 
+import java.util.Collection;
+import java.util.List;
+
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import org.hl7.fhir.r4.model.Location;
 import org.openmrs.module.fhir2.api.search.param.LocationSearchParams;
@@ -20,4 +23,6 @@ public interface FhirLocationService extends FhirService<Location> {
 	org.openmrs.Location getByUuid(String uuid);
 	
 	IBundleProvider searchForLocations(LocationSearchParams locationSearchParams);
+	
+	List<Location> getAncestors(Collection<String> uuids);
 }
@@ -0,0 +1,29 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api;
+
+import javax.annotation.Nonnull;
+
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import org.hl7.fhir.r4.model.Bundle;
+
+public interface FhirTransactionService {
+	
+	/**
+	 * Processes a transaction or batch Bundle. The entries of a transaction either all succeed or are
+	 * all rolled back, while each entry of a batch succeeds or fails on its own.
+	 *
+	 * @param bundle the transaction or batch Bundle
+	 * @param requestDetails the request the Bundle was posted with
+	 * @return the transaction-response or batch-response Bundle, with an entry for each entry of the
+	 *         request in the same order
+	 */
+	Bundle processBundle(@Nonnull Bundle bundle, RequestDetails requestDetails);
+}
@@ -0,0 +1,408 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.cache;
+
+import javax.annotation.Nonnull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.proxy.HibernateProxy;
+import org.hl7.fhir.r4.model.Coding;
+import org.openmrs.Concept;
+import org.openmrs.ConceptMap;
+import org.openmrs.ConceptMapType;
+import org.openmrs.ConceptReferenceTerm;
+import org.openmrs.ConceptSource;
+import org.openmrs.Duration;
+import org.openmrs.OpenmrsObject;
+import org.openmrs.module.fhir2.FhirConstants;
+import org.openmrs.module.fhir2.model.FhirConceptSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+/**
+ * An index from the id of a concept to the codings its mappings translate to, i.e. every coding of
+ * the concept's CodeableConcept except the one for the concept's own uuid. The codings do not depend
+ * on the user's locale, so the display text is still taken from the concept each time.
+ * <p/>
+ * When the module starts the index is built for every concept in the background, using one query
+ * for all concept mappings. Concepts that are not in the index yet are indexed as they are
+ * translated. Rather than expiring, entries are kept until
+ * {@link org.openmrs.module.fhir2.api.dao.impl.ConceptIndexInterceptor} reports a change to
+ * the concept or its mappings; a change to a concept source, reference term or map type rebuilds the
+ * whole index.
+ * <p/>
+ * The indexed codings are shared, so callers must copy them before adding them to a resource.
+ */
+@Slf4j
+@Component
+public class ConceptCodingIndex {
+	
+	private static final String SAME_AS = "SAME-AS";
+	
+	// rough sizes, in bytes, of an index entry and of a coding, not counting the characters of the code
+	private static final long ENTRY_OVERHEAD = 80;
+	
+	private static final long CODING_OVERHEAD = 160;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod = @__({ @Autowired, @Qualifier("sessionFactory") }))
+	private SessionFactory sessionFactory;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private ConceptSourceUrlIndex conceptSourceUrlIndex;
+	
+	private final ConcurrentMap<Integer, List<Coding>> index = new ConcurrentHashMap<>();
+	
+	private final Set<Integer> invalidatedDuringBuild = ConcurrentHashMap.newKeySet();
+	
+	private final AtomicLong generation = new AtomicLong();
+	
+	/**
+	 * Counts every invalidation, of one concept or of the whole index, so that codings loaded while one
+	 * happened are not added to the index
+	 */
+	private final AtomicLong invalidations = new AtomicLong();
+	
+	private final AtomicBoolean rebuildPending = new AtomicBoolean();
+	
+	private final LongAdder hits = new LongAdder();
+	
+	private final LongAdder misses = new LongAdder();
+	
+	private volatile boolean building;
+	
+	private volatile boolean warmed;
+	
+	/**
+	 * The time the last complete build of the index took, in milliseconds, or -1 if the index has not
+	 * been built
+	 */
+	@Getter
+	private volatile long buildTime = -1;
+	
+	private ExecutorService executor;
+	
+	/**
+	 * Gets the codings that the mappings of a concept translate to
+	 *
+	 * @param concept the concept
+	 * @param loader used to work out the codings of a concept that is not in the index yet
+	 * @return the indexed codings, which must not be modified
+	 */
+	public List<Coding> getMappedCodings(@Nonnull Concept concept, @Nonnull Function<Concept, List<Coding>> loader) {
+		Integer id = getId(concept);
+		if (id == null) {
+			return loader.apply(concept);
+		}
+		
+		List<Coding> codings = index.get(id);
+		if (codings != null) {
+			hits.increment();
+			return codings;
+		}
+		
+		misses.increment();
+		long loadInvalidations = invalidations.get();
+		codings = Collections.unmodifiableList(new ArrayList<>(loader.apply(concept)));
+		
+		synchronized (this) {
+			// the codings may have been loaded from mappings that changed while they were loaded
+			if (invalidations.get() == loadInvalidations) {
+				index.putIfAbsent(id, codings);
+			}
+		}
+		
+		return codings;
+	}
+	
+	/**
+	 * Removes the entries that may be affected by a change to the supplied object
+	 *
+	 * @param changed an object that has been created, changed or deleted
+	 */
+	public void invalidate(Object changed) {
+		if (!isIndexed(changed)) {
+			return;
+		}
+		
+		if (changed instanceof Concept) {
+			invalidate(getId(changed));
+		} else if (changed instanceof ConceptMap) {
+			invalidate(getId(((ConceptMap) changed).getConcept()));
+		} else {
+			invalidateAll();
+		}
+	}
+	
+	/**
+	 * @param object an OpenMRS object
+	 * @return true if changes to the object may affect the index
+	 */
+	public static boolean isIndexed(Object object) {
+		return object instanceof Concept || object instanceof ConceptMap || object instanceof ConceptReferenceTerm
+		        || object instanceof ConceptSource || object instanceof ConceptMapType
+		        || object instanceof FhirConceptSource;
+	}
+	
+	/**
+	 * Removes every entry, rebuilding the index in the background if it has been built before
+	 */
+	public void invalidateAll() {
+		synchronized (this) {
+			generation.incrementAndGet();
+			invalidations.incrementAndGet();
+			index.clear();
+		}
+		
+		if (warmed) {
+			rebuild();
+		}
+	}
+	
+	/**
+	 * Builds the index in the background. If a build is already waiting to run, this does nothing.
+	 */
+	public void rebuild() {
+		warmed = true;
+		if (!rebuildPending.compareAndSet(false, true)) {
+			return;
+		}
+		
+		getExecutor().execute(() -> {
+			rebuildPending.set(false);
+			try {
+				build();
+			}
+			catch (Exception e) {
+				log.error("Could not build the concept coding index", e);
+			}
+		});
+	}
+	
+	/**
+	 * @return the number of concepts in the index
+	 */
+	public int getSize() {
+		return index.size();
+	}
+	
+	/**
+	 * @return the number of lookups answered from the index
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+	
+	/**
+	 * @return the number of lookups for concepts that had to be indexed first
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+	
+	/**
+	 * @return a rough estimate of the memory used by the index, in bytes
+	 */
+	public long getEstimatedMemoryFootprint() {
+		long footprint = 0;
+		for (List<Coding> codings : index.values()) {
+			footprint += ENTRY_OVERHEAD;
+			for (Coding coding : codings) {
+				footprint += CODING_OVERHEAD + 2L * (coding.getCode() == null ? 0 : coding.getCode().length());
+			}
+		}
+		
+		return footprint;
+	}
+	
+	/**
+	 * Works out the codings that a concept's mappings translate to. If a concept has more than one
+	 * mapping to the same system, only its SAME-AS mapping, if any, is used.
+	 *
+	 * @param mappings the mappings of one concept to a system with a known url
+	 * @return the codings for those mappings
+	 */
+	public static List<Coding> toCodings(@Nonnull Collection<MappedCode> mappings) {
+		//map of <systemUrl ,<mapType , code>> ie { "http://loinc.org” : { "SAME-AS" : "108-5", "NARROWER-THAN": "108-8" }}
+		Map<String, Map<String, String>> systemUrlToCodeMap = new HashMap<>();
+		for (MappedCode mapping : mappings) {
+			systemUrlToCodeMap.computeIfAbsent(mapping.system, system -> new HashMap<>())
+			        .put(mapping.sameAs ? SAME_AS : mapping.mapType, mapping.code);
+		}
+		
+		List<Coding> codings = new ArrayList<>(systemUrlToCodeMap.size());
+		systemUrlToCodeMap.forEach((systemUrl, mapTypeToCodeMap) -> {
+			if (mapTypeToCodeMap.size() == 1) {
+				codings.add(new Coding().setSystem(systemUrl).setCode(mapTypeToCodeMap.values().iterator().next()));
+			} else if (mapTypeToCodeMap.containsKey(SAME_AS)) {
+				codings.add(new Coding().setSystem(systemUrl).setCode(mapTypeToCodeMap.get(SAME_AS)));
+			}
+		});
+		
+		return codings;
+	}
+	
+	/**
+	 * @param conceptMapType the type of a concept mapping
+	 * @return true if the mapping type is SAME-AS
+	 */
+	public static boolean isSameAs(@Nonnull ConceptMapType conceptMapType) {
+		return isSameAs(conceptMapType.getUuid(), conceptMapType.getName());
+	}
+	
+	/**
+	 * Gets the url of the system for a concept source, which is the url of its
+	 * {@link FhirConceptSource}, or the SNOMED CT url for the SNOMED CT source
+	 *
+	 * @param hl7Code the HL7 code of the concept source
+	 * @param fhirConceptSourceUrl the url of the FHIR concept source for the concept source, if any
+	 * @return the url of the system, or null if the concept source has none
+	 */
+	public static String getSystemUrl(String hl7Code, String fhirConceptSourceUrl) {
+		if (fhirConceptSourceUrl != null) {
+			return fhirConceptSourceUrl;
+		}
+		
+		return Duration.SNOMED_CT_CONCEPT_SOURCE_HL7_CODE.equals(hl7Code) ? FhirConstants.SNOMED_SYSTEM_URI : null;
+	}
+	
+	/**
+	 * Builds the index for every concept from the {@link ConceptSourceUrlIndex}, using one query for
+	 * all concept mappings and one for the ids of all concepts
+	 */
+	protected void build() {
+		long start = System.currentTimeMillis();
+		long buildGeneration = generation.get();
+		invalidatedDuringBuild.clear();
+		building = true;
+		
+		Map<Integer, List<Coding>> built = new HashMap<>();
+		try (StatelessSession session = sessionFactory.openStatelessSession()) {
+			Map<Integer, String> urlsBySourceId = conceptSourceUrlIndex.getUrlsBySourceId();
+			
+			Map<Integer, List<MappedCode>> mappingsByConcept = new HashMap<>();
+			for (Object[] row : list(session, "select m.concept.conceptId, t.code, s.conceptSourceId, s.hl7Code, "
+			        + "mt.uuid, mt.name from ConceptMap m join m.conceptReferenceTerm t join t.conceptSource s "
+			        + "join m.conceptMapType mt")) {
+				String systemUrl = getSystemUrl((String) row[3], urlsBySourceId.get((Integer) row[2]));
+				if (systemUrl != null) {
+					mappingsByConcept.computeIfAbsent((Integer) row[0], id -> new ArrayList<>()).add(new MappedCode(
+					        systemUrl, isSameAs((String) row[4], (String) row[5]), (String) row[5], (String) row[1]));
+				}
+			}
+			
+			for (Object id : session.createQuery("select c.conceptId from Concept c").list()) {
+				List<MappedCode> mappings = mappingsByConcept.get((Integer) id);
+				built.put((Integer) id, mappings == null ? Collections.emptyList()
+				        : Collections.unmodifiableList(toCodings(mappings)));
+			}
+		}
+		finally {
+			building = false;
+		}
+		
+		synchronized (this) {
+			if (generation.get() != buildGeneration) {
+				// the index was cleared while it was being built; the build that was scheduled then replaces this one
+				return;
+			}
+			
+			built.forEach(index::putIfAbsent);
+			invalidatedDuringBuild.forEach(index::remove);
+			invalidatedDuringBuild.clear();
+		}
+		
+		buildTime = System.currentTimeMillis() - start;
+		log.info("Indexed the codings of {} concepts in {} ms", built.size(), buildTime);
+	}
+	
+	protected synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "fhir2-concept-coding-index");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		
+		return executor;
+	}
+	
+	private void invalidate(Integer id) {
+		if (id == null) {
+			return;
+		}
+		
+		synchronized (this) {
+			invalidations.incrementAndGet();
+			index.remove(id);
+			if (building) {
+				invalidatedDuringBuild.add(id);
+			}
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static List<Object[]> list(StatelessSession session, String hql) {
+		return session.createQuery(hql).list();
+	}
+	
+	static boolean isSameAs(String mapTypeUuid, String mapTypeName) {
+		return ConceptMapType.SAME_AS_MAP_TYPE_UUID.equals(mapTypeUuid) || SAME_AS.equalsIgnoreCase(mapTypeName);
+	}
+	
+	private static Integer getId(Object object) {
+		if (object instanceof HibernateProxy) {
+			// the id of a proxy can be read without loading the object
+			return (Integer) ((HibernateProxy) object).getHibernateLazyInitializer().getIdentifier();
+		} else if (object instanceof OpenmrsObject) {
+			return ((OpenmrsObject) object).getId();
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * A code that a concept is mapped to in a system with a known url
+	 */
+	@AllArgsConstructor
+	public static final class MappedCode {
+		
+		private final String system;
+		
+		private final boolean sameAs;
+		
+		private final String mapType;
+		
+		private final String code;
+	}
+}
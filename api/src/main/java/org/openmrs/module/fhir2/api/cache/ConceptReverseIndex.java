@@ -0,0 +1,492 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.cache;
+
+import javax.annotation.Nonnull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import lombok.AccessLevel;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.proxy.HibernateProxy;
+import org.openmrs.Concept;
+import org.openmrs.ConceptMap;
+import org.openmrs.ConceptReferenceTerm;
+import org.openmrs.ConceptSource;
+import org.openmrs.OpenmrsObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+/**
+ * The reverse of the {@link ConceptCodingIndex}: an index from a code in a concept source to the
+ * concepts mapped to it, and from the uuid of a concept to its id. It is used to resolve codings to
+ * concepts when resources are written and to find the concepts matching a token when searching,
+ * without joining to the concept mappings.
+ * <p/>
+ * Codes are matched ignoring case, as the database does. The index can only answer once it has
+ * been built, which happens in the background when the module starts. When a concept mapping
+ * changes, the codes it affects are looked up in the database again until they have been
+ * refreshed, which is also done in the background. A change to a concept source, reference term,
+ * map type or FHIR concept source rebuilds the whole index.
+ */
+@Slf4j
+@Component
+public class ConceptReverseIndex {
+	
+	private static final String SAME_AS = "SAME-AS";
+	
+	private static final int REFRESH_BATCH_SIZE = 500;
+	
+	private static final String MAPPING_QUERY = "select m.concept.conceptId, t.conceptSource.conceptSourceId, t.code, "
+	        + "mt.uuid, mt.name from ConceptMap m join m.conceptReferenceTerm t join m.conceptMapType mt";
+	
+	private static final String MAPPING_ORDER = " order by m.concept.retired, m.concept.conceptId";
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod = @__({ @Autowired, @Qualifier("sessionFactory") }))
+	private SessionFactory sessionFactory;
+	
+	private final ConcurrentMap<String, Integer> conceptIdsByUuid = new ConcurrentHashMap<>();
+	
+	private final ConcurrentMap<String, Entry> entriesByCode = new ConcurrentHashMap<>();
+	
+	private final ConcurrentMap<Integer, Set<String>> codesByConcept = new ConcurrentHashMap<>();
+	
+	private volatile Map<String, int[]> sourceIdsByUrl = new HashMap<>();
+	
+	private final ConcurrentMap<String, Long> staleCodes = new ConcurrentHashMap<>();
+	
+	private final AtomicLong stamps = new AtomicLong();
+	
+	private final AtomicLong generation = new AtomicLong();
+	
+	private final AtomicBoolean rebuildPending = new AtomicBoolean();
+	
+	private final AtomicBoolean refreshPending = new AtomicBoolean();
+	
+	private volatile boolean complete;
+	
+	private volatile boolean warmed;
+	
+	private ExecutorService executor;
+	
+	/**
+	 * Looks up the concepts mapped to a code in a concept source
+	 *
+	 * @param conceptSource the concept source
+	 * @param code the code
+	 * @return the concepts mapped to the code, or an empty Optional if the index cannot answer, in
+	 *         which case the caller should query the database
+	 */
+	public Optional<Match> lookup(@Nonnull ConceptSource conceptSource, @Nonnull String code) {
+		Integer sourceId = getId(conceptSource);
+		if (!complete || sourceId == null) {
+			return Optional.empty();
+		}
+		
+		String key = toKey(sourceId, code);
+		if (staleCodes.containsKey(key)) {
+			return Optional.empty();
+		}
+		
+		Entry entry = entriesByCode.get(key);
+		return Optional.of(new Match(entry, code));
+	}
+	
+	/**
+	 * Looks up the ids of the concepts mapped to any of the supplied codes in any concept source with
+	 * the supplied url, for searches by token
+	 *
+	 * @param system the url of the concept source
+	 * @param codes the codes
+	 * @return the concept ids, or an empty Optional if the index cannot answer
+	 */
+	public Optional<List<Integer>> getConceptIds(@Nonnull String system, @Nonnull Collection<String> codes) {
+		int[] sourceIds = sourceIdsByUrl.get(system);
+		if (!complete || sourceIds == null) {
+			return Optional.empty();
+		}
+		
+		Set<Integer> conceptIds = new LinkedHashSet<>();
+		for (int sourceId : sourceIds) {
+			for (String code : codes) {
+				String key = toKey(sourceId, code);
+				if (staleCodes.containsKey(key)) {
+					return Optional.empty();
+				}
+				
+				Entry entry = entriesByCode.get(key);
+				if (entry != null) {
+					for (int conceptId : entry.conceptIds) {
+						conceptIds.add(conceptId);
+					}
+				}
+			}
+		}
+		
+		return Optional.of(new ArrayList<>(conceptIds));
+	}
+	
+	/**
+	 * @param uuid the uuid of a concept
+	 * @return the id of the concept, or null if it is not known
+	 */
+	public Integer getConceptId(@Nonnull String uuid) {
+		return conceptIdsByUuid.get(uuid);
+	}
+	
+	/**
+	 * Marks the codes that may be affected by a change to the supplied object as needing to be looked
+	 * up again
+	 *
+	 * @param changed an object that has been created, changed or deleted
+	 */
+	public void invalidate(Object changed) {
+		// until the index has been requested, there is nothing to keep up to date
+		if (!warmed || !ConceptCodingIndex.isIndexed(changed)) {
+			return;
+		}
+		
+		if (changed instanceof Concept) {
+			Concept concept = (Concept) changed;
+			Integer id = getId(concept);
+			if (id != null && !(concept instanceof HibernateProxy) && concept.getUuid() != null) {
+				conceptIdsByUuid.put(concept.getUuid(), id);
+			}
+			
+			// the order of the concepts mapped to a code depends on whether they are retired
+			staleCodesOf(id);
+		} else if (changed instanceof ConceptMap) {
+			ConceptMap conceptMap = (ConceptMap) changed;
+			staleCodesOf(getId(conceptMap.getConcept()));
+			
+			ConceptReferenceTerm term = conceptMap.getConceptReferenceTerm();
+			if (term != null && getId(term.getConceptSource()) != null && term.getCode() != null) {
+				stale(toKey(getId(term.getConceptSource()), term.getCode()));
+			}
+		} else {
+			invalidateAll();
+		}
+		
+		if (complete && !staleCodes.isEmpty()) {
+			refresh();
+		}
+	}
+	
+	/**
+	 * Discards the index, rebuilding it in the background if it has been built before
+	 */
+	public void invalidateAll() {
+		generation.incrementAndGet();
+		complete = false;
+		
+		if (warmed) {
+			rebuild();
+		}
+	}
+	
+	/**
+	 * Builds the index in the background. If a build is already waiting to run, this does nothing.
+	 */
+	public void rebuild() {
+		warmed = true;
+		if (rebuildPending.compareAndSet(false, true)) {
+			getExecutor().execute(() -> {
+				rebuildPending.set(false);
+				try {
+					build();
+				}
+				catch (Exception e) {
+					log.error("Could not build the concept reverse index", e);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * @return the number of codes in the index
+	 */
+	public int getSize() {
+		return entriesByCode.size();
+	}
+	
+	/**
+	 * @return true if the index has been built and can answer lookups
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+	
+	/**
+	 * Builds the index, using one query for the ids and uuids of all concepts, one for the FHIR concept
+	 * sources and one for all concept mappings
+	 */
+	protected void build() {
+		long start = System.currentTimeMillis();
+		long buildGeneration = generation.get();
+		
+		Map<String, Integer> builtUuids = new HashMap<>();
+		Map<String, int[]> builtSourceIds = new HashMap<>();
+		Map<String, Entry> builtEntries;
+		try (StatelessSession session = sessionFactory.openStatelessSession()) {
+			for (Object[] row : list(session, "select c.conceptId, c.uuid from Concept c")) {
+				builtUuids.put((String) row[1], (Integer) row[0]);
+			}
+			
+			Map<String, List<Integer>> sourceIds = new HashMap<>();
+			for (Object[] row : list(session, "select f.url, f.conceptSource.conceptSourceId from FhirConceptSource f "
+			        + "where f.conceptSource is not null")) {
+				sourceIds.computeIfAbsent((String) row[0], url -> new ArrayList<>()).add((Integer) row[1]);
+			}
+			sourceIds.forEach((url, ids) -> builtSourceIds.put(url, ids.stream().mapToInt(Integer::intValue).toArray()));
+			
+			builtEntries = toEntries(list(session, MAPPING_QUERY + MAPPING_ORDER));
+		}
+		
+		synchronized (this) {
+			if (generation.get() != buildGeneration) {
+				// the index was discarded while it was being built; the build that was scheduled then replaces this one
+				return;
+			}
+			
+			conceptIdsByUuid.clear();
+			conceptIdsByUuid.putAll(builtUuids);
+			sourceIdsByUrl = builtSourceIds;
+			entriesByCode.clear();
+			codesByConcept.clear();
+			builtEntries.forEach(this::putEntry);
+			complete = true;
+		}
+		
+		log.info("Indexed {} concept codes in {} ms", builtEntries.size(), System.currentTimeMillis() - start);
+		if (!staleCodes.isEmpty()) {
+			refresh();
+		}
+	}
+	
+	/**
+	 * Looks up the codes that have been marked as stale in the database again
+	 */
+	protected void refreshStaleCodes() {
+		long refreshGeneration = generation.get();
+		Map<String, Long> stale = new HashMap<>(staleCodes);
+		Set<String> codes = stale.keySet().stream().map(key -> key.substring(key.indexOf('|') + 1))
+		        .collect(Collectors.toSet());
+		
+		List<Object[]> rows = new ArrayList<>();
+		try (StatelessSession session = sessionFactory.openStatelessSession()) {
+			List<String> batch = new ArrayList<>(REFRESH_BATCH_SIZE);
+			for (String code : codes) {
+				batch.add(code);
+				if (batch.size() == REFRESH_BATCH_SIZE) {
+					rows.addAll(listMappings(session, batch));
+					batch.clear();
+				}
+			}
+			
+			if (!batch.isEmpty()) {
+				rows.addAll(listMappings(session, batch));
+			}
+		}
+		
+		Map<String, Entry> refreshed = toEntries(rows);
+		synchronized (this) {
+			if (generation.get() != refreshGeneration) {
+				return;
+			}
+			
+			stale.forEach((key, stamp) -> {
+				entriesByCode.remove(key);
+				Entry entry = refreshed.get(key);
+				if (entry != null) {
+					putEntry(key, entry);
+				}
+				
+				staleCodes.remove(key, stamp);
+			});
+		}
+	}
+	
+	protected synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "fhir2-concept-reverse-index");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		
+		return executor;
+	}
+	
+	private void refresh() {
+		if (refreshPending.compareAndSet(false, true)) {
+			getExecutor().execute(() -> {
+				refreshPending.set(false);
+				try {
+					refreshStaleCodes();
+				}
+				catch (Exception e) {
+					log.error("Could not refresh the concept reverse index", e);
+				}
+			});
+		}
+	}
+	
+	private void staleCodesOf(Integer conceptId) {
+		// a new concept is not given an id until it is inserted, and until then no code is mapped to it
+		if (conceptId == null) {
+			return;
+		}
+		
+		Set<String> codes = codesByConcept.get(conceptId);
+		if (codes != null) {
+			codes.forEach(this::stale);
+		}
+	}
+	
+	private void stale(String key) {
+		staleCodes.put(key, stamps.incrementAndGet());
+	}
+	
+	private void putEntry(String key, Entry entry) {
+		entriesByCode.put(key, entry);
+		for (int conceptId : entry.conceptIds) {
+			codesByConcept.computeIfAbsent(conceptId, id -> ConcurrentHashMap.newKeySet()).add(key);
+		}
+	}
+	
+	private static Map<String, Entry> toEntries(List<Object[]> rows) {
+		Map<String, List<Object[]>> rowsByKey = new HashMap<>();
+		for (Object[] row : rows) {
+			rowsByKey.computeIfAbsent(toKey((Integer) row[1], (String) row[2]), key -> new ArrayList<>()).add(row);
+		}
+		
+		Map<String, Entry> entries = new HashMap<>(rowsByKey.size());
+		rowsByKey.forEach((key, keyRows) -> {
+			int[] conceptIds = new int[keyRows.size()];
+			String[] codes = new String[keyRows.size()];
+			String[] mapTypes = new String[keyRows.size()];
+			for (int i = 0; i < keyRows.size(); i++) {
+				Object[] row = keyRows.get(i);
+				conceptIds[i] = (Integer) row[0];
+				codes[i] = (String) row[2];
+				mapTypes[i] = ConceptCodingIndex.isSameAs((String) row[3], (String) row[4]) ? SAME_AS : (String) row[4];
+			}
+			
+			entries.put(key, new Entry(conceptIds, codes, mapTypes));
+		});
+		
+		return entries;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static List<Object[]> listMappings(StatelessSession session, Collection<String> codes) {
+		return session.createQuery(MAPPING_QUERY + " where lower(t.code) in (:codes)" + MAPPING_ORDER)
+		        .setParameterList("codes", codes).list();
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static List<Object[]> list(StatelessSession session, String hql) {
+		return session.createQuery(hql).list();
+	}
+	
+	private static String toKey(Integer sourceId, String code) {
+		return sourceId + "|" + code.toLowerCase(Locale.ROOT);
+	}
+	
+	private static Integer getId(Object object) {
+		if (object instanceof HibernateProxy) {
+			// the id of a proxy can be read without loading the object
+			return (Integer) ((HibernateProxy) object).getHibernateLazyInitializer().getIdentifier();
+		} else if (object instanceof OpenmrsObject) {
+			return ((OpenmrsObject) object).getId();
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * The mappings to one code in one concept source, ordered so that the mappings of retired concepts
+	 * come last
+	 */
+	private static final class Entry {
+		
+		private final int[] conceptIds;
+		
+		private final String[] codes;
+		
+		private final String[] mapTypes;
+		
+		private Entry(int[] conceptIds, String[] codes, String[] mapTypes) {
+			this.conceptIds = conceptIds;
+			this.codes = codes;
+			this.mapTypes = mapTypes;
+		}
+	}
+	
+	/**
+	 * The concepts mapped to a code
+	 */
+	public static final class Match {
+		
+		private final Entry entry;
+		
+		private final String code;
+		
+		private Match(Entry entry, String code) {
+			this.entry = entry;
+			this.code = code;
+		}
+		
+		/**
+		 * Chooses the concept a coding refers to. If the concepts are mapped to the code with more than one
+		 * map type, only a concept with a SAME-AS mapping is chosen.
+		 *
+		 * @return the id of the chosen concept, or null if there is none
+		 */
+		public Integer getPreferredConceptId() {
+			if (entry == null) {
+				return null;
+			}
+			
+			Map<String, Integer> mapTypeToConceptId = new HashMap<>();
+			for (int i = 0; i < entry.conceptIds.length; i++) {
+				if (entry.codes[i].equals(code)) {
+					mapTypeToConceptId.put(entry.mapTypes[i], entry.conceptIds[i]);
+				}
+			}
+			
+			if (mapTypeToConceptId.size() == 1) {
+				return mapTypeToConceptId.values().iterator().next();
+			}
+			
+			return mapTypeToConceptId.get(SAME_AS);
+		}
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.cache;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import lombok.AccessLevel;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.openmrs.ConceptSource;
+import org.openmrs.module.fhir2.api.dao.FhirConceptSourceDao;
+import org.openmrs.module.fhir2.model.FhirConceptSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+/**
+ * An immutable snapshot of the FHIR system url for each concept source that has a
+ * {@link FhirConceptSource}, so that translating a concept mapping to a coding does not need to
+ * look through every FHIR concept source. Concept sources without a FHIR concept source fall back
+ * to the SNOMED CT url when their HL7 code identifies them as SNOMED CT.
+ * <p/>
+ * The snapshot is a {@link ReloadableSnapshot} that is built when the module starts and replaced once
+ * {@link org.openmrs.module.fhir2.api.dao.impl.ConceptIndexInterceptor} reports a change to a
+ * concept source or a FHIR concept source. Until the module has started, each lookup is made against
+ * the database.
+ */
+@Slf4j
+@Component
+public class ConceptSourceUrlIndex {
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod = @__({ @Autowired, @Qualifier("sessionFactory") }))
+	private SessionFactory sessionFactory;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirConceptSourceDao fhirConceptSourceDao;
+	
+	private final ReloadableSnapshot<Map<Integer, String>> urlsBySourceId = new ReloadableSnapshot<>(this::build);
+	
+	/**
+	 * Returns the FHIR system url for a concept source
+	 *
+	 * @param conceptSource the concept source to look up
+	 * @return the url of the system, or null if the concept source has none
+	 */
+	public String getUrl(ConceptSource conceptSource) {
+		if (conceptSource == null) {
+			return null;
+		}
+		
+		String url;
+		if (!urlsBySourceId.isStarted()) {
+			url = fhirConceptSourceDao.getFhirConceptSourceByConceptSource(conceptSource).map(FhirConceptSource::getUrl)
+			        .orElse(null);
+		} else {
+			url = conceptSource.getConceptSourceId() == null ? null
+			        : getUrlsBySourceId().get(conceptSource.getConceptSourceId());
+		}
+		
+		return ConceptCodingIndex.getSystemUrl(conceptSource.getHl7Code(), url);
+	}
+	
+	/**
+	 * Discards the snapshot if the object is a concept source or a FHIR concept source
+	 *
+	 * @param object the object that changed
+	 */
+	public void invalidate(Object object) {
+		if (object instanceof ConceptSource || object instanceof FhirConceptSource) {
+			invalidateAll();
+		}
+	}
+	
+	/**
+	 * Discards the snapshot, so the next lookup builds a new one
+	 */
+	public void invalidateAll() {
+		urlsBySourceId.invalidate();
+	}
+	
+	/**
+	 * Builds a new snapshot and uses it for every following lookup
+	 */
+	public void rebuild() {
+		urlsBySourceId.start();
+	}
+	
+	/**
+	 * @return the urls of all concept sources that have a FHIR concept source, keyed by the id of the
+	 *         concept source
+	 */
+	public Map<Integer, String> getUrlsBySourceId() {
+		return urlsBySourceId.get();
+	}
+	
+	protected Map<Integer, String> build() {
+		Map<Integer, String> built = new HashMap<>();
+		try (StatelessSession session = sessionFactory.openStatelessSession()) {
+			for (Object row : session.createQuery("select f.conceptSource.conceptSourceId, f.url from FhirConceptSource f "
+			        + "where f.conceptSource is not null order by f.id").list()) {
+				Object[] columns = (Object[]) row;
+				built.putIfAbsent((Integer) columns[0], (String) columns[1]);
+			}
+		}
+		
+		log.debug("Built the url index for {} concept sources", built.size());
+		return Collections.unmodifiableMap(built);
+	}
+}
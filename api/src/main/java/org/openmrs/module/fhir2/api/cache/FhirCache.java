@@ -0,0 +1,132 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.springframework.cache.support.NullValue;
+import org.springframework.cache.support.SimpleValueWrapper;
+
+/**
+ * Adapts a bounded, instrumented Guava cache to Spring's {@link org.springframework.cache.Cache}, so
+ * that it can back the {@code @Cacheable} methods of the module. Null values are cached as
+ * {@link NullValue#INSTANCE}, as Guava does not allow null values.
+ * <p/>
+ * Values loaded through {@link #get(Object, Callable)}, i.e. by {@code @Cacheable(sync = true)}
+ * methods, are loaded at most once per key and the time taken to load them is recorded in the
+ * {@link #getStats() statistics}.
+ */
+public class FhirCache implements org.springframework.cache.Cache {
+	
+	private final String name;
+	
+	private final Cache<Object, Object> cache;
+	
+	public FhirCache(String name, Cache<Object, Object> cache) {
+		this.name = name;
+		this.cache = cache;
+	}
+	
+	@Override
+	public String getName() {
+		return name;
+	}
+	
+	@Override
+	public Cache<Object, Object> getNativeCache() {
+		return cache;
+	}
+	
+	@Override
+	public ValueWrapper get(Object key) {
+		Object value = cache.getIfPresent(key);
+		return value == null ? null : new SimpleValueWrapper(fromStoreValue(value));
+	}
+	
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> T get(Object key, Class<T> type) {
+		Object value = fromStoreValue(cache.getIfPresent(key));
+		if (value != null && type != null && !type.isInstance(value)) {
+			throw new IllegalStateException(
+			        "Cached value is not of required type [" + type.getName() + "]: " + value);
+		}
+		
+		return (T) value;
+	}
+	
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> T get(Object key, Callable<T> valueLoader) {
+		try {
+			return (T) fromStoreValue(cache.get(key, () -> toStoreValue(valueLoader.call())));
+		}
+		catch (ExecutionException | UncheckedExecutionException e) {
+			throw new ValueRetrievalException(key, valueLoader, e.getCause());
+		}
+	}
+	
+	@Override
+	public void put(Object key, Object value) {
+		cache.put(key, toStoreValue(value));
+	}
+	
+	@Override
+	public ValueWrapper putIfAbsent(Object key, Object value) {
+		Object existing = cache.asMap().putIfAbsent(key, toStoreValue(value));
+		return existing == null ? null : new SimpleValueWrapper(fromStoreValue(existing));
+	}
+	
+	@Override
+	public void evict(Object key) {
+		cache.invalidate(key);
+	}
+	
+	@Override
+	public void clear() {
+		cache.invalidateAll();
+	}
+	
+	/**
+	 * Determines whether a value is cached for a key, without the lookup counting as a hit or a miss
+	 *
+	 * @param key the key
+	 * @return true if a value, including null, is cached for the key
+	 */
+	public boolean contains(Object key) {
+		return cache.asMap().containsKey(key);
+	}
+	
+	/**
+	 * @return the hit, miss, eviction and load time statistics of this cache
+	 */
+	public CacheStats getStats() {
+		return cache.stats();
+	}
+	
+	/**
+	 * @return the approximate number of entries in this cache
+	 */
+	public long getSize() {
+		return cache.size();
+	}
+	
+	private static Object toStoreValue(Object value) {
+		return value == null ? NullValue.INSTANCE : value;
+	}
+	
+	private static Object fromStoreValue(Object value) {
+		return value == NullValue.INSTANCE ? null : value;
+	}
+}
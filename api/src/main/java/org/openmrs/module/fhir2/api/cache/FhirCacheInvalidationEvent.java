@@ -0,0 +1,36 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.cache;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published when an object that the {@code @Cacheable} caches of the {@link FhirCacheManager} may
+ * depend on has been created, changed or deleted. The manager listens for these events and clears the
+ * caches that depend on the type of the changed object.
+ */
+public class FhirCacheInvalidationEvent extends ApplicationEvent {
+	
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * @param changed the object that was created, changed or deleted
+	 */
+	public FhirCacheInvalidationEvent(Object changed) {
+		super(changed);
+	}
+	
+	/**
+	 * @return the object that was created, changed or deleted
+	 */
+	public Object getChanged() {
+		return getSource();
+	}
+}
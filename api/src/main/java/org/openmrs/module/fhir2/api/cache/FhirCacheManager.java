@@ -0,0 +1,216 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.cache;
+
+import static java.util.Arrays.asList;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.openmrs.Concept;
+import org.openmrs.ConceptClass;
+import org.openmrs.ConceptSource;
+import org.openmrs.GlobalProperty;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.module.fhir2.FhirConstants;
+import org.openmrs.module.fhir2.api.FhirGlobalPropertyService;
+import org.openmrs.module.fhir2.model.FhirConceptSource;
+import org.openmrs.module.fhir2.model.FhirObservationCategoryMap;
+import org.openmrs.module.fhir2.model.FhirPatientIdentifierSystem;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * The {@link CacheManager} used by every {@code @Cacheable} method of the module.
+ * <p/>
+ * Each cache is bounded either by its number of entries or, if a maximum weight is configured, by
+ * the total weight of its entries, where collections and maps weigh one per element. The bounds and
+ * the time entries expire after being written can be tuned for each cache using the global
+ * properties {@code fhir2.cache.<cache name>.maximumSize}, {@code .maximumWeight} and
+ * {@code .expireAfterWrite} (in seconds); a cache picks up changed properties the next time it is
+ * used.
+ * <p/>
+ * Every cache records hit, miss, eviction and load time statistics, which are available from
+ * {@link #getStatistics()}. These caches are cleared through a single channel: whenever an object of
+ * one of the types a cache depends on is saved or deleted, a {@link FhirCacheInvalidationEvent} is
+ * published and the dependent caches are cleared.
+ * <p/>
+ * Only the {@code @Cacheable} caches are managed here. The module's other caches and indexes, such
+ * as {@link FhirResourceCache}, {@link FhirNarrativeCache} and the concept indexes, keep their own
+ * sizing and are invalidated by their own interceptors, and their statistics are not reported by
+ * {@link org.openmrs.module.fhir2.api.util.FhirStatisticsReporter}.
+ */
+@Slf4j
+@Component(FhirCacheManager.NAME)
+public class FhirCacheManager implements CacheManager, ApplicationListener<FhirCacheInvalidationEvent> {
+	
+	public static final String NAME = "fhir2CacheManager";
+	
+	public static final String MAXIMUM_SIZE = ".maximumSize";
+	
+	public static final String MAXIMUM_WEIGHT = ".maximumWeight";
+	
+	public static final String EXPIRE_AFTER_WRITE = ".expireAfterWrite";
+	
+	private static final int DEFAULT_MAXIMUM_SIZE = 500;
+	
+	// caches are cleared whenever an object they depend on changes, so entries only expire to free memory
+	private static final int DEFAULT_EXPIRE_AFTER_WRITE = 3600;
+	
+	private static final Map<String, List<Class<?>>> DEPENDENCIES = new TreeMap<>();
+	
+	static {
+		DEPENDENCIES.put("fhir2ObservationCategoryToCodeableConcept",
+		    asList(Concept.class, ConceptClass.class, FhirObservationCategoryMap.class));
+		DEPENDENCIES.put("fhir2GetFhirConceptSources", asList(ConceptSource.class, FhirConceptSource.class));
+		DEPENDENCIES.put("fhir2GetFhirUrlForIdentifier",
+		    asList(PatientIdentifierType.class, FhirPatientIdentifierSystem.class));
+		DEPENDENCIES.put("fhir2GetFhirPatientIdentifierSystem",
+		    asList(PatientIdentifierType.class, FhirPatientIdentifierSystem.class));
+	}
+	
+	private final ConcurrentMap<String, FhirCache> caches = new ConcurrentHashMap<>();
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirGlobalPropertyService globalPropertyService;
+	
+	/**
+	 * Determines whether changes to the supplied object have to be published as a
+	 * {@link FhirCacheInvalidationEvent}
+	 *
+	 * @param changed an object that has been created, changed or deleted
+	 * @return true if any cache depends on the object or the object is a cache setting
+	 */
+	public static boolean isObserved(Object changed) {
+		if (changed instanceof GlobalProperty) {
+			return getCacheNameForSetting((GlobalProperty) changed).isPresent();
+		}
+		
+		return changed != null && DEPENDENCIES.values().stream().flatMap(Collection::stream)
+		        .anyMatch(type -> type.isInstance(changed));
+	}
+	
+	@Override
+	public FhirCache getCache(String name) {
+		return caches.computeIfAbsent(name, this::createCache);
+	}
+	
+	@Override
+	public Collection<String> getCacheNames() {
+		return Collections.unmodifiableSet(caches.keySet());
+	}
+	
+	@Override
+	public void onApplicationEvent(FhirCacheInvalidationEvent event) {
+		Object changed = event.getChanged();
+		if (changed instanceof GlobalProperty) {
+			// the cache is created again with the new settings the next time it is used
+			getCacheNameForSetting((GlobalProperty) changed).ifPresent(caches::remove);
+			return;
+		}
+		
+		DEPENDENCIES.forEach((name, types) -> {
+			FhirCache cache = caches.get(name);
+			if (cache != null && types.stream().anyMatch(type -> type.isInstance(changed))) {
+				log.debug("Clearing cache {} after a change to {}", name, changed);
+				cache.clear();
+			}
+		});
+	}
+	
+	/**
+	 * @return the hit, miss, eviction and load time statistics of each cache, keyed by cache name
+	 */
+	public Map<String, CacheStats> getStatistics() {
+		return caches.values().stream()
+		        .collect(Collectors.toMap(FhirCache::getName, FhirCache::getStats, (a, b) -> a, TreeMap::new));
+	}
+	
+	/**
+	 * Clears every cache
+	 */
+	public void clearAll() {
+		caches.values().forEach(FhirCache::clear);
+	}
+	
+	protected FhirCache createCache(String name) {
+		String prefix = FhirConstants.OPENMRS_FHIR_CACHE_PREFIX + name;
+		CacheSettings settings = new CacheSettings(
+		        globalPropertyService.getGlobalPropertyAsInteger(prefix + MAXIMUM_SIZE, DEFAULT_MAXIMUM_SIZE),
+		        globalPropertyService.getGlobalPropertyAsInteger(prefix + MAXIMUM_WEIGHT, -1),
+		        globalPropertyService.getGlobalPropertyAsInteger(prefix + EXPIRE_AFTER_WRITE, DEFAULT_EXPIRE_AFTER_WRITE));
+		log.debug("Creating cache {} with {}", name, settings);
+		
+		CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().recordStats();
+		if (settings.maximumWeight >= 0) {
+			builder.maximumWeight(settings.maximumWeight).weigher((key, value) -> weigh(value));
+		} else if (settings.maximumSize >= 0) {
+			builder.maximumSize(settings.maximumSize);
+		}
+		
+		if (settings.expireAfterWrite > 0) {
+			builder.expireAfterWrite(settings.expireAfterWrite, TimeUnit.SECONDS);
+		}
+		
+		return new FhirCache(name, builder.build());
+	}
+	
+	private static int weigh(Object value) {
+		if (value instanceof Collection) {
+			return Math.max(((Collection<?>) value).size(), 1);
+		} else if (value instanceof Map) {
+			return Math.max(((Map<?, ?>) value).size(), 1);
+		}
+		
+		return 1;
+	}
+	
+	private static Optional<String> getCacheNameForSetting(GlobalProperty globalProperty) {
+		String property = globalProperty.getProperty();
+		if (property == null || !property.startsWith(FhirConstants.OPENMRS_FHIR_CACHE_PREFIX)) {
+			return Optional.empty();
+		}
+		
+		int settingStart = property.lastIndexOf('.');
+		if (settingStart <= FhirConstants.OPENMRS_FHIR_CACHE_PREFIX.length()) {
+			return Optional.empty();
+		}
+		
+		return Optional.of(property.substring(FhirConstants.OPENMRS_FHIR_CACHE_PREFIX.length(), settingStart));
+	}
+	
+	@ToString
+	@AllArgsConstructor
+	private static class CacheSettings {
+		
+		private final int maximumSize;
+		
+		private final int maximumWeight;
+		
+		private final int expireAfterWrite;
+	}
+}
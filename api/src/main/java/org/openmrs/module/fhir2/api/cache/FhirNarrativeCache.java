@@ -0,0 +1,234 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.cache;
+
+import javax.annotation.Nonnull;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import org.hibernate.proxy.HibernateProxy;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.openmrs.Concept;
+import org.openmrs.ConceptClass;
+import org.openmrs.ConceptMap;
+import org.openmrs.ConceptName;
+import org.openmrs.ConceptReferenceTerm;
+import org.openmrs.ConceptSource;
+import org.openmrs.GlobalProperty;
+import org.openmrs.Obs;
+import org.openmrs.OpenmrsObject;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.PersonAddress;
+import org.openmrs.PersonAttribute;
+import org.openmrs.PersonAttributeType;
+import org.openmrs.PersonName;
+import org.openmrs.module.fhir2.FhirConstants;
+import org.springframework.stereotype.Component;
+
+/**
+ * Holds the narratives most recently rendered for FHIR resources, keyed by the resource type, id,
+ * version and locale.
+ * <p/>
+ * The version of a resource only reflects its root OpenMRS object, so
+ * {@link org.openmrs.module.fhir2.api.dao.impl.FhirResourceCacheInterceptor} also removes the
+ * narratives of an object whenever the object or one of its dependent rows is saved. As a reference
+ * is displayed by the name of the object it refers to, the narratives that refer to the object are
+ * removed as well; a change to a person's names also removes every narrative that refers to a
+ * practitioner, as practitioners are displayed by the names of their people. Every narrative is
+ * removed when metadata that is displayed by name, such as a concept, changes. A narrative rendered
+ * while narratives were being removed is not stored.
+ */
+@Component
+public class FhirNarrativeCache {
+	
+	private static final int MAXIMUM_SIZE = 5000;
+	
+	// metadata whose names or codes are shown in the narratives of any resource
+	private static final List<Class<?>> DISPLAYED_METADATA = Arrays.asList(Concept.class, ConceptName.class,
+	    ConceptMap.class, ConceptReferenceTerm.class, ConceptClass.class, ConceptSource.class, GlobalProperty.class,
+	    PersonAttributeType.class, PatientIdentifierType.class);
+	
+	// indexes the narratives that refer to any practitioner, which is never the id of an object
+	private static final String PRACTITIONER_REFERENCES = FhirConstants.PRACTITIONER;
+	
+	// the keys of the narratives of each object and of the narratives that refer to it
+	private final ConcurrentMap<String, Set<Key>> keysByObject = new ConcurrentHashMap<>();
+	
+	private final Cache<Key, Entry> cache = CacheBuilder.newBuilder().maximumSize(MAXIMUM_SIZE)
+	        .removalListener(this::removed).build();
+	
+	// incremented whenever narratives are removed, so that narratives rendered in the meantime are not stored
+	private final AtomicLong generation = new AtomicLong();
+	
+	/**
+	 * @return the cached narrative of a version of a resource, or {@code null} if there is none
+	 */
+	public String get(@Nonnull String resourceType, @Nonnull String id, @Nonnull String versionId,
+	        @Nonnull Locale locale) {
+		Entry entry = cache.getIfPresent(new Key(resourceType, id, versionId, locale));
+		return entry == null ? null : entry.narrative;
+	}
+	
+	/**
+	 * Stores the narrative of a version of a resource, unless narratives have been removed since
+	 * the narrative started being rendered
+	 *
+	 * @param references the references the resource contains, whose display the narrative may show
+	 * @param renderedGeneration the value of {@link #getGeneration()} before the narrative was rendered
+	 */
+	public void put(@Nonnull String resourceType, @Nonnull String id, @Nonnull String versionId, @Nonnull Locale locale,
+	        @Nonnull String narrative, @Nonnull Collection<? extends IIdType> references, long renderedGeneration) {
+		Key key = new Key(resourceType, id, versionId, locale);
+		Set<String> objects = new HashSet<>();
+		objects.add(id);
+		for (IIdType reference : references) {
+			if (reference.hasIdPart()) {
+				objects.add(reference.getIdPart());
+			}
+			
+			if (FhirConstants.PRACTITIONER.equals(reference.getResourceType())) {
+				objects.add(PRACTITIONER_REFERENCES);
+			}
+		}
+		
+		synchronized (generation) {
+			if (generation.get() == renderedGeneration) {
+				for (String object : objects) {
+					keysByObject.computeIfAbsent(object, o -> ConcurrentHashMap.newKeySet()).add(key);
+				}
+				cache.put(key, new Entry(narrative, objects));
+			}
+		}
+	}
+	
+	/**
+	 * @return a value that changes whenever narratives are removed
+	 */
+	public long getGeneration() {
+		return generation.get();
+	}
+	
+	/**
+	 * Removes the narratives that may be affected by a change to the supplied object
+	 *
+	 * @param changed an object that has been created, changed or deleted
+	 */
+	public void invalidate(Object changed) {
+		if (DISPLAYED_METADATA.stream().anyMatch(type -> type.isInstance(changed))) {
+			invalidateAll();
+			return;
+		}
+		
+		Object owner = null;
+		boolean displayedByPractitioners = false;
+		if (changed instanceof PersonName) {
+			owner = ((PersonName) changed).getPerson();
+			displayedByPractitioners = true;
+		} else if (changed instanceof PatientIdentifier) {
+			owner = ((PatientIdentifier) changed).getPatient();
+		} else if (changed instanceof PersonAddress) {
+			owner = ((PersonAddress) changed).getPerson();
+		} else if (changed instanceof PersonAttribute) {
+			owner = ((PersonAttribute) changed).getPerson();
+		} else if (changed instanceof Obs) {
+			owner = ((Obs) changed).getObsGroup();
+		}
+		
+		// the uuid of a proxy cannot be read without loading the object, which cannot be done while flushing
+		if (owner instanceof HibernateProxy && ((HibernateProxy) owner).getHibernateLazyInitializer().isUninitialized()) {
+			invalidateAll();
+			return;
+		}
+		
+		Set<String> objects = new HashSet<>();
+		addUuid(objects, changed);
+		addUuid(objects, owner);
+		if (displayedByPractitioners) {
+			objects.add(PRACTITIONER_REFERENCES);
+		}
+		
+		if (!objects.isEmpty()) {
+			synchronized (generation) {
+				generation.incrementAndGet();
+				for (String object : objects) {
+					Set<Key> keys = keysByObject.remove(object);
+					if (keys != null) {
+						cache.invalidateAll(keys);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Removes every narrative
+	 */
+	public void invalidateAll() {
+		synchronized (generation) {
+			generation.incrementAndGet();
+			cache.invalidateAll();
+		}
+	}
+	
+	private void removed(RemovalNotification<Key, Entry> notification) {
+		Entry entry = notification.getValue();
+		// a replaced narrative is still in the cache under the same key
+		if (entry != null && notification.getCause() != RemovalCause.REPLACED) {
+			for (String object : entry.objects) {
+				keysByObject.computeIfPresent(object, (o, keys) -> {
+					keys.remove(notification.getKey());
+					return keys.isEmpty() ? null : keys;
+				});
+			}
+		}
+	}
+	
+	private static void addUuid(Set<String> objects, Object object) {
+		if (object instanceof OpenmrsObject && ((OpenmrsObject) object).getUuid() != null) {
+			objects.add(((OpenmrsObject) object).getUuid());
+		}
+	}
+	
+	@EqualsAndHashCode
+	@AllArgsConstructor
+	private static final class Key {
+		
+		private final String resourceType;
+		
+		private final String id;
+		
+		private final String versionId;
+		
+		private final Locale locale;
+	}
+	
+	@AllArgsConstructor
+	private static final class Entry {
+		
+		private final String narrative;
+		
+		private final Set<String> objects;
+	}
+}
@@ -0,0 +1,377 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.cache;
+
+import javax.annotation.Nonnull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import org.hibernate.proxy.HibernateProxy;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Resource;
+import org.openmrs.Auditable;
+import org.openmrs.Concept;
+import org.openmrs.ConceptClass;
+import org.openmrs.ConceptMap;
+import org.openmrs.ConceptName;
+import org.openmrs.ConceptReferenceTerm;
+import org.openmrs.ConceptSource;
+import org.openmrs.GlobalProperty;
+import org.openmrs.Location;
+import org.openmrs.Obs;
+import org.openmrs.OpenmrsObject;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.PatientIdentifierType;
+import org.openmrs.Person;
+import org.openmrs.PersonAddress;
+import org.openmrs.PersonAttribute;
+import org.openmrs.PersonAttributeType;
+import org.openmrs.PersonName;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.fhir2.api.translators.OpenmrsFhirTranslator;
+import org.openmrs.module.fhir2.api.translators.impl.FhirTranslatorUtils;
+import org.openmrs.module.fhir2.model.FhirConceptSource;
+import org.openmrs.module.fhir2.model.FhirContactPointMap;
+import org.openmrs.module.fhir2.model.FhirObservationCategoryMap;
+import org.openmrs.module.fhir2.model.FhirPatientIdentifierSystem;
+import org.springframework.stereotype.Component;
+
+/**
+ * Holds the FHIR resources most recently translated from people (i.e. Patients and Persons) and
+ * observations, so that reading an unchanged object again does not need its associated rows to be
+ * loaded and translated again.
+ * <p/>
+ * Entries are keyed by the translator, the id of the OpenMRS object and the locale of the request, and
+ * record the last time the object was updated; an entry is only used while the object still has the
+ * same last updated time. As changes to the rows an object depends on, such as a person's names, do
+ * not change that time, {@link org.openmrs.module.fhir2.api.dao.impl.FhirResourceCacheInterceptor}
+ * also removes entries whenever an object or one of its dependent rows is saved, including the
+ * observations of a person whose names or identifiers change, as observations refer to their
+ * subject by them, and removes every entry when metadata that is used in translation changes. A
+ * resource translated while entries were being removed is not stored, as it may have been translated
+ * from the rows as they were before the change.
+ * <p/>
+ * The cached resources are copies, so callers are free to modify the resources they are given.
+ */
+@Component
+public class FhirResourceCache {
+	
+	private static final int MAXIMUM_SIZE = 10000;
+	
+	private static final List<Class<?>> SHARED_METADATA = Arrays.asList(Concept.class, ConceptName.class,
+	    ConceptMap.class, ConceptReferenceTerm.class, ConceptClass.class, ConceptSource.class, GlobalProperty.class,
+	    Location.class, PersonAttributeType.class, PatientIdentifierType.class, FhirConceptSource.class,
+	    FhirContactPointMap.class, FhirObservationCategoryMap.class, FhirPatientIdentifierSystem.class);
+	
+	private final ConcurrentMap<Class<?>, Set<Class<?>>> translatorsByFamily = new ConcurrentHashMap<>();
+	
+	private final Set<Locale> locales = ConcurrentHashMap.newKeySet();
+	
+	// the keys of the entries that refer to each person, other than the person's own entries
+	private final ConcurrentMap<Integer, Set<Key>> keysBySubject = new ConcurrentHashMap<>();
+	
+	private final Cache<Key, Entry> cache = CacheBuilder.newBuilder().maximumSize(MAXIMUM_SIZE)
+	        .removalListener(this::removed).build();
+	
+	// incremented whenever entries are removed, so that resources translated in the meantime are not stored
+	private final AtomicLong generation = new AtomicLong();
+	
+	private final LongAdder hits = new LongAdder();
+	
+	private final LongAdder misses = new LongAdder();
+	
+	/**
+	 * Translates an object, using the cached resource if the object has not changed since it was
+	 * cached
+	 *
+	 * @param translator the translator for the object
+	 * @param object the object to translate
+	 * @return the translated resource
+	 */
+	public <U extends OpenmrsObject & Auditable, T extends IBaseResource> T get(
+	        @Nonnull OpenmrsFhirTranslator<U, T> translator, @Nonnull U object) {
+		Key key = getKey(translator, object);
+		if (key == null) {
+			return translator.toFhirResource(object);
+		}
+		
+		Long version = getVersion(object);
+		T resource = lookup(key, version);
+		if (resource == null) {
+			long translatedGeneration = generation.get();
+			resource = translator.toFhirResource(object);
+			store(translator, key, version, getSubjectId(object), resource, translatedGeneration);
+		}
+		
+		return resource;
+	}
+	
+	/**
+	 * Translates a page of objects, only translating those objects for which there is no usable
+	 * cached resource. Like {@link OpenmrsFhirTranslator#toFhirResources(Collection)}, duplicate
+	 * objects are only returned once.
+	 *
+	 * @param translator the translator for the objects
+	 * @param objects the objects to translate
+	 * @return the translated resources, in the same order as the objects
+	 */
+	public <U extends OpenmrsObject & Auditable, T extends IBaseResource> List<T> getAll(
+	        @Nonnull OpenmrsFhirTranslator<U, T> translator, @Nonnull Collection<U> objects) {
+		Map<U, T> resources = new LinkedHashMap<>(objects.size());
+		List<U> untranslated = new ArrayList<>();
+		for (U object : objects) {
+			if (resources.containsKey(object)) {
+				continue;
+			}
+			
+			Key key = getKey(translator, object);
+			T resource = key == null ? null : lookup(key, getVersion(object));
+			resources.put(object, resource);
+			if (resource == null) {
+				untranslated.add(object);
+			}
+		}
+		
+		if (!untranslated.isEmpty()) {
+			long translatedGeneration = generation.get();
+			List<T> translated = translator.toFhirResources(untranslated);
+			for (int i = 0; i < untranslated.size(); i++) {
+				U object = untranslated.get(i);
+				T resource = translated.get(i);
+				resources.put(object, resource);
+				
+				Key key = getKey(translator, object);
+				if (key != null) {
+					store(translator, key, getVersion(object), getSubjectId(object), resource, translatedGeneration);
+				}
+			}
+		}
+		
+		return new ArrayList<>(resources.values());
+	}
+	
+	/**
+	 * Removes the entries that may be affected by a change to the supplied object
+	 *
+	 * @param changed an object that has been created, changed or deleted
+	 */
+	public void invalidate(Object changed) {
+		if (changed instanceof Person) {
+			invalidate(Person.class, getId(changed));
+		} else if (changed instanceof PersonName) {
+			// observations refer to their subject by name
+			invalidateSubject(getId(((PersonName) changed).getPerson()));
+		} else if (changed instanceof PersonAddress) {
+			invalidate(Person.class, getId(((PersonAddress) changed).getPerson()));
+		} else if (changed instanceof PersonAttribute) {
+			invalidate(Person.class, getId(((PersonAttribute) changed).getPerson()));
+		} else if (changed instanceof PatientIdentifier) {
+			// observations refer to their subject by identifier
+			invalidateSubject(getId(((PatientIdentifier) changed).getPatient()));
+		} else if (changed instanceof Obs) {
+			invalidate(Obs.class, getId(changed));
+			invalidate(Obs.class, getId(((Obs) changed).getObsGroup()));
+		} else if (changed != null && SHARED_METADATA.stream().anyMatch(type -> type.isInstance(changed))) {
+			invalidateAll();
+		}
+	}
+	
+	/**
+	 * Removes every entry
+	 */
+	public void invalidateAll() {
+		synchronized (generation) {
+			generation.incrementAndGet();
+			cache.invalidateAll();
+		}
+	}
+	
+	/**
+	 * @return the number of translations that were served from the cache
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+	
+	/**
+	 * @return the number of translations of cacheable objects that had to be performed
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+	
+	/**
+	 * @return the number of resources currently cached
+	 */
+	public long getSize() {
+		return cache.size();
+	}
+	
+	/**
+	 * The locale the resources are being translated for, which affects e.g. the names of concepts
+	 */
+	protected Locale getLocale() {
+		return Context.getLocale();
+	}
+	
+	private void invalidate(Class<?> family, Integer id) {
+		if (id == null) {
+			return;
+		}
+		
+		synchronized (generation) {
+			generation.incrementAndGet();
+			for (Class<?> translatorClass : translatorsByFamily.getOrDefault(family, Collections.emptySet())) {
+				for (Locale locale : locales) {
+					cache.invalidate(new Key(translatorClass, family, id, locale));
+				}
+			}
+		}
+	}
+	
+	private void invalidateSubject(Integer personId) {
+		if (personId == null) {
+			return;
+		}
+		
+		synchronized (generation) {
+			invalidate(Person.class, personId);
+			Set<Key> keys = keysBySubject.remove(personId);
+			if (keys != null) {
+				cache.invalidateAll(keys);
+			}
+		}
+	}
+	
+	private void removed(RemovalNotification<Key, Entry> notification) {
+		Entry entry = notification.getValue();
+		// a replaced entry is still in the cache under the same key
+		if (entry != null && entry.subjectId != null && notification.getCause() != RemovalCause.REPLACED) {
+			keysBySubject.computeIfPresent(entry.subjectId, (subjectId, keys) -> {
+				keys.remove(notification.getKey());
+				return keys.isEmpty() ? null : keys;
+			});
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private <T extends IBaseResource> T lookup(Key key, Long version) {
+		Entry entry = cache.getIfPresent(key);
+		if (entry == null || !Objects.equals(entry.version, version)) {
+			misses.increment();
+			return null;
+		}
+		
+		hits.increment();
+		return (T) entry.resource.copy();
+	}
+	
+	private void store(OpenmrsFhirTranslator<?, ?> translator, Key key, Long version, Integer subjectId,
+	        IBaseResource resource, long translatedGeneration) {
+		if (!(resource instanceof Resource)) {
+			return;
+		}
+		
+		Entry entry = new Entry(version, subjectId, ((Resource) resource).copy());
+		synchronized (generation) {
+			if (generation.get() != translatedGeneration) {
+				return;
+			}
+			
+			translatorsByFamily.computeIfAbsent(key.family, family -> ConcurrentHashMap.newKeySet())
+			        .add(translator.getClass());
+			locales.add(key.locale);
+			if (subjectId != null) {
+				keysBySubject.computeIfAbsent(subjectId, id -> ConcurrentHashMap.newKeySet()).add(key);
+			}
+			cache.put(key, entry);
+		}
+	}
+	
+	private Key getKey(OpenmrsFhirTranslator<?, ?> translator, OpenmrsObject object) {
+		Class<?> family = getFamily(object);
+		Integer id = family == null ? null : object.getId();
+		return id == null ? null : new Key(translator.getClass(), family, id, getLocale());
+	}
+	
+	private static Class<?> getFamily(Object object) {
+		if (object instanceof Person) {
+			return Person.class;
+		} else if (object instanceof Obs) {
+			return Obs.class;
+		}
+		
+		return null;
+	}
+	
+	private static Integer getSubjectId(OpenmrsObject object) {
+		return object instanceof Obs ? getId(((Obs) object).getPerson()) : null;
+	}
+	
+	private static Long getVersion(OpenmrsObject object) {
+		Date lastUpdated = FhirTranslatorUtils.getLastUpdated(object);
+		return lastUpdated == null ? null : lastUpdated.getTime();
+	}
+	
+	private static Integer getId(Object object) {
+		if (object instanceof HibernateProxy) {
+			// the id of a proxy can be read without loading the object
+			return (Integer) ((HibernateProxy) object).getHibernateLazyInitializer().getIdentifier();
+		} else if (object instanceof OpenmrsObject) {
+			return ((OpenmrsObject) object).getId();
+		}
+		
+		return null;
+	}
+	
+	@EqualsAndHashCode
+	@AllArgsConstructor
+	private static final class Key {
+		
+		private final Class<?> translatorClass;
+		
+		private final Class<?> family;
+		
+		private final Integer id;
+		
+		private final Locale locale;
+	}
+	
+	@AllArgsConstructor
+	private static final class Entry {
+		
+		private final Long version;
+		
+		private final Integer subjectId;
+		
+		private final Resource resource;
+	}
+}
@@ -0,0 +1,35 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.cache;
+
+import com.google.common.cache.CacheStats;
+import lombok.extern.slf4j.Slf4j;
+import org.openmrs.module.fhir2.api.util.FhirUtils;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * Clears the localizations cached by {@link FhirUtils#getMetadataTranslation(org.openmrs.OpenmrsMetadata)}
+ * when the application context is refreshed, which is when OpenMRS reloads the message properties of
+ * the core and of every started module.
+ */
+@Slf4j
+@Component
+public class MetadataTranslationCacheInvalidator implements ApplicationListener<ContextRefreshedEvent> {
+	
+	@Override
+	public void onApplicationEvent(ContextRefreshedEvent event) {
+		CacheStats stats = FhirUtils.getMetadataTranslationCacheStats();
+		log.debug("Clearing metadata translation cache; {} hits, {} misses, hit rate {}", stats.hitCount(),
+		    stats.missCount(), stats.hitRate());
+		FhirUtils.clearMetadataTranslationCache();
+	}
+}
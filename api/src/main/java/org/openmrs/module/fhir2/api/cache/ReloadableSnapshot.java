@@ -0,0 +1,101 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.cache;
+
+import java.util.function.Supplier;
+
+/**
+ * Holds an immutable snapshot of a few rows that is loaded on demand and replaced as a whole once it
+ * is discarded, so readers never see a partially loaded snapshot. Until {@link #start()} is called,
+ * {@link #getIfStarted()} returns {@code null} so that callers look each value up in the database.
+ *
+ * @param <T> the type of the snapshot
+ */
+public class ReloadableSnapshot<T> {
+	
+	private final Supplier<T> loader;
+	
+	private volatile T snapshot;
+	
+	private volatile boolean started;
+	
+	private long generation;
+	
+	/**
+	 * @param loader loads a new snapshot, or returns {@code null} if it cannot be loaded, in which case
+	 *            loading is attempted again on the next lookup
+	 */
+	public ReloadableSnapshot(Supplier<T> loader) {
+		this.loader = loader;
+	}
+	
+	/**
+	 * @return the current snapshot, which is loaded if there is none, or {@code null} if
+	 *         {@link #start()} has not been called yet or the snapshot cannot be loaded
+	 */
+	public T getIfStarted() {
+		return started ? get() : null;
+	}
+	
+	/**
+	 * @return the current snapshot, which is loaded if there is none, or {@code null} if the snapshot
+	 *         cannot be loaded
+	 */
+	public T get() {
+		T current = snapshot;
+		if (current != null) {
+			return current;
+		}
+		
+		long loadGeneration;
+		synchronized (this) {
+			if (snapshot != null) {
+				return snapshot;
+			}
+			
+			loadGeneration = generation;
+		}
+		
+		current = loader.get();
+		
+		synchronized (this) {
+			// a snapshot loaded while a change was being made may already be out of date
+			if (current != null && generation == loadGeneration) {
+				snapshot = current;
+			}
+		}
+		
+		return current;
+	}
+	
+	/**
+	 * Loads a new snapshot and uses it for every following lookup
+	 */
+	public void start() {
+		invalidate();
+		get();
+		started = true;
+	}
+	
+	/**
+	 * @return true once {@link #start()} has been called
+	 */
+	public boolean isStarted() {
+		return started;
+	}
+	
+	/**
+	 * Discards the snapshot, so the next lookup loads a new one
+	 */
+	public synchronized void invalidate() {
+		generation++;
+		snapshot = null;
+	}
+}
@@ -37,6 +37,14 @@ public interface FhirAllergyIntoleranceDao extends FhirDao<Allergy> {
 	@Authorized(PrivilegeConstants.GET_ALLERGIES)
 	int getSearchResultsCount(@Nonnull SearchParameterMap theParams);
 	
+	@Override
+	@Authorized(PrivilegeConstants.GET_ALLERGIES)
+	List<Integer> getSearchResultIds(@Nonnull SearchParameterMap theParams);
+	
+	@Override
+	@Authorized(PrivilegeConstants.GET_ALLERGIES)
+	List<Allergy> getSearchResultsByIds(@Nonnull List<Integer> ids);
+	
 	@Override
 	@Authorized({ PrivilegeConstants.ADD_ALLERGIES, PrivilegeConstants.EDIT_ALLERGIES })
 	Allergy createOrUpdate(@Nonnull Allergy newEntry);
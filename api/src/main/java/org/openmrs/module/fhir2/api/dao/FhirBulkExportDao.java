@@ -0,0 +1,45 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.dao;
+
+import javax.annotation.Nonnull;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import org.openmrs.annotation.Authorized;
+import org.openmrs.module.fhir2.model.FhirBulkExportJob;
+import org.openmrs.util.PrivilegeConstants;
+
+public interface FhirBulkExportDao extends FhirDaoAop {
+	
+	Optional<FhirBulkExportJob> getExportJob(@Nonnull String uuid);
+	
+	FhirBulkExportJob saveExportJob(@Nonnull FhirBulkExportJob exportJob);
+	
+	/**
+	 * Retrieves the ids of the patients who are currently members of a cohort
+	 *
+	 * @param cohortUuid the uuid of the cohort
+	 * @return the patient ids, in ascending order, or an empty optional if there is no such cohort
+	 */
+	@Authorized(PrivilegeConstants.GET_PATIENT_COHORTS)
+	Optional<List<Integer>> getCohortMemberIds(@Nonnull String cohortUuid);
+	
+	/**
+	 * Retrieves the uuids of the patients with the given ids that have not been voided
+	 *
+	 * @param patientIds the patient ids
+	 * @return the uuids of those patients
+	 */
+	@Authorized(PrivilegeConstants.GET_PATIENTS)
+	List<String> getPatientUuids(@Nonnull Collection<Integer> patientIds);
+}
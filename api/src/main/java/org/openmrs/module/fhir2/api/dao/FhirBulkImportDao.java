@@ -0,0 +1,47 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.dao;
+
+import javax.annotation.Nonnull;
+
+import java.util.Collection;
+import java.util.Optional;
+
+import org.openmrs.OpenmrsObject;
+import org.openmrs.module.fhir2.model.FhirBulkImportJob;
+
+public interface FhirBulkImportDao extends FhirDaoAop {
+	
+	Optional<FhirBulkImportJob> getImportJob(@Nonnull String uuid);
+	
+	FhirBulkImportJob saveImportJob(@Nonnull FhirBulkImportJob importJob);
+	
+	/**
+	 * Checks that the current user has every privilege needed to both create and update objects of
+	 * the supplied type, as an import may do either
+	 *
+	 * @param type the type of the imported objects
+	 * @throws org.openmrs.api.APIAuthenticationException if the user lacks any of the privileges or
+	 *             the type cannot be imported
+	 */
+	void checkImportPrivileges(@Nonnull Class<? extends OpenmrsObject> type);
+	
+	/**
+	 * Saves a chunk of imported objects together with the position the import has reached, in a
+	 * single transaction and with the statements sent to the database in JDBC batches. The
+	 * {@link #checkImportPrivileges(Class) import privileges} for each object are checked before
+	 * anything is saved.
+	 *
+	 * @param importJob the import, which records how far the import has got
+	 * @param objects the objects to save
+	 * @return the import job
+	 */
+	FhirBulkImportJob saveChunk(@Nonnull FhirBulkImportJob importJob, @Nonnull Collection<? extends OpenmrsObject> objects);
+}
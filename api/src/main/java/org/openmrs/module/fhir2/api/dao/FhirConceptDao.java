@@ -42,6 +42,16 @@ public interface FhirConceptDao extends FhirDao<Concept> {
 	@Authorized(PrivilegeConstants.GET_CONCEPTS)
 	List<Concept> getConceptsWithAnyMappingInSource(ConceptSource conceptSource, String mappingCode);
 	
+	/**
+	 * Retrieves, in a single query, every concept mapped to any of the given codes in a concept source
+	 *
+	 * @param conceptSource the concept source
+	 * @param mappingCodes the codes
+	 * @return the concepts, which may each be mapped to any of the codes
+	 */
+	@Authorized(PrivilegeConstants.GET_CONCEPTS)
+	List<Concept> getConceptsMappedToCodesInSource(ConceptSource conceptSource, Collection<String> mappingCodes);
+	
 	@Override
 	@Authorized(PrivilegeConstants.GET_CONCEPTS)
 	List<Concept> getSearchResults(@Nonnull SearchParameterMap theParams);
@@ -50,6 +60,14 @@ public interface FhirConceptDao extends FhirDao<Concept> {
 	@Authorized(PrivilegeConstants.GET_CONCEPTS)
 	int getSearchResultsCount(@Nonnull SearchParameterMap theParams);
 	
+	@Override
+	@Authorized(PrivilegeConstants.GET_CONCEPTS)
+	List<Integer> getSearchResultIds(@Nonnull SearchParameterMap theParams);
+	
+	@Override
+	@Authorized(PrivilegeConstants.GET_CONCEPTS)
+	List<Concept> getSearchResultsByIds(@Nonnull List<Integer> ids);
+	
 	@Override
 	@Authorized(PrivilegeConstants.MANAGE_CONCEPTS)
 	Concept createOrUpdate(@Nonnull Concept newEntry);
@@ -0,0 +1,60 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.dao;
+
+import javax.annotation.Nonnull;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Maintains the {@code fhir_concept_token} table, which relates every {@code system|code} token to
+ * the concepts mapped to it
+ */
+public interface FhirConceptTokenDao extends FhirDaoAop {
+	
+	/**
+	 * Discards and re-creates every row of the token table from the current concept mappings on a
+	 * background thread. Until the rebuild has completed, {@link #getConceptIds(String, Collection)}
+	 * resolves no tokens, so searches fall back to the reverse index or the concept mappings. If a
+	 * rebuild is already waiting to run, no further rebuild is scheduled.
+	 */
+	void rebuildTokensInBackground();
+	
+	/**
+	 * Re-creates the rows of the token table for the given concepts, as part of the transaction that
+	 * changed their mappings
+	 *
+	 * @param conceptIds the ids of the concepts whose mappings may have changed
+	 */
+	void updateTokens(@Nonnull Collection<Integer> conceptIds);
+	
+	/**
+	 * Stops the token table being used until it is next rebuilt, e.g. because it could not be kept in
+	 * step with a change to the concept mappings
+	 */
+	void invalidateTokens();
+	
+	/**
+	 * Resolves tokens in a single system to the ids of the concepts mapped to them
+	 *
+	 * @param system the url of the system
+	 * @param codes the codes in that system
+	 * @return the ids of the matching concepts, which is an empty list if no concept matches, or an empty
+	 *         optional if the token table has not been built yet
+	 */
+	Optional<List<Integer>> getConceptIds(@Nonnull String system, @Nonnull Collection<String> codes);
+	
+	/**
+	 * Discards the cached results of {@link #getConceptIds(String, Collection)}
+	 */
+	void clearCache();
+}
@@ -37,6 +37,14 @@ public interface FhirConditionDao extends FhirDao<Condition> {
 	@Authorized(PrivilegeConstants.GET_CONCEPTS)
 	int getSearchResultsCount(@Nonnull SearchParameterMap theParams);
 	
+	@Override
+	@Authorized(PrivilegeConstants.GET_CONCEPTS)
+	List<Integer> getSearchResultIds(@Nonnull SearchParameterMap theParams);
+	
+	@Override
+	@Authorized(PrivilegeConstants.GET_CONCEPTS)
+	List<Condition> getSearchResultsByIds(@Nonnull List<Integer> ids);
+	
 	@Override
 	@Authorized(PrivilegeConstants.EDIT_CONDITIONS)
 	Condition createOrUpdate(@Nonnull Condition newCondition);
@@ -32,6 +32,24 @@ public interface FhirDao<T extends OpenmrsObject & Auditable> extends FhirDaoAop
 	
 	int getSearchResultsCount(@Nonnull SearchParameterMap theParams);
 	
+	/**
+	 * Returns the primary keys of the objects matching the search parameters, in the order they would
+	 * be returned by {@link #getSearchResults(SearchParameterMap)}
+	 *
+	 * @param theParams the search parameters
+	 * @return the ids of the matching objects
+	 */
+	List<Integer> getSearchResultIds(@Nonnull SearchParameterMap theParams);
+	
+	/**
+	 * Loads the objects with the given primary keys, preserving the order of the supplied ids. Ids that
+	 * no longer match an object are skipped.
+	 *
+	 * @param ids the ids of the objects to load
+	 * @return the matching objects
+	 */
+	List<T> getSearchResultsByIds(@Nonnull List<Integer> ids);
+	
 	T createOrUpdate(@Nonnull T newEntry);
 	
 	T delete(@Nonnull String uuid);
@@ -37,6 +37,14 @@ public interface FhirDiagnosisDao extends FhirDao<Diagnosis> {
 	@Authorized(PrivilegeConstants.GET_DIAGNOSES)
 	int getSearchResultsCount(@Nonnull SearchParameterMap theParams);
 	
+	@Override
+	@Authorized(PrivilegeConstants.GET_DIAGNOSES)
+	List<Integer> getSearchResultIds(@Nonnull SearchParameterMap theParams);
+	
+	@Override
+	@Authorized(PrivilegeConstants.GET_DIAGNOSES)
+	List<Diagnosis> getSearchResultsByIds(@Nonnull List<Integer> ids);
+	
 	@Override
 	@Authorized({ PrivilegeConstants.EDIT_DIAGNOSES })
 	Diagnosis createOrUpdate(@Nonnull Diagnosis newDiagnosis);
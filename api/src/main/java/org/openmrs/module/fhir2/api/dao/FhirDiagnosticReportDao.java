@@ -37,6 +37,14 @@ public interface FhirDiagnosticReportDao extends FhirDao<FhirDiagnosticReport> {
 	@Authorized(PrivilegeConstants.GET_OBS)
 	int getSearchResultsCount(@Nonnull SearchParameterMap theParams);
 	
+	@Override
+	@Authorized(PrivilegeConstants.GET_OBS)
+	List<Integer> getSearchResultIds(@Nonnull SearchParameterMap theParams);
+	
+	@Override
+	@Authorized(PrivilegeConstants.GET_OBS)
+	List<FhirDiagnosticReport> getSearchResultsByIds(@Nonnull List<Integer> ids);
+	
 	@Override
 	@Authorized({ PrivilegeConstants.ADD_OBS, PrivilegeConstants.EDIT_OBS })
 	FhirDiagnosticReport createOrUpdate(@Nonnull FhirDiagnosticReport newEntry);
@@ -14,6 +14,7 @@ import javax.annotation.Nonnull;
 import java.util.Collection;
 import java.util.List;
 
+import org.hibernate.criterion.DetachedCriteria;
 import org.openmrs.Encounter;
 import org.openmrs.annotation.Authorized;
 import org.openmrs.module.fhir2.api.search.param.SearchParameterMap;
@@ -32,6 +33,17 @@ public interface FhirEncounterDao extends FhirDao<Encounter> {
 	@Authorized(PrivilegeConstants.GET_ENCOUNTERS)
 	List<String> getSearchResultUuids(@Nonnull SearchParameterMap theParams);
 	
+	/**
+	 * Creates a subquery selecting the ids of the encounters that fall on the last "max" distinct
+	 * encounter dates matching the search parameters, so that the encounters can be used to restrict
+	 * another query without being loaded first.
+	 *
+	 * @param theParams the search parameters, including the max parameter
+	 * @return a subquery projecting the ids of the matching encounters
+	 */
+	@Authorized(PrivilegeConstants.GET_ENCOUNTERS)
+	DetachedCriteria getLastnEncountersSubquery(@Nonnull SearchParameterMap theParams);
+	
 	@Override
 	@Authorized(PrivilegeConstants.GET_ENCOUNTERS)
 	List<Encounter> getSearchResults(@Nonnull SearchParameterMap theParams);
@@ -40,6 +52,14 @@ public interface FhirEncounterDao extends FhirDao<Encounter> {
 	@Authorized(PrivilegeConstants.GET_ENCOUNTERS)
 	int getSearchResultsCount(@Nonnull SearchParameterMap theParams);
 	
+	@Override
+	@Authorized(PrivilegeConstants.GET_ENCOUNTERS)
+	List<Integer> getSearchResultIds(@Nonnull SearchParameterMap theParams);
+	
+	@Override
+	@Authorized(PrivilegeConstants.GET_ENCOUNTERS)
+	List<Encounter> getSearchResultsByIds(@Nonnull List<Integer> ids);
+	
 	@Override
 	@Authorized({ PrivilegeConstants.ADD_ENCOUNTERS, PrivilegeConstants.EDIT_ENCOUNTERS })
 	Encounter createOrUpdate(@Nonnull Encounter newEntry);
@@ -37,6 +37,14 @@ public interface FhirEpisodeOfCareDao extends FhirDao<PatientProgram> {
 	@Authorized(PrivilegeConstants.GET_PATIENT_PROGRAMS)
 	int getSearchResultsCount(@Nonnull SearchParameterMap theParams);
 	
+	@Override
+	@Authorized(PrivilegeConstants.GET_PATIENT_PROGRAMS)
+	List<Integer> getSearchResultIds(@Nonnull SearchParameterMap theParams);
+	
+	@Override
+	@Authorized(PrivilegeConstants.GET_PATIENT_PROGRAMS)
+	List<PatientProgram> getSearchResultsByIds(@Nonnull List<Integer> ids);
+	
 	@Override
 	@Authorized({ PrivilegeConstants.ADD_PATIENT_PROGRAMS, PrivilegeConstants.EDIT_PATIENT_PROGRAMS })
 	PatientProgram createOrUpdate(@Nonnull PatientProgram newEntry);
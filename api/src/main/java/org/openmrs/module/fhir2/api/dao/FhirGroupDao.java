@@ -37,6 +37,14 @@ public interface FhirGroupDao extends FhirDao<Cohort> {
 	@Authorized(PrivilegeConstants.GET_PATIENT_COHORTS)
 	int getSearchResultsCount(@Nonnull SearchParameterMap theParams);
 	
+	@Override
+	@Authorized(PrivilegeConstants.GET_PATIENT_COHORTS)
+	List<Integer> getSearchResultIds(@Nonnull SearchParameterMap theParams);
+	
+	@Override
+	@Authorized(PrivilegeConstants.GET_PATIENT_COHORTS)
+	List<Cohort> getSearchResultsByIds(@Nonnull List<Integer> ids);
+	
 	@Override
 	@Authorized({ PrivilegeConstants.ADD_COHORTS, PrivilegeConstants.EDIT_COHORTS })
 	Cohort createOrUpdate(@Nonnull Cohort newEntry);
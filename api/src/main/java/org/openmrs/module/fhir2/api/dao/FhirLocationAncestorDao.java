@@ -0,0 +1,62 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.dao;
+
+import javax.annotation.Nonnull;
+
+import java.util.Collection;
+
+/**
+ * Maintains the {@code fhir_location_ancestor} closure table, which relates every location to each
+ * of its ancestors
+ */
+public interface FhirLocationAncestorDao extends FhirDaoAop {
+	
+	/**
+	 * Discards and re-creates every row of the closure table from the current location hierarchy
+	 */
+	void rebuildAncestors();
+	
+	/**
+	 * Discards and re-creates every row of the closure table on a background thread. If a rebuild is
+	 * already waiting to run, no further rebuild is scheduled.
+	 */
+	void rebuildAncestorsInBackground();
+	
+	/**
+	 * Rebuilds the closure table on a background thread, like {@link #rebuildAncestorsInBackground()},
+	 * but only if it has been set aside or no longer matches the parent of every location, e.g. because
+	 * locations were changed while this module was not running
+	 */
+	void rebuildAncestorsIfOutOfStep();
+	
+	/**
+	 * Updates the closure table after the given locations have been created or moved to a different
+	 * parent, as part of the transaction that changed them. Each location is re-attached to its new
+	 * ancestors together with all of its descendants.
+	 *
+	 * @param locationIds the ids of the locations whose parent may have changed
+	 */
+	void updateAncestors(@Nonnull Collection<Integer> locationIds);
+	
+	/**
+	 * Stops the closure table being used until it is next rebuilt, e.g. because it could not be kept in
+	 * step with a change to the location hierarchy. This is part of the caller's transaction, so the
+	 * table is only set aside if the change is committed. Until a rebuild started afterwards has
+	 * completed, {@link #isBuilt()} is false, so searches walk the location hierarchy instead.
+	 */
+	void invalidateAncestors();
+	
+	/**
+	 * @return true if the closure table has been built and has not been set aside since, on any server
+	 *         using the database
+	 */
+	boolean isBuilt();
+}
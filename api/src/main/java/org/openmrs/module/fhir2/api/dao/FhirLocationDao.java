@@ -36,6 +36,15 @@ public interface FhirLocationDao extends FhirDao<Location> {
 	@Authorized(PrivilegeConstants.GET_LOCATIONS)
 	List<Location> get(@Nonnull Collection<String> uuids);
 	
+	/**
+	 * Retrieves every location that is above any of the given locations in the location hierarchy
+	 *
+	 * @param uuids the uuids of the locations whose ancestors should be returned
+	 * @return the parents of the given locations, their parents, and so on
+	 */
+	@Authorized(PrivilegeConstants.GET_LOCATIONS)
+	List<Location> getAncestors(@Nonnull Collection<String> uuids);
+	
 	@Authorized(PrivilegeConstants.GET_LOCATIONS)
 	List<LocationAttribute> getActiveAttributesByLocationAndAttributeTypeUuid(@Nonnull Location location,
 	        @Nonnull String locationAttributeTypeUuid);
@@ -58,6 +67,14 @@ public interface FhirLocationDao extends FhirDao<Location> {
 	@Authorized(PrivilegeConstants.GET_LOCATIONS)
 	int getSearchResultsCount(@Nonnull SearchParameterMap theParams);
 	
+	@Override
+	@Authorized(PrivilegeConstants.GET_LOCATIONS)
+	List<Integer> getSearchResultIds(@Nonnull SearchParameterMap theParams);
+	
+	@Override
+	@Authorized(PrivilegeConstants.GET_LOCATIONS)
+	List<Location> getSearchResultsByIds(@Nonnull List<Integer> ids);
+	
 	@Override
 	@Authorized(PrivilegeConstants.MANAGE_LOCATIONS)
 	Location createOrUpdate(@Nonnull Location newEntry);
@@ -37,6 +37,14 @@ public interface FhirMedicationDao extends FhirDao<Drug> {
 	@Authorized(PrivilegeConstants.GET_CONCEPTS)
 	int getSearchResultsCount(@Nonnull SearchParameterMap theParams);
 	
+	@Override
+	@Authorized(PrivilegeConstants.GET_CONCEPTS)
+	List<Integer> getSearchResultIds(@Nonnull SearchParameterMap theParams);
+	
+	@Override
+	@Authorized(PrivilegeConstants.GET_CONCEPTS)
+	List<Drug> getSearchResultsByIds(@Nonnull List<Integer> ids);
+	
 	@Override
 	@Authorized(PrivilegeConstants.MANAGE_CONCEPTS)
 	Drug createOrUpdate(@Nonnull Drug newEntry);
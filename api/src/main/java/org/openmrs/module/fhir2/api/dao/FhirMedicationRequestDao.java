@@ -37,6 +37,14 @@ public interface FhirMedicationRequestDao extends FhirDao<DrugOrder> {
 	@Authorized(PrivilegeConstants.GET_ORDERS)
 	int getSearchResultsCount(@Nonnull SearchParameterMap theParams);
 	
+	@Override
+	@Authorized(PrivilegeConstants.GET_ORDERS)
+	List<Integer> getSearchResultIds(@Nonnull SearchParameterMap theParams);
+	
+	@Override
+	@Authorized(PrivilegeConstants.GET_ORDERS)
+	List<DrugOrder> getSearchResultsByIds(@Nonnull List<Integer> ids);
+	
 	@Override
 	@Authorized({ PrivilegeConstants.ADD_ORDERS, PrivilegeConstants.EDIT_ORDERS })
 	DrugOrder createOrUpdate(@Nonnull DrugOrder newEntry);
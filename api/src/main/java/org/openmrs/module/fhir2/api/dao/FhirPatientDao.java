@@ -47,6 +47,14 @@ public interface FhirPatientDao extends FhirDao<Patient> {
 	@Authorized(PrivilegeConstants.GET_PATIENTS)
 	int getSearchResultsCount(@Nonnull SearchParameterMap theParams);
 	
+	@Override
+	@Authorized(PrivilegeConstants.GET_PATIENTS)
+	List<Integer> getSearchResultIds(@Nonnull SearchParameterMap theParams);
+	
+	@Override
+	@Authorized(PrivilegeConstants.GET_PATIENTS)
+	List<Patient> getSearchResultsByIds(@Nonnull List<Integer> ids);
+	
 	@Override
 	@Authorized({ PrivilegeConstants.ADD_PATIENTS, PrivilegeConstants.EDIT_PATIENTS })
 	Patient createOrUpdate(@Nonnull Patient newEntry);
@@ -13,6 +13,7 @@ import javax.annotation.Nonnull;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import org.openmrs.Person;
 import org.openmrs.PersonAttribute;
@@ -34,6 +35,10 @@ public interface FhirPersonDao extends FhirDao<Person> {
 	List<PersonAttribute> getActiveAttributesByPersonAndAttributeTypeUuid(@Nonnull Person person,
 	        @Nonnull String personAttributeTypeUuid);
 	
+	@Authorized(PrivilegeConstants.GET_PERSONS)
+	Map<Person, List<PersonAttribute>> getActiveAttributesByPersonsAndAttributeTypeUuid(
+	        @Nonnull Collection<? extends Person> persons, @Nonnull String personAttributeTypeUuid);
+	
 	@Override
 	@Authorized(PrivilegeConstants.GET_PERSONS)
 	List<Person> getSearchResults(@Nonnull SearchParameterMap theParams);
@@ -42,6 +47,14 @@ public interface FhirPersonDao extends FhirDao<Person> {
 	@Authorized(PrivilegeConstants.GET_PERSONS)
 	int getSearchResultsCount(@Nonnull SearchParameterMap theParams);
 	
+	@Override
+	@Authorized(PrivilegeConstants.GET_PERSONS)
+	List<Integer> getSearchResultIds(@Nonnull SearchParameterMap theParams);
+	
+	@Override
+	@Authorized(PrivilegeConstants.GET_PERSONS)
+	List<Person> getSearchResultsByIds(@Nonnull List<Integer> ids);
+	
 	@Override
 	@Authorized({ PrivilegeConstants.ADD_PERSONS, PrivilegeConstants.EDIT_PERSONS })
 	Person createOrUpdate(@Nonnull Person newEntry);
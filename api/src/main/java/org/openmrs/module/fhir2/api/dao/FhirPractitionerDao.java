@@ -13,6 +13,7 @@ import javax.annotation.Nonnull;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import org.openmrs.Provider;
 import org.openmrs.ProviderAttribute;
@@ -34,6 +35,10 @@ public interface FhirPractitionerDao extends FhirDao<Provider> {
 	List<ProviderAttribute> getActiveAttributesByPractitionerAndAttributeTypeUuid(@Nonnull Provider provider,
 	        @Nonnull String providerAttributeTypeUuid);
 	
+	@Authorized(PrivilegeConstants.GET_PROVIDERS)
+	Map<Provider, List<ProviderAttribute>> getActiveAttributesByPractitionersAndAttributeTypeUuid(
+	        @Nonnull Collection<Provider> providers, @Nonnull String providerAttributeTypeUuid);
+	
 	@Override
 	@Authorized(PrivilegeConstants.GET_PROVIDERS)
 	List<Provider> getSearchResults(@Nonnull SearchParameterMap theParams);
@@ -42,6 +47,14 @@ public interface FhirPractitionerDao extends FhirDao<Provider> {
 	@Authorized(PrivilegeConstants.GET_PROVIDERS)
 	int getSearchResultsCount(@Nonnull SearchParameterMap theParams);
 	
+	@Override
+	@Authorized(PrivilegeConstants.GET_PROVIDERS)
+	List<Integer> getSearchResultIds(@Nonnull SearchParameterMap theParams);
+	
+	@Override
+	@Authorized(PrivilegeConstants.GET_PROVIDERS)
+	List<Provider> getSearchResultsByIds(@Nonnull List<Integer> ids);
+	
 	@Override
 	@Authorized({ PrivilegeConstants.MANAGE_PROVIDERS })
 	Provider createOrUpdate(@Nonnull Provider newEntry);
@@ -37,6 +37,14 @@ public interface FhirRelatedPersonDao extends FhirDao<Relationship> {
 	@Authorized(value = { PrivilegeConstants.GET_PERSONS, PrivilegeConstants.GET_RELATIONSHIPS }, requireAll = true)
 	int getSearchResultsCount(@Nonnull SearchParameterMap theParams);
 	
+	@Override
+	@Authorized(value = { PrivilegeConstants.GET_PERSONS, PrivilegeConstants.GET_RELATIONSHIPS }, requireAll = true)
+	List<Integer> getSearchResultIds(@Nonnull SearchParameterMap theParams);
+	
+	@Override
+	@Authorized(value = { PrivilegeConstants.GET_PERSONS, PrivilegeConstants.GET_RELATIONSHIPS }, requireAll = true)
+	List<Relationship> getSearchResultsByIds(@Nonnull List<Integer> ids);
+	
 	@Override
 	@Authorized(value = { PrivilegeConstants.ADD_PERSONS, PrivilegeConstants.EDIT_PERSONS,
 	        PrivilegeConstants.ADD_RELATIONSHIPS, PrivilegeConstants.EDIT_RELATIONSHIPS }, requireAll = true)
@@ -0,0 +1,38 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.dao;
+
+import javax.annotation.Nonnull;
+
+import java.util.Date;
+import java.util.Optional;
+
+import org.openmrs.module.fhir2.model.FhirSearchSnapshot;
+
+public interface FhirSearchSnapshotDao extends FhirDaoAop {
+	
+	/**
+	 * Retrieves the snapshot for the given search id, provided it has not yet expired
+	 *
+	 * @param uuid the search id
+	 * @return the snapshot, if one exists
+	 */
+	Optional<FhirSearchSnapshot> getSearchSnapshot(@Nonnull String uuid);
+	
+	FhirSearchSnapshot saveSearchSnapshot(@Nonnull FhirSearchSnapshot searchSnapshot);
+	
+	/**
+	 * Removes all snapshots that expired before the given date
+	 *
+	 * @param date the cut-off date
+	 * @return the number of snapshots removed
+	 */
+	int deleteExpiredSearchSnapshots(@Nonnull Date date);
+}
@@ -38,6 +38,14 @@ public interface FhirServiceRequestDao<T extends OpenmrsObject & Auditable> exte
 	@Authorized(PrivilegeConstants.GET_ORDERS)
 	int getSearchResultsCount(@Nonnull SearchParameterMap theParams);
 	
+	@Override
+	@Authorized(PrivilegeConstants.GET_ORDERS)
+	List<Integer> getSearchResultIds(@Nonnull SearchParameterMap theParams);
+	
+	@Override
+	@Authorized(PrivilegeConstants.GET_ORDERS)
+	List<T> getSearchResultsByIds(@Nonnull List<Integer> ids);
+	
 	@Override
 	@Authorized({ PrivilegeConstants.ADD_ORDERS, PrivilegeConstants.EDIT_ORDERS })
 	T createOrUpdate(@Nonnull T newEntry);
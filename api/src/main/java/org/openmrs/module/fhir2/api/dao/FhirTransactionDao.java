@@ -0,0 +1,27 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.dao;
+
+import javax.annotation.Nonnull;
+
+import java.util.function.Supplier;
+
+public interface FhirTransactionDao extends FhirDaoAop {
+	
+	/**
+	 * Runs some work in a single database transaction, which is rolled back if the work throws an
+	 * exception. The session is not flushed while the work runs, only once when the transaction
+	 * commits, so queries made by the work do not write out the changes made before them.
+	 *
+	 * @param work the work to run
+	 * @return the result of the work
+	 */
+	<T> T runInTransaction(@Nonnull Supplier<T> work);
+}
@@ -40,6 +40,14 @@ public interface FhirUserDao extends FhirDao<User> {
 	@Authorized(PrivilegeConstants.GET_USERS)
 	int getSearchResultsCount(@Nonnull SearchParameterMap theParams);
 	
+	@Override
+	@Authorized(PrivilegeConstants.GET_USERS)
+	List<Integer> getSearchResultIds(@Nonnull SearchParameterMap theParams);
+	
+	@Override
+	@Authorized(PrivilegeConstants.GET_USERS)
+	List<User> getSearchResultsByIds(@Nonnull List<Integer> ids);
+	
 	@Override
 	@Authorized({ PrivilegeConstants.ADD_USERS, PrivilegeConstants.EDIT_USERS })
 	User createOrUpdate(@Nonnull User newEntry);
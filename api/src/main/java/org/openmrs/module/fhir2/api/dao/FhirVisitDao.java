@@ -37,6 +37,14 @@ public interface FhirVisitDao extends FhirDao<Visit> {
 	@Authorized(PrivilegeConstants.GET_VISITS)
 	int getSearchResultsCount(@Nonnull SearchParameterMap theParams);
 	
+	@Override
+	@Authorized(PrivilegeConstants.GET_VISITS)
+	List<Integer> getSearchResultIds(@Nonnull SearchParameterMap theParams);
+	
+	@Override
+	@Authorized(PrivilegeConstants.GET_VISITS)
+	List<Visit> getSearchResultsByIds(@Nonnull List<Integer> ids);
+	
 	@Override
 	@Authorized({ PrivilegeConstants.ADD_VISITS, PrivilegeConstants.EDIT_VISITS })
 	Visit createOrUpdate(@Nonnull Visit newVisit);
@@ -13,6 +13,7 @@ import static org.hibernate.criterion.Projections.property;
 import static org.hibernate.criterion.Restrictions.and;
 import static org.hibernate.criterion.Restrictions.between;
 import static org.hibernate.criterion.Restrictions.eq;
+import static org.hibernate.criterion.Restrictions.eqProperty;
 import static org.hibernate.criterion.Restrictions.ge;
 import static org.hibernate.criterion.Restrictions.gt;
 import static org.hibernate.criterion.Restrictions.ilike;
@@ -23,6 +24,7 @@ import static org.hibernate.criterion.Restrictions.lt;
 import static org.hibernate.criterion.Restrictions.ne;
 import static org.hibernate.criterion.Restrictions.not;
 import static org.hibernate.criterion.Restrictions.or;
+import static org.hibernate.criterion.Restrictions.sqlRestriction;
 import static org.hibernate.criterion.Subqueries.propertyEq;
 
 import javax.annotation.Nonnull;
@@ -82,7 +84,9 @@ import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.DetachedCriteria;
 import org.hibernate.criterion.MatchMode;
 import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.criterion.Subqueries;
 import org.hibernate.internal.CriteriaImpl;
 import org.hibernate.sql.JoinType;
 import org.hl7.fhir.dstu3.model.Encounter;
@@ -91,7 +95,10 @@ import org.hl7.fhir.r4.model.Location;
 import org.hl7.fhir.r4.model.Patient;
 import org.hl7.fhir.r4.model.Practitioner;
 import org.hl7.fhir.r4.model.codesystems.AdministrativeGender;
+import org.openmrs.PersonName;
 import org.openmrs.module.fhir2.FhirConstants;
+import org.openmrs.module.fhir2.api.cache.ConceptReverseIndex;
+import org.openmrs.module.fhir2.api.dao.FhirConceptTokenDao;
 import org.openmrs.module.fhir2.api.search.param.PropParam;
 import org.openmrs.module.fhir2.api.util.LocalDateTimeFactory;
 import org.openmrs.module.fhir2.model.FhirConceptSource;
@@ -178,6 +185,14 @@ public abstract class BaseDao {
 	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
 	private LocalDateTimeFactory localDateTimeFactory;
 	
+	@Getter(value = AccessLevel.PROTECTED)
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private ConceptReverseIndex conceptReverseIndex;
+	
+	@Getter(value = AccessLevel.PROTECTED)
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirConceptTokenDao conceptTokenDao;
+	
 	/**
 	 * Converts an {@link Iterable} to a {@link Stream}
 	 *
@@ -705,12 +720,29 @@ public abstract class BaseDao {
 				        tokensToParams(tokens).map(NumberUtils::toInt).collect(Collectors.toList())),
 				    in(String.format("%s.uuid", conceptAlias), tokensToList(tokens))));
 			} else {
+				// the codes are resolved through the token table, or the reverse index while the table is set aside,
+				// so that the concepts are matched directly rather than by joining to their mappings
+				List<String> codes = tokensToList(tokens);
+				Optional<List<Integer>> conceptIds = conceptTokenDao == null ? Optional.empty()
+				        : conceptTokenDao.getConceptIds(system, codes);
+				if (!conceptIds.isPresent() && conceptReverseIndex != null) {
+					conceptIds = conceptReverseIndex.getConceptIds(system, codes);
+				}
+				
+				if (conceptIds.isPresent()) {
+					if (conceptIds.get().isEmpty()) {
+						return Optional.of(sqlRestriction("1 = 0"));
+					}
+					
+					return Optional.of(in(String.format("%s.conceptId", conceptAlias), conceptIds.get()));
+				}
+				
 				if (lacksAlias(criteria, conceptMapAlias)) {
 					criteria.createAlias(String.format("%s.conceptMappings", conceptAlias), conceptMapAlias).createAlias(
 					    String.format("%s.conceptReferenceTerm", conceptMapAlias), conceptReferenceTermAlias);
 				}
 				
-				return Optional.of(generateSystemQuery(system, tokensToList(tokens), conceptReferenceTermAlias));
+				return Optional.of(generateSystemQuery(system, codes, conceptReferenceTermAlias));
 			}
 		});
 	}
@@ -720,38 +752,69 @@ public abstract class BaseDao {
 		handleNames(criteria, name, given, family, null);
 	}
 	
+	/**
+	 * Restricts the query to people who have a non-voided name matching all of the supplied
+	 * parameters. The names are matched in a correlated {@code EXISTS} subquery rather than by joining
+	 * to the names so that a person with several matching names is still only returned once.
+	 *
+	 * @param criteria the criteria for the query
+	 * @param name the name parameter
+	 * @param given the given name parameter
+	 * @param family the family name parameter
+	 * @param personAlias the alias or association path for the person being searched for, if it is not
+	 *            the root of the query
+	 */
 	protected void handleNames(Criteria criteria, StringAndListParam name, StringAndListParam given,
 	        StringAndListParam family, String personAlias) {
 		if (name == null && given == null && family == null) {
 			return;
 		}
 		
-		if (lacksAlias(criteria, "pn")) {
-			if (StringUtils.isNotBlank(personAlias)) {
-				criteria.createAlias(String.format("%s.names", personAlias), "pn", JoinType.INNER_JOIN,
-				    eq("pn.voided", false));
-			} else {
-				criteria.createAlias("names", "pn", JoinType.INNER_JOIN, eq("pn.voided", false));
-			}
-		}
+		DetachedCriteria names = DetachedCriteria.forClass(PersonName.class, "spn").add(eq("spn.voided", false))
+		        .add(eqProperty("spn.person.id", getPersonIdProperty(criteria, personAlias)));
 		
 		if (name != null) {
 			handleAndListParamAsStream(name,
 			    (nameParam) -> Arrays.stream(StringUtils.split(nameParam.getValue(), " \t,"))
 			            .map(token -> new StringParam().setValue(token).setExact(nameParam.isExact())
 			                    .setContains(nameParam.isContains()))
-			            .map(tokenParam -> Arrays.asList(propertyLike("pn.givenName", tokenParam),
-			                propertyLike("pn.middleName", tokenParam), propertyLike("pn.familyName", tokenParam)))
-			            .flatMap(Collection::stream)).ifPresent(criteria::add);
+			            .map(tokenParam -> Arrays.asList(propertyLike("spn.givenName", tokenParam),
+			                propertyLike("spn.middleName", tokenParam), propertyLike("spn.familyName", tokenParam)))
+			            .flatMap(Collection::stream)).ifPresent(names::add);
 		}
 		
 		if (given != null) {
-			handleAndListParam(given, (givenName) -> propertyLike("pn.givenName", givenName)).ifPresent(criteria::add);
+			handleAndListParam(given, (givenName) -> propertyLike("spn.givenName", givenName)).ifPresent(names::add);
 		}
 		
 		if (family != null) {
-			handleAndListParam(family, (familyName) -> propertyLike("pn.familyName", familyName)).ifPresent(criteria::add);
+			handleAndListParam(family, (familyName) -> propertyLike("spn.familyName", familyName)).ifPresent(names::add);
 		}
+		
+		criteria.add(Subqueries.exists(names.setProjection(Projections.id())));
+	}
+	
+	/**
+	 * Returns the property that identifies the person being searched for, so that subqueries against
+	 * tables like {@code person_name} can be correlated with the outer query. The property is
+	 * qualified with the alias of the root of the query ({@code this}) or the alias of the person,
+	 * which is how Hibernate resolves properties of the outer query from within a subquery.
+	 *
+	 * @param criteria the criteria for the outer query
+	 * @param personAlias the alias or association path for the person, or null if the person is the
+	 *            root of the query
+	 * @return the property path for the person's id
+	 */
+	protected String getPersonIdProperty(@Nonnull Criteria criteria, String personAlias) {
+		if (StringUtils.isBlank(personAlias)) {
+			return "this.id";
+		}
+		
+		if (lacksAlias(criteria, personAlias)) {
+			return String.format("this.%s.id", personAlias);
+		}
+		
+		return String.format("%s.id", personAlias);
 	}
 	
 	protected void handlePatientReference(Criteria criteria, ReferenceAndListParam patientReference) {
@@ -11,8 +11,11 @@ package org.openmrs.module.fhir2.api.dao.impl;
 
 import static org.hibernate.criterion.Restrictions.and;
 import static org.hibernate.criterion.Restrictions.eq;
+import static org.hibernate.criterion.Restrictions.gt;
 import static org.hibernate.criterion.Restrictions.in;
 import static org.hibernate.criterion.Restrictions.isNull;
+import static org.hibernate.criterion.Restrictions.lt;
+import static org.hibernate.criterion.Restrictions.not;
 import static org.hibernate.criterion.Restrictions.or;
 import static org.openmrs.module.fhir2.FhirConstants.COUNT_QUERY_CACHE;
 import static org.openmrs.module.fhir2.FhirConstants.EXACT_TOTAL_SEARCH_PARAMETER;
@@ -20,14 +23,20 @@ import static org.openmrs.module.fhir2.FhirConstants.EXACT_TOTAL_SEARCH_PARAMETE
 import javax.annotation.Nonnull;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
 import ca.uhn.fhir.rest.param.DateRangeParam;
 import com.google.common.reflect.TypeToken;
 import lombok.AccessLevel;
@@ -36,11 +45,22 @@ import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.hibernate.CacheMode;
 import org.hibernate.Criteria;
+import org.hibernate.FetchMode;
 import org.hibernate.Hibernate;
+import org.hibernate.HibernateException;
+import org.hibernate.NullPrecedence;
 import org.hibernate.SessionFactory;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.ProjectionList;
 import org.hibernate.criterion.Projections;
+import org.hibernate.dialect.DB2Dialect;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.MySQLDialect;
+import org.hibernate.dialect.Oracle8iDialect;
+import org.hibernate.dialect.PostgreSQL81Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.persister.entity.AbstractEntityPersister;
 import org.hibernate.proxy.HibernateProxy;
 import org.hl7.fhir.r4.model.DomainResource;
 import org.openmrs.Auditable;
@@ -54,8 +74,11 @@ import org.openmrs.api.handler.RetireHandler;
 import org.openmrs.api.handler.VoidHandler;
 import org.openmrs.module.fhir2.FhirConstants;
 import org.openmrs.module.fhir2.api.dao.FhirDao;
+import org.openmrs.module.fhir2.api.search.param.FetchProfile;
 import org.openmrs.module.fhir2.api.search.param.PropParam;
+import org.openmrs.module.fhir2.api.search.param.SearchCursor;
 import org.openmrs.module.fhir2.api.search.param.SearchParameterMap;
+import org.openmrs.module.fhir2.api.util.ReferenceResolutionCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.transaction.annotation.Transactional;
@@ -72,6 +95,13 @@ import org.springframework.transaction.annotation.Transactional;
 @Slf4j
 public abstract class BaseFhirDao<T extends OpenmrsObject & Auditable> extends BaseDao implements FhirDao<T> {
 	
+	/**
+	 * Parameters that do not restrict which objects match a search
+	 */
+	private static final Set<String> NON_FILTERING_PARAMETERS = new HashSet<>(
+	        Arrays.asList(FhirConstants.INCLUDE_SEARCH_HANDLER, FhirConstants.REVERSE_INCLUDE_SEARCH_HANDLER,
+	            EXACT_TOTAL_SEARCH_PARAMETER));
+	
 	@SuppressWarnings("UnstableApiUsage")
 	protected final TypeToken<T> typeToken;
 	
@@ -134,6 +164,9 @@ public abstract class BaseFhirDao<T extends OpenmrsObject & Auditable> extends B
 	public T createOrUpdate(@Nonnull T newEntry) {
 		sessionFactory.getCurrentSession().saveOrUpdate(newEntry);
 		
+		// later references to this object in the same unit of work, e.g. a transaction Bundle, are resolved without a query
+		ReferenceResolutionCache.put(typeToken.getRawType(), newEntry.getUuid(), newEntry);
+		
 		return newEntry;
 	}
 	
@@ -174,9 +207,22 @@ public abstract class BaseFhirDao<T extends OpenmrsObject & Auditable> extends B
 	@Override
 	@Transactional(readOnly = true)
 	public int getSearchResultsCount(@Nonnull SearchParameterMap theParams) {
+		if (theParams.getTotalMode() == SearchTotalModeEnum.ESTIMATED) {
+			Optional<Integer> estimate = estimateSearchResultsCount(theParams);
+			if (estimate.isPresent()) {
+				return estimate.get();
+			}
+		}
+		
 		Criteria criteria = getSearchResultCriteria(theParams);
 		
-		applyExactTotal(theParams, criteria);
+		if (theParams.getTotalMode() == SearchTotalModeEnum.ESTIMATED) {
+			// an estimate may be served from a count cached for an identical query
+			criteria.setCacheable(true);
+			criteria.setCacheRegion(COUNT_QUERY_CACHE);
+		} else {
+			applyExactTotal(theParams, criteria);
+		}
 		
 		if (hasDistinctResults()) {
 			return ((Long) criteria.setProjection(Projections.rowCount()).uniqueResult()).intValue();
@@ -191,13 +237,23 @@ public abstract class BaseFhirDao<T extends OpenmrsObject & Auditable> extends B
 	public List<T> getSearchResults(@Nonnull SearchParameterMap theParams) {
 		Criteria criteria = getSearchResultCriteria(theParams);
 		
-		handleSort(criteria, theParams.getSortSpec());
+		List<org.hibernate.criterion.Order> orders = handleSort(criteria, theParams.getSortSpec(), this::paramToProps)
+		        .orElse(Collections.emptyList());
+		orders.forEach(criteria::addOrder);
 		criteria.addOrder(org.hibernate.criterion.Order.asc("id"));
 		
-		criteria.setFirstResult(theParams.getFromIndex());
+		Optional<Criterion> keyset = handleKeyset(orders, theParams);
+		if (keyset.isPresent()) {
+			criteria.add(keyset.get());
+		} else {
+			criteria.setFirstResult(theParams.getFromIndex());
+		}
+		
+		boolean lookahead = theParams.isLookahead() && theParams.getToIndex() != Integer.MAX_VALUE;
+		int maxResults = theParams.getToIndex() - theParams.getFromIndex();
 		if (theParams.getToIndex() != Integer.MAX_VALUE) {
-			int maxResults = theParams.getToIndex() - theParams.getFromIndex();
-			criteria.setMaxResults(maxResults);
+			// when looking ahead, an extra row is read to find out whether there is another page
+			criteria.setMaxResults(lookahead ? maxResults + 1 : maxResults);
 		}
 		
 		List<T> results;
@@ -207,8 +263,7 @@ public abstract class BaseFhirDao<T extends OpenmrsObject & Auditable> extends B
 			ProjectionList projectionList = Projections.projectionList();
 			projectionList.add(Projections.distinct(Projections.projectionList().add(Projections.property("id"))));
 			// Sort parameters must be included in projections
-			handleSort(criteria, theParams.getSortSpec(), this::paramToProps).ifPresent(
-			    orders -> orders.forEach(order -> projectionList.add(Projections.property(order.getPropertyName()))));
+			orders.forEach(order -> projectionList.add(Projections.property(order.getPropertyName())));
 			criteria.setProjection(projectionList);
 			List<Integer> ids = new ArrayList<>();
 			if (projectionList.getLength() > 1) {
@@ -229,7 +284,293 @@ public abstract class BaseFhirDao<T extends OpenmrsObject & Auditable> extends B
 			results = idsCriteria.list();
 		}
 		
-		return results.stream().map(this::deproxyResult).collect(Collectors.toList());
+		if (lookahead) {
+			theParams.setHasMoreResults(results.size() > maxResults);
+			if (results.size() > maxResults) {
+				results = results.subList(0, maxResults);
+			}
+		}
+		
+		results = hydrateResults(results, theParams.getFetchProfile());
+		
+		theParams.setCursor(createCursor(orders, theParams, results));
+		
+		return results;
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	@Transactional(readOnly = true)
+	public List<Integer> getSearchResultIds(@Nonnull SearchParameterMap theParams) {
+		Criteria criteria = getSearchResultCriteria(theParams);
+		
+		List<org.hibernate.criterion.Order> orders = handleSort(criteria, theParams.getSortSpec(), this::paramToProps)
+		        .orElse(Collections.emptyList());
+		orders.forEach(criteria::addOrder);
+		criteria.addOrder(org.hibernate.criterion.Order.asc("id"));
+		
+		criteria.setFirstResult(theParams.getFromIndex());
+		if (theParams.getToIndex() != Integer.MAX_VALUE) {
+			criteria.setMaxResults(theParams.getToIndex() - theParams.getFromIndex());
+		}
+		
+		if (hasDistinctResults()) {
+			return criteria.setProjection(Projections.property("id")).list();
+		}
+		
+		ProjectionList projectionList = Projections.projectionList();
+		projectionList.add(Projections.distinct(Projections.projectionList().add(Projections.property("id"))));
+		// Sort parameters must be included in projections
+		orders.forEach(order -> projectionList.add(Projections.property(order.getPropertyName())));
+		criteria.setProjection(projectionList);
+		
+		if (projectionList.getLength() == 1) {
+			return criteria.list();
+		}
+		
+		List<Integer> ids = new ArrayList<>();
+		for (Object[] o : ((List<Object[]>) criteria.list())) {
+			ids.add((Integer) o[0]);
+		}
+		
+		return ids;
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	@Transactional(readOnly = true)
+	public List<T> getSearchResultsByIds(@Nonnull List<Integer> ids) {
+		if (ids.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		List<T> results = sessionFactory.getCurrentSession().createCriteria(typeToken.getRawType()).add(in("id", ids))
+		        .list();
+		
+		Map<Integer, T> resultsById = new HashMap<>(results.size());
+		for (T result : results) {
+			resultsById.put(result.getId(), result);
+		}
+		
+		return hydrateResults(ids.stream().map(resultsById::get).filter(Objects::nonNull).collect(Collectors.toList()),
+		    FetchProfile.FULL);
+	}
+	
+	/**
+	 * Creates the keyset predicate used to load the page following the one recorded in the
+	 * {@link SearchCursor} attached to the search parameters. For a sort on {@code (a, b)} this
+	 * produces {@code a > ? or (a = ? and b > ?) or (a = ? and b = ? and id > ?)}, with the comparison
+	 * reversed for descending sorts. Rows with a null sort key are placed where the database sorts them,
+	 * e.g. {@code a > ?} becomes {@code (a > ? or a is null)} if nulls follow every other value.
+	 *
+	 * @param orders the orderings applied to the query, not including the ordering by id
+	 * @param theParams the parameters for this search
+	 * @return the keyset criterion or an empty optional if the page must be loaded using an offset
+	 */
+	protected Optional<Criterion> handleKeyset(List<org.hibernate.criterion.Order> orders, SearchParameterMap theParams) {
+		SearchCursor cursor = theParams.getCursor();
+		if (cursor == null || cursor.getPosition() != theParams.getFromIndex() || cursor.getLastId() == null
+		        || cursor.getSortValues() == null || cursor.getSortValues().length != orders.size()
+		        || !orders.stream().allMatch(this::supportsKeyset)) {
+			return Optional.empty();
+		}
+		
+		Object[] sortValues = cursor.getSortValues();
+		List<Criterion> disjuncts = new ArrayList<>(orders.size() + 1);
+		List<Criterion> equalities = new ArrayList<>(orders.size());
+		for (int i = 0; i < orders.size(); i++) {
+			org.hibernate.criterion.Order order = orders.get(i);
+			
+			Optional<Criterion> comparison = keysetComparison(order, sortValues[i]);
+			if (comparison.isPresent()) {
+				List<Criterion> conjuncts = new ArrayList<>(equalities);
+				conjuncts.add(comparison.get());
+				disjuncts.add(and(conjuncts.toArray(new Criterion[0])));
+			}
+			
+			equalities.add(keysetEquality(order, sortValues[i]));
+		}
+		
+		List<Criterion> conjuncts = new ArrayList<>(equalities);
+		conjuncts.add(gt("id", cursor.getLastId()));
+		disjuncts.add(and(conjuncts.toArray(new Criterion[0])));
+		
+		return Optional.of(or(disjuncts.toArray(new Criterion[0])));
+	}
+	
+	/**
+	 * Records the position of the last result of this page so that the next page can be loaded with
+	 * {@link #handleKeyset(List, SearchParameterMap)}
+	 *
+	 * @param orders the orderings applied to the query, not including the ordering by id
+	 * @param theParams the parameters for this search
+	 * @param results the results for the current page
+	 * @return a {@link SearchCursor} or null if the next page cannot be loaded using a keyset
+	 */
+	protected SearchCursor createCursor(List<org.hibernate.criterion.Order> orders, SearchParameterMap theParams,
+	        List<T> results) {
+		if (results.isEmpty() || !orders.stream().allMatch(this::supportsKeyset)) {
+			return null;
+		}
+		
+		T last = results.get(results.size() - 1);
+		if (last.getId() == null) {
+			return null;
+		}
+		
+		ClassMetadata metadata = sessionFactory.getClassMetadata(typeToken.getRawType());
+		if (metadata == null) {
+			return null;
+		}
+		
+		Object[] sortValues = new Object[orders.size()];
+		for (int i = 0; i < orders.size(); i++) {
+			org.hibernate.criterion.Order order = orders.get(i);
+			
+			Object value;
+			if (order instanceof CoalescedOrder) {
+				CoalescedOrder coalescedOrder = (CoalescedOrder) order;
+				value = metadata.getPropertyValue(last, coalescedOrder.getFirstProperty());
+				if (value == null) {
+					value = metadata.getPropertyValue(last, coalescedOrder.getSecondProperty());
+				}
+			} else {
+				value = metadata.getPropertyValue(last, order.getPropertyName());
+			}
+			
+			if (value != null && !(value instanceof Comparable)) {
+				return null;
+			}
+			
+			sortValues[i] = value;
+		}
+		
+		return new SearchCursor(theParams.getFromIndex() + results.size(), sortValues, last.getId());
+	}
+	
+	private boolean supportsKeyset(org.hibernate.criterion.Order order) {
+		if (order instanceof CoalescedOrder) {
+			CoalescedOrder coalescedOrder = (CoalescedOrder) order;
+			return isRootProperty(coalescedOrder.getFirstProperty()) && isRootProperty(coalescedOrder.getSecondProperty());
+		}
+		
+		// orderings on joined properties cannot be read back from the root entity
+		return order.getClass() == org.hibernate.criterion.Order.class && isRootProperty(order.getPropertyName());
+	}
+	
+	private boolean isRootProperty(String propertyName) {
+		return propertyName != null && !propertyName.contains(".");
+	}
+	
+	private Optional<Criterion> keysetComparison(org.hibernate.criterion.Order order, Object value) {
+		boolean nullsLast = sortsNullsLast(order);
+		if (value == null) {
+			// nothing follows a null that is sorted last, whereas every other value follows one sorted first
+			return nullsLast ? Optional.empty() : Optional.of(not(keysetIsNull(order)));
+		}
+		
+		Criterion comparison;
+		if (order instanceof CoalescedOrder) {
+			CoalescedOrder coalescedOrder = (CoalescedOrder) order;
+			comparison = order.isAscending()
+			        ? CoalescedExpression.gt(coalescedOrder.getFirstProperty(), coalescedOrder.getSecondProperty(), value)
+			        : CoalescedExpression.lt(coalescedOrder.getFirstProperty(), coalescedOrder.getSecondProperty(), value);
+		} else {
+			comparison = order.isAscending() ? gt(order.getPropertyName(), value) : lt(order.getPropertyName(), value);
+		}
+		
+		return Optional.of(nullsLast ? or(comparison, keysetIsNull(order)) : comparison);
+	}
+	
+	private Criterion keysetEquality(org.hibernate.criterion.Order order, Object value) {
+		if (value == null) {
+			return keysetIsNull(order);
+		}
+		
+		if (order instanceof CoalescedOrder) {
+			CoalescedOrder coalescedOrder = (CoalescedOrder) order;
+			return CoalescedExpression.eq(coalescedOrder.getFirstProperty(), coalescedOrder.getSecondProperty(), value);
+		}
+		
+		return eq(order.getPropertyName(), value);
+	}
+	
+	private Criterion keysetIsNull(org.hibernate.criterion.Order order) {
+		if (order instanceof CoalescedOrder) {
+			CoalescedOrder coalescedOrder = (CoalescedOrder) order;
+			return and(isNull(coalescedOrder.getFirstProperty()), isNull(coalescedOrder.getSecondProperty()));
+		}
+		
+		return isNull(order.getPropertyName());
+	}
+	
+	/**
+	 * Whether rows with a null sort key follow every other row for the given ordering. Unless Hibernate
+	 * is configured with a default null ordering, this is up to the database: MySQL and H2 sort nulls
+	 * as lower than any other value, while PostgreSQL, Oracle and DB2 sort them as higher.
+	 */
+	private boolean sortsNullsLast(org.hibernate.criterion.Order order) {
+		SessionFactoryImplementor factory = (SessionFactoryImplementor) sessionFactory;
+		NullPrecedence nullPrecedence = factory.getSessionFactoryOptions().getDefaultNullPrecedence();
+		if (nullPrecedence == NullPrecedence.FIRST) {
+			return false;
+		} else if (nullPrecedence == NullPrecedence.LAST) {
+			return true;
+		}
+		
+		Dialect dialect = factory.getJdbcServices().getDialect();
+		boolean nullsHigh = dialect instanceof PostgreSQL81Dialect || dialect instanceof Oracle8iDialect
+		        || dialect instanceof DB2Dialect;
+		return order.isAscending() == nullsHigh;
+	}
+	
+	/**
+	 * Estimates the number of results for a search without counting them. Only searches that do not
+	 * filter the results are estimated, using the row count statistics the database keeps for the
+	 * table; other searches are counted.
+	 *
+	 * @param theParams the parameters for this search
+	 * @return the estimated number of results or an empty optional if no estimate is available
+	 */
+	protected Optional<Integer> estimateSearchResultsCount(SearchParameterMap theParams) {
+		boolean filtered = theParams.getParameters().stream()
+		        .anyMatch(entry -> !NON_FILTERING_PARAMETERS.contains(entry.getKey()) && !entry.getValue().isEmpty());
+		if (filtered) {
+			return Optional.empty();
+		}
+		
+		ClassMetadata metadata = sessionFactory.getClassMetadata(typeToken.getRawType());
+		if (!(metadata instanceof AbstractEntityPersister)) {
+			return Optional.empty();
+		}
+		
+		String tableName = ((AbstractEntityPersister) metadata).getTableName();
+		if (tableName.contains(".")) {
+			tableName = tableName.substring(tableName.lastIndexOf('.') + 1);
+		}
+		
+		Dialect dialect = ((SessionFactoryImplementor) sessionFactory).getJdbcServices().getDialect();
+		String query;
+		if (dialect instanceof MySQLDialect) {
+			query = "select table_rows from information_schema.tables where table_schema = database() and table_name = :table";
+		} else if (dialect instanceof PostgreSQL81Dialect) {
+			query = "select cast(reltuples as bigint) from pg_class where relname = :table";
+		} else {
+			return Optional.empty();
+		}
+		
+		try {
+			Object result = sessionFactory.getCurrentSession().createSQLQuery(query).setParameter("table", tableName)
+			        .uniqueResult();
+			if (result instanceof Number && ((Number) result).longValue() >= 0) {
+				return Optional.of((int) Math.min(((Number) result).longValue(), Integer.MAX_VALUE));
+			}
+		}
+		catch (HibernateException e) {
+			log.debug("Unable to read table statistics for {}", tableName, e);
+		}
+		
+		return Optional.empty();
 	}
 	
 	/**
@@ -364,6 +705,63 @@ public abstract class BaseFhirDao<T extends OpenmrsObject & Auditable> extends B
 		return super.paramToProp(param);
 	}
 	
+	/**
+	 * Returns the associations to load together with a page of results that will be rendered using
+	 * the supplied profile. Each entry is the path to an association from the object managed by this
+	 * Dao, e.g. {@code "names"} or {@code "concept.names"}, and every association along the path is
+	 * fetched. Associations that are not listed are loaded lazily, one object at a time.
+	 *
+	 * @param profile the profile the results will be rendered with
+	 * @return the paths of the associations to load for the page
+	 */
+	protected Collection<String> getFetchPaths(@Nonnull FetchProfile profile) {
+		return Collections.emptyList();
+	}
+	
+	/**
+	 * Loads everything needed for a page of results with a bounded number of queries: one query with
+	 * fetch joins per path returned by {@link #getFetchPaths(FetchProfile)} or, if there are none,
+	 * at most one query to initialise any results that are still uninitialised proxies. As the
+	 * objects are already in the session, these queries only fill in the associations of the
+	 * existing instances, so the {@link #deproxyResult(OpenmrsObject)} calls that follow no longer
+	 * need to go to the database.
+	 *
+	 * @param results a page of results
+	 * @param profile the profile the results will be rendered with
+	 * @return the results, deproxied
+	 */
+	protected List<T> hydrateResults(List<T> results, FetchProfile profile) {
+		if (results.isEmpty()) {
+			return results;
+		}
+		
+		Set<Integer> ids = results.stream().map(OpenmrsObject::getId).collect(Collectors.toSet());
+		Collection<String> fetchPaths = getFetchPaths(profile == null ? FetchProfile.FULL : profile);
+		
+		if (fetchPaths.isEmpty()) {
+			if (results.stream().anyMatch(result -> result instanceof HibernateProxy
+			        && ((HibernateProxy) result).getHibernateLazyInitializer().isUninitialized())) {
+				sessionFactory.getCurrentSession().createCriteria(typeToken.getRawType()).add(in("id", ids)).list();
+			}
+		} else {
+			for (String fetchPath : fetchPaths) {
+				Criteria criteria = sessionFactory.getCurrentSession().createCriteria(typeToken.getRawType())
+				        .add(in("id", ids));
+				
+				int separator = fetchPath.indexOf('.');
+				while (separator >= 0) {
+					criteria.setFetchMode(fetchPath.substring(0, separator), FetchMode.JOIN);
+					separator = fetchPath.indexOf('.', separator + 1);
+				}
+				criteria.setFetchMode(fetchPath, FetchMode.JOIN);
+				
+				criteria.setResultTransformer(Criteria.DISTINCT_ROOT_ENTITY).list();
+			}
+		}
+		
+		return results.stream().map(this::deproxyResult).collect(Collectors.toList());
+	}
+	
 	protected static <V> V deproxyObject(V object) {
 		if (object instanceof HibernateProxy) {
 			Hibernate.initialize(object);
@@ -11,6 +11,7 @@ package org.openmrs.module.fhir2.api.dao.impl;
 
 import static org.hibernate.criterion.Restrictions.and;
 import static org.hibernate.criterion.Restrictions.eq;
+import static org.hibernate.criterion.Restrictions.eqProperty;
 import static org.hibernate.criterion.Restrictions.isNull;
 import static org.hibernate.criterion.Restrictions.or;
 import static org.hibernate.criterion.Restrictions.sqlRestriction;
@@ -42,6 +43,7 @@ import org.openmrs.Auditable;
 import org.openmrs.OpenmrsObject;
 import org.openmrs.Patient;
 import org.openmrs.Person;
+import org.openmrs.PersonAddress;
 import org.openmrs.PersonName;
 import org.openmrs.module.fhir2.FhirConstants;
 import org.openmrs.module.fhir2.api.search.param.PropParam;
@@ -87,8 +89,26 @@ public abstract class BasePersonDao<T extends OpenmrsObject & Auditable> extends
 		}
 		
 		Criteria criteria = sortState.getCriteria();
-		if (param.startsWith("address") && lacksAlias(criteria, "pad")) {
-			criteria.createAlias(getAssociationPath("addresses"), "pad", JoinType.LEFT_OUTER_JOIN);
+		if (param.startsWith("address")) {
+			if (lacksAlias(criteria, "pad")) {
+				criteria.createAlias(getAssociationPath("addresses"), "pad", JoinType.LEFT_OUTER_JOIN);
+				
+				// only join a single address for each person so that sorting cannot produce duplicate rows
+				String personId = getPersonIdProperty(criteria, getPersonProperty());
+				criteria.add(or(
+				    Subqueries.propertyEq("pad.personAddressId",
+				        DetachedCriteria.forClass(PersonAddress.class, "pad1").add(eq("pad1.voided", false))
+				                .add(eqProperty("pad1.person.id", personId))
+				                .setProjection(Projections.min("pad1.personAddressId"))),
+				    and(Subqueries.notExists(DetachedCriteria.forClass(PersonAddress.class, "pad2")
+				            .add(eq("pad2.voided", false)).add(eqProperty("pad2.person.id", personId))
+				            .setProjection(Projections.id())),
+				        Subqueries.propertyEq("pad.personAddressId",
+				            DetachedCriteria.forClass(PersonAddress.class, "pad3")
+				                    .add(eqProperty("pad3.person.id", personId))
+				                    .setProjection(Projections.min("pad3.personAddressId")))),
+				    isNull("pad.personAddressId")));
+			}
 		} else if (param.equals(SP_NAME) || param.equals(SP_GIVEN) || param.equals(SP_FAMILY)) {
 			if (lacksAlias(criteria, "pn")) {
 				criteria.createAlias(getAssociationPath("names"), "pn", JoinType.LEFT_OUTER_JOIN);
@@ -178,10 +198,10 @@ public abstract class BasePersonDao<T extends OpenmrsObject & Auditable> extends
 			}
 		}
 		
-		handlePersonAddress("pad", city, state, postalCode, country).ifPresent(c -> {
-			criteria.createAlias(getAssociationPath("addresses"), "pad");
-			criteria.add(c);
-		});
+		handlePersonAddress("spad", city, state, postalCode, country)
+		        .ifPresent(c -> criteria.add(Subqueries.exists(DetachedCriteria.forClass(PersonAddress.class, "spad")
+		                .add(eqProperty("spad.person.id", getPersonIdProperty(criteria, getPersonProperty()))).add(c)
+		                .setProjection(Projections.id()))));
 	}
 	
 	protected void handleNames(Criteria criteria, List<PropParam<?>> params) {
@@ -0,0 +1,89 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.dao.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.hibernate.Criteria;
+import org.hibernate.criterion.CriteriaQuery;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.dialect.function.SQLFunction;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.TypedValue;
+import org.hibernate.type.Type;
+
+/**
+ * Provides Hibernate Criteria API restrictions that compare the SQL COALESCE() of two properties to
+ * a value. This is the restriction counterpart to {@link CoalescedOrder}.
+ */
+public class CoalescedExpression implements Criterion {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private final String firstProperty;
+	
+	private final String secondProperty;
+	
+	private final Object value;
+	
+	private final String op;
+	
+	protected CoalescedExpression(String firstProperty, String secondProperty, Object value, String op) {
+		this.firstProperty = firstProperty;
+		this.secondProperty = secondProperty;
+		this.value = value;
+		this.op = op;
+	}
+	
+	public static Criterion eq(String firstPropertyName, String secondPropertyName, Object value) {
+		return new CoalescedExpression(firstPropertyName, secondPropertyName, value, "=");
+	}
+	
+	public static Criterion gt(String firstPropertyName, String secondPropertyName, Object value) {
+		return new CoalescedExpression(firstPropertyName, secondPropertyName, value, ">");
+	}
+	
+	public static Criterion lt(String firstPropertyName, String secondPropertyName, Object value) {
+		return new CoalescedExpression(firstPropertyName, secondPropertyName, value, "<");
+	}
+	
+	@Override
+	public String toSqlString(Criteria criteria, CriteriaQuery criteriaQuery) {
+		final Type type = criteriaQuery.getTypeUsingProjection(criteria, firstProperty);
+		final SessionFactoryImplementor factory = criteriaQuery.getFactory();
+		
+		final SQLFunction coalesceFunction = factory.getDialect().getFunctions().get("coalesce");
+		
+		if (coalesceFunction == null) {
+			throw new IllegalStateException("Cannot use coalesced restrictions on a database that does not support it");
+		}
+		
+		final String[] firstPropertyColumns = criteriaQuery.getColumnsUsingProjection(criteria, firstProperty);
+		final String[] secondPropertyColumns = criteriaQuery.getColumnsUsingProjection(criteria, secondProperty);
+		
+		final List<String> properties = new ArrayList<>(firstPropertyColumns.length + secondPropertyColumns.length);
+		Collections.addAll(properties, firstPropertyColumns);
+		Collections.addAll(properties, secondPropertyColumns);
+		
+		return coalesceFunction.render(type, properties, factory) + op + "?";
+	}
+	
+	@Override
+	public TypedValue[] getTypedValues(Criteria criteria, CriteriaQuery criteriaQuery) {
+		return new TypedValue[] { criteriaQuery.getTypedValue(criteria, firstProperty, value) };
+	}
+	
+	@Override
+	public String toString() {
+		return "coalesce(" + firstProperty + ", " + secondProperty + ")" + op + value;
+	}
+}
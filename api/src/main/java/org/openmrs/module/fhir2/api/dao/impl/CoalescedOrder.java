@@ -36,6 +36,14 @@ public class CoalescedOrder extends Order {
 		this.secondProperty = secondProperty;
 	}
 	
+	public String getFirstProperty() {
+		return firstProperty;
+	}
+	
+	public String getSecondProperty() {
+		return secondProperty;
+	}
+	
 	public static Order asc(String firstPropertyName, String secondPropertyName) {
 		return new CoalescedOrder(firstPropertyName, secondPropertyName, true);
 	}
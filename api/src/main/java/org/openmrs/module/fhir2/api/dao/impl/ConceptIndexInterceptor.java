@@ -0,0 +1,122 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.dao.impl;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.AccessLevel;
+import lombok.Setter;
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Transaction;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.hibernate.type.Type;
+import org.openmrs.ConceptMapType;
+import org.openmrs.ConceptReferenceTerm;
+import org.openmrs.ConceptSource;
+import org.openmrs.module.fhir2.api.cache.ConceptCodingIndex;
+import org.openmrs.module.fhir2.api.cache.ConceptReverseIndex;
+import org.openmrs.module.fhir2.api.cache.ConceptSourceUrlIndex;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the {@link ConceptCodingIndex}, the {@link ConceptReverseIndex} and the
+ * {@link ConceptSourceUrlIndex} up to date with changes to concepts, their mappings and the FHIR
+ * concept sources, however the change was made. Entries are
+ * invalidated as soon as the change is flushed and again once the transaction completes, in case an
+ * entry was built from the old or the uncommitted state in the meantime.
+ */
+@Component
+public class ConceptIndexInterceptor extends EmptyInterceptor {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private static final ThreadLocal<List<Object>> changedObjects = ThreadLocal.withInitial(ArrayList::new);
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = { @Autowired, @Lazy })
+	private transient ConceptCodingIndex conceptCodingIndex;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = { @Autowired, @Lazy })
+	private transient ConceptReverseIndex conceptReverseIndex;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = { @Autowired, @Lazy })
+	private transient ConceptSourceUrlIndex conceptSourceUrlIndex;
+	
+	@Override
+	public boolean onSave(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		// a new reference term, concept source or map type is not used by any existing mapping
+		if (!(entity instanceof ConceptReferenceTerm || entity instanceof ConceptSource
+		        || entity instanceof ConceptMapType)) {
+			changed(entity);
+		}
+		
+		return false;
+	}
+	
+	@Override
+	public boolean onFlushDirty(Object entity, Serializable id, Object[] currentState, Object[] previousState,
+	        String[] propertyNames, Type[] types) {
+		changed(entity);
+		return false;
+	}
+	
+	@Override
+	public void onDelete(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		changed(entity);
+	}
+	
+	@Override
+	public void onCollectionUpdate(Object collection, Serializable key) {
+		if (collection instanceof PersistentCollection) {
+			changed(((PersistentCollection) collection).getOwner());
+		}
+	}
+	
+	@Override
+	public void onCollectionRemove(Object collection, Serializable key) {
+		if (collection instanceof PersistentCollection) {
+			changed(((PersistentCollection) collection).getOwner());
+		}
+	}
+	
+	@Override
+	public void afterTransactionCompletion(Transaction tx) {
+		try {
+			changedObjects.get().forEach(this::invalidate);
+		}
+		finally {
+			changedObjects.remove();
+		}
+	}
+	
+	private void changed(Object entity) {
+		if (ConceptCodingIndex.isIndexed(entity)) {
+			invalidate(entity);
+			changedObjects.get().add(entity);
+		}
+	}
+	
+	private void invalidate(Object entity) {
+		if (conceptCodingIndex != null) {
+			conceptCodingIndex.invalidate(entity);
+		}
+		
+		if (conceptReverseIndex != null) {
+			conceptReverseIndex.invalidate(entity);
+		}
+		
+		if (conceptSourceUrlIndex != null) {
+			conceptSourceUrlIndex.invalidate(entity);
+		}
+	}
+}
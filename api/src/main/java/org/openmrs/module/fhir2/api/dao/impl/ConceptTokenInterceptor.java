@@ -0,0 +1,166 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.dao.impl;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import lombok.AccessLevel;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Transaction;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.hibernate.type.Type;
+import org.openmrs.Concept;
+import org.openmrs.ConceptMap;
+import org.openmrs.ConceptReferenceTerm;
+import org.openmrs.module.fhir2.api.dao.FhirConceptTokenDao;
+import org.openmrs.module.fhir2.model.FhirConceptSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the {@code fhir_concept_token} table in step with the concept mappings. Concepts whose
+ * mappings change are collected as the session is flushed and their tokens are re-created just before
+ * the transaction commits, however the change was made. A change to a FHIR concept source or to the
+ * code of a reference term re-creates the whole table in the background once the transaction has
+ * completed. Rows for purged concepts are removed by the database as the foreign key cascades.
+ * <p/>
+ * Hibernate ignores exceptions thrown just before a transaction commits, so if the tokens of the
+ * changed concepts cannot be re-created, the table is set aside and rebuilt instead, with searches
+ * matching the concept mappings in the meantime.
+ */
+@Slf4j
+@Component
+public class ConceptTokenInterceptor extends EmptyInterceptor {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private static final List<String> TOKEN_PROPERTIES = Arrays.asList("code", "conceptSource", "url");
+	
+	private static final ThreadLocal<Set<Concept>> changedConcepts = ThreadLocal.withInitial(LinkedHashSet::new);
+	
+	private static final ThreadLocal<Boolean> rebuildRequired = ThreadLocal.withInitial(() -> false);
+	
+	private static final ThreadLocal<Boolean> tokensChanged = ThreadLocal.withInitial(() -> false);
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = { @Autowired, @Lazy })
+	private transient FhirConceptTokenDao conceptTokenDao;
+	
+	@Override
+	public boolean onSave(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		if (entity instanceof ConceptMap) {
+			changed(((ConceptMap) entity).getConcept());
+		} else if (entity instanceof FhirConceptSource) {
+			rebuildRequired.set(true);
+		}
+		
+		return false;
+	}
+	
+	@Override
+	public boolean onFlushDirty(Object entity, Serializable id, Object[] currentState, Object[] previousState,
+	        String[] propertyNames, Type[] types) {
+		if (entity instanceof ConceptMap) {
+			changed(((ConceptMap) entity).getConcept());
+			for (int i = 0; i < propertyNames.length; i++) {
+				// a mapping moved to another concept also changes the tokens of the concept it was moved from
+				if ("concept".equals(propertyNames[i]) && previousState != null
+				        && previousState[i] instanceof Concept) {
+					changed((Concept) previousState[i]);
+				}
+			}
+		} else if (entity instanceof ConceptReferenceTerm || entity instanceof FhirConceptSource) {
+			for (int i = 0; i < propertyNames.length; i++) {
+				if (TOKEN_PROPERTIES.contains(propertyNames[i])
+				        && (previousState == null || !Objects.equals(previousState[i], currentState[i]))) {
+					rebuildRequired.set(true);
+					break;
+				}
+			}
+		}
+		
+		return false;
+	}
+	
+	@Override
+	public void onDelete(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		if (entity instanceof ConceptMap) {
+			changed(((ConceptMap) entity).getConcept());
+		} else if (entity instanceof FhirConceptSource) {
+			rebuildRequired.set(true);
+		}
+	}
+	
+	@Override
+	public void onCollectionUpdate(Object collection, Serializable key) {
+		if (collection instanceof PersistentCollection
+		        && ((PersistentCollection) collection).getOwner() instanceof Concept) {
+			changed((Concept) ((PersistentCollection) collection).getOwner());
+		}
+	}
+	
+	@Override
+	public void beforeTransactionCompletion(Transaction tx) {
+		Set<Concept> concepts = changedConcepts.get();
+		// a rebuild of the whole table also covers the changed concepts
+		if (concepts.isEmpty() || rebuildRequired.get() || conceptTokenDao == null) {
+			return;
+		}
+		
+		List<Integer> conceptIds = concepts.stream().map(Concept::getConceptId).filter(Objects::nonNull)
+		        .collect(Collectors.toList());
+		concepts.clear();
+		tokensChanged.set(true);
+		
+		try {
+			conceptTokenDao.updateTokens(conceptIds);
+		}
+		catch (RuntimeException e) {
+			log.error("Could not update the tokens of concepts {}; code searches will use the concept mappings until "
+			        + "the tokens have been rebuilt",
+			    conceptIds, e);
+			conceptTokenDao.invalidateTokens();
+			rebuildRequired.set(true);
+		}
+	}
+	
+	@Override
+	public void afterTransactionCompletion(Transaction tx) {
+		try {
+			if (conceptTokenDao != null) {
+				if (rebuildRequired.get()) {
+					conceptTokenDao.rebuildTokensInBackground();
+				} else if (tokensChanged.get()) {
+					// results cached by other threads while the transaction was committing may be out of date
+					conceptTokenDao.clearCache();
+				}
+			}
+		}
+		finally {
+			changedConcepts.remove();
+			rebuildRequired.remove();
+			tokensChanged.remove();
+		}
+	}
+	
+	private static void changed(Concept concept) {
+		if (concept != null) {
+			changedConcepts.get().add(concept);
+		}
+	}
+}
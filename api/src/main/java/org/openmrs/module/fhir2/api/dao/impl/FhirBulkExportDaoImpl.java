@@ -0,0 +1,85 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.dao.impl;
+
+import static org.hibernate.criterion.Restrictions.eq;
+import static org.hibernate.criterion.Restrictions.in;
+
+import javax.annotation.Nonnull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import org.hibernate.SessionFactory;
+import org.hibernate.criterion.Projections;
+import org.openmrs.Cohort;
+import org.openmrs.Patient;
+import org.openmrs.module.fhir2.api.dao.FhirBulkExportDao;
+import org.openmrs.module.fhir2.model.FhirBulkExportJob;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+@Component
+public class FhirBulkExportDaoImpl implements FhirBulkExportDao {
+	
+	@Getter(value = AccessLevel.PROTECTED)
+	@Setter(value = AccessLevel.PROTECTED, onMethod = @__({ @Autowired, @Qualifier("sessionFactory") }))
+	private SessionFactory sessionFactory;
+	
+	@Override
+	@Transactional(readOnly = true)
+	public Optional<FhirBulkExportJob> getExportJob(@Nonnull String uuid) {
+		return Optional.ofNullable((FhirBulkExportJob) sessionFactory.getCurrentSession()
+		        .createCriteria(FhirBulkExportJob.class).add(eq("uuid", uuid)).uniqueResult());
+	}
+	
+	@Override
+	@Transactional
+	public FhirBulkExportJob saveExportJob(@Nonnull FhirBulkExportJob exportJob) {
+		sessionFactory.getCurrentSession().saveOrUpdate(exportJob);
+		return exportJob;
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	@SuppressWarnings("unchecked")
+	public Optional<List<Integer>> getCohortMemberIds(@Nonnull String cohortUuid) {
+		Object cohortId = sessionFactory.getCurrentSession().createCriteria(Cohort.class).add(eq("uuid", cohortUuid))
+		        .add(eq("voided", false)).setProjection(Projections.id()).uniqueResult();
+		if (cohortId == null) {
+			return Optional.empty();
+		}
+		
+		return Optional.of(sessionFactory.getCurrentSession()
+		        .createQuery("select distinct m.patientId from CohortMembership m where m.cohort.cohortId = :cohortId "
+		                + "and m.voided = false and (m.endDate is null or m.endDate > :now) order by m.patientId")
+		        .setParameter("cohortId", cohortId).setParameter("now", new Date()).list());
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	@SuppressWarnings("unchecked")
+	public List<String> getPatientUuids(@Nonnull Collection<Integer> patientIds) {
+		if (patientIds.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		return sessionFactory.getCurrentSession().createCriteria(Patient.class).add(in("patientId", patientIds))
+		        .add(eq("voided", false)).setProjection(Projections.property("uuid")).list();
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.dao.impl;
+
+import static org.hibernate.criterion.Restrictions.eq;
+
+import javax.annotation.Nonnull;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.openmrs.Allergy;
+import org.openmrs.Condition;
+import org.openmrs.Drug;
+import org.openmrs.Encounter;
+import org.openmrs.Location;
+import org.openmrs.Obs;
+import org.openmrs.OpenmrsObject;
+import org.openmrs.Patient;
+import org.openmrs.Provider;
+import org.openmrs.api.APIAuthenticationException;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.fhir2.api.dao.FhirBulkImportDao;
+import org.openmrs.module.fhir2.model.FhirBulkImportJob;
+import org.openmrs.module.fhir2.model.FhirDiagnosticReport;
+import org.openmrs.util.PrivilegeConstants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+@Component
+public class FhirBulkImportDaoImpl implements FhirBulkImportDao {
+	
+	// the privileges checked by the createOrUpdate() method of the DAO for each type, all of which are required
+	private static final Map<Class<?>, String[]> IMPORT_PRIVILEGES = new LinkedHashMap<>();
+	
+	static {
+		IMPORT_PRIVILEGES.put(Patient.class,
+		    new String[] { PrivilegeConstants.ADD_PATIENTS, PrivilegeConstants.EDIT_PATIENTS });
+		IMPORT_PRIVILEGES.put(Provider.class, new String[] { PrivilegeConstants.MANAGE_PROVIDERS });
+		IMPORT_PRIVILEGES.put(Location.class, new String[] { PrivilegeConstants.MANAGE_LOCATIONS });
+		IMPORT_PRIVILEGES.put(Drug.class, new String[] { PrivilegeConstants.MANAGE_CONCEPTS });
+		IMPORT_PRIVILEGES.put(Encounter.class,
+		    new String[] { PrivilegeConstants.ADD_ENCOUNTERS, PrivilegeConstants.EDIT_ENCOUNTERS });
+		IMPORT_PRIVILEGES.put(Obs.class, new String[] { PrivilegeConstants.ADD_OBS, PrivilegeConstants.EDIT_OBS });
+		IMPORT_PRIVILEGES.put(Allergy.class,
+		    new String[] { PrivilegeConstants.ADD_ALLERGIES, PrivilegeConstants.EDIT_ALLERGIES });
+		IMPORT_PRIVILEGES.put(Condition.class, new String[] { PrivilegeConstants.EDIT_CONDITIONS });
+		IMPORT_PRIVILEGES.put(FhirDiagnosticReport.class,
+		    new String[] { PrivilegeConstants.ADD_OBS, PrivilegeConstants.EDIT_OBS });
+	}
+	
+	@Getter(value = AccessLevel.PROTECTED)
+	@Setter(value = AccessLevel.PROTECTED, onMethod = @__({ @Autowired, @Qualifier("sessionFactory") }))
+	private SessionFactory sessionFactory;
+	
+	@Override
+	@Transactional(readOnly = true)
+	public Optional<FhirBulkImportJob> getImportJob(@Nonnull String uuid) {
+		return Optional.ofNullable((FhirBulkImportJob) sessionFactory.getCurrentSession()
+		        .createCriteria(FhirBulkImportJob.class).add(eq("uuid", uuid)).uniqueResult());
+	}
+	
+	@Override
+	@Transactional
+	public FhirBulkImportJob saveImportJob(@Nonnull FhirBulkImportJob importJob) {
+		sessionFactory.getCurrentSession().saveOrUpdate(importJob);
+		return importJob;
+	}
+	
+	@Override
+	@Transactional
+	public FhirBulkImportJob saveChunk(@Nonnull FhirBulkImportJob importJob,
+	        @Nonnull Collection<? extends OpenmrsObject> objects) {
+		objects.stream().map(OpenmrsObject::getClass).distinct().forEach(this::checkImportPrivileges);
+		
+		Session session = sessionFactory.getCurrentSession();
+		Integer jdbcBatchSize = session.getJdbcBatchSize();
+		session.setJdbcBatchSize(Math.max(objects.size(), 1));
+		try {
+			for (OpenmrsObject object : objects) {
+				session.saveOrUpdate(object);
+			}
+			
+			session.saveOrUpdate(importJob);
+			session.flush();
+		}
+		finally {
+			session.setJdbcBatchSize(jdbcBatchSize);
+		}
+		
+		return importJob;
+	}
+	
+	@Override
+	public void checkImportPrivileges(@Nonnull Class<? extends OpenmrsObject> type) {
+		String[] privileges = IMPORT_PRIVILEGES.entrySet().stream().filter(e -> e.getKey().isAssignableFrom(type))
+		        .map(Map.Entry::getValue).findFirst()
+		        .orElseThrow(() -> new APIAuthenticationException(type.getSimpleName() + " objects cannot be imported"));
+		
+		for (String privilege : privileges) {
+			if (!Context.hasPrivilege(privilege)) {
+				throw new APIAuthenticationException(
+				        "Privilege " + privilege + " is required to import " + type.getSimpleName() + " objects");
+			}
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.dao.impl;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import lombok.AccessLevel;
+import lombok.Setter;
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Transaction;
+import org.hibernate.type.Type;
+import org.openmrs.GlobalProperty;
+import org.openmrs.module.fhir2.api.cache.FhirCacheInvalidationEvent;
+import org.openmrs.module.fhir2.api.cache.FhirCacheManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes a {@link FhirCacheInvalidationEvent} whenever an object that a cache of the
+ * {@link FhirCacheManager} depends on is saved or deleted, however the change was made. The event is
+ * published as soon as the change is flushed and again once the transaction completes, in case a
+ * value was cached from the old state in the meantime.
+ */
+@Component
+public class FhirCacheInvalidationInterceptor extends EmptyInterceptor {
+	
+	private static final long serialVersionUID = 1L;
+	
+	// one changed object per type (or per setting) is enough to clear the same caches again
+	private static final ThreadLocal<Map<Object, Object>> changedObjects = ThreadLocal.withInitial(LinkedHashMap::new);
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = { @Autowired, @Lazy })
+	private transient ApplicationEventPublisher eventPublisher;
+	
+	@Override
+	public boolean onSave(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		changed(entity);
+		return false;
+	}
+	
+	@Override
+	public boolean onFlushDirty(Object entity, Serializable id, Object[] currentState, Object[] previousState,
+	        String[] propertyNames, Type[] types) {
+		changed(entity);
+		return false;
+	}
+	
+	@Override
+	public void onDelete(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		changed(entity);
+	}
+	
+	@Override
+	public void afterTransactionCompletion(Transaction tx) {
+		try {
+			if (eventPublisher != null) {
+				for (Object changed : changedObjects.get().values()) {
+					eventPublisher.publishEvent(new FhirCacheInvalidationEvent(changed));
+				}
+			}
+		}
+		finally {
+			changedObjects.remove();
+		}
+	}
+	
+	private void changed(Object entity) {
+		if (eventPublisher == null || !FhirCacheManager.isObserved(entity)) {
+			return;
+		}
+		
+		eventPublisher.publishEvent(new FhirCacheInvalidationEvent(entity));
+		changedObjects.get().put(
+		    entity instanceof GlobalProperty ? ((GlobalProperty) entity).getProperty() : entity.getClass(), entity);
+	}
+}
@@ -12,11 +12,13 @@ package org.openmrs.module.fhir2.api.dao.impl;
 import static org.hibernate.criterion.Order.asc;
 import static org.hibernate.criterion.Projections.property;
 import static org.hibernate.criterion.Restrictions.eq;
+import static org.hibernate.criterion.Restrictions.in;
 import static org.hibernate.criterion.Restrictions.or;
 import static org.openmrs.module.fhir2.FhirConstants.TITLE_SEARCH_HANDLER;
 
 import javax.annotation.Nonnull;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
@@ -27,6 +29,8 @@ import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import org.hibernate.Criteria;
+import org.hibernate.criterion.Disjunction;
+import org.hibernate.criterion.Restrictions;
 import org.hibernate.transform.DistinctRootEntityResultTransformer;
 import org.openmrs.Concept;
 import org.openmrs.ConceptMap;
@@ -90,6 +94,35 @@ public class FhirConceptDaoImpl extends BaseFhirDao<Concept> implements FhirConc
 		return criteria.list();
 	}
 	
+	@Override
+	@Transactional(readOnly = true)
+	@SuppressWarnings("unchecked")
+	public List<Concept> getConceptsMappedToCodesInSource(@Nonnull ConceptSource conceptSource,
+	        @Nonnull Collection<String> mappingCodes) {
+		if (conceptSource == null || mappingCodes == null || mappingCodes.isEmpty()) {
+			return Collections.emptyList();
+		}
+		
+		Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(ConceptMap.class);
+		criteria.setProjection(property("concept"));
+		criteria.createAlias("conceptReferenceTerm", "term");
+		criteria.createAlias("concept", "concept");
+		
+		if (Context.getAdministrationService().isDatabaseStringComparisonCaseSensitive()) {
+			Disjunction codes = Restrictions.disjunction();
+			mappingCodes.forEach(code -> codes.add(eq("term.code", code).ignoreCase()));
+			criteria.add(codes);
+		} else {
+			criteria.add(in("term.code", mappingCodes));
+		}
+		
+		criteria.add(eq("term.conceptSource", conceptSource));
+		criteria.addOrder(asc("concept.retired"));
+		criteria.setResultTransformer(DistinctRootEntityResultTransformer.INSTANCE);
+		
+		return criteria.list();
+	}
+	
 	@Override
 	protected void setupSearchParams(Criteria criteria, SearchParameterMap theParams) {
 		criteria.add(eq("set", true));
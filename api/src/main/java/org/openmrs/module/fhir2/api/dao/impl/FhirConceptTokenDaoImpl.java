@@ -0,0 +1,250 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.dao.impl;
+
+import javax.annotation.Nonnull;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.openmrs.module.fhir2.api.dao.FhirConceptTokenDao;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Maintains the {@code fhir_concept_token} table using plain JDBC, so that it can be updated while a
+ * Hibernate session is being flushed or committed. The concepts found for each set of tokens are
+ * cached, as the same codes, e.g. the LOINC codes of the vital signs, are searched for over and over.
+ * <p/>
+ * The table is only used once it has been built. Whenever it is set aside, it is not used again
+ * until a rebuild that started afterwards has completed.
+ */
+@Slf4j
+@Component
+public class FhirConceptTokenDaoImpl implements FhirConceptTokenDao {
+	
+	private static final int MAX_PARAMETERS = 1000;
+	
+	private static final String INSERT_TOKENS = "insert into fhir_concept_token (system_url, code, concept_id) "
+	        + "select distinct fcs.url, crt.code, crm.concept_id from concept_reference_map crm "
+	        + "inner join concept_reference_term crt on crt.concept_reference_term_id = crm.concept_reference_term_id "
+	        + "inner join fhir_concept_source fcs on fcs.concept_source_id = crt.concept_source_id";
+	
+	@Getter(value = AccessLevel.PROTECTED)
+	@Setter(value = AccessLevel.PROTECTED, onMethod = @__({ @Autowired, @Qualifier("sessionFactory") }))
+	private SessionFactory sessionFactory;
+	
+	private final Cache<String, List<Integer>> conceptIdsByTokens = CacheBuilder.newBuilder().maximumSize(1000)
+	        .expireAfterWrite(1, TimeUnit.HOURS).build();
+	
+	private final AtomicLong cacheGeneration = new AtomicLong();
+	
+	private final AtomicBoolean rebuildPending = new AtomicBoolean();
+	
+	private volatile boolean built;
+	
+	private long generation;
+	
+	private ExecutorService executor;
+	
+	/**
+	 * Discards and re-creates every row of the token table as part of the current transaction
+	 */
+	void rebuildTokens() {
+		sessionFactory.getCurrentSession().doWork(FhirConceptTokenDaoImpl::replaceTokens);
+		
+		synchronized (this) {
+			generation++;
+			built = true;
+		}
+		
+		clearCache();
+	}
+	
+	@Override
+	public void rebuildTokensInBackground() {
+		invalidateTokens();
+		if (!rebuildPending.compareAndSet(false, true)) {
+			return;
+		}
+		
+		getExecutor().execute(() -> {
+			rebuildPending.set(false);
+			long buildGeneration;
+			synchronized (this) {
+				buildGeneration = generation;
+			}
+			
+			long start = System.currentTimeMillis();
+			try (StatelessSession session = sessionFactory.openStatelessSession()) {
+				Transaction transaction = session.beginTransaction();
+				try {
+					session.doWork(FhirConceptTokenDaoImpl::replaceTokens);
+					transaction.commit();
+				}
+				catch (RuntimeException e) {
+					transaction.rollback();
+					throw e;
+				}
+			}
+			catch (Exception e) {
+				log.error("Could not rebuild the concept tokens; code searches will use the concept mappings", e);
+				return;
+			}
+			
+			synchronized (this) {
+				// if the table was set aside while it was being rebuilt, the rebuild scheduled then replaces this one
+				if (generation == buildGeneration) {
+					built = true;
+				}
+			}
+			
+			clearCache();
+			log.info("Rebuilt the concept tokens in {} ms", System.currentTimeMillis() - start);
+		});
+	}
+	
+	@Override
+	public void invalidateTokens() {
+		synchronized (this) {
+			generation++;
+			built = false;
+		}
+		
+		clearCache();
+	}
+	
+	// this is called while the transaction that changed the mappings is committing, so a failure must not mark it
+	// for rollback; the caller sets the table aside instead
+	@Override
+	@Transactional(propagation = Propagation.MANDATORY, noRollbackFor = RuntimeException.class)
+	public void updateTokens(@Nonnull Collection<Integer> conceptIds) {
+		if (conceptIds.isEmpty()) {
+			return;
+		}
+		
+		List<Integer> ids = new ArrayList<>(new TreeSet<>(conceptIds));
+		sessionFactory.getCurrentSession().doWork(connection -> {
+			// on some databases, e.g. PostgreSQL, a failed statement aborts the whole transaction unless it is rolled
+			// back to a savepoint, which would lose the change to the mappings as well
+			Savepoint savepoint = connection.setSavepoint();
+			try {
+				for (int i = 0; i < ids.size(); i += MAX_PARAMETERS) {
+					updateTokens(connection, ids.subList(i, Math.min(i + MAX_PARAMETERS, ids.size())));
+				}
+			}
+			catch (SQLException | RuntimeException e) {
+				connection.rollback(savepoint);
+				throw e;
+			}
+			
+			connection.releaseSavepoint(savepoint);
+		});
+		
+		clearCache();
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	@SuppressWarnings("unchecked")
+	public Optional<List<Integer>> getConceptIds(@Nonnull String system, @Nonnull Collection<String> codes) {
+		if (!built || system == null || codes == null || codes.isEmpty()) {
+			return Optional.empty();
+		}
+		
+		String key = system + "|" + String.join(",", new TreeSet<>(codes));
+		List<Integer> conceptIds = conceptIdsByTokens.getIfPresent(key);
+		if (conceptIds == null) {
+			long loadGeneration = cacheGeneration.get();
+			conceptIds = Collections.unmodifiableList(sessionFactory.getCurrentSession()
+			        .createQuery("select distinct t.concept.conceptId from FhirConceptToken t "
+			                + "where t.systemUrl = :system and t.code in (:codes)")
+			        .setParameter("system", system).setParameterList("codes", codes).list());
+			
+			synchronized (cacheGeneration) {
+				// concepts read before the cache was last cleared may already be out of date
+				if (cacheGeneration.get() == loadGeneration) {
+					conceptIdsByTokens.put(key, conceptIds);
+				}
+			}
+		}
+		
+		return Optional.of(conceptIds);
+	}
+	
+	@Override
+	public void clearCache() {
+		synchronized (cacheGeneration) {
+			cacheGeneration.incrementAndGet();
+			conceptIdsByTokens.invalidateAll();
+		}
+	}
+	
+	protected synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "fhir2-concept-tokens");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		
+		return executor;
+	}
+	
+	private static void updateTokens(Connection connection, List<Integer> conceptIds) throws SQLException {
+		String placeholders = String.join(", ", Collections.nCopies(conceptIds.size(), "?"));
+		try (PreparedStatement delete = connection
+		        .prepareStatement("delete from fhir_concept_token where concept_id in (" + placeholders + ")");
+		        PreparedStatement insert = connection
+		                .prepareStatement(INSERT_TOKENS + " where crm.concept_id in (" + placeholders + ")")) {
+			for (int i = 0; i < conceptIds.size(); i++) {
+				delete.setInt(i + 1, conceptIds.get(i));
+				insert.setInt(i + 1, conceptIds.get(i));
+			}
+			
+			delete.executeUpdate();
+			insert.executeUpdate();
+		}
+	}
+	
+	private static void replaceTokens(Connection connection) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.executeUpdate("delete from fhir_concept_token");
+			statement.executeUpdate(INSERT_TOKENS);
+		}
+	}
+}
@@ -16,6 +16,9 @@ import static org.openmrs.module.fhir2.api.util.LastnOperationUtils.getTopNRanke
 
 import javax.annotation.Nonnull;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -26,13 +29,16 @@ import ca.uhn.fhir.rest.param.ReferenceAndListParam;
 import ca.uhn.fhir.rest.param.TokenAndListParam;
 import org.apache.commons.lang3.StringUtils;
 import org.hibernate.Criteria;
+import org.hibernate.Session;
 import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.DetachedCriteria;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
 import org.openmrs.Encounter;
 import org.openmrs.Order;
 import org.openmrs.module.fhir2.FhirConstants;
 import org.openmrs.module.fhir2.api.dao.FhirEncounterDao;
+import org.openmrs.module.fhir2.api.search.param.FetchProfile;
 import org.openmrs.module.fhir2.api.search.param.SearchParameterMap;
 import org.openmrs.module.fhir2.api.util.LastnResult;
 import org.springframework.stereotype.Component;
@@ -73,6 +79,28 @@ public class FhirEncounterDaoImpl extends BaseEncounterDao<Encounter> implements
 		return results.stream().distinct().collect(Collectors.toList());
 	}
 	
+	@Override
+	@Transactional(readOnly = true)
+	public DetachedCriteria getLastnEncountersSubquery(@Nonnull SearchParameterMap theParams) {
+		Session session = getSessionFactory().getCurrentSession();
+		
+		// the earliest of the last "max" distinct dates of the matching encounters, if there are that many dates
+		Criteria thresholdDate = session.createCriteria(Encounter.class);
+		setupSearchParams(thresholdDate, theParams);
+		thresholdDate.setProjection(Projections.distinct(Projections.alias(property("encounterDatetime"), "date")))
+		        .addOrder(org.hibernate.criterion.Order.desc("date")).setFirstResult(getMaxParameter(theParams) - 1)
+		        .setMaxResults(1);
+		Date threshold = (Date) thresholdDate.uniqueResult();
+		
+		DetachedCriteria lastnEncounters = DetachedCriteria.forClass(Encounter.class, "lastn");
+		setupSearchParams(lastnEncounters.getExecutableCriteria(session), theParams);
+		if (threshold != null) {
+			lastnEncounters.add(Restrictions.ge("lastn.encounterDatetime", threshold));
+		}
+		
+		return lastnEncounters.setProjection(Projections.id());
+	}
+	
 	@Override
 	public boolean hasDistinctResults() {
 		return false;
@@ -141,4 +169,13 @@ public class FhirEncounterDaoImpl extends BaseEncounterDao<Encounter> implements
 		return Restrictions.or(Restrictions.isNull(path + "fulfillerStatus"),
 		    Restrictions.ne(path + "fulfillerStatus", Order.FulfillerStatus.valueOf(fulfillerStatus.toUpperCase())));
 	}
+	
+	@Override
+	protected Collection<String> getFetchPaths(@Nonnull FetchProfile profile) {
+		if (profile == FetchProfile.SUMMARY) {
+			return Arrays.asList("patient", "location");
+		}
+		
+		return Arrays.asList("patient", "location", "encounterType", "encounterProviders.provider", "visit");
+	}
 }
@@ -0,0 +1,381 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.dao.impl;
+
+import javax.annotation.Nonnull;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.openmrs.module.fhir2.api.dao.FhirLocationAncestorDao;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Maintains the {@code fhir_location_ancestor} closure table using plain JDBC, so that it can be
+ * updated while a Hibernate session is being flushed or committed.
+ * <p/>
+ * The table is only used once it has been built. Whenever it is set aside, it is not used again
+ * until a rebuild that started afterwards has completed. As the table is shared by every server using
+ * the database, whether it can be used is recorded in {@code fhir_location_ancestor_status}.
+ */
+@Slf4j
+@Component
+public class FhirLocationAncestorDaoImpl implements FhirLocationAncestorDao {
+	
+	private static final int MAX_PARAMETERS = 1000;
+	
+	private static final String INSERT_SELF = "insert into fhir_location_ancestor (ancestor_id, descendant_id, depth) "
+	        + "select location_id, location_id, 0 from location";
+	
+	// adds the parent of each ancestor found at the given depth, skipping pairs that already exist so that a cycle in the data cannot loop forever
+	private static final String INSERT_PARENTS = "insert into fhir_location_ancestor (ancestor_id, descendant_id, depth) "
+	        + "select l.parent_location, a.descendant_id, a.depth + 1 from fhir_location_ancestor a "
+	        + "inner join location l on l.location_id = a.ancestor_id "
+	        + "where a.depth = ? and l.parent_location is not null and not exists ("
+	        + "select 1 from fhir_location_ancestor c where c.ancestor_id = l.parent_location and c.descendant_id = a.descendant_id)";
+	
+	// links every ancestor of the new parent to every descendant of the moved location
+	private static final String INSERT_SUBTREE = "insert into fhir_location_ancestor (ancestor_id, descendant_id, depth) "
+	        + "select a.ancestor_id, d.descendant_id, a.depth + d.depth + 1 "
+	        + "from fhir_location_ancestor a, fhir_location_ancestor d where a.descendant_id = ? and d.ancestor_id = ?";
+	
+	// any location without its own row or whose parent is not its ancestor at depth 1 was changed while the table was
+	// not being kept up-to-date
+	private static final String COUNT_OUT_OF_STEP = "select count(*) from location l where not exists ("
+	        + "select 1 from fhir_location_ancestor a "
+	        + "where a.ancestor_id = l.location_id and a.descendant_id = l.location_id) "
+	        + "or (l.parent_location is not null and not exists (select 1 from fhir_location_ancestor a "
+	        + "where a.ancestor_id = l.parent_location and a.descendant_id = l.location_id and a.depth = 1))";
+	
+	private static final String COUNT_STALE_PARENTS = "select count(*) from fhir_location_ancestor a "
+	        + "inner join location l on l.location_id = a.descendant_id "
+	        + "where a.depth = 1 and (l.parent_location is null or l.parent_location <> a.ancestor_id)";
+	
+	private static final String SELECT_STATUS = "select built, generation from fhir_location_ancestor_status "
+	        + "where fhir_location_ancestor_status_id = 1";
+	
+	@Getter(value = AccessLevel.PROTECTED)
+	@Setter(value = AccessLevel.PROTECTED, onMethod = @__({ @Autowired, @Qualifier("sessionFactory") }))
+	private SessionFactory sessionFactory;
+	
+	private final AtomicBoolean rebuildPending = new AtomicBoolean();
+	
+	private ExecutorService executor;
+	
+	@Override
+	@Transactional
+	public void rebuildAncestors() {
+		sessionFactory.getCurrentSession().doWork(FhirLocationAncestorDaoImpl::rebuildAncestors);
+	}
+	
+	@Override
+	public void rebuildAncestorsInBackground() {
+		rebuildInBackground(false);
+	}
+	
+	@Override
+	public void rebuildAncestorsIfOutOfStep() {
+		rebuildInBackground(true);
+	}
+	
+	private void rebuildInBackground(boolean onlyIfOutOfStep) {
+		if (!rebuildPending.compareAndSet(false, true)) {
+			return;
+		}
+		
+		getExecutor().execute(() -> {
+			rebuildPending.set(false);
+			
+			long start = System.currentTimeMillis();
+			boolean rebuilt;
+			try (StatelessSession session = sessionFactory.openStatelessSession()) {
+				Transaction transaction = session.beginTransaction();
+				try {
+					rebuilt = session.doReturningWork(connection -> {
+						if (onlyIfOutOfStep && isInStep(connection)) {
+							return false;
+						}
+						
+						rebuildAncestors(connection);
+						return true;
+					});
+					transaction.commit();
+				}
+				catch (RuntimeException e) {
+					transaction.rollback();
+					throw e;
+				}
+			}
+			catch (Exception e) {
+				log.error("Could not rebuild the location hierarchy; Location?partof:below searches will walk the "
+				        + "hierarchy instead",
+				    e);
+				return;
+			}
+			
+			if (rebuilt) {
+				log.info("Rebuilt the location hierarchy in {} ms", System.currentTimeMillis() - start);
+			}
+		});
+	}
+	
+	@Override
+	@Transactional(propagation = Propagation.MANDATORY, noRollbackFor = RuntimeException.class)
+	public void invalidateAncestors() {
+		sessionFactory.getCurrentSession().doWork(connection -> {
+			try (Statement statement = connection.createStatement()) {
+				statement.executeUpdate("update fhir_location_ancestor_status set built = false, "
+				        + "generation = generation + 1 where fhir_location_ancestor_status_id = 1");
+			}
+		});
+	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public boolean isBuilt() {
+		return sessionFactory.getCurrentSession().doReturningWork(connection -> {
+			try (Statement statement = connection.createStatement();
+			        ResultSet resultSet = statement.executeQuery(SELECT_STATUS)) {
+				return resultSet.next() && resultSet.getBoolean(1);
+			}
+		});
+	}
+	
+	// this is called while the transaction that changed the locations is committing, so a failure must not mark it
+	// for rollback; the caller sets the table aside instead
+	@Override
+	@Transactional(propagation = Propagation.MANDATORY, noRollbackFor = RuntimeException.class)
+	public void updateAncestors(@Nonnull Collection<Integer> locationIds) {
+		if (locationIds.isEmpty()) {
+			return;
+		}
+		
+		Set<Integer> pending = new LinkedHashSet<>(locationIds);
+		Set<Integer> updated = new HashSet<>();
+		sessionFactory.getCurrentSession().doWork(connection -> {
+			// on some databases, e.g. PostgreSQL, a failed statement aborts the whole transaction unless it is rolled
+			// back to a savepoint, which would lose the change to the locations as well
+			Savepoint savepoint = connection.setSavepoint();
+			try {
+				for (Integer locationId : pending) {
+					updateAncestors(connection, locationId, pending, updated);
+				}
+			}
+			catch (SQLException | RuntimeException e) {
+				connection.rollback(savepoint);
+				throw e;
+			}
+			
+			connection.releaseSavepoint(savepoint);
+		});
+	}
+	
+	private void updateAncestors(Connection connection, Integer locationId, Set<Integer> pending, Set<Integer> updated)
+	        throws SQLException {
+		if (!updated.add(locationId)) {
+			return;
+		}
+		
+		Integer parentId = null;
+		try (PreparedStatement statement = connection
+		        .prepareStatement("select parent_location from location where location_id = ?")) {
+			statement.setInt(1, locationId);
+			try (ResultSet resultSet = statement.executeQuery()) {
+				if (!resultSet.next()) {
+					// the location has been deleted and its rows removed along with it
+					return;
+				}
+				
+				int parent = resultSet.getInt(1);
+				if (!resultSet.wasNull()) {
+					parentId = parent;
+				}
+			}
+		}
+		
+		// the new parent must be in the right place before its ancestors can be copied to this location
+		if (parentId != null && pending.contains(parentId)) {
+			updateAncestors(connection, parentId, pending, updated);
+		}
+		
+		List<Integer> subtree = selectIds(connection,
+		    "select descendant_id from fhir_location_ancestor where ancestor_id = ?", locationId);
+		if (subtree.isEmpty()) {
+			try (PreparedStatement statement = connection.prepareStatement(
+			    "insert into fhir_location_ancestor (ancestor_id, descendant_id, depth) values (?, ?, 0)")) {
+				statement.setInt(1, locationId);
+				statement.setInt(2, locationId);
+				statement.executeUpdate();
+			}
+			
+			subtree = Collections.singletonList(locationId);
+		}
+		
+		if (parentId != null && subtree.contains(parentId)) {
+			log.warn("Not updating the ancestors of location {} as its parent location {} is also one of its descendants",
+			    locationId, parentId);
+			return;
+		}
+		
+		// in a tree, the only rows linking the subtree to the rest of the hierarchy are those from the old ancestors
+		List<Integer> oldAncestors = selectIds(connection,
+		    "select ancestor_id from fhir_location_ancestor where descendant_id = ? and depth > 0", locationId);
+		if (!oldAncestors.isEmpty()) {
+			for (int i = 0; i < subtree.size(); i += MAX_PARAMETERS) {
+				List<Integer> descendants = subtree.subList(i, Math.min(i + MAX_PARAMETERS, subtree.size()));
+				List<Integer> parameters = new ArrayList<>(oldAncestors.size() + descendants.size());
+				parameters.addAll(oldAncestors);
+				parameters.addAll(descendants);
+				
+				try (PreparedStatement statement = connection
+				        .prepareStatement("delete from fhir_location_ancestor where ancestor_id in ("
+				                + placeholders(oldAncestors.size()) + ") and descendant_id in ("
+				                + placeholders(descendants.size()) + ")")) {
+					for (int j = 0; j < parameters.size(); j++) {
+						statement.setInt(j + 1, parameters.get(j));
+					}
+					statement.executeUpdate();
+				}
+			}
+		}
+		
+		if (parentId != null) {
+			try (PreparedStatement statement = connection.prepareStatement(INSERT_SUBTREE)) {
+				statement.setInt(1, parentId);
+				statement.setInt(2, locationId);
+				statement.executeUpdate();
+			}
+		}
+	}
+	
+	protected synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "fhir2-location-ancestors");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		
+		return executor;
+	}
+	
+	/**
+	 * Replaces the closure table and puts it back in use, unless it was set aside again while it was
+	 * being rebuilt
+	 */
+	private static void rebuildAncestors(Connection connection) throws SQLException {
+		Long generation = null;
+		try (Statement statement = connection.createStatement();
+		        ResultSet resultSet = statement.executeQuery(SELECT_STATUS)) {
+			if (resultSet.next()) {
+				generation = resultSet.getLong(2);
+			}
+		}
+		
+		replaceAncestors(connection);
+		
+		if (generation == null) {
+			try (Statement statement = connection.createStatement()) {
+				statement.executeUpdate("insert into fhir_location_ancestor_status "
+				        + "(fhir_location_ancestor_status_id, built, generation) values (1, true, 0)");
+			}
+			return;
+		}
+		
+		try (PreparedStatement statement = connection.prepareStatement("update fhir_location_ancestor_status "
+		        + "set built = true where fhir_location_ancestor_status_id = 1 and generation = ?")) {
+			statement.setLong(1, generation);
+			statement.executeUpdate();
+		}
+	}
+	
+	/**
+	 * @return true if the closure table is in use and matches the parent of every location
+	 */
+	private static boolean isInStep(Connection connection) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			try (ResultSet resultSet = statement.executeQuery(SELECT_STATUS)) {
+				if (!resultSet.next() || !resultSet.getBoolean(1)) {
+					return false;
+				}
+			}
+			
+			for (String sql : new String[] { COUNT_OUT_OF_STEP, COUNT_STALE_PARENTS }) {
+				try (ResultSet resultSet = statement.executeQuery(sql)) {
+					if (!resultSet.next() || resultSet.getLong(1) > 0) {
+						return false;
+					}
+				}
+			}
+		}
+		
+		return true;
+	}
+	
+	private static void replaceAncestors(Connection connection) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.executeUpdate("delete from fhir_location_ancestor");
+			statement.executeUpdate(INSERT_SELF);
+		}
+		
+		try (PreparedStatement statement = connection.prepareStatement(INSERT_PARENTS)) {
+			int depth = 0;
+			int inserted;
+			do {
+				statement.setInt(1, depth++);
+				inserted = statement.executeUpdate();
+			} while (inserted > 0);
+		}
+	}
+	
+	private static List<Integer> selectIds(Connection connection, String sql, Integer id) throws SQLException {
+		List<Integer> result = new ArrayList<>();
+		try (PreparedStatement statement = connection.prepareStatement(sql)) {
+			statement.setInt(1, id);
+			try (ResultSet resultSet = statement.executeQuery()) {
+				while (resultSet.next()) {
+					result.add(resultSet.getInt(1));
+				}
+			}
+		}
+		
+		return result;
+	}
+	
+	private static String placeholders(int count) {
+		return String.join(", ", Collections.nCopies(count, "?"));
+	}
+}
@@ -13,7 +13,9 @@ import static java.util.stream.Collectors.groupingBy;
 import static java.util.stream.Collectors.toList;
 import static lombok.AccessLevel.PROTECTED;
 import static org.hibernate.criterion.Restrictions.eq;
-import static org.hibernate.criterion.Restrictions.or;
+import static org.hibernate.criterion.Restrictions.gt;
+import static org.hibernate.criterion.Restrictions.in;
+import static org.hibernate.criterion.Restrictions.sqlRestriction;
 
 import javax.annotation.Nonnull;
 import javax.persistence.criteria.CriteriaBuilder;
@@ -23,9 +25,11 @@ import javax.persistence.criteria.Root;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import ca.uhn.fhir.rest.param.ReferenceAndListParam;
 import ca.uhn.fhir.rest.param.ReferenceOrListParam;
@@ -35,7 +39,9 @@ import ca.uhn.fhir.rest.param.TokenAndListParam;
 import lombok.Getter;
 import lombok.Setter;
 import org.hibernate.Criteria;
-import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.DetachedCriteria;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Subqueries;
 import org.hibernate.sql.JoinType;
 import org.openmrs.Location;
 import org.openmrs.LocationAttribute;
@@ -43,22 +49,34 @@ import org.openmrs.LocationAttributeType;
 import org.openmrs.LocationTag;
 import org.openmrs.api.LocationService;
 import org.openmrs.module.fhir2.FhirConstants;
-import org.openmrs.module.fhir2.api.FhirGlobalPropertyService;
+import org.openmrs.module.fhir2.api.dao.FhirLocationAncestorDao;
 import org.openmrs.module.fhir2.api.dao.FhirLocationDao;
 import org.openmrs.module.fhir2.api.search.param.SearchParameterMap;
+import org.openmrs.module.fhir2.model.FhirLocationAncestor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 @Component
 public class FhirLocationDaoImpl extends BaseFhirDao<Location> implements FhirLocationDao {
 	
+	// the queries used to walk the location hierarchy while the closure table is set aside
+	private static final String PARENTS_BY_UUID = "select l.parentLocation.id from Location l "
+	        + "where l.uuid in (:uuids) and l.parentLocation is not null";
+	
+	private static final String PARENTS_BY_ID = "select l.parentLocation.id from Location l "
+	        + "where l.id in (:ids) and l.parentLocation is not null";
+	
+	private static final String CHILDREN_BY_UUID = "select l.id from Location l where l.parentLocation.uuid = :uuid";
+	
+	private static final String CHILDREN_BY_ID = "select l.id from Location l where l.parentLocation.id in (:ids)";
+	
 	@Getter(PROTECTED)
 	@Setter(value = PROTECTED, onMethod_ = @Autowired)
 	private LocationService locationService;
 	
 	@Getter(PROTECTED)
 	@Setter(value = PROTECTED, onMethod_ = @Autowired)
-	private FhirGlobalPropertyService globalPropertyService;
+	private FhirLocationAncestorDao locationAncestorDao;
 	
 	@Override
 	public Location get(@Nonnull Integer id) {
@@ -98,6 +116,30 @@ public class FhirLocationDaoImpl extends BaseFhirDao<Location> implements FhirLo
 		});
 	}
 	
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Location> getAncestors(@Nonnull Collection<String> uuids) {
+		if (uuids.isEmpty()) {
+			return new ArrayList<>();
+		}
+		
+		if (!locationAncestorDao.isBuilt()) {
+			Set<Integer> ancestorIds = walkHierarchy(getSessionFactory().getCurrentSession()
+			        .createQuery(PARENTS_BY_UUID).setParameterList("uuids", uuids).list(), PARENTS_BY_ID);
+			
+			return ancestorIds.isEmpty() ? new ArrayList<>()
+			        : getSessionFactory().getCurrentSession().createCriteria(Location.class).add(in("id", ancestorIds))
+			                .list();
+		}
+		
+		return getSessionFactory().getCurrentSession().createCriteria(Location.class)
+		        .add(Subqueries.propertyIn("id",
+		            DetachedCriteria.forClass(FhirLocationAncestor.class, "la").createAlias("la.descendant", "lad")
+		                    .add(in("lad.uuid", uuids)).add(gt("la.depth", 0))
+		                    .setProjection(Projections.property("la.ancestor.id"))))
+		        .list();
+	}
+	
 	@Override
 	@SuppressWarnings("unchecked")
 	public List<LocationAttribute> getActiveAttributesByLocationAndAttributeTypeUuid(@Nonnull Location location,
@@ -186,23 +228,19 @@ public class FhirLocationDaoImpl extends BaseFhirDao<Location> implements FhirLo
 		// **NOTE: this is a *bug* in the current HAPI FHIR implementation, "below" should be the "queryParameterQualifier", not the resource type; likely need update this when/fix the HAPI FHIR implementation is fixed**
 		// this is to support queries of the type "Location?partof=below:uuid"
 		if ("below".equalsIgnoreCase(locationReference.getResourceType())) {
-			
-			int searchDepth = globalPropertyService
-			        .getGlobalPropertyAsInteger(FhirConstants.SUPPORTED_LOCATION_HIERARCHY_SEARCH_DEPTH, 5);
-			
-			List<Criterion> belowReferenceCriteria = new ArrayList<>();
-			
-			// we need to add a join to the parentLocation for each level of hierarchy we want to search, and add "equals" criterion for each level
-			int depth = 1;
-			while (depth <= searchDepth) {
-				belowReferenceCriteria.add(eq("ancestor" + depth + ".uuid", locationReference.getIdPart()));
-				criteria.createAlias(depth == 1 ? "parentLocation" : "ancestor" + (depth - 1) + ".parentLocation",
-				    "ancestor" + depth, JoinType.LEFT_OUTER_JOIN);
-				depth++;
+			if (!locationAncestorDao.isBuilt()) {
+				Set<Integer> descendantIds = walkHierarchy(getSessionFactory().getCurrentSession()
+				        .createQuery(CHILDREN_BY_UUID).setParameter("uuid", locationReference.getIdPart()).list(),
+				    CHILDREN_BY_ID);
+				criteria.add(descendantIds.isEmpty() ? sqlRestriction("1 = 0") : in("id", descendantIds));
+				return;
 			}
 			
-			// "or" these call together so that we return the location if any of the joined ancestor location uuids match
-			criteria.add(or(belowReferenceCriteria.toArray(new Criterion[0])));
+			// every location below the referenced one has a row in the closure table, whatever its depth
+			criteria.add(Subqueries.propertyIn("id",
+			    DetachedCriteria.forClass(FhirLocationAncestor.class, "la").createAlias("la.ancestor", "laa")
+			            .add(eq("laa.uuid", locationReference.getIdPart())).add(gt("la.depth", 0))
+			            .setProjection(Projections.property("la.descendant.id"))));
 		} else {
 			// this is to support queries of the type "Location?partof=uuid" or chained search like "Location?partof:Location=Location:name=xxx"
 			handleLocationReference("loc", locationAndReferences)
@@ -211,6 +249,28 @@ public class FhirLocationDaoImpl extends BaseFhirDao<Location> implements FhirLo
 		
 	}
 	
+	/**
+	 * Walks the location hierarchy one level at a time while the closure table is set aside. Locations
+	 * already found are not followed again, so that a cycle in the data cannot loop forever.
+	 *
+	 * @param firstLevel the ids of the locations one level from the starting point
+	 * @param nextLevelQuery the query for the ids one level further from the locations in {@code :ids}
+	 * @return the ids of every location found
+	 */
+	@SuppressWarnings("unchecked")
+	private Set<Integer> walkHierarchy(List<Integer> firstLevel, String nextLevelQuery) {
+		Set<Integer> locationIds = new LinkedHashSet<>();
+		List<Integer> level = firstLevel;
+		while (!level.isEmpty()) {
+			List<Integer> unseen = level.stream().filter(locationIds::add).collect(toList());
+			level = unseen.isEmpty() ? new ArrayList<>()
+			        : getSessionFactory().getCurrentSession().createQuery(nextLevelQuery).setParameterList("ids", unseen)
+			                .list();
+		}
+		
+		return locationIds;
+	}
+	
 	@Override
 	protected String paramToProp(@Nonnull String param) {
 		switch (param) {
@@ -10,33 +10,54 @@
 package org.openmrs.module.fhir2.api.dao.impl;
 
 import static org.hibernate.criterion.Restrictions.eq;
+import static org.hibernate.criterion.Restrictions.in;
+import static org.hibernate.criterion.Restrictions.sqlRestriction;
 
 import javax.annotation.Nonnull;
 
+import java.sql.DatabaseMetaData;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import ca.uhn.fhir.rest.param.DateRangeParam;
 import ca.uhn.fhir.rest.param.NumberParam;
 import ca.uhn.fhir.rest.param.QuantityAndListParam;
 import ca.uhn.fhir.rest.param.ReferenceAndListParam;
-import ca.uhn.fhir.rest.param.ReferenceOrListParam;
-import ca.uhn.fhir.rest.param.ReferenceParam;
 import ca.uhn.fhir.rest.param.StringAndListParam;
 import ca.uhn.fhir.rest.param.TokenAndListParam;
 import ca.uhn.fhir.rest.param.TokenParam;
+import com.google.common.annotations.VisibleForTesting;
 import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.hibernate.Criteria;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Subqueries;
+import org.hibernate.engine.spi.QueryParameters;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.internal.CriteriaImpl;
+import org.hibernate.loader.criteria.CriteriaJoinWalker;
+import org.hibernate.loader.criteria.CriteriaQueryTranslator;
+import org.hibernate.persister.entity.OuterJoinLoadable;
+import org.hibernate.query.NativeQuery;
+import org.hibernate.type.IntegerType;
+import org.hibernate.type.LongType;
+import org.hibernate.type.TimestampType;
+import org.hibernate.type.Type;
 import org.hl7.fhir.r4.model.Observation;
 import org.openmrs.Concept;
 import org.openmrs.Obs;
@@ -44,14 +65,25 @@ import org.openmrs.module.fhir2.FhirConstants;
 import org.openmrs.module.fhir2.api.dao.FhirEncounterDao;
 import org.openmrs.module.fhir2.api.dao.FhirObservationDao;
 import org.openmrs.module.fhir2.api.mappings.ObservationCategoryMap;
+import org.openmrs.module.fhir2.api.search.param.FetchProfile;
 import org.openmrs.module.fhir2.api.search.param.SearchParameterMap;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
+@Slf4j
 @Component
 public class FhirObservationDaoImpl extends BaseFhirDao<Obs> implements FhirObservationDao {
 	
+	private static final String LASTN_PROJECTION = "{alias}.obs_id as obs_id, {alias}.concept_id as concept_id, "
+	        + "{alias}.obs_datetime as obs_datetime, "
+	        + "dense_rank() over (partition by {alias}.concept_id order by {alias}.obs_datetime desc) as obs_rank";
+	
+	private static final Pattern MARIADB_VERSION = Pattern.compile("(\\d+)\\.(\\d+)\\.\\d+-MariaDB",
+	    Pattern.CASE_INSENSITIVE);
+	
+	private static final Pattern H2_VERSION = Pattern.compile("^1\\.4\\.(\\d+)");
+	
 	@Getter(AccessLevel.PROTECTED)
 	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
 	private ObservationCategoryMap categoryMap;
@@ -60,10 +92,21 @@ public class FhirObservationDaoImpl extends BaseFhirDao<Obs> implements FhirObse
 	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
 	private FhirEncounterDao encounterDao;
 	
+	/**
+	 * Whether the database supports the window functions used to rank observations for $lastn. This is
+	 * determined from the database metadata the first time it is needed.
+	 */
+	@Setter(AccessLevel.PACKAGE)
+	private volatile Boolean windowFunctionsSupported;
+	
 	@Override
 	@Transactional(readOnly = true)
 	public List<Obs> getSearchResults(@Nonnull SearchParameterMap theParams) {
 		if (!theParams.getParameters(FhirConstants.LASTN_OBSERVATION_SEARCH_HANDLER).isEmpty()) {
+			if (supportsWindowFunctions()) {
+				return getSearchResultsByIds(getLastnObsIds(theParams));
+			}
+			
 			Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(typeToken.getRawType());
 			
 			setupSearchParams(criteria, theParams);
@@ -113,17 +156,37 @@ public class FhirObservationDaoImpl extends BaseFhirDao<Obs> implements FhirObse
 			}
 			
 			int toIndex = results.size() > theParams.getToIndex() ? theParams.getToIndex() : results.size();
-			return results.subList(theParams.getFromIndex(), toIndex).stream().map(this::deproxyResult)
-			        .collect(Collectors.toList());
+			return hydrateResults(new ArrayList<>(results.subList(theParams.getFromIndex(), toIndex)),
+			    theParams.getFetchProfile());
 		}
 		
 		return super.getSearchResults(theParams);
 	}
 	
+	@Override
+	@Transactional(readOnly = true)
+	public List<Integer> getSearchResultIds(@Nonnull SearchParameterMap theParams) {
+		if (!theParams.getParameters(FhirConstants.LASTN_OBSERVATION_SEARCH_HANDLER).isEmpty()) {
+			if (supportsWindowFunctions()) {
+				return getLastnObsIds(theParams);
+			}
+			
+			// the lastn grouping is applied in memory, so the ids can only be determined by running the search
+			return getSearchResults(theParams).stream().map(Obs::getId).collect(Collectors.toList());
+		}
+		
+		return super.getSearchResultIds(theParams);
+	}
+	
 	@Override
 	@Transactional(readOnly = true)
 	public int getSearchResultsCount(@Nonnull SearchParameterMap theParams) {
 		if (!theParams.getParameters(FhirConstants.LASTN_OBSERVATION_SEARCH_HANDLER).isEmpty()) {
+			if (supportsWindowFunctions()) {
+				return ((Number) createLastnQuery(theParams, "count(distinct ranked.obs_id)", "").uniqueResult())
+				        .intValue();
+			}
+			
 			Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(typeToken.getRawType());
 			setupSearchParams(criteria, theParams);
 			criteria.addOrder(Order.asc("concept")).addOrder(Order.desc("obsDatetime"));
@@ -153,18 +216,138 @@ public class FhirObservationDaoImpl extends BaseFhirDao<Obs> implements FhirObse
 		return super.getSearchResultsCount(theParams);
 	}
 	
+	/**
+	 * Loads the ids of the observations matching a $lastn search in a single query. Each observation is
+	 * ranked by its date amongst the observations of the same concept using {@code DENSE_RANK()}, so
+	 * that all observations sharing one of the last "max" dates of each concept are included.
+	 *
+	 * @param theParams the parameters for this search
+	 * @return the ids of the matching observations, ordered by concept and then most recent first
+	 */
+	@SuppressWarnings("unchecked")
+	private List<Integer> getLastnObsIds(SearchParameterMap theParams) {
+		NativeQuery<Object[]> query = (NativeQuery<Object[]>) createLastnQuery(theParams,
+		    "distinct ranked.obs_id, ranked.concept_id, ranked.obs_datetime",
+		    " order by ranked.concept_id, ranked.obs_datetime desc, ranked.obs_id");
+		
+		query.setFirstResult(theParams.getFromIndex());
+		if (theParams.getToIndex() != Integer.MAX_VALUE) {
+			query.setMaxResults(theParams.getToIndex() - theParams.getFromIndex());
+		}
+		
+		return query.list().stream().map(row -> ((Number) row[0]).intValue()).collect(Collectors.toList());
+	}
+	
+	/**
+	 * Creates a native query over the observations matching the search, each of which is ranked by
+	 * date within its concept. The search criteria are rendered to SQL by Hibernate and wrapped in a
+	 * derived table, as window functions cannot be expressed using the Criteria API.
+	 *
+	 * @param theParams the parameters for this search
+	 * @param select the select clause for the query, which can refer to the derived table as "ranked"
+	 * @param suffix any SQL to append to the query
+	 * @return the query
+	 */
+	@VisibleForTesting
+	NativeQuery<?> createLastnQuery(SearchParameterMap theParams, String select, String suffix) {
+		Session session = getSessionFactory().getCurrentSession();
+		
+		Criteria criteria = session.createCriteria(typeToken.getRawType());
+		setupSearchParams(criteria, theParams);
+		criteria.setProjection(Projections.sqlProjection(LASTN_PROJECTION,
+		    new String[] { "obs_id", "concept_id", "obs_datetime", "obs_rank" },
+		    new Type[] { IntegerType.INSTANCE, IntegerType.INSTANCE, TimestampType.INSTANCE, LongType.INSTANCE }));
+		
+		CriteriaImpl criteriaImpl = (CriteriaImpl) criteria;
+		SessionImplementor sessionImplementor = (SessionImplementor) session;
+		SessionFactoryImplementor factory = sessionImplementor.getFactory();
+		String entityName = criteriaImpl.getEntityOrClassName();
+		CriteriaQueryTranslator translator = new CriteriaQueryTranslator(factory, criteriaImpl, entityName,
+		        CriteriaQueryTranslator.ROOT_SQL_ALIAS);
+		CriteriaJoinWalker walker = new CriteriaJoinWalker(
+		        (OuterJoinLoadable) factory.getMetamodel().entityPersister(entityName), translator, factory, criteriaImpl,
+		        entityName, sessionImplementor.getLoadQueryInfluencers());
+		
+		NativeQuery<?> query = session.createSQLQuery(String.format(
+		    "select %s from (%s) ranked where ranked.obs_rank <= ?%s", select, walker.getSQLString(), suffix));
+		
+		QueryParameters queryParameters = translator.getQueryParameters();
+		Object[] values = queryParameters.getPositionalParameterValues();
+		Type[] types = queryParameters.getPositionalParameterTypes();
+		int base = factory.getSessionFactoryOptions().jdbcStyleParamsZeroBased() ? 0 : 1;
+		for (int i = 0; i < values.length; i++) {
+			query.setParameter(base + i, values[i], types[i]);
+		}
+		query.setParameter(base + values.length, getMaxParameter(theParams), IntegerType.INSTANCE);
+		
+		return query;
+	}
+	
+	/**
+	 * @return true if the database supports the window functions used by the $lastn query, false if
+	 *         the observations must be grouped in memory instead
+	 */
+	protected boolean supportsWindowFunctions() {
+		if (windowFunctionsSupported == null) {
+			try {
+				windowFunctionsSupported = getSessionFactory().getCurrentSession().doReturningWork(connection -> {
+					DatabaseMetaData metaData = connection.getMetaData();
+					return supportsWindowFunctions(metaData.getDatabaseProductName(), metaData.getDatabaseProductVersion(),
+					    metaData.getDatabaseMajorVersion(), metaData.getDatabaseMinorVersion());
+				});
+			}
+			catch (HibernateException e) {
+				log.warn("Unable to determine whether the database supports window functions", e);
+				windowFunctionsSupported = false;
+			}
+		}
+		
+		return windowFunctionsSupported;
+	}
+	
+	/**
+	 * Determines whether a database supports {@code DENSE_RANK() OVER (...)}, which is available from
+	 * MySQL 8.0, MariaDB 10.2, PostgreSQL 8.4 and H2 1.4.198.
+	 */
+	static boolean supportsWindowFunctions(String productName, String productVersion, int majorVersion,
+	        int minorVersion) {
+		if (productName == null) {
+			return false;
+		}
+		
+		String version = productVersion == null ? "" : productVersion;
+		
+		// MySQL Connector/J reports MariaDB as MySQL with a version like 5.5.5-10.4.12-MariaDB
+		Matcher mariaDbVersion = MARIADB_VERSION.matcher(version);
+		if (mariaDbVersion.find()) {
+			majorVersion = Integer.parseInt(mariaDbVersion.group(1));
+			minorVersion = Integer.parseInt(mariaDbVersion.group(2));
+			return majorVersion > 10 || (majorVersion == 10 && minorVersion >= 2);
+		}
+		
+		switch (productName.toLowerCase()) {
+			case "mariadb":
+				return majorVersion > 10 || (majorVersion == 10 && minorVersion >= 2);
+			case "mysql":
+				return majorVersion >= 8;
+			case "postgresql":
+				return majorVersion > 8 || (majorVersion == 8 && minorVersion >= 4);
+			case "h2":
+				Matcher h2Version = H2_VERSION.matcher(version);
+				if (majorVersion == 1 && minorVersion == 4 && h2Version.find()) {
+					return Integer.parseInt(h2Version.group(1)) >= 198;
+				}
+				
+				return majorVersion > 1 || (majorVersion == 1 && minorVersion > 4);
+			default:
+				return false;
+		}
+	}
+	
 	@Override
 	protected void setupSearchParams(Criteria criteria, SearchParameterMap theParams) {
 		if (!theParams.getParameters(FhirConstants.LASTN_ENCOUNTERS_SEARCH_HANDLER).isEmpty()) {
-			ReferenceAndListParam encountersReferences = new ReferenceAndListParam();
-			ReferenceOrListParam referenceOrListParam = new ReferenceOrListParam();
-			
-			List<String> encounters = encounterDao.getSearchResultUuids(theParams);
-			
-			encounters.forEach(encounter -> referenceOrListParam.addOr(new ReferenceParam().setValue(encounter)));
-			encountersReferences.addAnd(referenceOrListParam);
-			
-			theParams.addParameter(FhirConstants.ENCOUNTER_REFERENCE_SEARCH_HANDLER, encountersReferences);
+			criteria.add(Subqueries.propertyIn("encounter", encounterDao.getLastnEncountersSubquery(theParams)));
 		}
 		
 		theParams.getParameters().forEach(entry -> {
@@ -272,6 +455,14 @@ public class FhirObservationDaoImpl extends BaseFhirDao<Obs> implements FhirObse
 				return Optional.empty();
 			}
 			
+			// once the mappings are loaded, the concept classes can be listed rather than queried
+			Optional<List<Integer>> conceptClassIds = categoryMap.getConceptClassIds(param.getValue());
+			if (conceptClassIds.isPresent()) {
+				// an empty IN list is not valid SQL, but a category with no concept classes matches nothing
+				return Optional.of(conceptClassIds.get().isEmpty() ? sqlRestriction("1 = 0")
+				        : in("cc.conceptClassId", conceptClassIds.get()));
+			}
+			
 			return Optional.of(Subqueries.propertyIn("cc.uuid", categoryMap.queryConceptClassByCategory(param.getValue())));
 		}).ifPresent(criteria::add);
 	}
@@ -305,4 +496,14 @@ public class FhirObservationDaoImpl extends BaseFhirDao<Obs> implements FhirObse
 		return ((NumberParam) theParams.getParameters(FhirConstants.MAX_SEARCH_HANDLER).get(0).getParam()).getValue()
 		        .intValue();
 	}
+	
+	@Override
+	protected Collection<String> getFetchPaths(@Nonnull FetchProfile profile) {
+		if (profile == FetchProfile.SUMMARY) {
+			return Arrays.asList("person", "concept.names");
+		}
+		
+		return Arrays.asList("person", "concept.names", "concept.conceptMappings.conceptReferenceTerm.conceptSource",
+		    "encounter");
+	}
 }
@@ -11,6 +11,7 @@ package org.openmrs.module.fhir2.api.dao.impl;
 
 import static org.hibernate.criterion.Restrictions.and;
 import static org.hibernate.criterion.Restrictions.eq;
+import static org.hibernate.criterion.Restrictions.eqProperty;
 import static org.hibernate.criterion.Restrictions.in;
 import static org.hibernate.criterion.Restrictions.or;
 import static org.hl7.fhir.r4.model.Patient.SP_DEATH_DATE;
@@ -18,6 +19,7 @@ import static org.hl7.fhir.r4.model.Patient.SP_DEATH_DATE;
 import javax.annotation.Nonnull;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -34,13 +36,18 @@ import ca.uhn.fhir.rest.param.TokenAndListParam;
 import org.apache.commons.lang3.StringUtils;
 import org.hibernate.Criteria;
 import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.DetachedCriteria;
 import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Subqueries;
 import org.hibernate.sql.JoinType;
 import org.openmrs.CohortMembership;
 import org.openmrs.Patient;
+import org.openmrs.PatientIdentifier;
 import org.openmrs.PatientIdentifierType;
+import org.openmrs.PersonName;
 import org.openmrs.module.fhir2.FhirConstants;
 import org.openmrs.module.fhir2.api.dao.FhirPatientDao;
+import org.openmrs.module.fhir2.api.search.param.FetchProfile;
 import org.openmrs.module.fhir2.api.search.param.SearchParameterMap;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
@@ -175,29 +182,29 @@ public class FhirPatientDaoImpl extends BasePersonDao<Patient> implements FhirPa
 			return;
 		}
 		
-		if (lacksAlias(criteria, "pn")) {
-			criteria.createAlias("names", "pn");
-		}
-		
-		if (lacksAlias(criteria, "pi")) {
-			criteria.createAlias("identifiers", "pi");
-		}
+		String personId = getPersonIdProperty(criteria, null);
 		
 		handleAndListParam(query, q -> {
 			List<Optional<? extends Criterion>> criterionList = new ArrayList<>();
 			
 			for (String token : StringUtils.split(q.getValueNotNull(), " \t,")) {
 				StringParam param = new StringParam(token).setContains(q.isContains()).setExact(q.isExact());
-				criterionList.add(propertyLike("pn.givenName", param).map(c -> and(c, eq("pn.voided", false))));
-				criterionList.add(propertyLike("pn.middleName", param).map(c -> and(c, eq("pn.voided", false))));
-				criterionList.add(propertyLike("pn.familyName", param).map(c -> and(c, eq("pn.voided", false))));
+				criterionList.add(propertyLike("spn.givenName", param));
+				criterionList.add(propertyLike("spn.middleName", param));
+				criterionList.add(propertyLike("spn.familyName", param));
 			}
 			
-			criterionList.add(propertyLike("pi.identifier",
+			DetachedCriteria names = DetachedCriteria.forClass(PersonName.class, "spn").add(eq("spn.voided", false))
+			        .add(eqProperty("spn.person.id", personId)).add(or(toCriteriaArray(criterionList)))
+			        .setProjection(Projections.id());
+			
+			DetachedCriteria identifiers = DetachedCriteria.forClass(PatientIdentifier.class, "spi")
+			        .add(eq("spi.voided", false)).add(eqProperty("spi.patient.id", personId)).setProjection(Projections.id());
+			propertyLike("spi.identifier",
 			    new StringParam(q.getValueNotNull()).setContains(q.isContains()).setExact(q.isExact()))
-			            .map(c -> and(c, eq("pi.voided", false))));
+			            .ifPresent(identifiers::add);
 			
-			return Optional.of(or(toCriteriaArray(criterionList)));
+			return Optional.of(or(Subqueries.exists(names), Subqueries.exists(identifiers)));
 		}).ifPresent(criteria::add);
 	}
 	
@@ -206,19 +213,25 @@ public class FhirPatientDaoImpl extends BasePersonDao<Patient> implements FhirPa
 			return;
 		}
 		
-		criteria.createAlias("identifiers", "pi", JoinType.INNER_JOIN, eq("pi.voided", false));
+		DetachedCriteria identifiers = DetachedCriteria.forClass(PatientIdentifier.class, "spi")
+		        .add(eq("spi.voided", false)).add(eqProperty("spi.patient.id", getPersonIdProperty(criteria, null)));
+		
+		boolean hasSystem = identifier.getValuesAsQueryTokens().stream()
+		        .flatMap(orListParam -> orListParam.getValuesAsQueryTokens().stream())
+		        .anyMatch(token -> StringUtils.isNotBlank(token.getSystem()));
+		if (hasSystem) {
+			identifiers.createAlias("spi.identifierType", "spit", JoinType.INNER_JOIN, eq("spit.retired", false));
+		}
 		
 		handleAndListParamBySystem(identifier, (system, tokens) -> {
 			if (system.isEmpty()) {
-				return Optional.of(in("pi.identifier", tokensToList(tokens)));
+				return Optional.of(in("spi.identifier", tokensToList(tokens)));
 			} else {
-				if (lacksAlias(criteria, "pit")) {
-					criteria.createAlias("pi.identifierType", "pit", JoinType.INNER_JOIN, eq("pit.retired", false));
-				}
-				
-				return Optional.of(and(eq("pit.name", system), in("pi.identifier", tokensToList(tokens))));
+				return Optional.of(and(eq("spit.name", system), in("spi.identifier", tokensToList(tokens))));
 			}
-		}).ifPresent(criteria::add);
+		}).ifPresent(identifiers::add);
+		
+		criteria.add(Subqueries.exists(identifiers.setProjection(Projections.id())));
 	}
 	
 	@Override
@@ -236,7 +249,11 @@ public class FhirPatientDaoImpl extends BasePersonDao<Patient> implements FhirPa
 	}
 	
 	@Override
-	public boolean hasDistinctResults() {
-		return false;
+	protected Collection<String> getFetchPaths(@Nonnull FetchProfile profile) {
+		if (profile == FetchProfile.SUMMARY) {
+			return Arrays.asList("names", "identifiers.identifierType");
+		}
+		
+		return Arrays.asList("names", "identifiers.identifierType", "addresses", "attributes.attributeType");
 	}
 }
@@ -9,14 +9,21 @@
  */
 package org.openmrs.module.fhir2.api.dao.impl;
 
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
 import static org.hibernate.criterion.Restrictions.and;
 import static org.hibernate.criterion.Restrictions.eq;
+import static org.hibernate.criterion.Restrictions.in;
 import static org.hibernate.criterion.Restrictions.isNull;
 import static org.hibernate.criterion.Restrictions.or;
 
 import javax.annotation.Nonnull;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Stream;
 
@@ -29,6 +36,7 @@ import org.openmrs.Person;
 import org.openmrs.PersonAttribute;
 import org.openmrs.module.fhir2.FhirConstants;
 import org.openmrs.module.fhir2.api.dao.FhirPersonDao;
+import org.openmrs.module.fhir2.api.search.param.FetchProfile;
 import org.openmrs.module.fhir2.api.search.param.SearchParameterMap;
 import org.springframework.stereotype.Component;
 
@@ -45,6 +53,20 @@ public class FhirPersonDaoImpl extends BasePersonDao<Person> implements FhirPers
 		        .list();
 	}
 	
+	@Override
+	@SuppressWarnings("unchecked")
+	public Map<Person, List<PersonAttribute>> getActiveAttributesByPersonsAndAttributeTypeUuid(
+	        @Nonnull Collection<? extends Person> persons, @Nonnull String personAttributeTypeUuid) {
+		if (persons.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		
+		return ((List<PersonAttribute>) getSessionFactory().getCurrentSession().createCriteria(PersonAttribute.class)
+		        .createAlias("person", "p").add(in("p.id", persons.stream().map(Person::getId).collect(toList())))
+		        .createAlias("attributeType", "pat").add(eq("pat.uuid", personAttributeTypeUuid)).add(eq("voided", false))
+		        .list()).stream().collect(groupingBy(PersonAttribute::getPerson));
+	}
+	
 	@Override
 	protected void setupSearchParams(Criteria criteria, SearchParameterMap theParams) {
 		theParams.getParameters().forEach(entry -> {
@@ -87,4 +109,12 @@ public class FhirPersonDaoImpl extends BasePersonDao<Person> implements FhirPers
 		criteria.add(eq("personVoided", false));
 	}
 	
+	@Override
+	protected Collection<String> getFetchPaths(@Nonnull FetchProfile profile) {
+		if (profile == FetchProfile.SUMMARY) {
+			return Arrays.asList("names");
+		}
+		
+		return Arrays.asList("names", "addresses", "attributes.attributeType");
+	}
 }
@@ -9,11 +9,18 @@
  */
 package org.openmrs.module.fhir2.api.dao.impl;
 
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
 import static org.hibernate.criterion.Restrictions.eq;
+import static org.hibernate.criterion.Restrictions.in;
 
 import javax.annotation.Nonnull;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import ca.uhn.fhir.rest.param.TokenAndListParam;
@@ -22,17 +29,13 @@ import org.hibernate.sql.JoinType;
 import org.openmrs.Provider;
 import org.openmrs.ProviderAttribute;
 import org.openmrs.module.fhir2.api.dao.FhirPractitionerDao;
+import org.openmrs.module.fhir2.api.search.param.FetchProfile;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
 @Component
 public class FhirPractitionerDaoImpl extends BasePractitionerDao<Provider> implements FhirPractitionerDao {
 	
-	@Override
-	public boolean hasDistinctResults() {
-		return false;
-	}
-	
 	@Override
 	protected void handleIdentifier(Criteria criteria, TokenAndListParam identifier) {
 		handleAndListParam(identifier, param -> Optional.of(eq("identifier", param.getValue()))).ifPresent(criteria::add);
@@ -48,4 +51,28 @@ public class FhirPractitionerDaoImpl extends BasePractitionerDao<Provider> imple
 		        .createAlias("attributeType", "pat").add(eq("pat.uuid", providerAttributeTypeUuid)).add(eq("voided", false))
 		        .list();
 	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	@SuppressWarnings("unchecked")
+	public Map<Provider, List<ProviderAttribute>> getActiveAttributesByPractitionersAndAttributeTypeUuid(
+	        @Nonnull Collection<Provider> providers, @Nonnull String providerAttributeTypeUuid) {
+		if (providers.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		
+		return ((List<ProviderAttribute>) getSessionFactory().getCurrentSession().createCriteria(ProviderAttribute.class)
+		        .createAlias("provider", "p").add(in("p.id", providers.stream().map(Provider::getId).collect(toList())))
+		        .createAlias("attributeType", "pat").add(eq("pat.uuid", providerAttributeTypeUuid)).add(eq("voided", false))
+		        .list()).stream().collect(groupingBy(ProviderAttribute::getProvider));
+	}
+	
+	@Override
+	protected Collection<String> getFetchPaths(@Nonnull FetchProfile profile) {
+		if (profile == FetchProfile.SUMMARY) {
+			return Arrays.asList("person.names");
+		}
+		
+		return Arrays.asList("person.names", "person.addresses");
+	}
 }
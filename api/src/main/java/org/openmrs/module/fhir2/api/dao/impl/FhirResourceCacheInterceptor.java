@@ -0,0 +1,126 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.dao.impl;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.AccessLevel;
+import lombok.Setter;
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Transaction;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.hibernate.type.Type;
+import org.openmrs.module.fhir2.api.cache.FhirNarrativeCache;
+import org.openmrs.module.fhir2.api.cache.FhirResourceCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+/**
+ * Removes the resources and narratives that may be affected by a change from the
+ * {@link FhirResourceCache} and the {@link FhirNarrativeCache}, however the change was made.
+ * Entries are removed as soon as the change is flushed and again once the transaction commits, in
+ * case a resource was built from the old state in the meantime. If a transaction is rolled back,
+ * every entry is removed, as some of them may have been built from changes that no longer exist.
+ */
+@Component
+public class FhirResourceCacheInterceptor extends EmptyInterceptor {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private static final ThreadLocal<List<Object>> changedObjects = ThreadLocal.withInitial(ArrayList::new);
+	
+	private static final ThreadLocal<Boolean> committing = new ThreadLocal<>();
+	
+	// the session factory depends on every interceptor, so the cache has to be looked up lazily
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = { @Autowired, @Lazy })
+	private transient FhirResourceCache resourceCache;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = { @Autowired, @Lazy })
+	private transient FhirNarrativeCache narrativeCache;
+	
+	@Override
+	public boolean onSave(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		changed(entity);
+		return false;
+	}
+	
+	@Override
+	public boolean onFlushDirty(Object entity, Serializable id, Object[] currentState, Object[] previousState,
+	        String[] propertyNames, Type[] types) {
+		changed(entity);
+		return false;
+	}
+	
+	@Override
+	public void onDelete(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		changed(entity);
+	}
+	
+	@Override
+	public void onCollectionUpdate(Object collection, Serializable key) {
+		if (collection instanceof PersistentCollection) {
+			changed(((PersistentCollection) collection).getOwner());
+		}
+	}
+	
+	@Override
+	public void onCollectionRemove(Object collection, Serializable key) {
+		if (collection instanceof PersistentCollection) {
+			changed(((PersistentCollection) collection).getOwner());
+		}
+	}
+	
+	@Override
+	public void beforeTransactionCompletion(Transaction tx) {
+		// only called for transactions that are about to commit
+		committing.set(true);
+	}
+	
+	@Override
+	public void afterTransactionCompletion(Transaction tx) {
+		try {
+			if (Boolean.TRUE.equals(committing.get())) {
+				changedObjects.get().forEach(this::invalidate);
+			} else {
+				if (resourceCache != null) {
+					resourceCache.invalidateAll();
+				}
+				
+				if (narrativeCache != null) {
+					narrativeCache.invalidateAll();
+				}
+			}
+		}
+		finally {
+			changedObjects.remove();
+			committing.remove();
+		}
+	}
+	
+	private void changed(Object entity) {
+		if (entity != null && (resourceCache != null || narrativeCache != null)) {
+			invalidate(entity);
+			changedObjects.get().add(entity);
+		}
+	}
+	
+	private void invalidate(Object entity) {
+		if (resourceCache != null) {
+			resourceCache.invalidate(entity);
+		}
+		
+		if (narrativeCache != null) {
+			narrativeCache.invalidate(entity);
+		}
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.dao.impl;
+
+import static org.hibernate.criterion.Restrictions.eq;
+import static org.hibernate.criterion.Restrictions.gt;
+
+import javax.annotation.Nonnull;
+
+import java.util.Date;
+import java.util.Optional;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import org.hibernate.SessionFactory;
+import org.openmrs.module.fhir2.api.dao.FhirSearchSnapshotDao;
+import org.openmrs.module.fhir2.model.FhirSearchSnapshot;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+@Component
+public class FhirSearchSnapshotDaoImpl implements FhirSearchSnapshotDao {
+	
+	@Getter(value = AccessLevel.PROTECTED)
+	@Setter(value = AccessLevel.PROTECTED, onMethod = @__({ @Autowired, @Qualifier("sessionFactory") }))
+	private SessionFactory sessionFactory;
+	
+	@Override
+	@Transactional(readOnly = true)
+	public Optional<FhirSearchSnapshot> getSearchSnapshot(@Nonnull String uuid) {
+		return Optional.ofNullable((FhirSearchSnapshot) sessionFactory.getCurrentSession()
+		        .createCriteria(FhirSearchSnapshot.class).add(eq("uuid", uuid)).add(gt("expires", new Date())).uniqueResult());
+	}
+	
+	@Override
+	@Transactional
+	public FhirSearchSnapshot saveSearchSnapshot(@Nonnull FhirSearchSnapshot searchSnapshot) {
+		sessionFactory.getCurrentSession().saveOrUpdate(searchSnapshot);
+		return searchSnapshot;
+	}
+	
+	@Override
+	@Transactional
+	public int deleteExpiredSearchSnapshots(@Nonnull Date date) {
+		return sessionFactory.getCurrentSession()
+		        .createQuery("delete from FhirSearchSnapshot s where s.expires < :date").setParameter("date", date)
+		        .executeUpdate();
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.dao.impl;
+
+import java.io.Serializable;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import lombok.AccessLevel;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Transaction;
+import org.hibernate.type.Type;
+import org.openmrs.Location;
+import org.openmrs.module.fhir2.api.dao.FhirLocationAncestorDao;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the {@code fhir_location_ancestor} closure table in step with the location hierarchy.
+ * Locations that are created or given a new parent are collected as the session is flushed and the
+ * closure table is updated for them just before the transaction commits, however the location was
+ * saved. Rows for purged locations are removed by the database as the foreign keys cascade.
+ * <p/>
+ * Hibernate ignores exceptions thrown just before a transaction commits, so if the closure table
+ * cannot be updated for the changed locations, the partial update is rolled back and the table is set
+ * aside as part of the same transaction. It is rebuilt in the background once the transaction has
+ * completed, with searches walking the location hierarchy in the meantime.
+ */
+@Slf4j
+@Component
+public class LocationAncestorInterceptor extends EmptyInterceptor {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private static final String PARENT_LOCATION_PROPERTY = "parentLocation";
+	
+	private static final ThreadLocal<Set<Location>> changedLocations = ThreadLocal.withInitial(LinkedHashSet::new);
+	
+	private static final ThreadLocal<Boolean> rebuildRequired = ThreadLocal.withInitial(() -> false);
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = { @Autowired, @Lazy })
+	private transient FhirLocationAncestorDao locationAncestorDao;
+	
+	@Override
+	public boolean onSave(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		if (entity instanceof Location) {
+			changedLocations.get().add((Location) entity);
+		}
+		
+		return false;
+	}
+	
+	@Override
+	public boolean onFlushDirty(Object entity, Serializable id, Object[] currentState, Object[] previousState,
+	        String[] propertyNames, Type[] types) {
+		if (entity instanceof Location) {
+			for (int i = 0; i < propertyNames.length; i++) {
+				if (PARENT_LOCATION_PROPERTY.equals(propertyNames[i])) {
+					if (previousState == null
+					        || !Objects.equals(getLocationId(previousState[i]), getLocationId(currentState[i]))) {
+						changedLocations.get().add((Location) entity);
+					}
+					break;
+				}
+			}
+		}
+		
+		return false;
+	}
+	
+	@Override
+	public void beforeTransactionCompletion(Transaction tx) {
+		Set<Location> locations = changedLocations.get();
+		if (locations.isEmpty() || locationAncestorDao == null) {
+			return;
+		}
+		
+		List<Integer> locationIds = locations.stream().map(Location::getLocationId).filter(Objects::nonNull)
+		        .collect(Collectors.toList());
+		locations.clear();
+		
+		try {
+			locationAncestorDao.updateAncestors(locationIds);
+		}
+		catch (RuntimeException e) {
+			log.error("Could not update the ancestors of locations {}; Location?partof:below searches will walk the "
+			        + "hierarchy until it has been rebuilt",
+			    locationIds, e);
+			rebuildRequired.set(true);
+			locationAncestorDao.invalidateAncestors();
+		}
+	}
+	
+	@Override
+	public void afterTransactionCompletion(Transaction tx) {
+		try {
+			if (rebuildRequired.get() && locationAncestorDao != null) {
+				locationAncestorDao.rebuildAncestorsInBackground();
+			}
+		}
+		finally {
+			changedLocations.remove();
+			rebuildRequired.remove();
+		}
+	}
+	
+	private static Integer getLocationId(Object location) {
+		return location == null ? null : ((Location) location).getLocationId();
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.dao.impl;
+
+import java.io.Serializable;
+
+import lombok.AccessLevel;
+import lombok.Setter;
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Transaction;
+import org.hibernate.type.Type;
+import org.openmrs.module.fhir2.api.mappings.EncounterClassMap;
+import org.openmrs.module.fhir2.api.mappings.ObservationCategoryMap;
+import org.openmrs.module.fhir2.model.FhirEncounterClassMap;
+import org.openmrs.module.fhir2.model.FhirObservationCategoryMap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+/**
+ * Discards the snapshots held by the {@link ObservationCategoryMap} and the {@link EncounterClassMap}
+ * whenever a row of the table they were loaded from is saved or deleted, however the change was made.
+ * The snapshots are discarded as soon as the change is flushed and again once the transaction
+ * completes, in case a snapshot was loaded from the old state in the meantime.
+ */
+@Component
+public class MappingSnapshotInterceptor extends EmptyInterceptor {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private static final ThreadLocal<Boolean> categoriesChanged = ThreadLocal.withInitial(() -> false);
+	
+	private static final ThreadLocal<Boolean> encounterClassesChanged = ThreadLocal.withInitial(() -> false);
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = { @Autowired, @Lazy })
+	private transient ObservationCategoryMap observationCategoryMap;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = { @Autowired, @Lazy })
+	private transient EncounterClassMap encounterClassMap;
+	
+	@Override
+	public boolean onSave(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		changed(entity);
+		return false;
+	}
+	
+	@Override
+	public boolean onFlushDirty(Object entity, Serializable id, Object[] currentState, Object[] previousState,
+	        String[] propertyNames, Type[] types) {
+		changed(entity);
+		return false;
+	}
+	
+	@Override
+	public void onDelete(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		changed(entity);
+	}
+	
+	@Override
+	public void afterTransactionCompletion(Transaction tx) {
+		try {
+			if (categoriesChanged.get() && observationCategoryMap != null) {
+				observationCategoryMap.invalidate();
+			}
+			
+			if (encounterClassesChanged.get() && encounterClassMap != null) {
+				encounterClassMap.invalidate();
+			}
+		}
+		finally {
+			categoriesChanged.remove();
+			encounterClassesChanged.remove();
+		}
+	}
+	
+	private void changed(Object entity) {
+		if (entity instanceof FhirObservationCategoryMap) {
+			categoriesChanged.set(true);
+			if (observationCategoryMap != null) {
+				observationCategoryMap.invalidate();
+			}
+		} else if (entity instanceof FhirEncounterClassMap) {
+			encounterClassesChanged.set(true);
+			if (encounterClassMap != null) {
+				encounterClassMap.invalidate();
+			}
+		}
+	}
+}
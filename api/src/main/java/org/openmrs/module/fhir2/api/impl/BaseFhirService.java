@@ -22,6 +22,7 @@ import ca.uhn.fhir.rest.api.Constants;
 import ca.uhn.fhir.rest.api.PatchTypeEnum;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
 import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.NotModifiedException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceGoneException;
 import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
@@ -37,9 +38,12 @@ import org.openmrs.Voidable;
 import org.openmrs.api.ValidationException;
 import org.openmrs.module.fhir2.FhirConstants;
 import org.openmrs.module.fhir2.api.FhirService;
+import org.openmrs.module.fhir2.api.cache.FhirResourceCache;
 import org.openmrs.module.fhir2.api.dao.FhirDao;
 import org.openmrs.module.fhir2.api.translators.OpenmrsFhirTranslator;
 import org.openmrs.module.fhir2.api.translators.UpdatableOpenmrsTranslator;
+import org.openmrs.module.fhir2.api.translators.impl.FhirTranslatorUtils;
+import org.openmrs.module.fhir2.api.util.ConditionalReadContext;
 import org.openmrs.module.fhir2.api.util.FhirUtils;
 import org.openmrs.module.fhir2.api.util.JsonPatchUtils;
 import org.openmrs.module.fhir2.api.util.XmlPatchUtils;
@@ -62,6 +66,10 @@ public abstract class BaseFhirService<T extends IAnyResource, U extends OpenmrsO
 	@Setter(value = PROTECTED, onMethod_ = @__({ @Autowired, @Qualifier("fhirR4") }))
 	private FhirContext fhirContext;
 	
+	@Getter(PROTECTED)
+	@Setter(value = PROTECTED, onMethod_ = @Autowired)
+	private FhirResourceCache resourceCache;
+	
 	protected BaseFhirService() {
 		// @formatter:off
 		TypeToken<T> resourceTypeToken = new TypeToken<T>(getClass()) {};
@@ -85,9 +93,17 @@ public abstract class BaseFhirService<T extends IAnyResource, U extends OpenmrsO
 		} else if (isVoided(openmrsObj) || isRetired(openmrsObj)) {
 			throw new ResourceGoneException(
 			        "Resource of type " + resourceClass.getSimpleName() + " with ID " + uuid + " is gone/deleted");
+		} else if (ConditionalReadContext.isNotModified(resourceClass.getSimpleName(), uuid,
+		    FhirTranslatorUtils.getLastUpdated(openmrsObj))) {
+			// the client's copy is current, so there is no need to translate the object
+			throw new NotModifiedException("Not Modified");
+		}
+		
+		if (resourceCache == null) {
+			return getTranslator().toFhirResource(openmrsObj);
 		}
 		
-		return getTranslator().toFhirResource(openmrsObj);
+		return resourceCache.get(getTranslator(), openmrsObj);
 	}
 	
 	@Override
@@ -0,0 +1,558 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.impl;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.param.DateParam;
+import ca.uhn.fhir.rest.param.DateRangeParam;
+import ca.uhn.fhir.rest.param.ParamPrefixEnum;
+import ca.uhn.fhir.rest.param.ReferenceAndListParam;
+import ca.uhn.fhir.rest.param.ReferenceOrListParam;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.param.TokenAndListParam;
+import ca.uhn.fhir.rest.param.TokenOrListParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.openmrs.Auditable;
+import org.openmrs.OpenmrsObject;
+import org.openmrs.Provider;
+import org.openmrs.TestOrder;
+import org.openmrs.User;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.module.fhir2.FhirConstants;
+import org.openmrs.module.fhir2.api.FhirBulkExportService;
+import org.openmrs.module.fhir2.api.FhirGlobalPropertyService;
+import org.openmrs.module.fhir2.api.dao.FhirAllergyIntoleranceDao;
+import org.openmrs.module.fhir2.api.dao.FhirBulkExportDao;
+import org.openmrs.module.fhir2.api.dao.FhirConditionDao;
+import org.openmrs.module.fhir2.api.dao.FhirDao;
+import org.openmrs.module.fhir2.api.dao.FhirDiagnosticReportDao;
+import org.openmrs.module.fhir2.api.dao.FhirEncounterDao;
+import org.openmrs.module.fhir2.api.dao.FhirLocationDao;
+import org.openmrs.module.fhir2.api.dao.FhirMedicationDao;
+import org.openmrs.module.fhir2.api.dao.FhirMedicationRequestDao;
+import org.openmrs.module.fhir2.api.dao.FhirObservationDao;
+import org.openmrs.module.fhir2.api.dao.FhirPatientDao;
+import org.openmrs.module.fhir2.api.dao.FhirPractitionerDao;
+import org.openmrs.module.fhir2.api.dao.FhirServiceRequestDao;
+import org.openmrs.module.fhir2.api.search.param.SearchCursor;
+import org.openmrs.module.fhir2.api.search.param.SearchParameterMap;
+import org.openmrs.module.fhir2.api.translators.AllergyIntoleranceTranslator;
+import org.openmrs.module.fhir2.api.translators.ConditionTranslator;
+import org.openmrs.module.fhir2.api.translators.DiagnosticReportTranslator;
+import org.openmrs.module.fhir2.api.translators.EncounterTranslator;
+import org.openmrs.module.fhir2.api.translators.LocationTranslator;
+import org.openmrs.module.fhir2.api.translators.MedicationRequestTranslator;
+import org.openmrs.module.fhir2.api.translators.MedicationTranslator;
+import org.openmrs.module.fhir2.api.translators.ObservationTranslator;
+import org.openmrs.module.fhir2.api.translators.OpenmrsFhirTranslator;
+import org.openmrs.module.fhir2.api.translators.PatientTranslator;
+import org.openmrs.module.fhir2.api.translators.PractitionerTranslator;
+import org.openmrs.module.fhir2.api.translators.ServiceRequestTranslator;
+import org.openmrs.module.fhir2.api.util.FhirUtils;
+import org.openmrs.module.fhir2.model.FhirBulkExportJob;
+import org.openmrs.module.fhir2.model.FhirBulkExportJob.ExportLevel;
+import org.openmrs.module.fhir2.model.FhirBulkExportJob.ExportStatus;
+import org.openmrs.module.fhir2.model.FhirBulkExportOutput;
+import org.openmrs.util.OpenmrsUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exports are run one at a time on a background thread. Each resource type is read through its DAO
+ * in chunks of {@link #EXPORT_CHUNK_SIZE} objects ordered by primary key, each chunk starting after
+ * the last object of the one before, so no count or offset query is ever run. After every chunk is
+ * written the Hibernate session is cleared, so the memory used does not grow with the size of the
+ * export, and the position reached is saved with the export.
+ */
+@Slf4j
+@Component
+public class FhirBulkExportServiceImpl implements FhirBulkExportService {
+	
+	protected static final int EXPORT_CHUNK_SIZE = 500;
+	
+	protected static final int EXPORT_PATIENT_BATCH_SIZE = 500;
+	
+	protected static final String NDJSON_EXTENSION = ".ndjson";
+	
+	private final Set<String> runningJobs = ConcurrentHashMap.newKeySet();
+	
+	private ExecutorService executor;
+	
+	private Map<String, ExportedResourceType<?, ?>> resourceTypes;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirBulkExportDao dao;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirGlobalPropertyService globalPropertyService;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = { @Autowired, @Qualifier("fhirR4") })
+	private FhirContext fhirContext;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirPatientDao patientDao;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private PatientTranslator patientTranslator;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirEncounterDao encounterDao;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private EncounterTranslator<org.openmrs.Encounter> encounterTranslator;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirObservationDao observationDao;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private ObservationTranslator observationTranslator;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirAllergyIntoleranceDao allergyIntoleranceDao;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private AllergyIntoleranceTranslator allergyIntoleranceTranslator;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirConditionDao conditionDao;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private ConditionTranslator<org.openmrs.Condition> conditionTranslator;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirMedicationRequestDao medicationRequestDao;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private MedicationRequestTranslator medicationRequestTranslator;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirServiceRequestDao<TestOrder> serviceRequestDao;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private ServiceRequestTranslator<TestOrder> serviceRequestTranslator;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirDiagnosticReportDao diagnosticReportDao;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private DiagnosticReportTranslator diagnosticReportTranslator;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirPractitionerDao practitionerDao;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private PractitionerTranslator<Provider> practitionerTranslator;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirLocationDao locationDao;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private LocationTranslator locationTranslator;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirMedicationDao medicationDao;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private MedicationTranslator medicationTranslator;
+	
+	@Override
+	public List<String> getSupportedResourceTypes(@Nonnull ExportLevel exportLevel) {
+		return getResourceTypes().entrySet().stream()
+		        .filter(entry -> exportLevel == ExportLevel.SYSTEM || entry.getValue().patientCompartment)
+		        .map(Map.Entry::getKey).collect(Collectors.toList());
+	}
+	
+	@Override
+	public FhirBulkExportJob startExport(@Nonnull ExportLevel exportLevel, @Nullable String groupUuid,
+	        @Nullable Collection<String> resourceTypes, @Nullable Date since, @Nonnull String requestUrl) {
+		FhirBulkExportJob job = createExportJob(exportLevel, groupUuid, resourceTypes, since, requestUrl);
+		submitExportJob(job.getUuid());
+		return job;
+	}
+	
+	@Override
+	public FhirBulkExportJob getExportJob(@Nonnull String uuid) {
+		FhirBulkExportJob job = dao.getExportJob(uuid).filter(this::isAccessible)
+		        .orElseThrow(() -> new ResourceNotFoundException("Could not find export with id " + uuid));
+		
+		// an export that was interrupted, e.g. by a restart, is resumed when its status is next checked
+		if ((job.getStatus() == ExportStatus.ACCEPTED || job.getStatus() == ExportStatus.IN_PROGRESS)
+		        && !runningJobs.contains(uuid)) {
+			submitExportJob(uuid);
+		}
+		
+		return job;
+	}
+	
+	@Override
+	public File getExportFile(@Nonnull String uuid, @Nonnull String resourceType) {
+		FhirBulkExportJob job = dao.getExportJob(uuid).filter(this::isAccessible)
+		        .filter(it -> it.getStatus() == ExportStatus.COMPLETED)
+		        .orElseThrow(() -> new ResourceNotFoundException("Could not find completed export with id " + uuid));
+		
+		if (job.getOutputs().stream().noneMatch(output -> output.getResourceType().equals(resourceType))) {
+			throw new ResourceNotFoundException("Export " + uuid + " did not export any " + resourceType + " resources");
+		}
+		
+		File file = new File(getJobDirectory(job), resourceType + NDJSON_EXTENSION);
+		if (!file.isFile()) {
+			throw new ResourceNotFoundException("The " + resourceType + " file for export " + uuid + " no longer exists");
+		}
+		
+		return file;
+	}
+	
+	@PreDestroy
+	public synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+	
+	protected FhirBulkExportJob createExportJob(ExportLevel exportLevel, String groupUuid,
+	        Collection<String> requestedTypes, Date since, String requestUrl) {
+		List<String> supportedTypes = getSupportedResourceTypes(exportLevel);
+		
+		List<String> exportedTypes;
+		if (requestedTypes == null || requestedTypes.isEmpty()) {
+			exportedTypes = supportedTypes;
+		} else {
+			for (String resourceType : requestedTypes) {
+				if (!supportedTypes.contains(resourceType)) {
+					throw new InvalidRequestException(
+					        "Resource type " + resourceType + " cannot be exported by a " + exportLevel + " level export");
+				}
+			}
+			
+			// resources are always exported in the same order
+			exportedTypes = supportedTypes.stream().filter(requestedTypes::contains).collect(Collectors.toList());
+		}
+		
+		if (exportLevel == ExportLevel.GROUP) {
+			if (groupUuid == null || !dao.getCohortMemberIds(groupUuid).isPresent()) {
+				throw new ResourceNotFoundException("Could not find group with id " + groupUuid);
+			}
+		}
+		
+		Date now = new Date();
+		FhirBulkExportJob job = new FhirBulkExportJob();
+		job.setUuid(FhirUtils.newUuid());
+		job.setStatus(ExportStatus.ACCEPTED);
+		job.setExportLevel(exportLevel);
+		job.setGroupUuid(exportLevel == ExportLevel.GROUP ? groupUuid : null);
+		job.setResourceTypes(String.join(",", exportedTypes));
+		job.setSince(since);
+		job.setRequestUrl(requestUrl);
+		job.setTransactionTime(now);
+		job.setCreator(Context.getAuthenticatedUser());
+		job.setDateCreated(now);
+		return dao.saveExportJob(job);
+	}
+	
+	protected void submitExportJob(String uuid) {
+		if (!runningJobs.add(uuid)) {
+			return;
+		}
+		
+		UserContext userContext = Context.getUserContext();
+		try {
+			getExecutor().execute(() -> {
+				Context.openSession();
+				try {
+					Context.setUserContext(userContext);
+					runExportJob(uuid);
+				}
+				finally {
+					runningJobs.remove(uuid);
+					Context.closeSession();
+				}
+			});
+		}
+		catch (RuntimeException e) {
+			runningJobs.remove(uuid);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Runs an export, starting from the position last recorded for it
+	 *
+	 * @param uuid the id of the export
+	 */
+	protected void runExportJob(String uuid) {
+		FhirBulkExportJob job = dao.getExportJob(uuid).orElse(null);
+		if (job == null || job.getStatus() == ExportStatus.COMPLETED || job.getStatus() == ExportStatus.FAILED) {
+			return;
+		}
+		
+		job.setStatus(ExportStatus.IN_PROGRESS);
+		dao.saveExportJob(job);
+		
+		try {
+			File directory = getJobDirectory(job);
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new APIException("Could not create the export directory " + directory);
+			}
+			
+			List<Integer> memberIds = null;
+			if (job.getExportLevel() == ExportLevel.GROUP) {
+				memberIds = dao.getCohortMemberIds(job.getGroupUuid()).orElse(Collections.emptyList());
+			}
+			
+			List<String> exportedTypes = Arrays.asList(StringUtils.split(job.getResourceTypes(), ','));
+			int start = Math.max(exportedTypes.indexOf(job.getCurrentResourceType()), 0);
+			for (String resourceType : exportedTypes.subList(start, exportedTypes.size())) {
+				if (!resourceType.equals(job.getCurrentResourceType())) {
+					job.setCurrentResourceType(resourceType);
+					job.setCurrentPatientBatch(memberIds == null ? null : 0);
+					job.setLastId(null);
+				}
+				
+				exportResourceType(job, getResourceTypes().get(resourceType), directory, memberIds);
+			}
+			
+			job.setStatus(ExportStatus.COMPLETED);
+			job.setCurrentResourceType(null);
+			job.setCurrentPatientBatch(null);
+			job.setLastId(null);
+		}
+		catch (Exception e) {
+			log.error("Bulk export {} failed", uuid, e);
+			job.setStatus(ExportStatus.FAILED);
+			job.setError(StringUtils.abbreviate(e.getMessage() == null ? e.toString() : e.getMessage(), 1024));
+		}
+		
+		job.setDateCompleted(new Date());
+		dao.saveExportJob(job);
+	}
+	
+	protected File getExportDirectory() {
+		String directory = globalPropertyService.getGlobalProperty(FhirConstants.OPENMRS_FHIR_EXPORT_DIRECTORY,
+		    "fhir2" + File.separator + "export");
+		
+		File exportDirectory = new File(directory);
+		if (!exportDirectory.isAbsolute()) {
+			exportDirectory = new File(OpenmrsUtil.getApplicationDataDirectory(), directory);
+		}
+		
+		return exportDirectory;
+	}
+	
+	protected synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			AtomicInteger threadNumber = new AtomicInteger();
+			executor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "fhir2-export-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		
+		return executor;
+	}
+	
+	private <T extends OpenmrsObject & Auditable, U extends IBaseResource> void exportResourceType(FhirBulkExportJob job,
+	        ExportedResourceType<T, U> resourceType, File directory, List<Integer> memberIds) throws IOException {
+		FhirBulkExportOutput output = job.getOutputs().stream()
+		        .filter(it -> it.getResourceType().equals(job.getCurrentResourceType())).findFirst().orElseGet(() -> {
+			        FhirBulkExportOutput newOutput = new FhirBulkExportOutput();
+			        newOutput.setResourceType(job.getCurrentResourceType());
+			        job.getOutputs().add(newOutput);
+			        return newOutput;
+		        });
+		
+		// anything written after the last recorded chunk is written again
+		File file = new File(directory, output.getResourceType() + NDJSON_EXTENSION);
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			randomAccessFile.setLength(output.getFileLength());
+		}
+		
+		// narratives are for people reading a single resource, not for bulk data consumers
+		IParser parser = fhirContext.newJsonParser().setPrettyPrint(false).setSuppressNarratives(true);
+		try (FileOutputStream out = new FileOutputStream(file, true);
+		        Writer writer = new BufferedWriter(new OutputStreamWriter(out, UTF_8))) {
+			if (memberIds == null) {
+				exportChunks(job, resourceType, output, null, parser, writer, out);
+				return;
+			}
+			
+			for (int batch = job.getCurrentPatientBatch(); batch * EXPORT_PATIENT_BATCH_SIZE < memberIds.size(); batch++) {
+				if (batch != job.getCurrentPatientBatch()) {
+					job.setCurrentPatientBatch(batch);
+					job.setLastId(null);
+				}
+				
+				List<String> patientUuids = dao.getPatientUuids(memberIds.subList(batch * EXPORT_PATIENT_BATCH_SIZE,
+				    Math.min((batch + 1) * EXPORT_PATIENT_BATCH_SIZE, memberIds.size())));
+				if (!patientUuids.isEmpty()) {
+					exportChunks(job, resourceType, output, patientUuids, parser, writer, out);
+				}
+			}
+		}
+	}
+	
+	private <T extends OpenmrsObject & Auditable, U extends IBaseResource> void exportChunks(FhirBulkExportJob job,
+	        ExportedResourceType<T, U> resourceType, FhirBulkExportOutput output, List<String> patientUuids,
+	        IParser parser, Writer writer, FileOutputStream out) throws IOException {
+		while (true) {
+			SearchParameterMap theParams = resourceType.createSearch(job, patientUuids);
+			theParams.setFromIndex(0);
+			theParams.setToIndex(EXPORT_CHUNK_SIZE);
+			if (job.getLastId() != null) {
+				theParams.setCursor(new SearchCursor(0, new Object[0], job.getLastId()));
+			}
+			
+			List<T> results = resourceType.dao.getSearchResults(theParams);
+			if (results.isEmpty()) {
+				return;
+			}
+			
+			Integer lastId = results.get(results.size() - 1).getId();
+			if (job.getLastId() != null && lastId <= job.getLastId()) {
+				throw new APIException("Resources of type " + output.getResourceType() + " cannot be exported in order");
+			}
+			
+			for (U resource : resourceType.translator.toFhirResources(results)) {
+				writer.write(parser.encodeResourceToString(resource));
+				writer.write('\n');
+			}
+			writer.flush();
+			
+			output.setResourceCount(output.getResourceCount() + results.size());
+			output.setFileLength(out.getChannel().size());
+			job.setLastId(lastId);
+			dao.saveExportJob(job);
+			
+			// nothing read for this chunk is needed for the next one
+			Context.flushSession();
+			Context.clearSession();
+			
+			if (results.size() < EXPORT_CHUNK_SIZE) {
+				return;
+			}
+		}
+	}
+	
+	private File getJobDirectory(FhirBulkExportJob job) {
+		return new File(getExportDirectory(), job.getUuid());
+	}
+	
+	private boolean isAccessible(FhirBulkExportJob job) {
+		User user = Context.getAuthenticatedUser();
+		return user != null && (user.isSuperUser() || user.getUserId().equals(job.getCreator().getUserId()));
+	}
+	
+	private synchronized Map<String, ExportedResourceType<?, ?>> getResourceTypes() {
+		if (resourceTypes == null) {
+			Map<String, ExportedResourceType<?, ?>> types = new LinkedHashMap<>();
+			types.put(FhirConstants.PATIENT, new ExportedResourceType<>(patientDao, patientTranslator, true));
+			types.put(FhirConstants.ENCOUNTER, new ExportedResourceType<>(encounterDao, encounterTranslator, true));
+			types.put(FhirConstants.OBSERVATION, new ExportedResourceType<>(observationDao, observationTranslator, true));
+			types.put(FhirConstants.ALLERGY_INTOLERANCE,
+			    new ExportedResourceType<>(allergyIntoleranceDao, allergyIntoleranceTranslator, true));
+			types.put(FhirConstants.CONDITION, new ExportedResourceType<>(conditionDao, conditionTranslator, true));
+			types.put(FhirConstants.MEDICATION_REQUEST,
+			    new ExportedResourceType<>(medicationRequestDao, medicationRequestTranslator, true));
+			types.put(FhirConstants.SERVICE_REQUEST,
+			    new ExportedResourceType<>(serviceRequestDao, serviceRequestTranslator, true));
+			types.put(FhirConstants.DIAGNOSTIC_REPORT,
+			    new ExportedResourceType<>(diagnosticReportDao, diagnosticReportTranslator, true));
+			types.put(FhirConstants.PRACTITIONER,
+			    new ExportedResourceType<>(practitionerDao, practitionerTranslator, false));
+			types.put(FhirConstants.LOCATION, new ExportedResourceType<>(locationDao, locationTranslator, false));
+			types.put(FhirConstants.MEDICATION, new ExportedResourceType<>(medicationDao, medicationTranslator, false));
+			resourceTypes = types;
+		}
+		
+		return resourceTypes;
+	}
+	
+	/**
+	 * The DAO and translator used to export a type of resource
+	 */
+	@AllArgsConstructor
+	private static class ExportedResourceType<T extends OpenmrsObject & Auditable, U extends IBaseResource> {
+		
+		private final FhirDao<T> dao;
+		
+		private final OpenmrsFhirTranslator<T, U> translator;
+		
+		/**
+		 * Whether these resources belong to the compartment of a patient and so are exported by Patient
+		 * and Group level exports
+		 */
+		private final boolean patientCompartment;
+		
+		SearchParameterMap createSearch(FhirBulkExportJob job, List<String> patientUuids) {
+			SearchParameterMap theParams = new SearchParameterMap();
+			
+			if (job.getSince() != null) {
+				theParams.addParameter(FhirConstants.COMMON_SEARCH_HANDLER, FhirConstants.LAST_UPDATED_PROPERTY,
+				    new DateRangeParam(new DateParam(ParamPrefixEnum.GREATERTHAN_OR_EQUALS, job.getSince()), null));
+			}
+			
+			if (patientUuids != null) {
+				if (dao instanceof FhirPatientDao) {
+					TokenOrListParam ids = new TokenOrListParam();
+					patientUuids.forEach(uuid -> ids.addOr(new TokenParam(uuid)));
+					theParams.addParameter(FhirConstants.COMMON_SEARCH_HANDLER, FhirConstants.ID_PROPERTY,
+					    new TokenAndListParam().addAnd(ids));
+				} else {
+					ReferenceOrListParam references = new ReferenceOrListParam();
+					patientUuids.forEach(uuid -> references.addOr(new ReferenceParam(uuid)));
+					theParams.addParameter(FhirConstants.PATIENT_REFERENCE_SEARCH_HANDLER,
+					    new ReferenceAndListParam().addAnd(references));
+				}
+			}
+			
+			return theParams;
+		}
+	}
+}
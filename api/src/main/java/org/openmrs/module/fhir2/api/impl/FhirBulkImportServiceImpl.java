@@ -0,0 +1,638 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.impl;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import javax.annotation.Nonnull;
+import javax.annotation.PreDestroy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.AllergyIntolerance;
+import org.hl7.fhir.r4.model.Condition;
+import org.hl7.fhir.r4.model.DiagnosticReport;
+import org.hl7.fhir.r4.model.Encounter;
+import org.hl7.fhir.r4.model.Location;
+import org.hl7.fhir.r4.model.Medication;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Practitioner;
+import org.openmrs.Allergy;
+import org.openmrs.Drug;
+import org.openmrs.Obs;
+import org.openmrs.OpenmrsObject;
+import org.openmrs.Provider;
+import org.openmrs.User;
+import org.openmrs.api.APIAuthenticationException;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.module.fhir2.FhirConstants;
+import org.openmrs.module.fhir2.api.FhirBulkImportService;
+import org.openmrs.module.fhir2.api.FhirGlobalPropertyService;
+import org.openmrs.module.fhir2.api.dao.FhirBulkImportDao;
+import org.openmrs.module.fhir2.api.translators.AllergyIntoleranceTranslator;
+import org.openmrs.module.fhir2.api.translators.ConditionTranslator;
+import org.openmrs.module.fhir2.api.translators.DiagnosticReportTranslator;
+import org.openmrs.module.fhir2.api.translators.EncounterTranslator;
+import org.openmrs.module.fhir2.api.translators.LocationTranslator;
+import org.openmrs.module.fhir2.api.translators.MedicationTranslator;
+import org.openmrs.module.fhir2.api.translators.ObservationTranslator;
+import org.openmrs.module.fhir2.api.translators.PatientTranslator;
+import org.openmrs.module.fhir2.api.translators.PractitionerTranslator;
+import org.openmrs.module.fhir2.api.translators.ToOpenmrsTranslator;
+import org.openmrs.module.fhir2.api.util.FhirUtils;
+import org.openmrs.module.fhir2.api.util.ReferenceResolutionCache;
+import org.openmrs.module.fhir2.model.FhirBulkImportInput;
+import org.openmrs.module.fhir2.model.FhirBulkImportJob;
+import org.openmrs.module.fhir2.model.FhirBulkImportJob.ImportStatus;
+import org.openmrs.module.fhir2.model.FhirDiagnosticReport;
+import org.openmrs.util.OpenmrsUtil;
+import org.openmrs.validator.ValidateUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+/**
+ * Imports are run one at a time on a background thread. Each input file is read in chunks of
+ * {@link #IMPORT_CHUNK_SIZE} lines. Every line is parsed, translated and validated as a single
+ * create would be, with the patients, encounters and concepts it refers to looked up once per chunk.
+ * The objects for a chunk are then saved using JDBC batching in one transaction, which also records
+ * the position reached in the file, and the Hibernate session is cleared. If a chunk cannot be saved,
+ * its lines are saved one at a time so only the lines that fail are rejected.
+ */
+@Slf4j
+@Component
+public class FhirBulkImportServiceImpl implements FhirBulkImportService {
+	
+	protected static final int IMPORT_CHUNK_SIZE = 500;
+	
+	protected static final String NDJSON_EXTENSION = ".ndjson";
+	
+	protected static final String UPLOAD_FILE_NAME = "upload" + NDJSON_EXTENSION;
+	
+	protected static final String ERROR_FILE_PREFIX = "errors-";
+	
+	private final Set<String> runningJobs = ConcurrentHashMap.newKeySet();
+	
+	private ExecutorService executor;
+	
+	private Map<String, ImportedResourceType<?, ?>> resourceTypes;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirBulkImportDao dao;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirGlobalPropertyService globalPropertyService;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = { @Autowired, @Qualifier("fhirR4") })
+	private FhirContext fhirContext;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private PatientTranslator patientTranslator;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private PractitionerTranslator<Provider> practitionerTranslator;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private LocationTranslator locationTranslator;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private MedicationTranslator medicationTranslator;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private EncounterTranslator<org.openmrs.Encounter> encounterTranslator;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private ObservationTranslator observationTranslator;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private AllergyIntoleranceTranslator allergyIntoleranceTranslator;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private ConditionTranslator<org.openmrs.Condition> conditionTranslator;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private DiagnosticReportTranslator diagnosticReportTranslator;
+	
+	@Override
+	public List<String> getSupportedResourceTypes() {
+		return new ArrayList<>(getResourceTypes().keySet());
+	}
+	
+	@Override
+	public FhirBulkImportJob startImport(@Nonnull List<FhirBulkImportInput> inputs, @Nonnull String requestUrl) {
+		if (inputs.isEmpty()) {
+			throw new InvalidRequestException("At least one input must be supplied");
+		}
+		
+		for (FhirBulkImportInput input : inputs) {
+			input.setFilePath(resolveInputFile(input.getUrl()).getPath());
+		}
+		
+		FhirBulkImportJob job = createImportJob(FhirUtils.newUuid(), inputs, requestUrl);
+		submitImportJob(job.getUuid());
+		return job;
+	}
+	
+	@Override
+	public FhirBulkImportJob startUpload(@Nonnull String resourceType, @Nonnull InputStream ndjson,
+	        @Nonnull String requestUrl) throws IOException {
+		String uuid = FhirUtils.newUuid();
+		File directory = getJobDirectory(uuid);
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new APIException("Could not create the import directory " + directory);
+		}
+		
+		FhirBulkImportInput input = new FhirBulkImportInput();
+		input.setResourceType(resourceType);
+		input.setUrl(UPLOAD_FILE_NAME);
+		input.setFilePath(new File(directory, UPLOAD_FILE_NAME).getPath());
+		
+		// check the resource type before storing the file
+		validateResourceTypes(Collections.singletonList(input));
+		Files.copy(ndjson, new File(input.getFilePath()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		
+		FhirBulkImportJob job = createImportJob(uuid, Collections.singletonList(input), requestUrl);
+		submitImportJob(job.getUuid());
+		return job;
+	}
+	
+	@Override
+	public FhirBulkImportJob getImportJob(@Nonnull String uuid) {
+		FhirBulkImportJob job = dao.getImportJob(uuid).filter(this::isAccessible)
+		        .orElseThrow(() -> new ResourceNotFoundException("Could not find import with id " + uuid));
+		
+		// an import that was interrupted, e.g. by a restart, is restarted when its status is next checked
+		if ((job.getStatus() == ImportStatus.ACCEPTED || job.getStatus() == ImportStatus.IN_PROGRESS)
+		        && !runningJobs.contains(uuid)) {
+			submitImportJob(uuid);
+		}
+		
+		return job;
+	}
+	
+	@Override
+	public File getErrorFile(@Nonnull String uuid, int inputIndex) {
+		FhirBulkImportJob job = dao.getImportJob(uuid).filter(this::isAccessible)
+		        .orElseThrow(() -> new ResourceNotFoundException("Could not find import with id " + uuid));
+		
+		if (inputIndex < 0 || inputIndex >= job.getInputs().size()
+		        || job.getInputs().get(inputIndex).getErrorCount() == 0) {
+			throw new ResourceNotFoundException("Import " + uuid + " has no errors for input " + inputIndex);
+		}
+		
+		File file = getErrorFile(getJobDirectory(uuid), inputIndex);
+		if (!file.isFile()) {
+			throw new ResourceNotFoundException("The error file for input " + inputIndex + " of import " + uuid
+			        + " no longer exists");
+		}
+		
+		return file;
+	}
+	
+	@PreDestroy
+	public synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+	
+	protected FhirBulkImportJob createImportJob(String uuid, List<FhirBulkImportInput> inputs, String requestUrl) {
+		validateResourceTypes(inputs);
+		
+		Date now = new Date();
+		FhirBulkImportJob job = new FhirBulkImportJob();
+		job.setUuid(uuid);
+		job.setStatus(ImportStatus.ACCEPTED);
+		job.setRequestUrl(requestUrl);
+		job.setTransactionTime(now);
+		job.setCreator(Context.getAuthenticatedUser());
+		job.setDateCreated(now);
+		job.getInputs().addAll(inputs);
+		return dao.saveImportJob(job);
+	}
+	
+	protected void submitImportJob(String uuid) {
+		if (!runningJobs.add(uuid)) {
+			return;
+		}
+		
+		UserContext userContext = Context.getUserContext();
+		try {
+			getExecutor().execute(() -> {
+				Context.openSession();
+				try {
+					Context.setUserContext(userContext);
+					runImportJob(uuid);
+				}
+				finally {
+					runningJobs.remove(uuid);
+					Context.closeSession();
+				}
+			});
+		}
+		catch (RuntimeException e) {
+			runningJobs.remove(uuid);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Runs an import, starting from the last chunk committed for it
+	 *
+	 * @param uuid the id of the import
+	 */
+	protected void runImportJob(String uuid) {
+		FhirBulkImportJob job = dao.getImportJob(uuid).orElse(null);
+		if (job == null || job.getStatus() == ImportStatus.COMPLETED || job.getStatus() == ImportStatus.FAILED) {
+			return;
+		}
+		
+		job.setStatus(ImportStatus.IN_PROGRESS);
+		dao.saveImportJob(job);
+		
+		try {
+			File directory = getJobDirectory(uuid);
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new APIException("Could not create the import directory " + directory);
+			}
+			
+			int start = job.getCurrentInput() == null ? 0 : job.getCurrentInput();
+			for (int index = start; index < job.getInputs().size(); index++) {
+				job.setCurrentInput(index);
+				importInput(job, index, getResourceTypes().get(job.getInputs().get(index).getResourceType()),
+				    directory);
+			}
+			
+			job.setStatus(ImportStatus.COMPLETED);
+			job.setCurrentInput(null);
+		}
+		catch (Exception e) {
+			log.error("Bulk import {} failed", uuid, e);
+			job.setStatus(ImportStatus.FAILED);
+			job.setError(StringUtils.abbreviate(e.getMessage() == null ? e.toString() : e.getMessage(), 1024));
+		}
+		
+		job.setDateCompleted(new Date());
+		dao.saveImportJob(job);
+	}
+	
+	protected File getImportDirectory() {
+		String directory = globalPropertyService.getGlobalProperty(FhirConstants.OPENMRS_FHIR_IMPORT_DIRECTORY,
+		    "fhir2" + File.separator + "import");
+		
+		File importDirectory = new File(directory);
+		if (!importDirectory.isAbsolute()) {
+			importDirectory = new File(OpenmrsUtil.getApplicationDataDirectory(), directory);
+		}
+		
+		return importDirectory;
+	}
+	
+	protected synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			AtomicInteger threadNumber = new AtomicInteger();
+			executor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "fhir2-import-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		
+		return executor;
+	}
+	
+	private <T extends OpenmrsObject, U extends IBaseResource> void importInput(FhirBulkImportJob job, int index,
+	        ImportedResourceType<T, U> resourceType, File directory) throws IOException {
+		FhirBulkImportInput input = job.getInputs().get(index);
+		
+		// anything written after the last committed chunk is written again
+		File errorFile = getErrorFile(directory, index);
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(errorFile, "rw")) {
+			randomAccessFile.setLength(input.getErrorFileLength());
+		}
+		
+		IParser parser = fhirContext.newJsonParser();
+		try (FileChannel channel = FileChannel.open(new File(input.getFilePath()).toPath(), StandardOpenOption.READ);
+		        InputStream in = new BufferedInputStream(Channels.newInputStream(channel.position(input.getFileOffset())));
+		        FileOutputStream errorOut = new FileOutputStream(errorFile, true);
+		        Writer errorWriter = new BufferedWriter(new OutputStreamWriter(errorOut, UTF_8))) {
+			ImportFile<T, U> importFile = new ImportFile<>(resourceType, parser, errorWriter, errorOut);
+			
+			List<ImportLine> chunk = new ArrayList<>(IMPORT_CHUNK_SIZE);
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			long offset = input.getFileOffset();
+			int lineNumber = input.getLineCount();
+			
+			while (true) {
+				buffer.reset();
+				int read = readLine(in, buffer);
+				if (read > 0) {
+					offset += read;
+					chunk.add(new ImportLine(++lineNumber, offset, buffer.toString(UTF_8.name()).trim()));
+				}
+				
+				if (chunk.size() == IMPORT_CHUNK_SIZE || (read < 0 && !chunk.isEmpty())) {
+					importChunk(job, input, importFile, chunk);
+					chunk = new ArrayList<>(IMPORT_CHUNK_SIZE);
+				}
+				
+				if (read < 0) {
+					return;
+				}
+			}
+		}
+	}
+	
+	private <T extends OpenmrsObject, U extends IBaseResource> void importChunk(FhirBulkImportJob job,
+	        FhirBulkImportInput input, ImportFile<T, U> importFile, List<ImportLine> lines) throws IOException {
+		int lineCount = input.getLineCount();
+		int importedCount = input.getImportedCount();
+		int errorCount = input.getErrorCount();
+		long fileOffset = input.getFileOffset();
+		long errorFileLength = input.getErrorFileLength();
+		
+		List<T> objects = new ArrayList<>(lines.size());
+		try (ReferenceResolutionCache.Scope scope = ReferenceResolutionCache.open()) {
+			for (ImportLine line : lines) {
+				if (line.content.isEmpty()) {
+					continue;
+				}
+				
+				try {
+					objects.add(importFile.resourceType.toOpenmrsObject(importFile.parser, line.content));
+				}
+				catch (Exception e) {
+					importFile.writeError(line, e);
+					input.setErrorCount(input.getErrorCount() + 1);
+				}
+			}
+			
+			importFile.errorWriter.flush();
+			
+			ImportLine lastLine = lines.get(lines.size() - 1);
+			input.setLineCount(lastLine.number);
+			input.setFileOffset(lastLine.endOffset);
+			input.setImportedCount(input.getImportedCount() + objects.size());
+			input.setErrorFileLength(importFile.errorOut.getChannel().size());
+			
+			dao.saveChunk(job, objects);
+		}
+		catch (APIAuthenticationException e) {
+			// the user can no longer import this type, so there is no point in trying the lines one by one
+			throw e;
+		}
+		catch (RuntimeException e) {
+			// the transaction was rolled back, so nothing in this chunk was recorded
+			input.setLineCount(lineCount);
+			input.setImportedCount(importedCount);
+			input.setErrorCount(errorCount);
+			input.setFileOffset(fileOffset);
+			input.setErrorFileLength(errorFileLength);
+			importFile.errorOut.getChannel().truncate(errorFileLength);
+			Context.clearSession();
+			
+			if (lines.size() > 1) {
+				for (ImportLine line : lines) {
+					importChunk(job, input, importFile, Collections.singletonList(line));
+				}
+				return;
+			}
+			
+			ImportLine line = lines.get(0);
+			importFile.writeError(line, e);
+			importFile.errorWriter.flush();
+			input.setLineCount(line.number);
+			input.setFileOffset(line.endOffset);
+			input.setErrorCount(errorCount + 1);
+			input.setErrorFileLength(importFile.errorOut.getChannel().size());
+			dao.saveImportJob(job);
+		}
+		
+		// nothing loaded for this chunk is needed for the next one
+		Context.flushSession();
+		Context.clearSession();
+	}
+	
+	/**
+	 * Reads the bytes up to and including the next line feed
+	 *
+	 * @return the number of bytes read or -1 if the end of the file has been reached
+	 */
+	private static int readLine(InputStream in, ByteArrayOutputStream buffer) throws IOException {
+		int read = 0;
+		int next;
+		while ((next = in.read()) >= 0) {
+			read++;
+			if (next == '\n') {
+				return read;
+			}
+			
+			buffer.write(next);
+		}
+		
+		return read == 0 ? -1 : read;
+	}
+	
+	private File resolveInputFile(String url) {
+		if (StringUtils.isBlank(url)) {
+			throw new InvalidRequestException("Each input must have a url");
+		}
+		
+		File file;
+		try {
+			URI uri = URI.create(url);
+			if (uri.getScheme() != null && !"file".equals(uri.getScheme())) {
+				throw new InvalidRequestException(
+				        "Only files in the import directory can be imported, but " + url + " was requested");
+			}
+			
+			file = uri.getScheme() == null ? new File(uri.getPath()) : new File(uri);
+			if (!file.isAbsolute()) {
+				file = new File(getImportDirectory(), file.getPath());
+			}
+			
+			File importDirectory = getImportDirectory().getCanonicalFile();
+			file = file.getCanonicalFile();
+			if (!file.toPath().startsWith(importDirectory.toPath())) {
+				throw new InvalidRequestException(
+				        "Only files in the import directory can be imported, but " + url + " was requested");
+			}
+		}
+		catch (IllegalArgumentException | IOException e) {
+			throw new InvalidRequestException("Could not read the input " + url, e);
+		}
+		
+		if (!file.isFile()) {
+			throw new InvalidRequestException("Could not find the input " + url);
+		}
+		
+		return file;
+	}
+	
+	private void validateResourceTypes(List<FhirBulkImportInput> inputs) {
+		for (FhirBulkImportInput input : inputs) {
+			ImportedResourceType<?, ?> resourceType = getResourceTypes().get(input.getResourceType());
+			if (resourceType == null) {
+				throw new InvalidRequestException("Resource type " + input.getResourceType() + " cannot be imported");
+			}
+			
+			dao.checkImportPrivileges(resourceType.objectClass);
+		}
+	}
+	
+	private File getJobDirectory(String uuid) {
+		return new File(getImportDirectory(), uuid);
+	}
+	
+	private File getErrorFile(File directory, int inputIndex) {
+		return new File(directory, ERROR_FILE_PREFIX + inputIndex + NDJSON_EXTENSION);
+	}
+	
+	private boolean isAccessible(FhirBulkImportJob job) {
+		User user = Context.getAuthenticatedUser();
+		return user != null && (user.isSuperUser() || user.getUserId().equals(job.getCreator().getUserId()));
+	}
+	
+	private synchronized Map<String, ImportedResourceType<?, ?>> getResourceTypes() {
+		if (resourceTypes == null) {
+			Map<String, ImportedResourceType<?, ?>> types = new LinkedHashMap<>();
+			types.put(FhirConstants.PATIENT,
+			    new ImportedResourceType<>(org.openmrs.Patient.class, Patient.class, patientTranslator));
+			types.put(FhirConstants.PRACTITIONER,
+			    new ImportedResourceType<>(Provider.class, Practitioner.class, practitionerTranslator));
+			types.put(FhirConstants.LOCATION,
+			    new ImportedResourceType<>(org.openmrs.Location.class, Location.class, locationTranslator));
+			types.put(FhirConstants.MEDICATION,
+			    new ImportedResourceType<>(Drug.class, Medication.class, medicationTranslator));
+			types.put(FhirConstants.ENCOUNTER,
+			    new ImportedResourceType<>(org.openmrs.Encounter.class, Encounter.class, encounterTranslator));
+			types.put(FhirConstants.OBSERVATION,
+			    new ImportedResourceType<>(Obs.class, Observation.class, observationTranslator));
+			types.put(FhirConstants.ALLERGY_INTOLERANCE,
+			    new ImportedResourceType<>(Allergy.class, AllergyIntolerance.class, allergyIntoleranceTranslator));
+			types.put(FhirConstants.CONDITION,
+			    new ImportedResourceType<>(org.openmrs.Condition.class, Condition.class, conditionTranslator));
+			types.put(FhirConstants.DIAGNOSTIC_REPORT,
+			    new ImportedResourceType<>(FhirDiagnosticReport.class, DiagnosticReport.class, diagnosticReportTranslator));
+			resourceTypes = types;
+		}
+		
+		return resourceTypes;
+	}
+	
+	/**
+	 * The class and translator used to import a type of resource
+	 */
+	@AllArgsConstructor
+	private static class ImportedResourceType<T extends OpenmrsObject, U extends IBaseResource> {
+		
+		private final Class<T> objectClass;
+		
+		private final Class<U> resourceClass;
+		
+		private final ToOpenmrsTranslator<T, U> translator;
+		
+		T toOpenmrsObject(IParser parser, String line) {
+			U resource = parser.parseResource(resourceClass, line);
+			
+			T object = translator.toOpenmrsType(resource);
+			if (object == null) {
+				throw new APIException("The resource could not be translated");
+			}
+			
+			ValidateUtil.validate(object);
+			
+			if (object.getUuid() == null) {
+				object.setUuid(FhirUtils.newUuid());
+			}
+			
+			return object;
+		}
+	}
+	
+	/**
+	 * The state shared by the chunks of one input file
+	 */
+	@AllArgsConstructor
+	private static class ImportFile<T extends OpenmrsObject, U extends IBaseResource> {
+		
+		private final ImportedResourceType<T, U> resourceType;
+		
+		private final IParser parser;
+		
+		private final Writer errorWriter;
+		
+		private final FileOutputStream errorOut;
+		
+		void writeError(ImportLine line, Exception e) throws IOException {
+			OperationOutcome outcome = new OperationOutcome();
+			outcome.addIssue().setSeverity(OperationOutcome.IssueSeverity.ERROR)
+			        .setCode(OperationOutcome.IssueType.PROCESSING).setDiagnostics("Line " + line.number + ": "
+			                + (e.getMessage() == null ? e.toString() : e.getMessage()));
+			
+			errorWriter.write(parser.encodeResourceToString(outcome));
+			errorWriter.write('\n');
+		}
+	}
+	
+	@AllArgsConstructor
+	private static class ImportLine {
+		
+		private final int number;
+		
+		/**
+		 * The position in the file following this line
+		 */
+		private final long endOffset;
+		
+		private final String content;
+	}
+}
@@ -9,6 +9,7 @@
  */
 package org.openmrs.module.fhir2.api.impl;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -42,6 +43,11 @@ public class FhirConceptServiceImpl implements FhirConceptService {
 		return dao.get(uuid);
 	}
 	
+	@Override
+	public List<Concept> get(Collection<String> uuids) {
+		return dao.get(uuids);
+	}
+	
 	@Override
 	public Optional<Concept> getConceptWithSameAsMappingInSource(ConceptSource conceptSource, String mappingCode) {
 		return dao.getConceptWithSameAsMappingInSource(conceptSource, mappingCode);
@@ -70,4 +76,9 @@ public class FhirConceptServiceImpl implements FhirConceptService {
 	public List<Concept> getConceptsWithAnyMappingInSource(ConceptSource conceptSource, String mappingCode) {
 		return dao.getConceptsWithAnyMappingInSource(conceptSource, mappingCode);
 	}
+	
+	@Override
+	public List<Concept> getConceptsMappedToCodesInSource(ConceptSource conceptSource, Collection<String> mappingCodes) {
+		return dao.getConceptsMappedToCodesInSource(conceptSource, mappingCodes);
+	}
 }
@@ -22,22 +22,29 @@ import org.openmrs.ConceptSource;
 import org.openmrs.Duration;
 import org.openmrs.module.fhir2.FhirConstants;
 import org.openmrs.module.fhir2.api.FhirConceptSourceService;
+import org.openmrs.module.fhir2.api.cache.ConceptSourceUrlIndex;
+import org.openmrs.module.fhir2.api.cache.FhirCacheManager;
 import org.openmrs.module.fhir2.api.dao.FhirConceptSourceDao;
 import org.openmrs.module.fhir2.model.FhirConceptSource;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.CacheConfig;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Component;
 
 @Component
+@CacheConfig(cacheManager = FhirCacheManager.NAME)
 public class FhirConceptSourceServiceImpl implements FhirConceptSourceService {
 	
 	@Getter(value = AccessLevel.PROTECTED)
 	@Setter(value = AccessLevel.PROTECTED, onMethod_ = { @Autowired, @VisibleForTesting })
 	private FhirConceptSourceDao dao;
 	
+	@Getter(value = AccessLevel.PROTECTED)
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = { @Autowired, @VisibleForTesting })
+	private ConceptSourceUrlIndex conceptSourceUrlIndex;
+	
 	@Override
-	@Cacheable(value = "fhir2GetFhirConceptSources")
+	@Cacheable(value = "fhir2GetFhirConceptSources", sync = true)
 	public Collection<FhirConceptSource> getFhirConceptSources() {
 		return dao.getFhirConceptSources();
 	}
@@ -54,6 +61,10 @@ public class FhirConceptSourceServiceImpl implements FhirConceptSourceService {
 	
 	@Override
 	public String getUrlForConceptSource(@Nonnull ConceptSource conceptSource) {
+		if (conceptSourceUrlIndex != null) {
+			return conceptSourceUrlIndex.getUrl(conceptSource);
+		}
+		
 		return getFhirConceptSource(conceptSource).map(FhirConceptSource::getUrl)
 		        .orElseGet(() -> Duration.SNOMED_CT_CONCEPT_SOURCE_HL7_CODE.equals(conceptSource.getHl7Code())
 		                ? FhirConstants.SNOMED_SYSTEM_URI
@@ -84,8 +95,12 @@ public class FhirConceptSourceServiceImpl implements FhirConceptSourceService {
 	}
 	
 	@Override
-	@CacheEvict(value = "fhir2GetFhirConceptSources", allEntries = true)
 	public FhirConceptSource saveFhirConceptSource(@Nonnull FhirConceptSource fhirConceptSource) {
-		return dao.saveFhirConceptSource(fhirConceptSource);
+		FhirConceptSource result = dao.saveFhirConceptSource(fhirConceptSource);
+		if (conceptSourceUrlIndex != null) {
+			conceptSourceUrlIndex.invalidateAll();
+		}
+		
+		return result;
 	}
 }
@@ -9,6 +9,10 @@
  */
 package org.openmrs.module.fhir2.api.impl;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import lombok.AccessLevel;
 import lombok.Getter;
@@ -58,4 +62,10 @@ public class FhirLocationServiceImpl extends BaseFhirService<Location, org.openm
 	public IBundleProvider searchForLocations(LocationSearchParams locationSearchParams) {
 		return searchQuery.getQueryResults(locationSearchParams.toSearchParameterMap(), dao, translator, searchQueryInclude);
 	}
+	
+	@Override
+	@Transactional(readOnly = true)
+	public List<Location> getAncestors(Collection<String> uuids) {
+		return dao.getAncestors(uuids).stream().map(translator::toFhirResource).collect(Collectors.toList());
+	}
 }
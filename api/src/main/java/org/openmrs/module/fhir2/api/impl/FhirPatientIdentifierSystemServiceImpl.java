@@ -18,14 +18,16 @@ import lombok.Getter;
 import lombok.Setter;
 import org.openmrs.PatientIdentifierType;
 import org.openmrs.module.fhir2.api.FhirPatientIdentifierSystemService;
+import org.openmrs.module.fhir2.api.cache.FhirCacheManager;
 import org.openmrs.module.fhir2.api.dao.FhirPatientIdentifierSystemDao;
 import org.openmrs.module.fhir2.model.FhirPatientIdentifierSystem;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.CacheConfig;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Component;
 
 @Component
+@CacheConfig(cacheManager = FhirCacheManager.NAME)
 public class FhirPatientIdentifierSystemServiceImpl implements FhirPatientIdentifierSystemService {
 	
 	@Getter(value = AccessLevel.PROTECTED)
@@ -33,20 +35,19 @@ public class FhirPatientIdentifierSystemServiceImpl implements FhirPatientIdenti
 	private FhirPatientIdentifierSystemDao dao;
 	
 	@Override
-	@Cacheable("fhir2GetFhirUrlForIdentifier")
+	@Cacheable(value = "fhir2GetFhirUrlForIdentifier", sync = true)
 	public String getUrlByPatientIdentifierType(@Nonnull PatientIdentifierType patientIdentifierType) {
 		return dao.getUrlByPatientIdentifierType(patientIdentifierType);
 	}
 	
 	@Override
-	@Cacheable("fhir2GetFhirPatientIdentifierSystem")
+	@Cacheable(value = "fhir2GetFhirPatientIdentifierSystem", sync = true)
 	public Optional<FhirPatientIdentifierSystem> getFhirPatientIdentifierSystem(
 	        @Nonnull PatientIdentifierType patientIdentifierType) {
 		return dao.getFhirPatientIdentifierSystem(patientIdentifierType);
 	}
 	
 	@Override
-	@CacheEvict(value = { "fhir2GetFhirUrlForIdentifier", "fhir2GetFhirPatientIdentifierSystem" }, allEntries = true)
 	public FhirPatientIdentifierSystem saveFhirPatientIdentifierSystem(
 	        @Nonnull FhirPatientIdentifierSystem fhirPatientIdentifierSystem) {
 		return dao.saveFhirPatientIdentifierSystem(fhirPatientIdentifierSystem);
@@ -0,0 +1,499 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.impl;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import javax.annotation.Nonnull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.PatchTypeEnum;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.util.FhirTerser;
+import lombok.AccessLevel;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.hl7.fhir.instance.model.api.IAnyResource;
+import org.hl7.fhir.r4.model.Binary;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+import org.openmrs.Auditable;
+import org.openmrs.Encounter;
+import org.openmrs.OpenmrsObject;
+import org.openmrs.Patient;
+import org.openmrs.Provider;
+import org.openmrs.module.fhir2.FhirConstants;
+import org.openmrs.module.fhir2.api.FhirAllergyIntoleranceService;
+import org.openmrs.module.fhir2.api.FhirConditionService;
+import org.openmrs.module.fhir2.api.FhirDiagnosticReportService;
+import org.openmrs.module.fhir2.api.FhirEncounterService;
+import org.openmrs.module.fhir2.api.FhirGroupService;
+import org.openmrs.module.fhir2.api.FhirImmunizationService;
+import org.openmrs.module.fhir2.api.FhirLocationService;
+import org.openmrs.module.fhir2.api.FhirMedicationRequestService;
+import org.openmrs.module.fhir2.api.FhirMedicationService;
+import org.openmrs.module.fhir2.api.FhirObservationService;
+import org.openmrs.module.fhir2.api.FhirPatientService;
+import org.openmrs.module.fhir2.api.FhirPersonService;
+import org.openmrs.module.fhir2.api.FhirPractitionerService;
+import org.openmrs.module.fhir2.api.FhirRelatedPersonService;
+import org.openmrs.module.fhir2.api.FhirService;
+import org.openmrs.module.fhir2.api.FhirServiceRequestService;
+import org.openmrs.module.fhir2.api.FhirTaskService;
+import org.openmrs.module.fhir2.api.FhirTransactionService;
+import org.openmrs.module.fhir2.api.dao.FhirDao;
+import org.openmrs.module.fhir2.api.dao.FhirEncounterDao;
+import org.openmrs.module.fhir2.api.dao.FhirPatientDao;
+import org.openmrs.module.fhir2.api.dao.FhirPractitionerDao;
+import org.openmrs.module.fhir2.api.dao.FhirTransactionDao;
+import org.openmrs.module.fhir2.api.translators.ConceptTranslator;
+import org.openmrs.module.fhir2.api.util.FhirUtils;
+import org.openmrs.module.fhir2.api.util.ReferenceResolutionCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+/**
+ * Before any entry of a Bundle is processed, the patients, encounters and practitioners its entries
+ * refer to are loaded with one query per type, and the concepts for their codings with one query per
+ * code system, so that translating the entries needs few further queries. Entries are then processed
+ * in the order the FHIR specification requires: deletes, creates, updates and patches, then reads.
+ * Creates are ordered so that a resource is created before the entries that refer to it by the
+ * urn:uuid in its fullUrl, and those references are replaced by the id of the created resource. A
+ * transaction runs in one database transaction, which is flushed once when it commits, while each
+ * entry of a batch runs in a transaction of its own.
+ */
+@Slf4j
+@Component
+public class FhirTransactionServiceImpl implements FhirTransactionService {
+	
+	private static final String URN_UUID_PREFIX = "urn:uuid:";
+	
+	private Map<String, FhirService<?>> services;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirTransactionDao transactionDao;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = { @Autowired, @Qualifier("fhirR4") })
+	private FhirContext fhirContext;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirPatientDao patientDao;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirEncounterDao encounterDao;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirPractitionerDao practitionerDao;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private ConceptTranslator conceptTranslator;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirPatientService patientService;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirPractitionerService practitionerService;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirLocationService locationService;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirEncounterService encounterService;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirObservationService observationService;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirAllergyIntoleranceService allergyIntoleranceService;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirConditionService conditionService;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirDiagnosticReportService diagnosticReportService;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirMedicationService medicationService;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirMedicationRequestService medicationRequestService;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirImmunizationService immunizationService;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirServiceRequestService serviceRequestService;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirTaskService taskService;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirPersonService personService;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirRelatedPersonService relatedPersonService;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirGroupService groupService;
+	
+	@Override
+	public Bundle processBundle(@Nonnull Bundle bundle, RequestDetails requestDetails) {
+		boolean transaction;
+		if (bundle.getType() == Bundle.BundleType.TRANSACTION) {
+			transaction = true;
+		} else if (bundle.getType() == Bundle.BundleType.BATCH) {
+			transaction = false;
+		} else {
+			throw new InvalidRequestException("Only transaction and batch Bundles can be processed, not "
+			        + (bundle.getType() == null ? "a Bundle without a type" : bundle.getType().toCode()));
+		}
+		
+		List<Bundle.BundleEntryComponent> entries = bundle.getEntry();
+		Bundle response = new Bundle();
+		response.setId(FhirUtils.newUuid());
+		response.setType(transaction ? Bundle.BundleType.TRANSACTIONRESPONSE : Bundle.BundleType.BATCHRESPONSE);
+		for (int i = 0; i < entries.size(); i++) {
+			response.addEntry();
+		}
+		
+		Map<String, String> createdUrls = new HashMap<>();
+		try (ReferenceResolutionCache.Scope ignored = ReferenceResolutionCache.open()) {
+			if (transaction) {
+				transactionDao.runInTransaction(() -> {
+					preloadReferences(entries);
+					for (int index : getProcessingOrder(entries)) {
+						processEntry(entries.get(index), response.getEntry().get(index), createdUrls, requestDetails);
+					}
+					
+					return null;
+				});
+			} else {
+				preloadReferences(entries);
+				for (int index : getProcessingOrder(entries)) {
+					Bundle.BundleEntryComponent responseEntry = response.getEntry().get(index);
+					try {
+						transactionDao.runInTransaction(() -> {
+							processEntry(entries.get(index), responseEntry, createdUrls, requestDetails);
+							return null;
+						});
+					}
+					catch (BaseServerResponseException e) {
+						setOutcome(responseEntry, e.getStatusCode(), e.getMessage());
+					}
+					catch (RuntimeException e) {
+						log.warn("Could not process entry {} of batch Bundle", index, e);
+						setOutcome(responseEntry, Constants.STATUS_HTTP_500_INTERNAL_ERROR,
+						    e.getMessage() == null ? e.toString() : e.getMessage());
+					}
+				}
+			}
+		}
+		
+		return response;
+	}
+	
+	/**
+	 * Loads everything the entries refer to that can be loaded in bulk and records it in the
+	 * {@link ReferenceResolutionCache}
+	 */
+	protected void preloadReferences(List<Bundle.BundleEntryComponent> entries) {
+		FhirTerser terser = fhirContext.newTerser();
+		Map<String, Set<String>> idsByType = new HashMap<>();
+		List<Coding> codings = new ArrayList<>();
+		for (Bundle.BundleEntryComponent entry : entries) {
+			if (entry.getResource() == null) {
+				continue;
+			}
+			
+			for (Reference reference : terser.getAllPopulatedChildElementsOfType(entry.getResource(), Reference.class)) {
+				String url = reference.getReference();
+				if (url == null || url.startsWith(URN_UUID_PREFIX) || url.startsWith("#")) {
+					continue;
+				}
+				
+				IdType id = new IdType(url);
+				if (id.hasResourceType() && id.hasIdPart()) {
+					idsByType.computeIfAbsent(id.getResourceType(), type -> new HashSet<>()).add(id.getIdPart());
+				}
+			}
+			
+			codings.addAll(terser.getAllPopulatedChildElementsOfType(entry.getResource(), Coding.class));
+		}
+		
+		preload(Patient.class, idsByType.get(FhirConstants.PATIENT), patientDao);
+		preload(Encounter.class, idsByType.get(FhirConstants.ENCOUNTER), encounterDao);
+		preload(Provider.class, idsByType.get(FhirConstants.PRACTITIONER), practitionerDao);
+		conceptTranslator.preloadConcepts(codings);
+	}
+	
+	/**
+	 * @return the indexes of the entries in the order they should be processed
+	 */
+	protected Collection<Integer> getProcessingOrder(List<Bundle.BundleEntryComponent> entries) {
+		Map<String, Integer> creates = new HashMap<>();
+		for (int i = 0; i < entries.size(); i++) {
+			Bundle.BundleEntryComponent entry = entries.get(i);
+			if (entry.getRequest().getMethod() == Bundle.HTTPVerb.POST && entry.hasFullUrl()) {
+				creates.put(entry.getFullUrl(), i);
+			}
+		}
+		
+		Set<Integer> order = new LinkedHashSet<>(entries.size());
+		addEntries(order, entries, Bundle.HTTPVerb.DELETE);
+		for (int i = 0; i < entries.size(); i++) {
+			if (entries.get(i).getRequest().getMethod() == Bundle.HTTPVerb.POST) {
+				addCreate(i, entries, creates, order, new HashSet<>());
+			}
+		}
+		
+		addEntries(order, entries, Bundle.HTTPVerb.PUT);
+		addEntries(order, entries, Bundle.HTTPVerb.PATCH);
+		// everything else, i.e. reads, in the order given
+		for (int i = 0; i < entries.size(); i++) {
+			order.add(i);
+		}
+		
+		return order;
+	}
+	
+	protected void processEntry(Bundle.BundleEntryComponent entry, Bundle.BundleEntryComponent responseEntry,
+	        Map<String, String> createdUrls, RequestDetails requestDetails) {
+		Bundle.BundleEntryRequestComponent request = entry.getRequest();
+		if (request.getMethod() == null || request.getMethod() == Bundle.HTTPVerb.NULL) {
+			throw new InvalidRequestException("Every entry must have a request method");
+		}
+		
+		Resource resource = entry.getResource();
+		switch (request.getMethod()) {
+			case POST: {
+				if (request.hasIfNoneExist()) {
+					throw new InvalidRequestException("Conditional creates are not supported");
+				}
+				
+				String resourceType = requireResource(entry).fhirType();
+				replaceCreatedReferences(resource, createdUrls);
+				IAnyResource created = getService(resourceType).create(resource);
+				
+				String location = resourceType + "/" + created.getIdElement().getIdPart();
+				if (entry.hasFullUrl()) {
+					createdUrls.put(entry.getFullUrl(), location);
+				}
+				
+				setResponse(responseEntry, "201 Created", location, created);
+				break;
+			}
+			case PUT: {
+				IdType id = getInstanceUrl(request);
+				if (!requireResource(entry).fhirType().equals(id.getResourceType())) {
+					throw new InvalidRequestException("The resource in an entry must have the type in its url, "
+					        + id.getResourceType());
+				}
+				
+				replaceCreatedReferences(resource, createdUrls);
+				IAnyResource updated = getService(id.getResourceType()).update(id.getIdPart(), resource);
+				setResponse(responseEntry, "200 OK", id.getResourceType() + "/" + id.getIdPart(), updated);
+				break;
+			}
+			case PATCH: {
+				IdType id = getInstanceUrl(request);
+				if (!(resource instanceof Binary) || !((Binary) resource).hasData()) {
+					throw new InvalidRequestException("A patch must be supplied as the data of a Binary resource");
+				}
+				
+				Binary binary = (Binary) resource;
+				PatchTypeEnum patchType = PatchTypeEnum.forContentTypeOrThrowInvalidRequestException(fhirContext,
+				    binary.getContentType());
+				if (patchType != PatchTypeEnum.JSON_PATCH && patchType != PatchTypeEnum.XML_PATCH) {
+					throw new InvalidRequestException("Only JSON and XML patches are supported");
+				}
+				
+				IAnyResource patched = getService(id.getResourceType()).patch(id.getIdPart(), patchType,
+				    new String(binary.getData(), UTF_8), requestDetails);
+				setResponse(responseEntry, "200 OK", id.getResourceType() + "/" + id.getIdPart(), patched);
+				break;
+			}
+			case DELETE: {
+				IdType id = getInstanceUrl(request);
+				getService(id.getResourceType()).delete(id.getIdPart());
+				responseEntry.getResponse().setStatus("204 No Content");
+				break;
+			}
+			case GET:
+			case HEAD: {
+				IdType id = getInstanceUrl(request);
+				IAnyResource read = getService(id.getResourceType()).get(id.getIdPart());
+				setResponse(responseEntry, "200 OK", id.getResourceType() + "/" + id.getIdPart(),
+				    request.getMethod() == Bundle.HTTPVerb.GET ? read : null);
+				break;
+			}
+			default:
+				throw new InvalidRequestException(
+				        "Entries using " + request.getMethod().toCode() + " are not supported in a Bundle");
+		}
+	}
+	
+	private <T extends OpenmrsObject & Auditable> void preload(Class<T> type, Collection<String> uuids, FhirDao<T> dao) {
+		if (uuids == null || uuids.isEmpty()) {
+			return;
+		}
+		
+		for (T object : dao.get(uuids)) {
+			ReferenceResolutionCache.put(type, object.getUuid(), object);
+		}
+	}
+	
+	private void addEntries(Set<Integer> order, List<Bundle.BundleEntryComponent> entries, Bundle.HTTPVerb method) {
+		for (int i = 0; i < entries.size(); i++) {
+			if (entries.get(i).getRequest().getMethod() == method) {
+				order.add(i);
+			}
+		}
+	}
+	
+	/**
+	 * Adds a create to the order after the creates of the resources it refers to
+	 */
+	private void addCreate(int index, List<Bundle.BundleEntryComponent> entries, Map<String, Integer> creates,
+	        Set<Integer> order, Set<Integer> path) {
+		if (order.contains(index)) {
+			return;
+		}
+		
+		if (!path.add(index)) {
+			throw new InvalidRequestException(
+			        "The entry for " + entries.get(index).getFullUrl() + " refers back to itself through other entries");
+		}
+		
+		for (Reference reference : getReferences(entries.get(index).getResource())) {
+			Integer dependency = creates.get(reference.getReference());
+			if (dependency != null && dependency != index) {
+				addCreate(dependency, entries, creates, order, path);
+			}
+		}
+		
+		path.remove(index);
+		order.add(index);
+	}
+	
+	private void replaceCreatedReferences(Resource resource, Map<String, String> createdUrls) {
+		for (Reference reference : getReferences(resource)) {
+			String url = reference.getReference();
+			String createdUrl = createdUrls.get(url);
+			if (createdUrl != null) {
+				reference.setReference(createdUrl);
+			} else if (url != null && url.startsWith(URN_UUID_PREFIX)) {
+				throw new InvalidRequestException(
+				        "The reference " + url + " does not refer to a resource created earlier in the Bundle");
+			}
+		}
+	}
+	
+	private List<Reference> getReferences(Resource resource) {
+		if (resource == null) {
+			return Collections.emptyList();
+		}
+		
+		return fhirContext.newTerser().getAllPopulatedChildElementsOfType(resource, Reference.class);
+	}
+	
+	private Resource requireResource(Bundle.BundleEntryComponent entry) {
+		if (entry.getResource() == null) {
+			throw new InvalidRequestException(
+			        "Entries using " + entry.getRequest().getMethod().toCode() + " must include a resource");
+		}
+		
+		return entry.getResource();
+	}
+	
+	private IdType getInstanceUrl(Bundle.BundleEntryRequestComponent request) {
+		String url = request.getUrl();
+		IdType id = StringUtils.isBlank(url) || url.contains("?") ? null : new IdType(url);
+		if (id == null || !id.hasResourceType() || !id.hasIdPart()) {
+			throw new InvalidRequestException("Entries using " + request.getMethod().toCode()
+			        + " must refer to a single resource by its type and id, e.g. Patient/123, not " + url);
+		}
+		
+		return id;
+	}
+	
+	private void setResponse(Bundle.BundleEntryComponent responseEntry, String status, String location,
+	        IAnyResource resource) {
+		responseEntry.getResponse().setStatus(status).setLocation(location);
+		if (resource != null) {
+			responseEntry.setResource((Resource) resource);
+		}
+	}
+	
+	private void setOutcome(Bundle.BundleEntryComponent responseEntry, int statusCode, String message) {
+		// the changes made by the entry have been rolled back, so nothing it resolved can be reused
+		ReferenceResolutionCache.clear();
+		
+		OperationOutcome outcome = new OperationOutcome();
+		outcome.addIssue().setSeverity(OperationOutcome.IssueSeverity.ERROR)
+		        .setCode(OperationOutcome.IssueType.PROCESSING).setDiagnostics(message);
+		responseEntry.getResponse()
+		        .setStatus(StringUtils.trim(statusCode + " " + Constants.HTTP_STATUS_NAMES.getOrDefault(statusCode, "")))
+		        .setOutcome(outcome);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private FhirService<IAnyResource> getService(String resourceType) {
+		FhirService<?> service = getServices().get(resourceType);
+		if (service == null) {
+			throw new InvalidRequestException("Resources of type " + resourceType + " cannot be processed in a Bundle");
+		}
+		
+		return (FhirService<IAnyResource>) service;
+	}
+	
+	private synchronized Map<String, FhirService<?>> getServices() {
+		if (services == null) {
+			Map<String, FhirService<?>> servicesByType = new HashMap<>();
+			servicesByType.put(FhirConstants.PATIENT, patientService);
+			servicesByType.put(FhirConstants.PRACTITIONER, practitionerService);
+			servicesByType.put(FhirConstants.LOCATION, locationService);
+			servicesByType.put(FhirConstants.ENCOUNTER, encounterService);
+			servicesByType.put(FhirConstants.OBSERVATION, observationService);
+			servicesByType.put(FhirConstants.ALLERGY_INTOLERANCE, allergyIntoleranceService);
+			servicesByType.put(FhirConstants.CONDITION, conditionService);
+			servicesByType.put(FhirConstants.DIAGNOSTIC_REPORT, diagnosticReportService);
+			servicesByType.put(FhirConstants.MEDICATION, medicationService);
+			servicesByType.put(FhirConstants.MEDICATION_REQUEST, medicationRequestService);
+			servicesByType.put(FhirConstants.IMMUNIZATION, immunizationService);
+			servicesByType.put(FhirConstants.SERVICE_REQUEST, serviceRequestService);
+			servicesByType.put(FhirConstants.TASK, taskService);
+			servicesByType.put(FhirConstants.PERSON, personService);
+			servicesByType.put(FhirConstants.RELATED_PERSON, relatedPersonService);
+			servicesByType.put(FhirConstants.GROUP, groupService);
+			services = servicesByType;
+		}
+		
+		return services;
+	}
+}
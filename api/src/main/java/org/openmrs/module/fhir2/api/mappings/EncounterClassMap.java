@@ -10,22 +10,39 @@
 package org.openmrs.module.fhir2.api.mappings;
 
 import static lombok.AccessLevel.PROTECTED;
+import static org.hibernate.criterion.Projections.projectionList;
 import static org.hibernate.criterion.Projections.property;
 import static org.hibernate.criterion.Restrictions.eq;
+import static org.hibernate.criterion.Restrictions.in;
 
 import javax.annotation.Nonnull;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.hibernate.HibernateException;
 import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.openmrs.module.fhir2.api.cache.ReloadableSnapshot;
+import org.openmrs.module.fhir2.api.util.ReferenceResolutionCache;
 import org.openmrs.module.fhir2.model.FhirEncounterClassMap;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
-// A class for mapping OpenMRS locations to FHIR encounter classes
+/**
+ * A class for mapping OpenMRS locations to the FHIR encounter classes held in
+ * {@code fhir_encounter_class_map}. Once the module has started, the few rows of that table are held
+ * as a {@link ReloadableSnapshot} that is replaced when
+ * {@link org.openmrs.module.fhir2.api.dao.impl.MappingSnapshotInterceptor} reports a change to them.
+ * Until then, each lookup is made against the database.
+ */
 @Component
 @Slf4j
 public class EncounterClassMap {
@@ -34,7 +51,51 @@ public class EncounterClassMap {
 	@Setter(value = PROTECTED, onMethod = @__({ @Autowired, @Qualifier("sessionFactory") }))
 	private SessionFactory sessionFactory;
 	
+	private static final String FHIR_CLASSES = EncounterClassMap.class.getName() + ".fhirClasses";
+	
+	private final ReloadableSnapshot<Map<String, String>> snapshot = new ReloadableSnapshot<>(this::loadSnapshot);
+	
 	public String getFhirClass(@Nonnull String locationUuid) {
+		Map<String, String> current = snapshot.getIfStarted();
+		if (current != null) {
+			return current.get(locationUuid);
+		}
+		
+		return ReferenceResolutionCache.resolve(FHIR_CLASSES, locationUuid, () -> loadFhirClass(locationUuid));
+	}
+	
+	/**
+	 * Loads the encounter classes of several locations with one query, so that looking up the class of
+	 * any of them in the current {@link ReferenceResolutionCache} scope needs no further query
+	 *
+	 * @param locationUuids the uuids of the locations
+	 */
+	@SuppressWarnings("unchecked")
+	public void prefetchFhirClasses(@Nonnull Collection<String> locationUuids) {
+		if (!ReferenceResolutionCache.isOpen() || locationUuids.isEmpty() || snapshot.getIfStarted() != null) {
+			return;
+		}
+		
+		Map<String, String> fhirClasses = new HashMap<>();
+		try {
+			List<Object[]> rows = sessionFactory.getCurrentSession().createCriteria(FhirEncounterClassMap.class)
+			        .createAlias("location", "l").add(in("l.uuid", locationUuids))
+			        .setProjection(projectionList().add(property("l.uuid")).add(property("encounterClass"))).list();
+			for (Object[] row : rows) {
+				fhirClasses.put((String) row[0], (String) row[1]);
+			}
+		}
+		catch (HibernateException e) {
+			log.error("Exception caught while trying to load encounter classes for locations {}", locationUuids, e);
+			return;
+		}
+		
+		for (String locationUuid : locationUuids) {
+			ReferenceResolutionCache.put(FHIR_CLASSES, locationUuid, fhirClasses.get(locationUuid));
+		}
+	}
+	
+	private String loadFhirClass(String locationUuid) {
 		try {
 			return (String) sessionFactory.getCurrentSession().createCriteria(FhirEncounterClassMap.class)
 			        .createAlias("location", "l").add(eq("l.uuid", locationUuid)).setProjection(property("encounterClass"))
@@ -46,4 +107,35 @@ public class EncounterClassMap {
 		
 		return null;
 	}
+	
+	/**
+	 * Loads a new snapshot of the mappings and uses it for every following lookup
+	 */
+	public void reload() {
+		snapshot.start();
+	}
+	
+	/**
+	 * Discards the snapshot, so the next lookup loads a new one
+	 */
+	public void invalidate() {
+		snapshot.invalidate();
+	}
+	
+	private Map<String, String> loadSnapshot() {
+		Map<String, String> fhirClasses = new HashMap<>();
+		try (StatelessSession session = sessionFactory.openStatelessSession()) {
+			for (Object row : session.createQuery(
+			    "select l.uuid, m.encounterClass from FhirEncounterClassMap m join m.location l order by m.id").list()) {
+				Object[] columns = (Object[]) row;
+				fhirClasses.putIfAbsent((String) columns[0], (String) columns[1]);
+			}
+		}
+		catch (HibernateException e) {
+			log.error("Exception caught while trying to load the encounter class mappings", e);
+			return null;
+		}
+		
+		return Collections.unmodifiableMap(fhirClasses);
+	}
 }
@@ -11,21 +11,43 @@ package org.openmrs.module.fhir2.api.mappings;
 
 import static lombok.AccessLevel.PROTECTED;
 import static org.hibernate.criterion.Restrictions.eq;
+import static org.hibernate.criterion.Restrictions.in;
 
 import javax.annotation.Nonnull;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.hibernate.HibernateException;
 import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
 import org.hibernate.criterion.DetachedCriteria;
 import org.hibernate.criterion.Projections;
+import org.openmrs.module.fhir2.api.cache.ReloadableSnapshot;
+import org.openmrs.module.fhir2.api.util.ReferenceResolutionCache;
 import org.openmrs.module.fhir2.model.FhirObservationCategoryMap;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
+/**
+ * Maps concept classes to the FHIR Observation categories held in
+ * {@code fhir_observation_category_map}. Once the module has started, the few rows of that table are
+ * held as a {@link ReloadableSnapshot} that is replaced when
+ * {@link org.openmrs.module.fhir2.api.dao.impl.MappingSnapshotInterceptor} reports a change to them,
+ * so neither translating nor searching by category needs to query the table. Until then, each lookup
+ * is made against the database.
+ */
 @Component
 @Slf4j
 public class ObservationCategoryMap {
@@ -35,7 +57,53 @@ public class ObservationCategoryMap {
 	@Qualifier("sessionFactory")
 	private SessionFactory sessionFactory;
 	
+	private static final String CATEGORIES = ObservationCategoryMap.class.getName() + ".categories";
+	
+	private final ReloadableSnapshot<Snapshot> snapshot = new ReloadableSnapshot<>(this::loadSnapshot);
+	
 	public String getCategory(@Nonnull String conceptClassUuid) {
+		Snapshot current = snapshot.getIfStarted();
+		if (current != null) {
+			return current.categoriesByConceptClassUuid.get(conceptClassUuid);
+		}
+		
+		return ReferenceResolutionCache.resolve(CATEGORIES, conceptClassUuid, () -> loadCategory(conceptClassUuid));
+	}
+	
+	/**
+	 * Loads the categories of several concept classes with one query, so that looking up the category
+	 * of any of them in the current {@link ReferenceResolutionCache} scope needs no further query
+	 *
+	 * @param conceptClassUuids the uuids of the concept classes
+	 */
+	@SuppressWarnings("unchecked")
+	public void prefetchCategories(@Nonnull Collection<String> conceptClassUuids) {
+		if (!ReferenceResolutionCache.isOpen() || conceptClassUuids.isEmpty() || snapshot.getIfStarted() != null) {
+			return;
+		}
+		
+		Map<String, String> categories = new HashMap<>();
+		try {
+			List<Object[]> rows = sessionFactory.getCurrentSession().createCriteria(FhirObservationCategoryMap.class)
+			        .createAlias("conceptClass", "cc").add(in("cc.uuid", conceptClassUuids))
+			        .setProjection(Projections.projectionList().add(Projections.property("cc.uuid"))
+			                .add(Projections.property("observationCategory")))
+			        .list();
+			for (Object[] row : rows) {
+				categories.put((String) row[0], (String) row[1]);
+			}
+		}
+		catch (HibernateException e) {
+			log.error("Exception caught while trying to load categories for concept classes {}", conceptClassUuids, e);
+			return;
+		}
+		
+		for (String conceptClassUuid : conceptClassUuids) {
+			ReferenceResolutionCache.put(CATEGORIES, conceptClassUuid, categories.get(conceptClassUuid));
+		}
+	}
+	
+	private String loadCategory(String conceptClassUuid) {
 		try {
 			return (String) sessionFactory.getCurrentSession().createCriteria(FhirObservationCategoryMap.class)
 			        .createAlias("conceptClass", "cc").add(eq("cc.uuid", conceptClassUuid))
@@ -48,8 +116,70 @@ public class ObservationCategoryMap {
 		return null;
 	}
 	
+	/**
+	 * Returns the ids of the concept classes mapped to a category, so that a search by category can
+	 * list them rather than query the mapping table. Like the query, categories are compared without
+	 * regard to case.
+	 *
+	 * @param category the category
+	 * @return the ids of the concept classes, or an empty optional if the mappings have not been
+	 *         loaded yet
+	 */
+	public Optional<List<Integer>> getConceptClassIds(@Nonnull String category) {
+		Snapshot current = snapshot.getIfStarted();
+		if (current == null) {
+			return Optional.empty();
+		}
+		
+		return Optional.of(
+		    current.conceptClassIdsByCategory.getOrDefault(category.toLowerCase(Locale.ROOT), Collections.emptyList()));
+	}
+	
 	public DetachedCriteria queryConceptClassByCategory(@Nonnull String category) {
 		return DetachedCriteria.forClass(FhirObservationCategoryMap.class).createAlias("conceptClass", "cmcc")
 		        .add(eq("observationCategory", category)).setProjection(Projections.property("cmcc.uuid"));
 	}
+	
+	/**
+	 * Loads a new snapshot of the mappings and uses it for every following lookup
+	 */
+	public void reload() {
+		snapshot.start();
+	}
+	
+	/**
+	 * Discards the snapshot, so the next lookup loads a new one
+	 */
+	public void invalidate() {
+		snapshot.invalidate();
+	}
+	
+	private Snapshot loadSnapshot() {
+		Map<String, String> categories = new HashMap<>();
+		Map<String, List<Integer>> conceptClassIds = new HashMap<>();
+		try (StatelessSession session = sessionFactory.openStatelessSession()) {
+			for (Object row : session.createQuery("select cc.uuid, cc.conceptClassId, m.observationCategory "
+			        + "from FhirObservationCategoryMap m join m.conceptClass cc order by m.id").list()) {
+				Object[] columns = (Object[]) row;
+				categories.putIfAbsent((String) columns[0], (String) columns[2]);
+				String category = ((String) columns[2]).toLowerCase(Locale.ROOT);
+				conceptClassIds.computeIfAbsent(category, key -> new ArrayList<>()).add((Integer) columns[1]);
+			}
+		}
+		catch (HibernateException e) {
+			log.error("Exception caught while trying to load the observation category mappings", e);
+			return null;
+		}
+		
+		conceptClassIds.replaceAll((category, ids) -> Collections.unmodifiableList(ids));
+		return new Snapshot(Collections.unmodifiableMap(categories), Collections.unmodifiableMap(conceptClassIds));
+	}
+	
+	@AllArgsConstructor
+	private static final class Snapshot {
+		
+		private final Map<String, String> categoriesByConceptClassUuid;
+		
+		private final Map<String, List<Integer>> conceptClassIdsByCategory;
+	}
 }
@@ -0,0 +1,242 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.search;
+
+import javax.annotation.Nonnull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import ca.uhn.fhir.model.primitive.InstantDt;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.apache.commons.lang3.SerializationUtils;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.openmrs.Auditable;
+import org.openmrs.OpenmrsObject;
+import org.openmrs.module.fhir2.FhirConstants;
+import org.openmrs.module.fhir2.api.FhirGlobalPropertyService;
+import org.openmrs.module.fhir2.api.dao.FhirDao;
+import org.openmrs.module.fhir2.api.search.param.SearchCursor;
+import org.openmrs.module.fhir2.api.search.param.SearchParameterMap;
+import org.openmrs.module.fhir2.api.translators.OpenmrsFhirTranslator;
+import org.openmrs.module.fhir2.api.util.FhirUtils;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Bundle provider for the system-level $everything operation. Each entry of the bundle is either one
+ * of the resources the operation is run on or a resource in the compartment of one of them, and the
+ * bundle is paged by entry, so that its total is the number of entries returned and no page holds
+ * more than the page size, however large a compartment is.
+ * <p/>
+ * The resources the operation is run on are read in blocks of {@link #BLOCK_SIZE}. For each block
+ * only the number of resources in each of the compartment searches is recorded, so a page is loaded
+ * by reading the block it falls in and then only the slices of the compartment searches it covers.
+ * Blocks are only read as far as the pages requested, so the total is not known until the last block
+ * has been read.
+ */
+public class EverythingSearchQueryBundleProvider<T extends OpenmrsObject & Auditable, U extends IBaseResource> implements IBundleProvider {
+	
+	/**
+	 * The number of resources the operation is run on that are read at a time. This is no larger than
+	 * the number of ids a single reverse include search accepts.
+	 */
+	static final int BLOCK_SIZE = 500;
+	
+	private final FhirDao<T> dao;
+	
+	private final OpenmrsFhirTranslator<T, U> translator;
+	
+	private final FhirGlobalPropertyService globalPropertyService;
+	
+	private final SearchQueryInclude<U> searchQueryInclude;
+	
+	private final SearchParameterMap searchParameterMap;
+	
+	/**
+	 * The search for the resources the operation is run on, kept apart so that its cursor is only
+	 * used to read the blocks in order
+	 */
+	private final SearchParameterMap blockParameterMap;
+	
+	@Getter
+	private final IPrimitiveType<Date> published = InstantDt.withCurrentTime();
+	
+	@Getter
+	private final String uuid = FhirUtils.newUuid();
+	
+	private final List<Block> blocks = new ArrayList<>();
+	
+	private boolean allBlocksRead;
+	
+	private Integer pageSize;
+	
+	public EverythingSearchQueryBundleProvider(SearchParameterMap searchParameterMap, FhirDao<T> dao,
+	    OpenmrsFhirTranslator<T, U> translator, FhirGlobalPropertyService globalPropertyService,
+	    SearchQueryInclude<U> searchQueryInclude) {
+		this.dao = dao;
+		this.translator = translator;
+		this.globalPropertyService = globalPropertyService;
+		this.searchQueryInclude = searchQueryInclude;
+		this.searchParameterMap = searchParameterMap;
+		this.blockParameterMap = SerializationUtils.clone(searchParameterMap);
+	}
+	
+	@Transactional(readOnly = true)
+	@Override
+	@Nonnull
+	public List<IBaseResource> getResources(int fromIndex, int toIndex) {
+		readBlocks(toIndex);
+		
+		List<IBaseResource> resultList = new ArrayList<>();
+		for (int i = 0; i < blocks.size(); i++) {
+			Block block = blocks.get(i);
+			int start = Math.max(fromIndex, block.firstEntry) - block.firstEntry;
+			int end = Math.min(toIndex, block.firstEntry + block.size()) - block.firstEntry;
+			if (start >= end) {
+				continue;
+			}
+			
+			List<T> results = getBlock(i);
+			if (start < results.size()) {
+				resultList.addAll(translator.toFhirResources(results.subList(start, Math.min(end, results.size()))));
+			}
+			
+			if (end <= results.size()) {
+				continue;
+			}
+			
+			List<IBundleProvider> compartments = searchQueryInclude.getReverseIncludeSearches(getIds(results),
+			    searchParameterMap);
+			int compartmentStart = results.size();
+			for (int j = 0; j < block.compartmentSizes.length && j < compartments.size(); j++) {
+				int compartmentEnd = compartmentStart + block.compartmentSizes[j];
+				int from = Math.max(start, compartmentStart);
+				int to = Math.min(end, compartmentEnd);
+				if (from < to) {
+					resultList.addAll(getCompartmentEntries(compartments.get(j), from - compartmentStart,
+					    to - compartmentStart));
+				}
+				
+				compartmentStart = compartmentEnd;
+			}
+		}
+		
+		return resultList;
+	}
+	
+	@Override
+	public Integer preferredPageSize() {
+		if (pageSize == null) {
+			pageSize = globalPropertyService.getGlobalPropertyAsInteger(FhirConstants.OPENMRS_FHIR_DEFAULT_PAGE_SIZE, 10);
+		}
+		
+		return pageSize;
+	}
+	
+	/**
+	 * @return the number of entries, or null while there are blocks left to read
+	 */
+	@Override
+	public Integer size() {
+		readBlocks(1);
+		if (!allBlocksRead) {
+			return null;
+		}
+		
+		return blocks.isEmpty() ? 0 : blocks.get(blocks.size() - 1).end();
+	}
+	
+	@Transactional(readOnly = true)
+	@Override
+	@Nonnull
+	public List<IBaseResource> getAllResources() {
+		return getResources(0, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Reads blocks until every entry before {@code toIndex} is in a block that has been read
+	 */
+	private void readBlocks(int toIndex) {
+		while (!allBlocksRead && (blocks.isEmpty() || blocks.get(blocks.size() - 1).end() < toIndex)) {
+			List<T> results = getBlock(blocks.size());
+			if (results.isEmpty()) {
+				allBlocksRead = true;
+				return;
+			}
+			
+			int[] compartmentSizes = searchQueryInclude.getReverseIncludeSearches(getIds(results), searchParameterMap)
+			        .stream().mapToInt(compartment -> Optional.ofNullable(compartment.size()).orElse(0)).toArray();
+			blocks.add(new Block(blocks.isEmpty() ? 0 : blocks.get(blocks.size() - 1).end(), results.size(),
+			        compartmentSizes));
+			
+			allBlocksRead = results.size() < BLOCK_SIZE;
+		}
+	}
+	
+	/**
+	 * Only the resources matching a compartment search are counted, so anything the search includes
+	 * itself is left out
+	 */
+	private static List<IBaseResource> getCompartmentEntries(IBundleProvider compartment, int fromIndex, int toIndex) {
+		if (compartment instanceof SearchQueryBundleProvider) {
+			return new ArrayList<>(((SearchQueryBundleProvider<?, ?>) compartment).getMatchingResources(fromIndex, toIndex));
+		}
+		
+		return compartment.getResources(fromIndex, toIndex);
+	}
+	
+	private List<T> getBlock(int block) {
+		int fromIndex = block * BLOCK_SIZE;
+		
+		// the cursor left by the previous block can only be used to read the block after it
+		SearchCursor cursor = blockParameterMap.getCursor();
+		if (cursor != null && (cursor.getPosition() != fromIndex || !Boolean.parseBoolean(
+		    globalPropertyService.getGlobalProperty(FhirConstants.OPENMRS_FHIR_KEYSET_PAGING, "true")))) {
+			blockParameterMap.setCursor(null);
+		}
+		
+		blockParameterMap.setFromIndex(fromIndex);
+		blockParameterMap.setToIndex(fromIndex + BLOCK_SIZE);
+		return dao.getSearchResults(blockParameterMap);
+	}
+	
+	private static List<String> getIds(List<? extends OpenmrsObject> results) {
+		return results.stream().map(OpenmrsObject::getUuid).collect(Collectors.toList());
+	}
+	
+	/**
+	 * The entries of a block of the resources the operation is run on: the resources themselves,
+	 * followed by the resources found by each compartment search
+	 */
+	@AllArgsConstructor
+	private static class Block {
+		
+		private final int firstEntry;
+		
+		private final int resources;
+		
+		private final int[] compartmentSizes;
+		
+		int size() {
+			return resources + Arrays.stream(compartmentSizes).sum();
+		}
+		
+		int end() {
+			return firstEntry + size();
+		}
+	}
+}
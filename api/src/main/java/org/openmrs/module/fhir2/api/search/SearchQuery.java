@@ -17,6 +17,7 @@ import org.openmrs.Auditable;
 import org.openmrs.OpenmrsObject;
 import org.openmrs.module.fhir2.FhirConstants;
 import org.openmrs.module.fhir2.api.FhirGlobalPropertyService;
+import org.openmrs.module.fhir2.api.cache.FhirResourceCache;
 import org.openmrs.module.fhir2.api.dao.FhirDao;
 import org.openmrs.module.fhir2.api.search.param.SearchParameterMap;
 import org.openmrs.module.fhir2.api.translators.OpenmrsFhirTranslator;
@@ -35,18 +36,28 @@ public class SearchQuery<T extends OpenmrsObject & Auditable, U extends IBaseRes
 	@Setter(onMethod_ = @Autowired)
 	private FhirGlobalPropertyService globalPropertyService;
 	
+	@Setter(onMethod_ = @Autowired)
+	private FhirResourceCache resourceCache;
+	
 	/**
 	 * Gets query results
 	 *
 	 * @param theParams search params.
 	 * @param dao generic dao
-	 * @param translator generic translator In case of $everything operation, package the results in
-	 *            SimpleBundleProvider to include count of _include and _revinclude resources in the
-	 *            total resources count and prevent paging
+	 * @param translator generic translator In case of an $everything operation on a single resource,
+	 *            package the results in SimpleBundleProvider to include count of _include and
+	 *            _revinclude resources in the total resources count and prevent paging. The
+	 *            system-level $everything operation is paged by entry, counting the resources in the
+	 *            compartments as well, see {@link EverythingSearchQueryBundleProvider}
 	 * @return IBundleProvider
 	 */
 	public IBundleProvider getQueryResults(SearchParameterMap theParams, O dao, V translator, W searchQueryInclude) {
 		if (!theParams.getParameters(FhirConstants.EVERYTHING_SEARCH_HANDLER).isEmpty()) {
+			if (!hasIdParameter(theParams)) {
+				return new EverythingSearchQueryBundleProvider<>(theParams, dao, translator, globalPropertyService,
+				        searchQueryInclude);
+			}
+			
 			SimpleBundleProvider result = new SimpleBundleProvider(
 			        new SearchQueryBundleProvider<>(theParams, dao, translator, globalPropertyService, searchQueryInclude)
 			                .getAllResources());
@@ -55,6 +66,15 @@ public class SearchQuery<T extends OpenmrsObject & Auditable, U extends IBaseRes
 			return result;
 		}
 		
-		return new SearchQueryBundleProvider<>(theParams, dao, translator, globalPropertyService, searchQueryInclude);
+		SearchRequestContext.applyTo(theParams);
+		SearchQueryBundleProvider<T, U> result = new SearchQueryBundleProvider<>(theParams, dao, translator,
+		        globalPropertyService, searchQueryInclude);
+		result.setResourceCache(resourceCache);
+		return result;
+	}
+	
+	private boolean hasIdParameter(SearchParameterMap theParams) {
+		return theParams.getParameters(FhirConstants.COMMON_SEARCH_HANDLER).stream()
+		        .anyMatch(param -> FhirConstants.ID_PROPERTY.equals(param.getPropertyName()));
 	}
 }
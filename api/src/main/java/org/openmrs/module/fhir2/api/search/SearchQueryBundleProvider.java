@@ -16,19 +16,26 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 
 import ca.uhn.fhir.model.primitive.InstantDt;
+import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import lombok.AccessLevel;
 import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.SerializationUtils;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IPrimitiveType;
 import org.openmrs.Auditable;
 import org.openmrs.OpenmrsObject;
 import org.openmrs.module.fhir2.FhirConstants;
 import org.openmrs.module.fhir2.api.FhirGlobalPropertyService;
+import org.openmrs.module.fhir2.api.cache.FhirResourceCache;
 import org.openmrs.module.fhir2.api.dao.FhirDao;
+import org.openmrs.module.fhir2.api.search.param.SearchCursor;
 import org.openmrs.module.fhir2.api.search.param.SearchParameterMap;
 import org.openmrs.module.fhir2.api.translators.OpenmrsFhirTranslator;
 import org.openmrs.module.fhir2.api.util.FhirUtils;
@@ -39,13 +46,16 @@ public class SearchQueryBundleProvider<T extends OpenmrsObject & Auditable, U ex
 	
 	private static final long serialVersionUID = 4L;
 	
+	@Getter(AccessLevel.PACKAGE)
 	private final FhirDao<T> dao;
 	
 	@Getter
 	private final IPrimitiveType<Date> published;
 	
+	@Getter(AccessLevel.PACKAGE)
 	private final SearchParameterMap searchParameterMap;
 	
+	@Getter(AccessLevel.PACKAGE)
 	private final OpenmrsFhirTranslator<T, U> translator;
 	
 	@Getter
@@ -57,16 +67,31 @@ public class SearchQueryBundleProvider<T extends OpenmrsObject & Auditable, U ex
 	
 	private transient Integer size;
 	
+	private transient Boolean keysetPaging;
+	
 	private final SearchQueryInclude<U> searchQueryInclude;
 	
+	/**
+	 * If set, resources are served from and added to this cache instead of always being translated
+	 */
+	@Setter
+	private transient FhirResourceCache resourceCache;
+	
 	public SearchQueryBundleProvider(SearchParameterMap searchParameterMap, FhirDao<T> dao,
 	    OpenmrsFhirTranslator<T, U> translator, FhirGlobalPropertyService globalPropertyService,
+	    SearchQueryInclude<U> searchQueryInclude) {
+		this(FhirUtils.newUuid(), InstantDt.withCurrentTime(), searchParameterMap, dao, translator, globalPropertyService,
+		    searchQueryInclude);
+	}
+	
+	SearchQueryBundleProvider(String uuid, IPrimitiveType<Date> published, SearchParameterMap searchParameterMap,
+	    FhirDao<T> dao, OpenmrsFhirTranslator<T, U> translator, FhirGlobalPropertyService globalPropertyService,
 	    SearchQueryInclude<U> searchQueryInclude) {
 		this.dao = dao;
-		this.published = InstantDt.withCurrentTime();
+		this.published = published;
 		this.searchParameterMap = searchParameterMap;
 		this.translator = translator;
-		this.uuid = FhirUtils.newUuid();
+		this.uuid = uuid;
 		this.globalPropertyService = globalPropertyService;
 		this.searchQueryInclude = searchQueryInclude;
 	}
@@ -75,12 +100,13 @@ public class SearchQueryBundleProvider<T extends OpenmrsObject & Auditable, U ex
 	@Override
 	@Nonnull
 	public List<IBaseResource> getResources(int fromIndex, int toIndex) {
-		searchParameterMap.setFromIndex(fromIndex);
-		searchParameterMap.setToIndex(toIndex);
-		
-		List<U> resources = translator.toFhirResources(dao.getSearchResults(searchParameterMap));
+		// for _summary=count only the total is returned
+		if (searchParameterMap.isCountOnly()) {
+			return new ArrayList<>();
+		}
 		
-		Set<IBaseResource> includedResources = searchQueryInclude.getIncludedResources(resources, this.searchParameterMap);
+		List<U> resources = getMatchingResources(fromIndex, toIndex);
+		Set<IBaseResource> includedResources = getIncludedResources(resources);
 		
 		List<IBaseResource> resultList = new ArrayList<>(resources.size() + includedResources.size());
 		resultList.addAll(resources);
@@ -89,6 +115,57 @@ public class SearchQueryBundleProvider<T extends OpenmrsObject & Auditable, U ex
 		return resultList;
 	}
 	
+	/**
+	 * Loads the resources matching the search between the given indices, without anything included
+	 * by _include or _revinclude
+	 *
+	 * @param fromIndex the index of the first matching resource to load
+	 * @param toIndex the index after the last matching resource to load
+	 * @return the matching resources
+	 */
+	@Transactional(readOnly = true)
+	@Nonnull
+	public List<U> getMatchingResources(int fromIndex, int toIndex) {
+		searchParameterMap.setFromIndex(fromIndex);
+		searchParameterMap.setToIndex(toIndex);
+		
+		// when no total is requested, whether there is another page is determined by reading one more row
+		boolean noTotal = searchParameterMap.getTotalMode() == SearchTotalModeEnum.NONE;
+		searchParameterMap.setLookahead(noTotal);
+		searchParameterMap.setHasMoreResults(null);
+		
+		// the cursor recorded while loading the previous page can only be used if this page starts where that one ended
+		SearchCursor cursor = searchParameterMap.getCursor();
+		if (cursor != null && (cursor.getPosition() != fromIndex || !isKeysetPaging())) {
+			searchParameterMap.setCursor(null);
+		}
+		
+		List<T> results = dao.getSearchResults(searchParameterMap);
+		if (noTotal && size == null) {
+			Boolean hasMoreResults = searchParameterMap.getHasMoreResults();
+			if (hasMoreResults == null) {
+				hasMoreResults = toIndex != Integer.MAX_VALUE && results.size() >= toIndex - fromIndex;
+			}
+			
+			// once the last page has been read the number of results is known
+			if (!hasMoreResults) {
+				size = fromIndex + results.size();
+			}
+		}
+		
+		return resourceCache == null ? translator.toFhirResources(results) : resourceCache.getAll(translator, results);
+	}
+	
+	/**
+	 * @param resources resources matching this search
+	 * @return the resources the search's _include and _revinclude parameters add for them
+	 */
+	@Transactional(readOnly = true)
+	@Nonnull
+	public Set<IBaseResource> getIncludedResources(List<U> resources) {
+		return searchQueryInclude.getIncludedResources(resources, this.searchParameterMap);
+	}
+	
 	@Override
 	public Integer preferredPageSize() {
 		if (pageSize == null) {
@@ -98,12 +175,47 @@ public class SearchQueryBundleProvider<T extends OpenmrsObject & Auditable, U ex
 		return pageSize;
 	}
 	
+	private boolean isKeysetPaging() {
+		if (keysetPaging == null) {
+			keysetPaging = Boolean
+			        .parseBoolean(globalPropertyService.getGlobalProperty(FhirConstants.OPENMRS_FHIR_KEYSET_PAGING, "true"));
+		}
+		
+		return keysetPaging;
+	}
+	
 	@Override
 	@Nullable
 	public Integer size() {
 		if (size == null) {
+			if (searchParameterMap.getTotalMode() == SearchTotalModeEnum.NONE) {
+				return null;
+			}
+			
 			size = dao.getSearchResultsCount(searchParameterMap);
 		}
 		return size;
 	}
+	
+	/**
+	 * @return the number of results if they have already been counted, without counting them
+	 */
+	Integer getCountedSize() {
+		return size;
+	}
+	
+	/**
+	 * Counts the results of this search exactly, regardless of the total mode requested
+	 *
+	 * @return the number of results
+	 */
+	int getExactSize() {
+		if (searchParameterMap.getTotalMode() == null || searchParameterMap.getTotalMode() == SearchTotalModeEnum.ACCURATE) {
+			return Optional.ofNullable(size()).orElse(0);
+		}
+		
+		SearchParameterMap countParameterMap = SerializationUtils.clone(searchParameterMap);
+		countParameterMap.setTotalMode(SearchTotalModeEnum.ACCURATE);
+		return dao.getSearchResultsCount(countParameterMap);
+	}
 }
@@ -21,6 +21,8 @@ import java.util.Objects;
 import java.util.stream.Collectors;
 
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import lombok.AccessLevel;
+import lombok.Getter;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IPrimitiveType;
 import org.hl7.fhir.r4.model.Condition;
@@ -33,6 +35,7 @@ public class SearchQueryBundleProviderR3Wrapper implements IBundleProvider, Seri
 	
 	private static final long serialVersionUID = 1L;
 	
+	@Getter(AccessLevel.PACKAGE)
 	private final IBundleProvider bundleProvider;
 	
 	public SearchQueryBundleProviderR3Wrapper(IBundleProvider bundleProvider) {
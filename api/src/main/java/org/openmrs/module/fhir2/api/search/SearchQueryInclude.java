@@ -9,9 +9,11 @@
  */
 package org.openmrs.module.fhir2.api.search;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.openmrs.module.fhir2.api.search.param.SearchParameterMap;
 
@@ -25,4 +27,16 @@ public interface SearchQueryInclude<U extends IBaseResource> {
 	 * @return A {@link Set} of resources to be included
 	 */
 	Set<IBaseResource> getIncludedResources(List<U> resourceList, SearchParameterMap theParams);
+	
+	/**
+	 * Creates a search for the resources that refer to the given resources through each reverse
+	 * include of a FHIR Search query, so that they can be counted and paged through separately
+	 *
+	 * @param ids The ids of the resources the reverse includes refer to
+	 * @param theParams The {@link SearchParameterMap} for the FHIR Search query being run
+	 * @return A search for each supported reverse include, always in the same order
+	 */
+	default List<IBundleProvider> getReverseIncludeSearches(List<String> ids, SearchParameterMap theParams) {
+		return Collections.emptyList();
+	}
 }
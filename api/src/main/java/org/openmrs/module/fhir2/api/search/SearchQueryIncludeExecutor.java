@@ -0,0 +1,326 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.search;
+
+import javax.annotation.PreDestroy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.extern.slf4j.Slf4j;
+import org.openmrs.User;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Authenticated;
+import org.openmrs.api.context.AuthenticationScheme;
+import org.openmrs.api.context.BasicAuthenticated;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.ContextAuthenticationException;
+import org.openmrs.api.context.Credentials;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.module.fhir2.FhirConstants;
+import org.openmrs.module.fhir2.api.util.FhirGlobalPropertyHolder;
+import org.openmrs.util.PrivilegeConstants;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs the queries that load the resources requested by {@code _include} and {@code _revinclude}
+ * parameters, one query per type of resource, and records how long each of them takes.
+ * <p/>
+ * When more than one query is needed and {@link FhirConstants#OPENMRS_FHIR_INCLUDE_MAXIMUM_THREADS}
+ * allows it, the queries run at the same time on a bounded pool of threads. Each pooled thread opens
+ * its own OpenMRS session, and so its own Hibernate session and transactions, and authenticates its
+ * own {@link UserContext} as the user who made the request, with the request's locale and location.
+ * As those transactions cannot see changes the request has not yet committed, the queries run one
+ * after another on the calling thread when the property is not set.
+ */
+@Slf4j
+@Component
+public class SearchQueryIncludeExecutor {
+	
+	private static final String POOLED_THREAD_AUTHENTICATION_SCHEME = "fhir2-include";
+	
+	private static final ThreadLocal<Boolean> pooled = ThreadLocal.withInitial(() -> false);
+	
+	private final Map<String, IncludeTiming> timings = new ConcurrentHashMap<>();
+	
+	private ThreadPoolExecutor executor;
+	
+	/**
+	 * Runs each of the given tasks and returns their results in the same order
+	 *
+	 * @param tasks the queries to run, keyed by the name their timings are recorded under, in the order
+	 *            their results should be returned
+	 * @return the resources loaded by each task
+	 */
+	public <T> List<Collection<T>> invokeAll(Map<String, Callable<Collection<T>>> tasks) {
+		if (tasks.isEmpty()) {
+			return Collections.emptyList();
+		}
+		
+		List<Callable<Collection<T>>> timedTasks = new ArrayList<>(tasks.size());
+		tasks.forEach((name, task) -> timedTasks.add(timed(name, task)));
+		
+		// a search run for a reverse include may have includes of its own, which must not wait on the pool it runs in
+		ThreadPoolExecutor pool = timedTasks.size() > 1 && !pooled.get() ? getExecutor() : null;
+		if (pool == null) {
+			List<Collection<T>> results = new ArrayList<>(timedTasks.size());
+			for (Callable<Collection<T>> task : timedTasks) {
+				results.add(call(task));
+			}
+			return results;
+		}
+		
+		// user contexts are not thread-safe and the caller's user belongs to its Hibernate session, so only ids are shared
+		UserContext userContext = Context.getUserContext();
+		Integer userId = userContext.getAuthenticatedUser() == null ? null : userContext.getAuthenticatedUser().getUserId();
+		Locale locale = userContext.getLocale();
+		Integer locationId = userContext.getLocationId();
+		Thread caller = Thread.currentThread();
+		
+		// the first query runs on the calling thread while the others are loaded in the background
+		List<Future<Collection<T>>> futures = new ArrayList<>(timedTasks.size() - 1);
+		for (Callable<Collection<T>> task : timedTasks.subList(1, timedTasks.size())) {
+			futures.add(pool.submit(inSession(task, userId, locale, locationId, caller)));
+		}
+		
+		List<Collection<T>> results = new ArrayList<>(timedTasks.size());
+		try {
+			results.add(call(timedTasks.get(0)));
+			for (Future<Collection<T>> future : futures) {
+				results.add(future.get());
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new APIException("Interrupted while loading included resources", e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new APIException("Error while loading included resources", e.getCause());
+		}
+		finally {
+			futures.forEach(future -> future.cancel(true));
+		}
+		
+		return results;
+	}
+	
+	/**
+	 * @return the timings recorded for each include, keyed by the name the include was run under
+	 */
+	public Map<String, IncludeTiming> getTimings() {
+		return Collections.unmodifiableMap(timings);
+	}
+	
+	public void resetTimings() {
+		timings.clear();
+	}
+	
+	@PreDestroy
+	public synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+	
+	protected synchronized ThreadPoolExecutor getExecutor() {
+		int maximumThreads = FhirGlobalPropertyHolder
+		        .getGlobalPropertyAsInteger(FhirConstants.OPENMRS_FHIR_INCLUDE_MAXIMUM_THREADS, 0);
+		if (maximumThreads < 2) {
+			return null;
+		}
+		
+		if (executor == null) {
+			AtomicInteger threadNumber = new AtomicInteger();
+			ThreadFactory threadFactory = runnable -> {
+				Thread thread = new Thread(runnable, "fhir2-include-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			};
+			
+			// once every thread is busy and the queue is full, the caller loads the resources itself
+			executor = new ThreadPoolExecutor(maximumThreads, maximumThreads, 60L, TimeUnit.SECONDS,
+			        new ArrayBlockingQueue<>(maximumThreads * 4), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+			executor.allowCoreThreadTimeOut(true);
+		} else if (executor.getMaximumPoolSize() != maximumThreads) {
+			if (maximumThreads > executor.getMaximumPoolSize()) {
+				executor.setMaximumPoolSize(maximumThreads);
+				executor.setCorePoolSize(maximumThreads);
+			} else {
+				executor.setCorePoolSize(maximumThreads);
+				executor.setMaximumPoolSize(maximumThreads);
+			}
+		}
+		
+		return executor;
+	}
+	
+	private <T> Callable<Collection<T>> timed(String name, Callable<Collection<T>> task) {
+		return () -> {
+			long start = System.nanoTime();
+			Collection<T> result = task.call();
+			long elapsed = System.nanoTime() - start;
+			
+			int resources = result == null ? 0 : result.size();
+			timings.computeIfAbsent(name, k -> new IncludeTiming()).record(elapsed, resources);
+			log.debug("Loaded {} resource(s) for {} in {} ms", resources, name, TimeUnit.NANOSECONDS.toMillis(elapsed));
+			
+			return result;
+		};
+	}
+	
+	private static <T> Callable<Collection<T>> inSession(Callable<Collection<T>> task, Integer userId, Locale locale,
+	        Integer locationId, Thread caller) {
+		return () -> {
+			// when the pool is saturated the task runs on the caller, which already has a session
+			if (Thread.currentThread() == caller) {
+				return task.call();
+			}
+			
+			Context.openSession();
+			pooled.set(true);
+			try {
+				UserContext userContext = new UserContext(new PooledThreadAuthenticationScheme());
+				Context.setUserContext(userContext);
+				if (userId != null) {
+					userContext.authenticate(new PooledThreadCredentials(userId));
+				}
+				userContext.setLocale(locale);
+				userContext.setLocationId(locationId);
+				
+				return task.call();
+			}
+			finally {
+				pooled.remove();
+				Context.closeSession();
+			}
+		};
+	}
+	
+	private static <T> T call(Callable<T> task) {
+		try {
+			return task.call();
+		}
+		catch (RuntimeException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new APIException("Error while loading included resources", e);
+		}
+	}
+	
+	/**
+	 * Identifies the user who made the request to the thread loading some of its included resources.
+	 * The user has already been authenticated by the thread handling the request, so no secret is needed.
+	 */
+	private static class PooledThreadCredentials implements Credentials {
+		
+		private final Integer userId;
+		
+		private PooledThreadCredentials(Integer userId) {
+			this.userId = userId;
+		}
+		
+		@Override
+		public String getAuthenticationScheme() {
+			return POOLED_THREAD_AUTHENTICATION_SCHEME;
+		}
+		
+		@Override
+		public String getClientName() {
+			return String.valueOf(userId);
+		}
+	}
+	
+	/**
+	 * Authenticates a pooled thread as the user identified by {@link PooledThreadCredentials}, loading
+	 * the user, and so its roles and privileges, in the pooled thread's own session
+	 */
+	private static class PooledThreadAuthenticationScheme implements AuthenticationScheme {
+		
+		@Override
+		public Authenticated authenticate(Credentials credentials) throws ContextAuthenticationException {
+			if (!(credentials instanceof PooledThreadCredentials)) {
+				throw new ContextAuthenticationException(
+				        "Unsupported credentials for " + POOLED_THREAD_AUTHENTICATION_SCHEME);
+			}
+			
+			User user;
+			Context.addProxyPrivilege(PrivilegeConstants.GET_USERS);
+			try {
+				user = Context.getUserService().getUser(((PooledThreadCredentials) credentials).userId);
+			}
+			finally {
+				Context.removeProxyPrivilege(PrivilegeConstants.GET_USERS);
+			}
+			
+			if (user == null) {
+				throw new ContextAuthenticationException("The user who requested the included resources no longer exists");
+			}
+			
+			return new BasicAuthenticated(user, POOLED_THREAD_AUTHENTICATION_SCHEME);
+		}
+	}
+	
+	/**
+	 * The number of times an include has been run, how long it took and how many resources it loaded
+	 */
+	public static class IncludeTiming {
+		
+		private final LongAdder count = new LongAdder();
+		
+		private final LongAdder totalNanos = new LongAdder();
+		
+		private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+		
+		private final LongAdder resources = new LongAdder();
+		
+		void record(long nanos, int resourceCount) {
+			count.increment();
+			totalNanos.add(nanos);
+			maxNanos.accumulate(nanos);
+			resources.add(resourceCount);
+		}
+		
+		public long getCount() {
+			return count.sum();
+		}
+		
+		public long getTotalMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(totalNanos.sum());
+		}
+		
+		public long getMaxMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+		}
+		
+		public long getResources() {
+			return resources.sum();
+		}
+	}
+}
@@ -10,16 +10,20 @@
 package org.openmrs.module.fhir2.api.search;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.stream.Collectors;
 
 import ca.uhn.fhir.model.api.Include;
+import ca.uhn.fhir.model.api.ResourceMetadataKeyEnum;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.param.ReferenceAndListParam;
 import ca.uhn.fhir.rest.param.ReferenceOrListParam;
@@ -38,6 +42,7 @@ import org.hl7.fhir.r4.model.Location;
 import org.hl7.fhir.r4.model.MedicationDispense;
 import org.hl7.fhir.r4.model.MedicationRequest;
 import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.OperationOutcome;
 import org.hl7.fhir.r4.model.Person;
 import org.hl7.fhir.r4.model.Reference;
 import org.hl7.fhir.r4.model.RelatedPerson;
@@ -63,6 +68,7 @@ import org.openmrs.module.fhir2.api.search.param.MedicationRequestSearchParams;
 import org.openmrs.module.fhir2.api.search.param.ObservationSearchParams;
 import org.openmrs.module.fhir2.api.search.param.PropParam;
 import org.openmrs.module.fhir2.api.search.param.SearchParameterMap;
+import org.openmrs.module.fhir2.api.util.FhirGlobalPropertyHolder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -71,6 +77,29 @@ import org.springframework.stereotype.Component;
 @OpenmrsProfile(openmrsPlatformVersion = "2.* - 2.5.*")
 public class SearchQueryIncludeImpl<U extends IBaseResource> implements SearchQueryInclude<U> {
 	
+	/**
+	 * The target type used for {@code _include:iterate=Location:partof}, which loads every ancestor of
+	 * the matched locations rather than locations by uuid
+	 */
+	protected static final String LOCATION_ANCESTORS = "Location:ancestors";
+	
+	/**
+	 * The number of ids passed to a single reverse include search
+	 */
+	protected static final int REVERSE_INCLUDE_BATCH_SIZE = 500;
+	
+	/**
+	 * The number of reverse included resources loaded and translated at a time
+	 */
+	protected static final int REVERSE_INCLUDE_PAGE_SIZE = 100;
+	
+	@Setter(AccessLevel.PACKAGE)
+	private int reverseIncludePageSize = REVERSE_INCLUDE_PAGE_SIZE;
+	
+	@Getter(AccessLevel.PROTECTED)
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private SearchQueryIncludeExecutor includeExecutor;
+	
 	@Getter(AccessLevel.PROTECTED)
 	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
 	private FhirLocationService locationService;
@@ -111,104 +140,328 @@ public class SearchQueryIncludeImpl<U extends IBaseResource> implements SearchQu
 	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
 	private FhirAllergyIntoleranceService allergyIntoleranceService;
 	
-	@SuppressWarnings("unchecked")
 	@Override
 	public Set<IBaseResource> getIncludedResources(List<U> resourceList, SearchParameterMap theParams) {
-		List<PropParam<?>> includeParamList = theParams.getParameters(FhirConstants.INCLUDE_SEARCH_HANDLER);
-		List<PropParam<?>> revIncludeParamList = theParams.getParameters(FhirConstants.REVERSE_INCLUDE_SEARCH_HANDLER);
-		
-		Set<Include> includeSet = new LinkedHashSet<>();
-		Set<Include> revIncludeSet = new LinkedHashSet<>();
+		Set<Include> includeSet = getIncludes(theParams, FhirConstants.INCLUDE_SEARCH_HANDLER);
+		Set<Include> revIncludeSet = getIncludes(theParams, FhirConstants.REVERSE_INCLUDE_SEARCH_HANDLER);
 		
-		if (CollectionUtils.isNotEmpty(includeParamList)) {
-			includeSet = (Set<Include>) includeParamList.get(0).getParam();
-		}
-		
-		if (CollectionUtils.isNotEmpty(revIncludeParamList)) {
-			revIncludeSet = (Set<Include>) revIncludeParamList.get(0).getParam();
-		}
-		
-		Set<? extends IBaseResource> _includeResources = handleInclude(resourceList, includeSet);
-		Set<? extends IBaseResource> _revIncludeResources = handleRevInclude(resourceList, includeSet, revIncludeSet);
+		Map<String, Callable<Collection<IBaseResource>>> tasks = new LinkedHashMap<>();
+		tasks.putAll(handleInclude(resourceList, includeSet));
+		tasks.putAll(handleRevInclude(resourceList, includeSet, revIncludeSet, getReverseIncludeMaximumResults(theParams)));
 		
 		Set<IBaseResource> resourcesToBeReturned = new LinkedHashSet<>();
-		resourcesToBeReturned.addAll(_includeResources);
-		resourcesToBeReturned.addAll(_revIncludeResources);
+		includeExecutor.invokeAll(tasks).forEach(resourcesToBeReturned::addAll);
 		
 		return resourcesToBeReturned;
 	}
 	
-	protected Set<? extends IBaseResource> handleInclude(List<U> resourceList, Set<Include> includeSet) {
-		Set<IBaseResource> includedResourcesSet = new LinkedHashSet<>();
+	@Override
+	public List<IBundleProvider> getReverseIncludeSearches(List<String> ids, SearchParameterMap theParams) {
+		Set<Include> includeSet = getIncludes(theParams, FhirConstants.INCLUDE_SEARCH_HANDLER);
+		Set<Include> revIncludeSet = getIncludes(theParams, FhirConstants.REVERSE_INCLUDE_SEARCH_HANDLER);
+		
+		ReferenceOrListParam params = new ReferenceOrListParam();
+		ids.forEach(id -> params.addOr(new ReferenceParam(id)));
+		ReferenceAndListParam referenceParams = new ReferenceAndListParam().addAnd(params);
+		
+		// ProcedureRequest and ServiceRequest are both searched for as ServiceRequests, so that search is only made once
+		Set<String> searches = new HashSet<>();
+		return revIncludeSet.stream().filter(revIncludeParam -> {
+			String paramType = revIncludeParam.getParamType();
+			return searches.add(revIncludeParam.getParamName() + ":"
+			        + (FhirConstants.PROCEDURE_REQUEST.equals(paramType) ? FhirConstants.SERVICE_REQUEST : paramType));
+		}).map(revIncludeParam -> SearchRequestContext.withoutRequestOptions(
+		    () -> handleRevIncludeParam(includeSet, revIncludeSet, referenceParams, revIncludeParam)))
+		        .filter(Objects::nonNull).collect(Collectors.toList());
+	}
+	
+	@SuppressWarnings("unchecked")
+	protected Set<Include> getIncludes(SearchParameterMap theParams, String handler) {
+		List<PropParam<?>> paramList = theParams.getParameters(handler);
+		if (CollectionUtils.isEmpty(paramList)) {
+			return new LinkedHashSet<>();
+		}
+		
+		return (Set<Include>) paramList.get(0).getParam();
+	}
+	
+	/**
+	 * Gathers the ids referenced by every include before anything is loaded, so that each type of
+	 * resource is loaded with a single query however many includes refer to it
+	 *
+	 * @return a query for each type of resource to load, keyed by the includes that requested it
+	 */
+	protected Map<String, Callable<Collection<IBaseResource>>> handleInclude(List<U> resourceList,
+	        Set<Include> includeSet) {
+		Map<String, Callable<Collection<IBaseResource>>> tasks = new LinkedHashMap<>();
 		
 		if (CollectionUtils.isEmpty(includeSet)) {
-			return includedResourcesSet;
+			return tasks;
 		}
 		
-		includeSet.forEach((includeParam) -> {
-			Optional.ofNullable(handleIncludeParam(resourceList, includeParam)).ifPresent(includedResourcesSet::addAll);
+		Map<String, Set<String>> uniqueUUIDsByType = new LinkedHashMap<>();
+		Map<String, Set<String>> includesByType = new LinkedHashMap<>();
+		
+		// an iterated include may only apply to the resources a reverse include adds
+		String resourceType = resourceList.isEmpty() ? null : resourceList.get(0).fhirType();
+		includeSet.stream().filter(includeParam -> !includeParam.isRecurse() || resourceType == null
+		        || resourceType.equals(includeParam.getParamType())).forEach(includeParam -> {
+			String targetType = getIncludeTargetType(includeParam);
+			Set<String> uniqueUUIDs = targetType == null ? null : handleIncludeParam(resourceList, includeParam);
+			
+			if (uniqueUUIDs != null) {
+				uniqueUUIDsByType.computeIfAbsent(targetType, k -> new LinkedHashSet<>()).addAll(uniqueUUIDs);
+				includesByType.computeIfAbsent(targetType, k -> new LinkedHashSet<>()).add(includeParam.getValue()
+				        + (includeParam.isRecurse() ? ":iterate" : ""));
+			}
+		});
+		
+		uniqueUUIDsByType.forEach((targetType, uniqueUUIDs) -> {
+			uniqueUUIDs.removeIf(Objects::isNull);
+			
+			if (!uniqueUUIDs.isEmpty()) {
+				tasks.put("_include=" + String.join(",", includesByType.get(targetType)),
+				    () -> new ArrayList<>(loadIncludedResources(targetType, uniqueUUIDs)));
+			}
 		});
 		
-		return includedResourcesSet;
+		return tasks;
+	}
+	
+	/**
+	 * @return the type of resource loaded for the given include, or null if the include is not supported
+	 */
+	protected String getIncludeTargetType(Include includeParam) {
+		switch (includeParam.getParamName()) {
+			case FhirConstants.INCLUDE_PART_OF_PARAM:
+				return includeParam.isRecurse() ? LOCATION_ANCESTORS : FhirConstants.LOCATION;
+			case FhirConstants.INCLUDE_CONTEXT_PARAM:
+			case FhirConstants.INCLUDE_ENCOUNTER_PARAM:
+				return FhirConstants.ENCOUNTER;
+			case FhirConstants.INCLUDE_PATIENT_PARAM:
+			case FhirConstants.INCLUDE_LINK_PARAM:
+				return FhirConstants.PATIENT;
+			case FhirConstants.INCLUDE_HAS_MEMBER_PARAM:
+			case FhirConstants.INCLUDE_RESULT_PARAM:
+			case FhirConstants.INCLUDE_RELATED_TYPE_PARAM:
+				return FhirConstants.OBSERVATION;
+			case FhirConstants.INCLUDE_REQUESTER_PARAM:
+			case FhirConstants.INCLUDE_PERFORMER_PARAM:
+			case FhirConstants.INCLUDE_PARTICIPANT_PARAM:
+			case FhirConstants.INCLUDE_OWNER_PARAM:
+				return FhirConstants.PRACTITIONER;
+			case FhirConstants.INCLUDE_LOCATION_PARAM:
+				return FhirConstants.LOCATION;
+			case FhirConstants.INCLUDE_MEDICATION_PARAM:
+				return FhirConstants.MEDICATION;
+			case FhirConstants.INCLUDE_BASED_0N_PARAM:
+				return FhirConstants.SERVICE_REQUEST;
+			case FhirConstants.INCLUDE_PRESCRIPTION_PARAM:
+				return FhirConstants.MEDICATION_REQUEST;
+		}
+		
+		return null;
 	}
 	
-	protected Set<? extends IBaseResource> handleIncludeParam(List<U> resourceList, Include includeParam) {
+	protected Set<String> handleIncludeParam(List<U> resourceList, Include includeParam) {
 		switch (includeParam.getParamName()) {
 			case FhirConstants.INCLUDE_PART_OF_PARAM:
-				return handleParentLocationInclude(resourceList, includeParam.getParamType());
+				if (includeParam.isRecurse()) {
+					return getAncestorLocationReferences(resourceList, includeParam.getParamType());
+				}
+				return getParentLocationReferences(resourceList, includeParam.getParamType());
 			case FhirConstants.INCLUDE_CONTEXT_PARAM:
 			case FhirConstants.INCLUDE_ENCOUNTER_PARAM:
-				return handleEncounterInclude(resourceList, includeParam.getParamType());
+				return getEncounterReferences(resourceList, includeParam.getParamType());
 			case FhirConstants.INCLUDE_PATIENT_PARAM:
-				return handlePatientInclude(resourceList, includeParam.getParamType());
+				return getPatientReferences(resourceList, includeParam.getParamType());
 			case FhirConstants.INCLUDE_HAS_MEMBER_PARAM:
 			case FhirConstants.INCLUDE_RESULT_PARAM:
 			case FhirConstants.INCLUDE_RELATED_TYPE_PARAM:
-				return handleObsGroupInclude(resourceList, includeParam.getParamType());
+				return getObservationReferences(resourceList, includeParam.getParamType());
 			case FhirConstants.INCLUDE_REQUESTER_PARAM:
 			case FhirConstants.INCLUDE_PERFORMER_PARAM:
 			case FhirConstants.INCLUDE_PARTICIPANT_PARAM:
-				return handleParticipantInclude(resourceList, includeParam.getParamType());
+				return getParticipantReferences(resourceList, includeParam.getParamType());
 			case FhirConstants.INCLUDE_LOCATION_PARAM:
-				return handleLocationInclude(resourceList, includeParam.getParamType());
+				return getLocationReferences(resourceList, includeParam.getParamType());
 			case FhirConstants.INCLUDE_MEDICATION_PARAM:
-				return handleMedicationInclude(resourceList, includeParam.getParamType());
+				return getMedicationReferences(resourceList, includeParam.getParamType());
 			case FhirConstants.INCLUDE_LINK_PARAM:
-				return handlePersonLinkInclude(resourceList, includeParam.getParamTargetType());
+				return getPersonLinkReferences(resourceList, includeParam.getParamTargetType());
 			case FhirConstants.INCLUDE_BASED_0N_PARAM:
-				return handleServiceRequestInclude(resourceList, includeParam.getParamType());
+				return getServiceRequestReferences(resourceList, includeParam.getParamType());
 			case FhirConstants.INCLUDE_OWNER_PARAM:
-				return handlePractitionerInclude(resourceList, includeParam.getParamType());
+				return getPractitionerReferences(resourceList, includeParam.getParamType());
 			case FhirConstants.INCLUDE_PRESCRIPTION_PARAM:
-				return handleMedicationRequestInclude(resourceList, includeParam.getParamType());
+				return getMedicationRequestReferences(resourceList, includeParam.getParamType());
 		}
 		
 		return null;
 	}
 	
-	protected Set<IBaseResource> handleRevInclude(List<U> resourceList, Set<Include> includeSet,
-	        Set<Include> revIncludeSet) {
-		Set<IBaseResource> revIncludedResourcesSet = new LinkedHashSet<>();
+	/**
+	 * Loads the resources of the given type with the given uuids
+	 *
+	 * @param targetType the type returned by {@link #getIncludeTargetType(Include)}
+	 * @param uuids the uuids of the resources to load
+	 * @return the loaded resources
+	 */
+	protected Collection<? extends IBaseResource> loadIncludedResources(String targetType, Set<String> uuids) {
+		switch (targetType) {
+			case FhirConstants.ENCOUNTER:
+				return encounterService.get(uuids);
+			case FhirConstants.LOCATION:
+				return locationService.get(uuids);
+			case LOCATION_ANCESTORS:
+				return locationService.getAncestors(uuids);
+			case FhirConstants.MEDICATION:
+				return medicationService.get(uuids);
+			case FhirConstants.MEDICATION_REQUEST:
+				return medicationRequestService.get(uuids);
+			case FhirConstants.OBSERVATION:
+				return observationService.get(uuids);
+			case FhirConstants.PATIENT:
+				return patientService.get(uuids);
+			case FhirConstants.PRACTITIONER:
+				return practitionerService.get(uuids);
+			case FhirConstants.SERVICE_REQUEST:
+				return serviceRequestService.get(uuids);
+		}
+		
+		return Collections.emptyList();
+	}
+	
+	/**
+	 * The compartment of the resource a $everything operation is run on is always returned in full. The
+	 * system-level $everything operation pages through the compartments instead, see
+	 * {@link EverythingSearchQueryBundleProvider}. Other searches are limited by
+	 * {@link FhirConstants#OPENMRS_FHIR_REVERSE_INCLUDE_MAXIMUM_RESULTS}.
+	 */
+	protected int getReverseIncludeMaximumResults(SearchParameterMap theParams) {
+		if (!theParams.getParameters(FhirConstants.EVERYTHING_SEARCH_HANDLER).isEmpty()) {
+			return Integer.MAX_VALUE;
+		}
+		
+		return FhirGlobalPropertyHolder.getGlobalPropertyAsInteger(FhirConstants.OPENMRS_FHIR_REVERSE_INCLUDE_MAXIMUM_RESULTS,
+		    1000);
+	}
+	
+	/**
+	 * Creates a search for each reverse include, keyed by the reverse include it was made for. The ids
+	 * of the resources on this page are passed to the searches in batches of
+	 * {@link #REVERSE_INCLUDE_BATCH_SIZE} and at most {@code maximumResults} resources are loaded for
+	 * each reverse include, a page at a time.
+	 */
+	protected Map<String, Callable<Collection<IBaseResource>>> handleRevInclude(List<U> resourceList,
+	        Set<Include> includeSet, Set<Include> revIncludeSet, int maximumResults) {
+		Map<String, Callable<Collection<IBaseResource>>> tasks = new LinkedHashMap<>();
 		
 		if (CollectionUtils.isEmpty(revIncludeSet)) {
-			return revIncludedResourcesSet;
+			return tasks;
 		}
 		
-		ReferenceAndListParam referenceParams = new ReferenceAndListParam();
-		ReferenceOrListParam params = new ReferenceOrListParam();
-		resourceList.forEach(resource -> params.addOr(new ReferenceParam(resource.getIdElement().getIdPart())));
-		referenceParams.addAnd(params);
+		List<ReferenceAndListParam> referenceParamBatches = new ArrayList<>();
+		for (int i = 0; i < resourceList.size(); i += REVERSE_INCLUDE_BATCH_SIZE) {
+			ReferenceOrListParam params = new ReferenceOrListParam();
+			resourceList.subList(i, Math.min(i + REVERSE_INCLUDE_BATCH_SIZE, resourceList.size()))
+			        .forEach(resource -> params.addOr(new ReferenceParam(resource.getIdElement().getIdPart())));
+			referenceParamBatches.add(new ReferenceAndListParam().addAnd(params));
+		}
+		
+		revIncludeSet.forEach(revIncludeParam -> tasks.put("_revinclude=" + revIncludeParam.getValue(),
+		    () -> handleRevIncludeBatches(includeSet, revIncludeSet, referenceParamBatches, revIncludeParam,
+		        maximumResults)));
 		
-		revIncludeSet.forEach(revIncludeParam -> {
-			IBundleProvider bundleProvider = handleRevIncludeParam(includeSet, revIncludeSet, referenceParams,
-			    revIncludeParam);
+		return tasks;
+	}
+	
+	protected Collection<IBaseResource> handleRevIncludeBatches(Set<Include> includeSet, Set<Include> revIncludeSet,
+	        List<ReferenceAndListParam> referenceParamBatches, Include revIncludeParam, int maximumResults) {
+		List<IBaseResource> revIncludedResources = new ArrayList<>();
+		
+		int remaining = maximumResults;
+		for (ReferenceAndListParam referenceParams : referenceParamBatches) {
+			IBundleProvider bundleProvider = SearchRequestContext.withoutRequestOptions(
+			    () -> handleRevIncludeParam(includeSet, revIncludeSet, referenceParams, revIncludeParam));
 			
-			if (bundleProvider != null && !bundleProvider.isEmpty()) {
-				revIncludedResourcesSet.addAll(bundleProvider.getResources(0, -1));
+			if (bundleProvider == null) {
+				break;
 			}
-		});
+			
+			// one more match than is needed is loaded to tell whether any are left out
+			int toLoad = remaining == Integer.MAX_VALUE ? remaining : remaining + 1;
+			
+			// only a page of matches is translated at a time
+			int loaded = 0;
+			while (loaded < toLoad) {
+				int pageSize = Math.min(reverseIncludePageSize, toLoad - loaded);
+				int found = loadRevIncludePage(bundleProvider, loaded, loaded + pageSize, remaining - loaded,
+				    revIncludedResources);
+				loaded += found;
+				if (found < pageSize) {
+					break;
+				}
+			}
+			
+			if (loaded > remaining) {
+				revIncludedResources.add(createRevIncludeLimitWarning(revIncludeParam, maximumResults));
+				break;
+			}
+			
+			remaining -= loaded;
+		}
 		
-		return revIncludedResourcesSet;
+		return revIncludedResources;
+	}
+	
+	/**
+	 * Loads a page of the resources matching a reverse include along with anything the reverse include
+	 * search includes itself, e.g. via {@code _include:iterate}. At most {@code maximumMatches} of the
+	 * matching resources are kept; a match beyond that is only counted.
+	 *
+	 * @return the number of resources matching the reverse include on the page
+	 */
+	protected int loadRevIncludePage(IBundleProvider bundleProvider, int fromIndex, int toIndex, int maximumMatches,
+	        List<IBaseResource> revIncludedResources) {
+		if (bundleProvider instanceof SearchQueryBundleProvider) {
+			return loadRevIncludePage((SearchQueryBundleProvider<?, ?>) bundleProvider, fromIndex, toIndex, maximumMatches,
+			    revIncludedResources);
+		}
+		
+		// other reverse include searches do not include anything, so every resource on the page is a match
+		List<IBaseResource> matches = bundleProvider.getResources(fromIndex, toIndex);
+		revIncludedResources.addAll(matches.subList(0, Math.min(matches.size(), maximumMatches)));
+		return matches.size();
+	}
+	
+	private <R extends IBaseResource> int loadRevIncludePage(SearchQueryBundleProvider<?, R> bundleProvider,
+	        int fromIndex, int toIndex, int maximumMatches, List<IBaseResource> revIncludedResources) {
+		List<R> matches = bundleProvider.getMatchingResources(fromIndex, toIndex);
+		List<R> kept = matches.subList(0, Math.min(matches.size(), maximumMatches));
+		
+		revIncludedResources.addAll(kept);
+		if (!kept.isEmpty()) {
+			revIncludedResources.addAll(bundleProvider.getIncludedResources(kept));
+		}
+		
+		return matches.size();
+	}
+	
+	/**
+	 * @return an OperationOutcome, returned in the bundle with the search mode "outcome", that tells the
+	 *         client not every resource matching the reverse include was returned
+	 */
+	protected IBaseResource createRevIncludeLimitWarning(Include revIncludeParam, int maximumResults) {
+		OperationOutcome outcome = new OperationOutcome();
+		outcome.addIssue().setSeverity(OperationOutcome.IssueSeverity.WARNING)
+		        .setCode(OperationOutcome.IssueType.TOOCOSTLY)
+		        .setDiagnostics(String.format(
+		            "Only the first %d resources matching _revinclude=%s were included. Search for %s directly to page "
+		                    + "through the rest.",
+		            maximumResults, revIncludeParam.getValue(), revIncludeParam.getParamType()));
+		ResourceMetadataKeyEnum.ENTRY_SEARCH_MODE.put(outcome, "outcome");
+		return outcome;
 	}
 	
 	protected IBundleProvider handleRevIncludeParam(Set<Include> includeSet, Set<Include> revIncludeSet,
@@ -240,7 +493,7 @@ public class SearchQueryIncludeImpl<U extends IBaseResource> implements SearchQu
 		return null;
 	}
 	
-	protected Set<IBaseResource> handleEncounterInclude(List<U> resourceList, String paramType) {
+	protected Set<String> getEncounterReferences(List<U> resourceList, String paramType) {
 		Set<String> uniqueEncounterUUIDs = new LinkedHashSet<>();
 		
 		switch (paramType) {
@@ -271,12 +524,10 @@ public class SearchQueryIncludeImpl<U extends IBaseResource> implements SearchQu
 				break;
 		}
 		
-		uniqueEncounterUUIDs.removeIf(Objects::isNull);
-		
-		return new LinkedHashSet<>(encounterService.get(uniqueEncounterUUIDs));
+		return uniqueEncounterUUIDs;
 	}
 	
-	protected Set<IBaseResource> handleLocationInclude(List<U> resourceList, String paramType) {
+	protected Set<String> getLocationReferences(List<U> resourceList, String paramType) {
 		Set<String> uniqueLocationUUIDs = new HashSet<>();
 		
 		switch (paramType) {
@@ -288,12 +539,10 @@ public class SearchQueryIncludeImpl<U extends IBaseResource> implements SearchQu
 				break;
 		}
 		
-		uniqueLocationUUIDs.removeIf(Objects::isNull);
-		
-		return new LinkedHashSet<>(locationService.get(uniqueLocationUUIDs));
+		return uniqueLocationUUIDs;
 	}
 	
-	protected Set<IBaseResource> handleMedicationInclude(List<U> resourceList, String paramType) {
+	protected Set<String> getMedicationReferences(List<U> resourceList, String paramType) {
 		Set<String> uniqueMedicationUUIDs = new LinkedHashSet<>();
 		
 		switch (paramType) {
@@ -309,12 +558,10 @@ public class SearchQueryIncludeImpl<U extends IBaseResource> implements SearchQu
 				break;
 		}
 		
-		uniqueMedicationUUIDs.removeIf(Objects::isNull);
-		
-		return new LinkedHashSet<>(medicationService.get(uniqueMedicationUUIDs));
+		return uniqueMedicationUUIDs;
 	}
 	
-	protected Set<IBaseResource> handleMedicationRequestInclude(List<U> resourceList, String paramType) {
+	protected Set<String> getMedicationRequestReferences(List<U> resourceList, String paramType) {
 		Set<String> uniqueUuids = new LinkedHashSet<>();
 		
 		switch (paramType) {
@@ -324,12 +571,10 @@ public class SearchQueryIncludeImpl<U extends IBaseResource> implements SearchQu
 				break;
 		}
 		
-		uniqueUuids.removeIf(Objects::isNull);
-		
-		return new LinkedHashSet<>(medicationRequestService.get(uniqueUuids));
+		return uniqueUuids;
 	}
 	
-	protected Set<IBaseResource> handleObsGroupInclude(List<U> resourceList, String paramType) {
+	protected Set<String> getObservationReferences(List<U> resourceList, String paramType) {
 		Set<String> uniqueObservationUUIDs = new LinkedHashSet<>();
 		
 		switch (paramType) {
@@ -343,16 +588,10 @@ public class SearchQueryIncludeImpl<U extends IBaseResource> implements SearchQu
 				break;
 		}
 		
-		uniqueObservationUUIDs.removeIf(Objects::isNull);
-		
-		if (uniqueObservationUUIDs.isEmpty()) {
-			return null;
-		}
-		
-		return new LinkedHashSet<>(observationService.get(uniqueObservationUUIDs));
+		return uniqueObservationUUIDs;
 	}
 	
-	protected Set<IBaseResource> handlePatientInclude(List<U> resourceList, String paramType) {
+	protected Set<String> getPatientReferences(List<U> resourceList, String paramType) {
 		Set<String> uniquePatientUUIDs = new LinkedHashSet<>();
 		
 		switch (paramType) {
@@ -405,23 +644,29 @@ public class SearchQueryIncludeImpl<U extends IBaseResource> implements SearchQu
 				break;
 		}
 		
-		uniquePatientUUIDs.removeIf(Objects::isNull);
+		return uniquePatientUUIDs;
+	}
+	
+	protected Set<String> getParentLocationReferences(List<U> resourceList, String targetType) {
+		if (targetType.equals(FhirConstants.LOCATION)) {
+			return resourceList.stream().filter(it -> it instanceof Location).map(it -> (Location) it)
+			        .map(Location::getPartOf).map(this::getIdFromReference).collect(Collectors.toSet());
+		}
 		
-		return new LinkedHashSet<>(patientService.get(uniquePatientUUIDs));
+		return Collections.emptySet();
 	}
 	
-	protected Set<Location> handleParentLocationInclude(List<U> resourceList, String targetType) {
+	protected Set<String> getAncestorLocationReferences(List<U> resourceList, String targetType) {
 		if (targetType.equals(FhirConstants.LOCATION)) {
-			Set<String> uniqueParentLocationUUIDs = resourceList.stream().filter(it -> it instanceof Location)
-			        .map(it -> (Location) it).map(Location::getPartOf).map(this::getIdFromReference).filter(Objects::nonNull)
-			        .collect(Collectors.toSet());
-			return new LinkedHashSet<>(locationService.get(uniqueParentLocationUUIDs));
+			// the whole chain of parents is read from the location hierarchy at once rather than one level at a time
+			return resourceList.stream().filter(it -> it instanceof Location).filter(it -> ((Location) it).hasPartOf())
+			        .map(it -> it.getIdElement().getIdPart()).collect(Collectors.toSet());
 		}
 		
 		return Collections.emptySet();
 	}
 	
-	protected Set<IBaseResource> handleParticipantInclude(List<U> resourceList, String paramType) {
+	protected Set<String> getParticipantReferences(List<U> resourceList, String paramType) {
 		Set<String> uniqueParticipantUUIDs = new LinkedHashSet<>();
 		
 		switch (paramType) {
@@ -452,13 +697,11 @@ public class SearchQueryIncludeImpl<U extends IBaseResource> implements SearchQu
 				break;
 		}
 		
-		uniqueParticipantUUIDs.removeIf(Objects::isNull);
-		
-		return new LinkedHashSet<>(practitionerService.get(uniqueParticipantUUIDs));
+		return uniqueParticipantUUIDs;
 	}
 	
-	protected Set<IBaseResource> handlePersonLinkInclude(List<U> resourceList, String targetType) {
-		Set<IBaseResource> includedResources = new LinkedHashSet<>();
+	protected Set<String> getPersonLinkReferences(List<U> resourceList, String targetType) {
+		Set<String> uniquePatientUUIDs = new LinkedHashSet<>();
 		
 		switch (targetType) {
 			case FhirConstants.PATIENT:
@@ -468,16 +711,15 @@ public class SearchQueryIncludeImpl<U extends IBaseResource> implements SearchQu
 					        .filter(res -> res.getTarget().getType().equals(FhirConstants.PATIENT))
 					        .forEach(patient -> patientReferenceList.add(patient.getTarget()));
 					
-					includedResources
-					        .addAll(patientService.get(new LinkedHashSet<>(getIdsFromReferenceList(patientReferenceList))));
+					uniquePatientUUIDs.addAll(getIdsFromReferenceList(patientReferenceList));
 				});
 				break;
 		}
 		
-		return includedResources;
+		return uniquePatientUUIDs;
 	}
 	
-	protected Set<IBaseResource> handlePractitionerInclude(List<U> resourceList, String paramType) {
+	protected Set<String> getPractitionerReferences(List<U> resourceList, String paramType) {
 		Set<String> uniquePractitionerUUIDs = new LinkedHashSet<>();
 		
 		switch (paramType) {
@@ -487,12 +729,10 @@ public class SearchQueryIncludeImpl<U extends IBaseResource> implements SearchQu
 				break;
 		}
 		
-		uniquePractitionerUUIDs.removeIf(Objects::isNull);
-		
-		return new LinkedHashSet<>(practitionerService.get(uniquePractitionerUUIDs));
+		return uniquePractitionerUUIDs;
 	}
 	
-	protected Set<IBaseResource> handleServiceRequestInclude(List<U> resourceList, String paramType) {
+	protected Set<String> getServiceRequestReferences(List<U> resourceList, String paramType) {
 		Set<String> uniqueServiceRequestUUIDs = new LinkedHashSet<>();
 		
 		switch (paramType) {
@@ -503,9 +743,7 @@ public class SearchQueryIncludeImpl<U extends IBaseResource> implements SearchQu
 				break;
 		}
 		
-		uniqueServiceRequestUUIDs.removeIf(Objects::isNull);
-		
-		return new LinkedHashSet<>(serviceRequestService.get(uniqueServiceRequestUUIDs));
+		return uniqueServiceRequestUUIDs;
 	}
 	
 	protected IBundleProvider handleEncounterReverseInclude(ReferenceAndListParam params, String targetType,
@@ -0,0 +1,112 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.search;
+
+import java.util.function.Supplier;
+
+import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
+import org.openmrs.module.fhir2.api.search.param.FetchProfile;
+import org.openmrs.module.fhir2.api.search.param.SearchParameterMap;
+
+/**
+ * Holds the options for the current request that affect how search results are returned but that
+ * are not search parameters, i.e. {@code _total}, {@code _summary} and {@code _elements}. These are recorded by
+ * an interceptor when the request is received and copied onto the {@link SearchParameterMap} when
+ * the search is created, so they remain available when later pages are loaded.
+ */
+public final class SearchRequestContext {
+	
+	private static final ThreadLocal<SearchTotalModeEnum> totalMode = new ThreadLocal<>();
+	
+	private static final ThreadLocal<Boolean> countOnly = new ThreadLocal<>();
+	
+	private static final ThreadLocal<FetchProfile> fetchProfile = new ThreadLocal<>();
+	
+	private SearchRequestContext() {
+	}
+	
+	public static SearchTotalModeEnum getTotalMode() {
+		return totalMode.get();
+	}
+	
+	public static void setTotalMode(SearchTotalModeEnum mode) {
+		if (mode == null) {
+			totalMode.remove();
+		} else {
+			totalMode.set(mode);
+		}
+	}
+	
+	public static boolean isCountOnly() {
+		return Boolean.TRUE.equals(countOnly.get());
+	}
+	
+	public static void setCountOnly(boolean value) {
+		if (value) {
+			countOnly.set(true);
+		} else {
+			countOnly.remove();
+		}
+	}
+	
+	public static FetchProfile getFetchProfile() {
+		return fetchProfile.get();
+	}
+	
+	public static void setFetchProfile(FetchProfile profile) {
+		if (profile == null) {
+			fetchProfile.remove();
+		} else {
+			fetchProfile.set(profile);
+		}
+	}
+	
+	/**
+	 * Creates a search made on behalf of the one the client asked for, e.g. for a reverse include,
+	 * without the options for the current request, as they only apply to the client's search
+	 *
+	 * @param search creates the search
+	 * @return the search created
+	 */
+	public static <T> T withoutRequestOptions(Supplier<T> search) {
+		SearchTotalModeEnum currentTotalMode = totalMode.get();
+		Boolean currentCountOnly = countOnly.get();
+		FetchProfile currentFetchProfile = fetchProfile.get();
+		
+		totalMode.remove();
+		countOnly.remove();
+		fetchProfile.remove();
+		try {
+			return search.get();
+		}
+		finally {
+			setTotalMode(currentTotalMode);
+			setCountOnly(Boolean.TRUE.equals(currentCountOnly));
+			setFetchProfile(currentFetchProfile);
+		}
+	}
+	
+	/**
+	 * Copies the options for the current request onto the supplied search parameters
+	 *
+	 * @param theParams the search parameters for a search created during this request
+	 */
+	public static void applyTo(SearchParameterMap theParams) {
+		if (theParams.getTotalMode() == null) {
+			theParams.setTotalMode(getTotalMode());
+		}
+		
+		theParams.setCountOnly(theParams.isCountOnly() || isCountOnly());
+		
+		if (getFetchProfile() != null) {
+			theParams.setFetchProfile(getFetchProfile());
+		}
+	}
+}
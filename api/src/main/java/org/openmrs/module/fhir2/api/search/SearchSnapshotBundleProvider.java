@@ -0,0 +1,122 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.search;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import lombok.Getter;
+import lombok.Setter;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.openmrs.Auditable;
+import org.openmrs.OpenmrsObject;
+import org.openmrs.module.fhir2.FhirConstants;
+import org.openmrs.module.fhir2.api.FhirGlobalPropertyService;
+import org.openmrs.module.fhir2.api.cache.FhirResourceCache;
+import org.openmrs.module.fhir2.api.dao.FhirDao;
+import org.openmrs.module.fhir2.api.search.param.SearchParameterMap;
+import org.openmrs.module.fhir2.api.translators.OpenmrsFhirTranslator;
+
+/**
+ * An {@link IBundleProvider} for a search restored from a
+ * {@link org.openmrs.module.fhir2.model.FhirSearchSnapshot}. Rather than re-running the search,
+ * each page is loaded from the stored ids of the matching objects.
+ */
+public class SearchSnapshotBundleProvider<T extends OpenmrsObject & Auditable, U extends IBaseResource> implements IBundleProvider, Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	@Getter
+	private final String uuid;
+	
+	@Getter
+	private final IPrimitiveType<Date> published;
+	
+	private final SearchParameterMap searchParameterMap;
+	
+	private final int[] ids;
+	
+	private final FhirDao<T> dao;
+	
+	private final OpenmrsFhirTranslator<T, U> translator;
+	
+	private final FhirGlobalPropertyService globalPropertyService;
+	
+	private final SearchQueryInclude<U> searchQueryInclude;
+	
+	/**
+	 * If set, resources are served from and added to this cache instead of always being translated
+	 */
+	@Setter
+	private transient FhirResourceCache resourceCache;
+	
+	private transient Integer pageSize;
+	
+	public SearchSnapshotBundleProvider(String uuid, IPrimitiveType<Date> published, SearchParameterMap searchParameterMap,
+	    int[] ids, FhirDao<T> dao, OpenmrsFhirTranslator<T, U> translator, FhirGlobalPropertyService globalPropertyService,
+	    SearchQueryInclude<U> searchQueryInclude) {
+		this.uuid = uuid;
+		this.published = published;
+		this.searchParameterMap = searchParameterMap;
+		this.ids = ids;
+		this.dao = dao;
+		this.translator = translator;
+		this.globalPropertyService = globalPropertyService;
+		this.searchQueryInclude = searchQueryInclude;
+	}
+	
+	@Override
+	@Nonnull
+	public List<IBaseResource> getResources(int fromIndex, int toIndex) {
+		int start = Math.max(fromIndex, 0);
+		int end = Math.min(toIndex, ids.length);
+		if (start >= end) {
+			return new ArrayList<>();
+		}
+		
+		List<Integer> pageIds = Arrays.stream(ids, start, end).boxed().collect(Collectors.toList());
+		List<T> results = dao.getSearchResultsByIds(pageIds);
+		List<U> resources = resourceCache == null ? translator.toFhirResources(results)
+		        : resourceCache.getAll(translator, results);
+		
+		Set<IBaseResource> includedResources = searchQueryInclude.getIncludedResources(resources, searchParameterMap);
+		
+		List<IBaseResource> resultList = new ArrayList<>(resources.size() + includedResources.size());
+		resultList.addAll(resources);
+		resultList.addAll(includedResources);
+		
+		return resultList;
+	}
+	
+	@Override
+	public Integer preferredPageSize() {
+		if (pageSize == null) {
+			pageSize = globalPropertyService.getGlobalPropertyAsInteger(FhirConstants.OPENMRS_FHIR_DEFAULT_PAGE_SIZE, 10);
+		}
+		
+		return pageSize;
+	}
+	
+	@Override
+	@Nullable
+	public Integer size() {
+		return ids.length;
+	}
+}
@@ -0,0 +1,267 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.search;
+
+import javax.annotation.Nonnull;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.FhirVersionEnum;
+import ca.uhn.fhir.model.primitive.InstantDt;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.BasePagingProvider;
+import ca.uhn.fhir.rest.server.FifoMemoryPagingProvider;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.SerializationUtils;
+import org.openmrs.module.fhir2.FhirConstants;
+import org.openmrs.module.fhir2.api.FhirGlobalPropertyService;
+import org.openmrs.module.fhir2.api.cache.FhirResourceCache;
+import org.openmrs.module.fhir2.api.dao.FhirDao;
+import org.openmrs.module.fhir2.api.dao.FhirSearchSnapshotDao;
+import org.openmrs.module.fhir2.api.search.param.SearchParameterMap;
+import org.openmrs.module.fhir2.api.search.param.SearchParameterMapCodec;
+import org.openmrs.module.fhir2.api.translators.OpenmrsFhirTranslator;
+import org.openmrs.module.fhir2.api.util.CompactIntArray;
+import org.openmrs.module.fhir2.model.FhirSearchSnapshot;
+import org.springframework.beans.factory.ListableBeanFactory;
+
+/**
+ * An {@link ca.uhn.fhir.rest.server.IPagingProvider} that persists searches as
+ * {@link FhirSearchSnapshot}s so that later pages of results can be loaded on any node and survive
+ * the search falling out of the in-memory store. Recently stored searches are still served from
+ * memory.
+ * <p/>
+ * Storing a search only writes its parameters, encoded by {@link SearchParameterMapCodec}, and the
+ * number of results if it has already been counted, so the first page is not held up. Each time a
+ * search is restored and it has no more than
+ * {@link FhirConstants#OPENMRS_FHIR_SEARCH_SNAPSHOT_MAXIMUM_RESULTS} results, the ids of the matching
+ * objects are reloaded and stored, and the pages of the restored search are loaded by id. Larger
+ * searches re-run the search for each page.
+ * <p/>
+ * A search that is stored but cannot be restored is an error, not an unknown search, so it is
+ * reported as an {@link InternalErrorException} rather than as a search that has expired.
+ */
+@Slf4j
+public class SearchSnapshotPagingProvider extends BasePagingProvider {
+	
+	private static final long CLEANUP_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+	
+	private final FhirSearchSnapshotDao searchSnapshotDao;
+	
+	private final FhirGlobalPropertyService globalPropertyService;
+	
+	private final ListableBeanFactory beanFactory;
+	
+	private final FifoMemoryPagingProvider memoryPagingProvider = new FifoMemoryPagingProvider(100);
+	
+	private final Map<Class<?>, String> beanNames = new ConcurrentHashMap<>();
+	
+	private final AtomicLong nextCleanup = new AtomicLong();
+	
+	public SearchSnapshotPagingProvider(FhirSearchSnapshotDao searchSnapshotDao,
+	    FhirGlobalPropertyService globalPropertyService, ListableBeanFactory beanFactory) {
+		this.searchSnapshotDao = searchSnapshotDao;
+		this.globalPropertyService = globalPropertyService;
+		this.beanFactory = beanFactory;
+	}
+	
+	@Override
+	public IBundleProvider retrieveResultList(RequestDetails theRequestDetails, @Nonnull String theSearchId) {
+		IBundleProvider result = memoryPagingProvider.retrieveResultList(theRequestDetails, theSearchId);
+		if (result != null) {
+			return result;
+		}
+		
+		try {
+			result = searchSnapshotDao.getSearchSnapshot(theSearchId)
+			        .map(searchSnapshot -> restore(theRequestDetails, searchSnapshot)).orElse(null);
+		}
+		catch (Exception e) {
+			log.error("Unable to restore search {}", theSearchId, e);
+			throw new InternalErrorException("Unable to restore search " + theSearchId, e);
+		}
+		
+		if (result != null) {
+			memoryPagingProvider.storeResultList(theRequestDetails, result);
+		}
+		
+		return result;
+	}
+	
+	@Override
+	public String storeResultList(RequestDetails theRequestDetails, IBundleProvider theList) {
+		String searchId = memoryPagingProvider.storeResultList(theRequestDetails, theList);
+		
+		try {
+			store(theRequestDetails, searchId, theList);
+		}
+		catch (Exception e) {
+			log.warn("Unable to persist search {}, later pages will only be available from this node", searchId, e);
+		}
+		
+		return searchId;
+	}
+	
+	private void store(RequestDetails theRequestDetails, String searchId, IBundleProvider bundleProvider) {
+		IBundleProvider unwrapped = bundleProvider;
+		if (unwrapped instanceof SearchQueryBundleProviderR3Wrapper) {
+			unwrapped = ((SearchQueryBundleProviderR3Wrapper) unwrapped).getBundleProvider();
+		}
+		
+		// only searches run through the FHIR DAOs can be restored
+		if (!(unwrapped instanceof SearchQueryBundleProvider)) {
+			return;
+		}
+		
+		SearchQueryBundleProvider<?, ?> searchQueryBundleProvider = (SearchQueryBundleProvider<?, ?>) unwrapped;
+		if (searchQueryBundleProvider.getSearchParameterMap().isCountOnly()) {
+			return;
+		}
+		
+		String daoBean = getBeanName(searchQueryBundleProvider.getDao(), FhirDao.class);
+		String translatorBean = getBeanName(searchQueryBundleProvider.getTranslator(), OpenmrsFhirTranslator.class);
+		if (daoBean == null || translatorBean == null) {
+			return;
+		}
+		
+		String fhirVersion = getFhirVersion(theRequestDetails, bundleProvider);
+		String searchParameters;
+		try {
+			searchParameters = SearchParameterMapCodec.encode(searchQueryBundleProvider.getSearchParameterMap(),
+			    FhirContext.forCached(FhirVersionEnum.valueOf(fhirVersion)));
+		}
+		catch (IllegalArgumentException e) {
+			log.debug("Search {} cannot be persisted, later pages will only be available from this node", searchId, e);
+			return;
+		}
+		
+		FhirSearchSnapshot searchSnapshot = new FhirSearchSnapshot();
+		searchSnapshot.setUuid(searchId);
+		searchSnapshot.setFhirVersion(fhirVersion);
+		searchSnapshot.setDaoBean(daoBean);
+		searchSnapshot.setTranslatorBean(translatorBean);
+		searchSnapshot.setSearchParameters(searchParameters);
+		searchSnapshot.setResultCount(searchQueryBundleProvider.getCountedSize());
+		
+		long now = System.currentTimeMillis();
+		int timeToLive = globalPropertyService
+		        .getGlobalPropertyAsInteger(FhirConstants.OPENMRS_FHIR_SEARCH_SNAPSHOT_TIME_TO_LIVE, 60);
+		searchSnapshot.setDateCreated(new Date(now));
+		searchSnapshot.setExpires(new Date(now + TimeUnit.MINUTES.toMillis(timeToLive)));
+		
+		searchSnapshotDao.saveSearchSnapshot(searchSnapshot);
+		
+		long cleanup = nextCleanup.get();
+		if (now >= cleanup && nextCleanup.compareAndSet(cleanup, now + CLEANUP_INTERVAL)) {
+			searchSnapshotDao.deleteExpiredSearchSnapshots(new Date(now));
+		}
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private IBundleProvider restore(RequestDetails theRequestDetails, FhirSearchSnapshot searchSnapshot) {
+		if (theRequestDetails != null && !searchSnapshot.getFhirVersion()
+		        .equals(theRequestDetails.getFhirContext().getVersion().getVersion().name())) {
+			return null;
+		}
+		
+		FhirDao dao = beanFactory.getBean(searchSnapshot.getDaoBean(), FhirDao.class);
+		OpenmrsFhirTranslator translator = beanFactory.getBean(searchSnapshot.getTranslatorBean(),
+		    OpenmrsFhirTranslator.class);
+		SearchQueryInclude searchQueryInclude = beanFactory.getBean(SearchQueryInclude.class);
+		SearchParameterMap searchParameterMap = SearchParameterMapCodec.decode(searchSnapshot.getSearchParameters(),
+		    FhirContext.forCached(FhirVersionEnum.valueOf(searchSnapshot.getFhirVersion())));
+		refreshResultIds(searchSnapshot, dao, searchParameterMap);
+		
+		InstantDt published = new InstantDt(searchSnapshot.getDateCreated());
+		
+		FhirResourceCache resourceCache = beanFactory.getBean(FhirResourceCache.class);
+		
+		IBundleProvider result;
+		if (searchSnapshot.getResultIds() != null) {
+			SearchSnapshotBundleProvider snapshotBundleProvider = new SearchSnapshotBundleProvider(searchSnapshot.getUuid(),
+			        published, searchParameterMap, CompactIntArray.decode(searchSnapshot.getResultIds()), dao, translator,
+			        globalPropertyService, searchQueryInclude);
+			snapshotBundleProvider.setResourceCache(resourceCache);
+			result = snapshotBundleProvider;
+		} else {
+			SearchQueryBundleProvider searchQueryBundleProvider = new SearchQueryBundleProvider(searchSnapshot.getUuid(),
+			        published, searchParameterMap, dao, translator, globalPropertyService, searchQueryInclude);
+			searchQueryBundleProvider.setResourceCache(resourceCache);
+			result = searchQueryBundleProvider;
+		}
+		
+		if (FhirVersionEnum.DSTU3.name().equals(searchSnapshot.getFhirVersion())) {
+			result = new SearchQueryBundleProviderR3Wrapper(result);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Reloads and stores the ids of the results of a search that has no more than
+	 * {@link FhirConstants#OPENMRS_FHIR_SEARCH_SNAPSHOT_MAXIMUM_RESULTS} results, so that the pages of
+	 * the restored search are loaded by id. Ids stored by an earlier restore are dropped if the search
+	 * has since grown past the maximum.
+	 */
+	private void refreshResultIds(FhirSearchSnapshot searchSnapshot, FhirDao<?> dao, SearchParameterMap searchParameterMap) {
+		int maximumResults = globalPropertyService
+		        .getGlobalPropertyAsInteger(FhirConstants.OPENMRS_FHIR_SEARCH_SNAPSHOT_MAXIMUM_RESULTS, 10000);
+		if (searchSnapshot.getResultCount() != null && searchSnapshot.getResultCount() > maximumResults) {
+			return;
+		}
+		
+		// the ids are loaded using a copy of the parameters, so that the restored search starts without a cursor
+		SearchParameterMap idParameters = SerializationUtils.clone(searchParameterMap);
+		idParameters.setFromIndex(0);
+		idParameters.setToIndex(maximumResults < Integer.MAX_VALUE ? maximumResults + 1 : Integer.MAX_VALUE);
+		
+		List<Integer> ids = dao.getSearchResultIds(idParameters);
+		if (ids.size() > maximumResults) {
+			if (searchSnapshot.getResultIds() != null) {
+				searchSnapshot.setResultIds(null);
+				searchSnapshot.setResultCount(null);
+				searchSnapshotDao.saveSearchSnapshot(searchSnapshot);
+			}
+			return;
+		}
+		
+		byte[] resultIds = CompactIntArray.encode(ids.stream().mapToInt(Integer::intValue).toArray());
+		if (!Arrays.equals(resultIds, searchSnapshot.getResultIds())) {
+			searchSnapshot.setResultIds(resultIds);
+			searchSnapshot.setResultCount(ids.size());
+			searchSnapshotDao.saveSearchSnapshot(searchSnapshot);
+		}
+	}
+	
+	private String getFhirVersion(RequestDetails theRequestDetails, IBundleProvider bundleProvider) {
+		if (theRequestDetails != null) {
+			return theRequestDetails.getFhirContext().getVersion().getVersion().name();
+		}
+		
+		return bundleProvider instanceof SearchQueryBundleProviderR3Wrapper ? FhirVersionEnum.DSTU3.name()
+		        : FhirVersionEnum.R4.name();
+	}
+	
+	private String getBeanName(Object bean, Class<?> beanType) {
+		return beanNames.computeIfAbsent(bean.getClass(),
+		    beanClass -> beanFactory.getBeansOfType(beanType).entrySet().stream()
+		            .filter(entry -> entry.getValue() == bean).map(Map.Entry::getKey).findFirst().orElse(null));
+	}
+	
+}
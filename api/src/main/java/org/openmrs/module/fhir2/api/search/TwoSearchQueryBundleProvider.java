@@ -28,6 +28,12 @@ import org.openmrs.module.fhir2.FhirConstants;
 import org.openmrs.module.fhir2.api.FhirGlobalPropertyService;
 import org.springframework.transaction.annotation.Transactional;
 
+/**
+ * An {@link IBundleProvider} which pages through the results of one provider followed by the results
+ * of a second provider. Each delegate keeps its own paging state, so when the delegates are
+ * {@link SearchQueryBundleProvider}s the keyset cursor of each is carried forward as long as pages
+ * are requested in order.
+ */
 public class TwoSearchQueryBundleProvider implements IBundleProvider {
 	
 	private final IBundleProvider firstProvider;
@@ -40,9 +46,9 @@ public class TwoSearchQueryBundleProvider implements IBundleProvider {
 	
 	private transient Integer count;
 	
-	private final int firstProviderSize;
+	private Integer firstProviderSize;
 	
-	private final int secondProviderSize;
+	private Integer secondProviderSize;
 	
 	@Getter
 	private final IPrimitiveType<Date> published;
@@ -57,8 +63,6 @@ public class TwoSearchQueryBundleProvider implements IBundleProvider {
 		this.published = InstantDt.withCurrentTime();
 		this.uuid = UUID.randomUUID().toString();
 		this.globalPropertyService = globalPropertyService;
-		this.firstProviderSize = Optional.ofNullable(firstProvider.size()).orElse(Integer.MAX_VALUE);
-		this.secondProviderSize = Optional.ofNullable(secondProvider.size()).orElse(Integer.MAX_VALUE);
 	}
 	
 	@Transactional(readOnly = true)
@@ -70,14 +74,18 @@ public class TwoSearchQueryBundleProvider implements IBundleProvider {
 			firstResult = fromIndex;
 		}
 		
-		Integer size = size();
-		if (size != null && firstResult > size) {
+		// the first provider is always counted exactly as it determines where the results of the second begin
+		int firstProviderSize = getFirstProviderSize();
+		
+		Integer secondProviderSize = getSecondProviderSize();
+		if (secondProviderSize != null && firstResult > (long) firstProviderSize + secondProviderSize) {
 			return Collections.emptyList();
 		}
 		
-		// NPE-safe unboxing
 		int lastResult = Integer.MAX_VALUE;
-		lastResult = size == null ? lastResult : size;
+		if (secondProviderSize != null && secondProviderSize != Integer.MAX_VALUE && firstProviderSize != Integer.MAX_VALUE) {
+			lastResult = firstProviderSize + secondProviderSize;
+		}
 		
 		if (toIndex - firstResult > 0) {
 			lastResult = Math.min(lastResult, toIndex);
@@ -102,6 +110,8 @@ public class TwoSearchQueryBundleProvider implements IBundleProvider {
 		        .subList(numResultsFromFirstProvider, resourcesFromFirstProvider.size());
 		
 		List<IBaseResource> resourcesFromSecondProvider = secondProvider.getResources(0, numResultsFromSecondProvider);
+		// the second provider may have fewer results than requested if its size is not known
+		numResultsFromSecondProvider = Math.min(numResultsFromSecondProvider, resourcesFromSecondProvider.size());
 		List<IBaseResource> requiredResourcesFromSecondProvider = resourcesFromSecondProvider.subList(0,
 		    numResultsFromSecondProvider);
 		List<IBaseResource> includedResourcesFromSecondProvider = resourcesFromSecondProvider
@@ -132,10 +142,16 @@ public class TwoSearchQueryBundleProvider implements IBundleProvider {
 	@Override
 	public Integer size() {
 		if (count == null) {
-			if (firstProviderSize == Integer.MAX_VALUE || secondProviderSize == Integer.MAX_VALUE) {
+			Integer secondSize = getSecondProviderSize();
+			if (secondSize == null) {
+				return null;
+			}
+			
+			int firstSize = getFirstProviderSize();
+			if (firstSize == Integer.MAX_VALUE || secondSize == Integer.MAX_VALUE) {
 				return Integer.MAX_VALUE;
 			} else {
-				count = firstProviderSize + secondProviderSize;
+				count = firstSize + secondSize;
 			}
 			
 			// accounting for integer overflow
@@ -146,4 +162,24 @@ public class TwoSearchQueryBundleProvider implements IBundleProvider {
 		
 		return count;
 	}
+	
+	private int getFirstProviderSize() {
+		if (firstProviderSize == null) {
+			if (firstProvider instanceof SearchQueryBundleProvider) {
+				firstProviderSize = ((SearchQueryBundleProvider<?, ?>) firstProvider).getExactSize();
+			} else {
+				firstProviderSize = Optional.ofNullable(firstProvider.size()).orElse(Integer.MAX_VALUE);
+			}
+		}
+		
+		return firstProviderSize;
+	}
+	
+	private Integer getSecondProviderSize() {
+		if (secondProviderSize == null) {
+			secondProviderSize = secondProvider.size();
+		}
+		
+		return secondProviderSize;
+	}
 }
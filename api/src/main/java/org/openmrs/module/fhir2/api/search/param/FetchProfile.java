@@ -0,0 +1,47 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.search.param;
+
+/**
+ * Describes how much of each search result will be rendered, and so which of its associations are
+ * worth loading together with a page of results rather than lazily, one object at a time. Each Dao
+ * decides which associations belong to each profile.
+ *
+ * @see org.openmrs.module.fhir2.api.dao.impl.BaseFhirDao#getFetchPaths(FetchProfile)
+ */
+public enum FetchProfile {
+	
+	/**
+	 * Only the summary elements of each resource are returned, i.e. {@code _summary=true},
+	 * {@code _summary=text} or {@code _elements}
+	 */
+	SUMMARY,
+	
+	/**
+	 * The full resource is returned
+	 */
+	FULL;
+	
+	/**
+	 * Determines the profile to use for the values of the {@code _summary} and {@code _elements}
+	 * parameters of a request
+	 *
+	 * @param summary the value of the {@code _summary} parameter, or null if it was not supplied
+	 * @param hasElements whether the {@code _elements} parameter was supplied
+	 * @return the matching profile
+	 */
+	public static FetchProfile forRequest(String summary, boolean hasElements) {
+		if (hasElements || "true".equals(summary) || "text".equals(summary)) {
+			return SUMMARY;
+		}
+		
+		return FULL;
+	}
+}
@@ -9,6 +9,8 @@
  */
 package org.openmrs.module.fhir2.api.search.param;
 
+import java.io.Serializable;
+
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -16,7 +18,9 @@ import lombok.Data;
 @Data
 @Builder
 @AllArgsConstructor
-public class PropParam<T> {
+public class PropParam<T> implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
 	
 	private String propertyName;
 	
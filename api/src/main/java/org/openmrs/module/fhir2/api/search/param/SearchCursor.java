@@ -0,0 +1,49 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.search.param;
+
+import java.io.Serializable;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Records the position of the last row returned by a search so that the following page can be
+ * loaded using a keyset (or "seek") predicate, i.e. {@code WHERE (sortKey, id) > (?, ?)}, instead of
+ * having the database skip over every preceding row with an offset.
+ * <p/>
+ * A cursor is only valid for the page that starts at {@link #getPosition()} and only for the sort
+ * order that produced it.
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+@AllArgsConstructor
+public class SearchCursor implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * The index of the first result that follows the row this cursor was taken from
+	 */
+	private final int position;
+	
+	/**
+	 * The values of each of the sort properties for the last row, in the same order as the sort
+	 */
+	private final Object[] sortValues;
+	
+	/**
+	 * The primary key of the last row, used as the final tie-breaker
+	 */
+	private final Integer lastId;
+}
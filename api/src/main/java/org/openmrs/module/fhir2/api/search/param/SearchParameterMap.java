@@ -17,6 +17,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
 import ca.uhn.fhir.rest.api.SortSpec;
 import lombok.AllArgsConstructor;
 import lombok.EqualsAndHashCode;
@@ -43,6 +44,49 @@ public class SearchParameterMap implements Serializable {
 	@Setter
 	private int toIndex = Integer.MAX_VALUE;
 	
+	@Getter
+	@Setter
+	@EqualsAndHashCode.Exclude
+	private SearchCursor cursor;
+	
+	/**
+	 * How the total number of results should be determined; null means the total is counted exactly
+	 */
+	@Getter
+	@Setter
+	@EqualsAndHashCode.Exclude
+	private SearchTotalModeEnum totalMode;
+	
+	/**
+	 * If true, only the number of results is required and no results should be loaded
+	 */
+	@Getter
+	@Setter
+	@EqualsAndHashCode.Exclude
+	private boolean countOnly;
+	
+	/**
+	 * If true, one row beyond {@link #getToIndex()} is read to determine whether there are further
+	 * results, which is recorded in {@link #getHasMoreResults()}
+	 */
+	@Getter
+	@Setter
+	@EqualsAndHashCode.Exclude
+	private boolean lookahead;
+	
+	/**
+	 * Determines which associations of each result are loaded together with a page of results
+	 */
+	@Getter
+	@Setter
+	@EqualsAndHashCode.Exclude
+	private FetchProfile fetchProfile = FetchProfile.FULL;
+	
+	@Getter
+	@Setter
+	@EqualsAndHashCode.Exclude
+	private Boolean hasMoreResults;
+	
 	private final Map<String, List<PropParam<?>>> params = new LinkedCaseInsensitiveMap<>();
 	
 	/**
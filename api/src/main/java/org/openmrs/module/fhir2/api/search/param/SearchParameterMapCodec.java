@@ -0,0 +1,251 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.search.param;
+
+import javax.annotation.Nonnull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.api.IQueryParameterAnd;
+import ca.uhn.fhir.model.api.IQueryParameterOr;
+import ca.uhn.fhir.model.api.IQueryParameterType;
+import ca.uhn.fhir.model.api.Include;
+import ca.uhn.fhir.rest.api.QualifiedParamList;
+import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
+import ca.uhn.fhir.rest.api.SortOrderEnum;
+import ca.uhn.fhir.rest.api.SortSpec;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Encodes the parameters of a search as JSON so that the search can be stored and run again later.
+ * Each parameter is written as it appears in a search URL, i.e. as qualified lists of query tokens,
+ * and is parsed again by the HAPI parameter type that wrote it. Only the parameter types in
+ * {@code ca.uhn.fhir.rest.param}, includes, strings, booleans and integers can be encoded, so
+ * decoding never creates objects of any other class.
+ */
+public final class SearchParameterMapCodec {
+	
+	private static final String PARAM_PACKAGE = "ca.uhn.fhir.rest.param.";
+	
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+	
+	private SearchParameterMapCodec() {
+	}
+	
+	/**
+	 * Encodes the parameters of a search
+	 *
+	 * @param searchParameterMap the search
+	 * @param fhirContext the context used to write the query tokens
+	 * @return the encoded parameters
+	 * @throws IllegalArgumentException if the search has a parameter that cannot be encoded
+	 */
+	public static String encode(@Nonnull SearchParameterMap searchParameterMap, @Nonnull FhirContext fhirContext) {
+		ObjectNode json = objectMapper.createObjectNode();
+		
+		ArrayNode sort = json.putArray("sort");
+		for (SortSpec sortSpec = searchParameterMap.getSortSpec(); sortSpec != null; sortSpec = sortSpec.getChain()) {
+			sort.addObject().put("param", sortSpec.getParamName()).put("order",
+			    sortSpec.getOrder() == null ? null : sortSpec.getOrder().name());
+		}
+		
+		if (searchParameterMap.getTotalMode() != null) {
+			json.put("totalMode", searchParameterMap.getTotalMode().name());
+		}
+		
+		if (searchParameterMap.getFetchProfile() != null) {
+			json.put("fetchProfile", searchParameterMap.getFetchProfile().name());
+		}
+		
+		ArrayNode params = json.putArray("params");
+		for (Map.Entry<String, List<PropParam<?>>> entry : searchParameterMap.getParameters()) {
+			for (PropParam<?> propParam : entry.getValue()) {
+				ObjectNode param = params.addObject().put("key", entry.getKey()).put("property",
+				    propParam.getPropertyName());
+				encodeParam(param, propParam.getParam(), fhirContext);
+			}
+		}
+		
+		return json.toString();
+	}
+	
+	/**
+	 * Decodes parameters previously encoded with {@link #encode(SearchParameterMap, FhirContext)}
+	 *
+	 * @param encoded the encoded parameters
+	 * @param fhirContext the context used to parse the query tokens
+	 * @return the search
+	 * @throws IllegalArgumentException if the encoded parameters are not valid
+	 */
+	public static SearchParameterMap decode(@Nonnull String encoded, @Nonnull FhirContext fhirContext) {
+		JsonNode json;
+		try {
+			json = objectMapper.readTree(encoded);
+		}
+		catch (IOException e) {
+			throw new IllegalArgumentException("Unable to read search parameters", e);
+		}
+		
+		SearchParameterMap searchParameterMap = new SearchParameterMap();
+		
+		SortSpec lastSortSpec = null;
+		for (JsonNode sort : json.path("sort")) {
+			SortSpec sortSpec = new SortSpec(sort.path("param").asText(),
+			        sort.hasNonNull("order") ? SortOrderEnum.valueOf(sort.get("order").asText()) : null);
+			if (lastSortSpec == null) {
+				searchParameterMap.setSortSpec(sortSpec);
+			} else {
+				lastSortSpec.setChain(sortSpec);
+			}
+			
+			lastSortSpec = sortSpec;
+		}
+		
+		if (json.hasNonNull("totalMode")) {
+			searchParameterMap.setTotalMode(SearchTotalModeEnum.valueOf(json.get("totalMode").asText()));
+		}
+		
+		if (json.hasNonNull("fetchProfile")) {
+			searchParameterMap.setFetchProfile(FetchProfile.valueOf(json.get("fetchProfile").asText()));
+		}
+		
+		for (JsonNode param : json.path("params")) {
+			String key = param.path("key").asText();
+			searchParameterMap.addParameter(key, param.hasNonNull("property") ? param.get("property").asText() : null,
+			    decodeParam(key, param, fhirContext));
+		}
+		
+		return searchParameterMap;
+	}
+	
+	private static void encodeParam(ObjectNode json, Object param, FhirContext fhirContext) {
+		if (param instanceof String) {
+			json.put("string", (String) param);
+			return;
+		}
+		
+		if (param instanceof Boolean) {
+			json.put("boolean", (Boolean) param);
+			return;
+		}
+		
+		if (param instanceof Integer) {
+			json.put("integer", (Integer) param);
+			return;
+		}
+		
+		if (param instanceof Set) {
+			ArrayNode includes = json.putArray("include");
+			for (Object include : (Set<?>) param) {
+				if (!(include instanceof Include)) {
+					throw new IllegalArgumentException("Unable to encode a set of " + include.getClass().getName());
+				}
+				
+				includes.addObject().put("value", ((Include) include).getValue()).put("iterate",
+				    ((Include) include).isRecurse());
+			}
+			
+			return;
+		}
+		
+		if (!param.getClass().getName().equals(PARAM_PACKAGE + param.getClass().getSimpleName())) {
+			throw new IllegalArgumentException("Unable to encode a parameter of type " + param.getClass().getName());
+		}
+		
+		List<QualifiedParamList> values;
+		if (param instanceof IQueryParameterAnd) {
+			values = ((IQueryParameterAnd<?>) param).getValuesAsQueryTokens().stream()
+			        .map(or -> new QualifiedParamList(or, fhirContext)).collect(Collectors.toList());
+		} else if (param instanceof IQueryParameterOr) {
+			values = Collections.singletonList(new QualifiedParamList((IQueryParameterOr<?>) param, fhirContext));
+		} else if (param instanceof IQueryParameterType) {
+			IQueryParameterType type = (IQueryParameterType) param;
+			values = Collections.singletonList(
+			    QualifiedParamList.singleton(type.getQueryParameterQualifier(), type.getValueAsQueryToken(fhirContext)));
+		} else {
+			throw new IllegalArgumentException("Unable to encode a parameter of type " + param.getClass().getName());
+		}
+		
+		json.put("type", param.getClass().getSimpleName());
+		ArrayNode and = json.putArray("values");
+		for (QualifiedParamList or : values) {
+			ArrayNode tokens = and.addObject().put("qualifier", or.getQualifier()).putArray("tokens");
+			or.forEach(tokens::add);
+		}
+	}
+	
+	private static Object decodeParam(String key, JsonNode json, FhirContext fhirContext) {
+		if (json.has("string")) {
+			return json.get("string").asText();
+		}
+		
+		if (json.has("boolean")) {
+			return json.get("boolean").asBoolean();
+		}
+		
+		if (json.has("integer")) {
+			return json.get("integer").asInt();
+		}
+		
+		if (json.has("include")) {
+			Set<Include> includes = new LinkedHashSet<>();
+			for (JsonNode include : json.get("include")) {
+				includes.add(new Include(include.path("value").asText(), include.path("iterate").asBoolean()));
+			}
+			
+			return includes;
+		}
+		
+		String type = json.path("type").asText();
+		if (!type.matches("[A-Za-z0-9]+")) {
+			throw new IllegalArgumentException("Invalid parameter type " + type);
+		}
+		
+		Object param;
+		try {
+			param = Class.forName(PARAM_PACKAGE + type).getConstructor().newInstance();
+		}
+		catch (ReflectiveOperationException e) {
+			throw new IllegalArgumentException("Unable to create a parameter of type " + type, e);
+		}
+		
+		List<QualifiedParamList> values = new ArrayList<>();
+		for (JsonNode or : json.path("values")) {
+			QualifiedParamList tokens = new QualifiedParamList();
+			tokens.setQualifier(or.hasNonNull("qualifier") ? or.get("qualifier").asText() : null);
+			or.path("tokens").forEach(token -> tokens.add(token.isNull() ? null : token.asText()));
+			values.add(tokens);
+		}
+		
+		if (param instanceof IQueryParameterAnd) {
+			((IQueryParameterAnd<?>) param).setValuesAsQueryTokens(fhirContext, key, values);
+		} else if (param instanceof IQueryParameterOr && values.size() == 1) {
+			((IQueryParameterOr<?>) param).setValuesAsQueryTokens(fhirContext, key, values.get(0));
+		} else if (param instanceof IQueryParameterType && values.size() == 1 && values.get(0).size() == 1) {
+			((IQueryParameterType) param).setValueAsQueryToken(fhirContext, key, values.get(0).getQualifier(),
+			    values.get(0).get(0));
+		} else {
+			throw new IllegalArgumentException("Unable to decode a parameter of type " + type);
+		}
+		
+		return param;
+	}
+}
@@ -11,7 +11,10 @@ package org.openmrs.module.fhir2.api.translators;
 
 import javax.annotation.Nonnull;
 
+import java.util.Collection;
+
 import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
 import org.openmrs.Concept;
 
 public interface ConceptTranslator extends OpenmrsFhirTranslator<Concept, CodeableConcept> {
@@ -33,4 +36,14 @@ public interface ConceptTranslator extends OpenmrsFhirTranslator<Concept, Codeab
 	 */
 	@Override
 	Concept toOpenmrsType(@Nonnull CodeableConcept concept);
+	
+	/**
+	 * Looks up the concepts for many codings at once and records them with
+	 * {@link org.openmrs.module.fhir2.api.util.ReferenceResolutionCache}, so that translating those
+	 * codings in the current scope needs no further queries. Does nothing outside of a scope.
+	 *
+	 * @param codings the codings that are about to be translated
+	 */
+	default void preloadConcepts(@Nonnull Collection<Coding> codings) {
+	}
 }
@@ -13,6 +13,8 @@ import java.util.Collection;
 import java.util.List;
 import java.util.stream.Collectors;
 
+import org.openmrs.module.fhir2.api.util.ReferenceResolutionCache;
+
 /**
  * Generic interface for a translator between OpenMRS data and FHIR resources
  * 
@@ -22,12 +24,17 @@ import java.util.stream.Collectors;
 public interface OpenmrsFhirTranslator<T, U> extends ToFhirTranslator<T, U>, ToOpenmrsTranslator<T, U> {
 	
 	/**
-	 * Maps OpenMRS data elements to FHIR resources.
+	 * Maps OpenMRS data elements to FHIR resources. The data the elements are associated with is first
+	 * loaded for all of them by {@link #prefetch(Collection)} and is held in a
+	 * {@link ReferenceResolutionCache} scope until every element has been translated.
 	 *
 	 * @param data the collection of OpenMRS data elements to translate
 	 * @return the mapping of OpenMRS data element to corresponding FHIR resource
 	 */
 	default List<U> toFhirResources(Collection<T> data) {
-		return data.stream().distinct().map(this::toFhirResource).collect(Collectors.toList());
+		try (ReferenceResolutionCache.Scope ignored = ReferenceResolutionCache.open()) {
+			prefetch(data);
+			return data.stream().distinct().map(this::toFhirResource).collect(Collectors.toList());
+		}
 	}
 }
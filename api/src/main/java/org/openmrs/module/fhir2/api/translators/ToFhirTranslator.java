@@ -11,6 +11,8 @@ package org.openmrs.module.fhir2.api.translators;
 
 import javax.annotation.Nonnull;
 
+import java.util.Collection;
+
 /**
  * Generic interface for a translator between OpenMRS data and FHIR resources
  * 
@@ -27,4 +29,15 @@ public interface ToFhirTranslator<T, U> extends FhirTranslator {
 	 */
 	U toFhirResource(@Nonnull T data);
 	
+	/**
+	 * Loads the data that translating each of the OpenMRS data elements would otherwise look up one
+	 * element at a time, using as few queries as possible, and records it with
+	 * {@link org.openmrs.module.fhir2.api.util.ReferenceResolutionCache}. Translators without such
+	 * lookups need not implement this.
+	 *
+	 * @param data the OpenMRS data elements about to be translated
+	 */
+	default void prefetch(@Nonnull Collection<T> data) {
+	}
+	
 }
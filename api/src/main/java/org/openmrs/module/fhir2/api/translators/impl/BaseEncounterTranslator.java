@@ -11,6 +11,10 @@ package org.openmrs.module.fhir2.api.translators.impl;
 
 import static lombok.AccessLevel.PROTECTED;
 
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
 import lombok.Getter;
 import lombok.Setter;
 import org.hl7.fhir.r4.model.Coding;
@@ -25,6 +29,15 @@ public abstract class BaseEncounterTranslator {
 	@Setter(value = PROTECTED, onMethod_ = @Autowired)
 	private EncounterClassMap encounterClassMap;
 	
+	/**
+	 * Loads the encounter classes of all of the given locations with one query, ready for
+	 * {@link #mapLocationToClass(Location)}
+	 */
+	protected void prefetchLocationClasses(Stream<Location> locations) {
+		encounterClassMap.prefetchFhirClasses(
+		    locations.filter(Objects::nonNull).map(Location::getUuid).collect(Collectors.toSet()));
+	}
+	
 	protected Coding mapLocationToClass(Location location) {
 		Coding coding = new Coding();
 		coding.setSystem(FhirConstants.ENCOUNTER_CLASS_VALUE_SET_URI);
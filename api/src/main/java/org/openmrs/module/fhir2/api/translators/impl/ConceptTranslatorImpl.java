@@ -13,11 +13,16 @@ import static lombok.AccessLevel.PROTECTED;
 
 import javax.annotation.Nonnull;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
 
 import lombok.Getter;
 import lombok.Setter;
@@ -29,14 +34,16 @@ import org.openmrs.ConceptMap;
 import org.openmrs.ConceptMapType;
 import org.openmrs.ConceptReferenceTerm;
 import org.openmrs.ConceptSource;
-import org.openmrs.Duration;
-import org.openmrs.module.fhir2.FhirConstants;
 import org.openmrs.module.fhir2.api.FhirConceptService;
 import org.openmrs.module.fhir2.api.FhirConceptSourceService;
+import org.openmrs.module.fhir2.api.cache.ConceptCodingIndex;
+import org.openmrs.module.fhir2.api.cache.ConceptCodingIndex.MappedCode;
+import org.openmrs.module.fhir2.api.cache.ConceptReverseIndex;
+import org.openmrs.module.fhir2.api.cache.ConceptSourceUrlIndex;
 import org.openmrs.module.fhir2.api.translators.ConceptTranslator;
+import org.openmrs.module.fhir2.api.util.ReferenceResolutionCache;
 import org.openmrs.module.fhir2.model.FhirConceptSource;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Component;
 
 @Component
@@ -51,48 +58,34 @@ public class ConceptTranslatorImpl implements ConceptTranslator {
 	@Setter(value = PROTECTED, onMethod_ = @Autowired)
 	private FhirConceptSourceService conceptSourceService;
 	
+	@Getter(PROTECTED)
+	@Setter(value = PROTECTED, onMethod_ = @Autowired)
+	private ConceptCodingIndex conceptCodingIndex;
+	
+	@Getter(PROTECTED)
+	@Setter(value = PROTECTED, onMethod_ = @Autowired)
+	private ConceptReverseIndex conceptReverseIndex;
+	
+	@Getter(PROTECTED)
+	@Setter(value = PROTECTED, onMethod_ = @Autowired)
+	private ConceptSourceUrlIndex conceptSourceUrlIndex;
+	
 	@Override
-	@Cacheable(value = "fhir2ConceptToCodeableConcept")
 	public CodeableConcept toFhirResource(@Nonnull Concept concept) {
 		if (concept == null) {
 			return null;
 		}
 		
-		Collection<FhirConceptSource> allFhirConceptSources = conceptSourceService.getFhirConceptSources();
 		CodeableConcept codeableConcept = new CodeableConcept();
 		codeableConcept.setText(concept.getDisplayString());
 		addConceptCoding(codeableConcept.addCoding(), null, concept.getUuid(), concept);
-		//map of <systemUrl ,<mapType , code>> ie { "http://loinc.org” : { "SAME-AS" : "108-5", "NARROWER-THAN": "108-8" }}
-		Map<String, Map<String, String>> systemUrlToCodeMap = new HashMap<>();
-		for (ConceptMap mapping : concept.getConceptMappings()) {
-			if (mapping.getConceptMapType() != null) {
-				ConceptMapType mapType = mapping.getConceptMapType();
-				boolean sameAs = mapType.getUuid() != null && mapType.getUuid().equals(ConceptMapType.SAME_AS_MAP_TYPE_UUID);
-				sameAs = sameAs || (mapType.getName() != null && mapType.getName().equalsIgnoreCase("SAME-AS"));
-				ConceptReferenceTerm crt = mapping.getConceptReferenceTerm();
-				String sourceUrl = getSourceUrl(crt.getConceptSource(), allFhirConceptSources);
-				if (sourceUrl != null) {
-					if (sameAs) {
-						addSystemToCodeMap(systemUrlToCodeMap, sourceUrl, "SAME-AS", crt.getCode());
-					} else {
-						addSystemToCodeMap(systemUrlToCodeMap, sourceUrl, mapType.getName(), crt.getCode());
-					}
-				}
-			}
-		}
 		
-		for (String systemUrl : systemUrlToCodeMap.keySet()) {
-			Map<String, String> mapTypeToCodeMap = systemUrlToCodeMap.get(systemUrl);
-			if (mapTypeToCodeMap != null) {
-				if (mapTypeToCodeMap.size() == 1) {
-					for (String mapType : mapTypeToCodeMap.keySet()) {
-						addConceptCoding(codeableConcept.addCoding(), systemUrl, mapTypeToCodeMap.get(mapType), concept);
-					}
-				} else if (mapTypeToCodeMap.size() > 1 && mapTypeToCodeMap.containsKey("SAME-AS")) {
-					addConceptCoding(codeableConcept.addCoding(), systemUrl, mapTypeToCodeMap.get("SAME-AS"), concept);
-				}
-			}
+		List<Coding> mappedCodings = conceptCodingIndex == null ? getMappedCodings(concept)
+		        : conceptCodingIndex.getMappedCodings(concept, this::getMappedCodings);
+		for (Coding mappedCoding : mappedCodings) {
+			codeableConcept.addCoding(mappedCoding.copy());
 		}
+		
 		return codeableConcept;
 	}
 	
@@ -101,30 +94,11 @@ public class ConceptTranslatorImpl implements ConceptTranslator {
 		if (concept != null) {
 			for (Coding coding : concept.getCoding()) {
 				if (coding.getCode() != null) {
-					if (!coding.hasSystem()) {
-						Concept c = conceptService.get(coding.getCode());
-						if (c != null) {
-							return c;
-						}
-					} else {
-						Optional<ConceptSource> conceptSource = conceptSourceService
-						        .getConceptSourceByUrl(coding.getSystem());
-						if (conceptSource.isPresent()) {
-							List<Concept> allMatchingConcepts = conceptService
-							        .getConceptsWithAnyMappingInSource(conceptSource.get(), coding.getCode());
-							if (!allMatchingConcepts.isEmpty()) {
-								Map<String, Concept> mapTypeToConceptMap = new HashMap<>();
-								addConceptsToMap(mapTypeToConceptMap, allMatchingConcepts, conceptSource.get(),
-								    coding.getCode());
-								if (mapTypeToConceptMap.size() == 1) {
-									for (String mapType : mapTypeToConceptMap.keySet()) {
-										return mapTypeToConceptMap.get(mapType);
-									}
-								} else if (mapTypeToConceptMap.size() > 1 && mapTypeToConceptMap.containsKey("SAME-AS")) {
-									return mapTypeToConceptMap.get("SAME-AS");
-								}
-							}
-						}
+					Concept c = ReferenceResolutionCache.resolve(Concept.class,
+					    coding.hasSystem() ? coding.getSystem() + "|" + coding.getCode() : coding.getCode(),
+					    () -> getConcept(coding));
+					if (c != null) {
+						return c;
 					}
 				}
 			}
@@ -133,6 +107,79 @@ public class ConceptTranslatorImpl implements ConceptTranslator {
 		return null;
 	}
 	
+	@Override
+	public void preloadConcepts(@Nonnull Collection<Coding> codings) {
+		if (!ReferenceResolutionCache.isOpen()) {
+			return;
+		}
+		
+		Set<String> uuids = new HashSet<>();
+		Map<String, Set<String>> codesBySystem = new HashMap<>();
+		for (Coding coding : codings) {
+			if (coding.getCode() != null) {
+				if (coding.hasSystem()) {
+					codesBySystem.computeIfAbsent(coding.getSystem(), system -> new HashSet<>()).add(coding.getCode());
+				} else {
+					uuids.add(coding.getCode());
+				}
+			}
+		}
+		
+		if (!uuids.isEmpty()) {
+			Map<String, Concept> conceptsByUuid = new HashMap<>();
+			conceptService.get(uuids).forEach(concept -> conceptsByUuid.put(concept.getUuid(), concept));
+			uuids.forEach(uuid -> ReferenceResolutionCache.put(Concept.class, uuid, conceptsByUuid.get(uuid)));
+		}
+		
+		codesBySystem.forEach((system, codes) -> {
+			Optional<ConceptSource> conceptSource = conceptSourceService.getConceptSourceByUrl(system);
+			List<Concept> allMatchingConcepts = conceptSource
+			        .map(source -> conceptService.getConceptsMappedToCodesInSource(source, codes))
+			        .orElse(Collections.emptyList());
+			
+			for (String code : codes) {
+				ReferenceResolutionCache.put(Concept.class, system + "|" + code,
+				    conceptSource.map(source -> selectConcept(allMatchingConcepts, source, code)).orElse(null));
+			}
+		});
+	}
+	
+	private Concept getConcept(Coding coding) {
+		if (!coding.hasSystem()) {
+			Integer conceptId = conceptReverseIndex == null ? null : conceptReverseIndex.getConceptId(coding.getCode());
+			Concept concept = conceptId == null ? null : conceptService.get(conceptId);
+			return concept != null ? concept : conceptService.get(coding.getCode());
+		}
+		
+		return conceptSourceService.getConceptSourceByUrl(coding.getSystem()).map(source -> {
+			Optional<ConceptReverseIndex.Match> match = conceptReverseIndex == null ? Optional.empty()
+			        : conceptReverseIndex.lookup(source, coding.getCode());
+			if (match.isPresent()) {
+				Integer conceptId = match.get().getPreferredConceptId();
+				return conceptId == null ? null : conceptService.get(conceptId);
+			}
+			
+			return selectConcept(conceptService.getConceptsWithAnyMappingInSource(source, coding.getCode()), source,
+			    coding.getCode());
+		}).orElse(null);
+	}
+	
+	private Concept selectConcept(List<Concept> allMatchingConcepts, ConceptSource conceptSource, String code) {
+		if (allMatchingConcepts.isEmpty()) {
+			return null;
+		}
+		
+		Map<String, Concept> mapTypeToConceptMap = new HashMap<>();
+		addConceptsToMap(mapTypeToConceptMap, allMatchingConcepts, conceptSource, code);
+		if (mapTypeToConceptMap.size() == 1) {
+			return mapTypeToConceptMap.values().iterator().next();
+		} else if (mapTypeToConceptMap.size() > 1 && mapTypeToConceptMap.containsKey("SAME-AS")) {
+			return mapTypeToConceptMap.get("SAME-AS");
+		}
+		
+		return null;
+	}
+	
 	private void addConceptCoding(Coding coding, String system, String code, Concept concept) {
 		coding.setSystem(system);
 		coding.setCode(code);
@@ -141,15 +188,22 @@ public class ConceptTranslatorImpl implements ConceptTranslator {
 		}
 	}
 	
-	private void addSystemToCodeMap(Map<String, Map<String, String>> systemUrlToCodeMap, String systemUrl, String mapType,
-	        String code) {
-		if (systemUrlToCodeMap.containsKey(systemUrl)) {
-			systemUrlToCodeMap.get(systemUrl).put(mapType, code);
-		} else {
-			Map<String, String> mapTypeToCodeMap = new HashMap<>();
-			mapTypeToCodeMap.put(mapType, code);
-			systemUrlToCodeMap.put(systemUrl, mapTypeToCodeMap);
+	private List<Coding> getMappedCodings(Concept concept) {
+		Function<ConceptSource, String> sourceUrls = getSourceUrls();
+		List<MappedCode> mappedCodes = new ArrayList<>();
+		for (ConceptMap mapping : concept.getConceptMappings()) {
+			if (mapping.getConceptMapType() != null) {
+				ConceptMapType mapType = mapping.getConceptMapType();
+				ConceptReferenceTerm crt = mapping.getConceptReferenceTerm();
+				String sourceUrl = sourceUrls.apply(crt.getConceptSource());
+				if (sourceUrl != null) {
+					mappedCodes.add(new MappedCode(sourceUrl, ConceptCodingIndex.isSameAs(mapType), mapType.getName(),
+					        crt.getCode()));
+				}
+			}
 		}
+		
+		return ConceptCodingIndex.toCodings(mappedCodes);
 	}
 	
 	private void addConceptsToMap(Map<String, Concept> mapTypeToConceptMap, List<Concept> allMatchingConcepts,
@@ -172,22 +226,24 @@ public class ConceptTranslatorImpl implements ConceptTranslator {
 		});
 	}
 	
+	private Function<ConceptSource, String> getSourceUrls() {
+		if (conceptSourceUrlIndex != null) {
+			return conceptSourceUrlIndex::getUrl;
+		}
+		
+		Collection<FhirConceptSource> fhirConceptSources = conceptSourceService.getFhirConceptSources();
+		return conceptSource -> getSourceUrl(conceptSource, fhirConceptSources);
+	}
+	
 	private String getSourceUrl(ConceptSource conceptSource, Collection<FhirConceptSource> fhirConceptSources) {
-		String sourceUrl = null;
-		if (conceptSource != null) {
-			FhirConceptSource fhirConceptSource = fhirConceptSources.stream().filter(fcs -> fcs.getConceptSource() != null)
-			        .filter(fcs -> fcs.getConceptSource().getUuid().equals(conceptSource.getUuid())).findFirst()
-			        .orElse(null);
-			
-			if (fhirConceptSource != null && fhirConceptSource.getUrl() != null) {
-				sourceUrl = fhirConceptSource.getUrl();
-			} else {
-				sourceUrl = Duration.SNOMED_CT_CONCEPT_SOURCE_HL7_CODE.equals(conceptSource.getHl7Code())
-				        ? FhirConstants.SNOMED_SYSTEM_URI
-				        : null;
-			}
+		if (conceptSource == null) {
+			return null;
 		}
 		
-		return sourceUrl;
+		String fhirConceptSourceUrl = fhirConceptSources.stream().filter(fcs -> fcs.getConceptSource() != null)
+		        .filter(fcs -> fcs.getConceptSource().getUuid().equals(conceptSource.getUuid())).findFirst()
+		        .map(FhirConceptSource::getUrl).orElse(null);
+		
+		return ConceptCodingIndex.getSystemUrl(conceptSource.getHl7Code(), fhirConceptSourceUrl);
 	}
 }
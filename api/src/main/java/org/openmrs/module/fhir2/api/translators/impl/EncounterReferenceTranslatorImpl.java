@@ -23,6 +23,7 @@ import org.openmrs.Encounter;
 import org.openmrs.module.fhir2.FhirConstants;
 import org.openmrs.module.fhir2.api.dao.FhirEncounterDao;
 import org.openmrs.module.fhir2.api.translators.EncounterReferenceTranslator;
+import org.openmrs.module.fhir2.api.util.ReferenceResolutionCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -53,6 +54,8 @@ public class EncounterReferenceTranslatorImpl implements EncounterReferenceTrans
 			        "Reference must be to an Encounter not a " + getReferenceType(encounter).orElse(""));
 		}
 		
-		return getReferenceId(encounter).map(uuid -> encounterDao.get(uuid)).orElse(null);
+		return getReferenceId(encounter)
+		        .map(uuid -> ReferenceResolutionCache.resolve(Encounter.class, uuid, () -> encounterDao.get(uuid)))
+		        .orElse(null);
 	}
 }
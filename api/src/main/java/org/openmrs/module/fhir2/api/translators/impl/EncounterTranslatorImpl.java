@@ -16,6 +16,7 @@ import static org.openmrs.module.fhir2.api.translators.impl.FhirTranslatorUtils.
 
 import javax.annotation.Nonnull;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.Set;
@@ -65,6 +66,11 @@ public class EncounterTranslatorImpl extends BaseEncounterTranslator implements
 	@Setter(value = PROTECTED, onMethod_ = @Autowired)
 	private EncounterPeriodTranslator<org.openmrs.Encounter> encounterPeriodTranslator;
 	
+	@Override
+	public void prefetch(@Nonnull Collection<org.openmrs.Encounter> encounters) {
+		prefetchLocationClasses(encounters.stream().map(org.openmrs.Encounter::getLocation));
+	}
+	
 	@Override
 	public Encounter toFhirResource(@Nonnull org.openmrs.Encounter openmrsEncounter) {
 		notNull(openmrsEncounter, "The Openmrs Encounter object should not be null");
@@ -23,6 +23,7 @@ import org.openmrs.Location;
 import org.openmrs.module.fhir2.FhirConstants;
 import org.openmrs.module.fhir2.api.dao.FhirLocationDao;
 import org.openmrs.module.fhir2.api.translators.LocationReferenceTranslator;
+import org.openmrs.module.fhir2.api.util.ReferenceResolutionCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -53,6 +54,8 @@ public class LocationReferenceTranslatorImpl implements LocationReferenceTransla
 			        "Reference must be to a Location not a " + getReferenceType(locationReference).orElse(""));
 		}
 		
-		return getReferenceId(locationReference).map(uuid -> locationDao.get(uuid)).orElse(null);
+		return getReferenceId(locationReference)
+		        .map(uuid -> ReferenceResolutionCache.resolve(Location.class, uuid, () -> locationDao.get(uuid)))
+		        .orElse(null);
 	}
 }
@@ -13,27 +13,51 @@ import static lombok.AccessLevel.PROTECTED;
 
 import javax.annotation.Nonnull;
 
+import java.util.Collection;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
 import lombok.Getter;
 import lombok.Setter;
 import org.apache.commons.lang3.StringUtils;
 import org.hl7.fhir.r4.model.CodeableConcept;
 import org.openmrs.Concept;
+import org.openmrs.ConceptClass;
 import org.openmrs.module.fhir2.FhirConstants;
+import org.openmrs.module.fhir2.api.cache.FhirCache;
+import org.openmrs.module.fhir2.api.cache.FhirCacheManager;
 import org.openmrs.module.fhir2.api.mappings.ObservationCategoryMap;
 import org.openmrs.module.fhir2.api.translators.ObservationCategoryTranslator;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.annotation.CacheConfig;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Component;
 
 @Component
+@CacheConfig(cacheManager = FhirCacheManager.NAME)
 public class ObservationCategoryTranslatorImpl implements ObservationCategoryTranslator {
 	
+	private static final String CATEGORY_CACHE = "fhir2ObservationCategoryToCodeableConcept";
+	
 	@Getter(PROTECTED)
 	@Setter(value = PROTECTED, onMethod_ = @Autowired)
 	private ObservationCategoryMap categoryMap;
 	
+	@Getter(PROTECTED)
+	@Setter(value = PROTECTED, onMethod_ = @Autowired)
+	private FhirCacheManager cacheManager;
+	
+	@Override
+	public void prefetch(@Nonnull Collection<Concept> concepts) {
+		// concepts whose category is already cached are translated without looking the category up
+		FhirCache cache = cacheManager.getCache(CATEGORY_CACHE);
+		categoryMap.prefetchCategories(concepts.stream().filter(Objects::nonNull).filter(concept -> !cache.contains(concept))
+		        .map(Concept::getConceptClass).filter(Objects::nonNull).map(ConceptClass::getUuid)
+		        .collect(Collectors.toSet()));
+	}
+	
 	@Override
-	@Cacheable(value = "fhir2ObservationCategoryToCodeableConcept")
+	@Cacheable(value = CATEGORY_CACHE, sync = true)
 	public CodeableConcept toFhirResource(@Nonnull Concept concept) {
 		if (concept == null || concept.getConceptClass() == null) {
 			return null;
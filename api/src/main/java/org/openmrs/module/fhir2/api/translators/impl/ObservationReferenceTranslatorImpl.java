@@ -23,6 +23,7 @@ import org.openmrs.Obs;
 import org.openmrs.module.fhir2.FhirConstants;
 import org.openmrs.module.fhir2.api.dao.FhirObservationDao;
 import org.openmrs.module.fhir2.api.translators.ObservationReferenceTranslator;
+import org.openmrs.module.fhir2.api.util.ReferenceResolutionCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -53,6 +54,8 @@ public class ObservationReferenceTranslatorImpl implements ObservationReferenceT
 			        "Reference must be to an Observation not a " + getReferenceType(obsReference).orElse(""));
 		}
 		
-		return getReferenceId(obsReference).map(uuid -> observationDao.get(uuid)).orElse(null);
+		return getReferenceId(obsReference)
+		        .map(uuid -> ReferenceResolutionCache.resolve(Obs.class, uuid, () -> observationDao.get(uuid)))
+		        .orElse(null);
 	}
 }
@@ -17,7 +17,9 @@ import static org.openmrs.module.fhir2.api.translators.impl.ReferenceHandlingTra
 
 import javax.annotation.Nonnull;
 
+import java.util.Collection;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import lombok.Getter;
 import lombok.Setter;
@@ -95,6 +97,11 @@ public class ObservationTranslatorImpl implements ObservationTranslator {
 	@Setter(value = PROTECTED, onMethod_ = @Autowired)
 	private ObservationEffectiveDatetimeTranslator datetimeTranslator;
 	
+	@Override
+	public void prefetch(@Nonnull Collection<Obs> observations) {
+		categoryTranslator.prefetch(observations.stream().map(Obs::getConcept).collect(Collectors.toList()));
+	}
+	
 	@Override
 	public Observation toFhirResource(@Nonnull Obs observation) {
 		notNull(observation, "The Obs object should not be null");
@@ -23,6 +23,7 @@ import org.openmrs.Patient;
 import org.openmrs.module.fhir2.FhirConstants;
 import org.openmrs.module.fhir2.api.dao.FhirPatientDao;
 import org.openmrs.module.fhir2.api.translators.PatientReferenceTranslator;
+import org.openmrs.module.fhir2.api.util.ReferenceResolutionCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -53,6 +54,8 @@ public class PatientReferenceTranslatorImpl implements PatientReferenceTranslato
 			        "Reference must be to an Patient not a " + getReferenceType(patient).orElse(""));
 		}
 		
-		return getReferenceId(patient).map(uuid -> patientDao.get(uuid)).orElse(null);
+		return getReferenceId(patient)
+		        .map(uuid -> ReferenceResolutionCache.resolve(Patient.class, uuid, () -> patientDao.get(uuid)))
+		        .orElse(null);
 	}
 }
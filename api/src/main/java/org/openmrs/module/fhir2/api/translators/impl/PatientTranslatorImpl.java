@@ -16,8 +16,10 @@ import static org.openmrs.module.fhir2.api.translators.impl.FhirTranslatorUtils.
 
 import javax.annotation.Nonnull;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -36,6 +38,7 @@ import org.hl7.fhir.r4.model.Identifier;
 import org.hl7.fhir.r4.model.Patient;
 import org.openmrs.BaseOpenmrsData;
 import org.openmrs.PatientIdentifier;
+import org.openmrs.Person;
 import org.openmrs.PersonAddress;
 import org.openmrs.PersonAttribute;
 import org.openmrs.PersonName;
@@ -50,6 +53,7 @@ import org.openmrs.module.fhir2.api.translators.PersonAddressTranslator;
 import org.openmrs.module.fhir2.api.translators.PersonAttributeTranslator;
 import org.openmrs.module.fhir2.api.translators.PersonNameTranslator;
 import org.openmrs.module.fhir2.api.translators.TelecomTranslator;
+import org.openmrs.module.fhir2.api.util.ReferenceResolutionCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -57,6 +61,8 @@ import org.springframework.stereotype.Component;
 @Component
 public class PatientTranslatorImpl implements PatientTranslator {
 	
+	private static final String CONTACT_ATTRIBUTES = PatientTranslatorImpl.class.getName() + ".contactAttributes";
+	
 	@Getter(PROTECTED)
 	@Setter(value = PROTECTED, onMethod_ = @Autowired)
 	private PatientIdentifierTranslator identifierTranslator;
@@ -93,6 +99,23 @@ public class PatientTranslatorImpl implements PatientTranslator {
 	@Setter(value = PROTECTED, onMethod_ = @Autowired)
 	private PersonAttributeTranslator personAttributeTranslator;
 	
+	@Override
+	public void prefetch(@Nonnull Collection<org.openmrs.Patient> patients) {
+		String personContactAttributeType = globalPropertyService
+		        .getGlobalProperty(FhirConstants.PERSON_CONTACT_POINT_ATTRIBUTE_TYPE);
+		
+		if (personContactAttributeType == null || personContactAttributeType.isEmpty() || patients.isEmpty()) {
+			return;
+		}
+		
+		Map<Person, List<PersonAttribute>> contactAttributes = fhirPersonDao
+		        .getActiveAttributesByPersonsAndAttributeTypeUuid(patients, personContactAttributeType);
+		for (org.openmrs.Patient patient : patients) {
+			ReferenceResolutionCache.put(CONTACT_ATTRIBUTES, patient.getUuid(),
+			    contactAttributes.getOrDefault(patient, Collections.emptyList()));
+		}
+	}
+	
 	@Override
 	public Patient toFhirResource(@Nonnull org.openmrs.Patient openmrsPatient) {
 		notNull(openmrsPatient, "The Openmrs Patient object should not be null");
@@ -153,8 +176,9 @@ public class PatientTranslatorImpl implements PatientTranslator {
 			return Collections.emptyList();
 		}
 		
-		return fhirPersonDao.getActiveAttributesByPersonAndAttributeTypeUuid(patient, personContactAttributeType).stream()
-		        .map(telecomTranslator::toFhirResource).collect(Collectors.toList());
+		List<PersonAttribute> contactAttributes = ReferenceResolutionCache.resolve(CONTACT_ATTRIBUTES, patient.getUuid(),
+		    () -> fhirPersonDao.getActiveAttributesByPersonAndAttributeTypeUuid(patient, personContactAttributeType));
+		return contactAttributes.stream().map(telecomTranslator::toFhirResource).collect(Collectors.toList());
 	}
 	
 	@Override
@@ -16,9 +16,12 @@ import static org.openmrs.module.fhir2.api.translators.impl.FhirTranslatorUtils.
 
 import javax.annotation.Nonnull;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import lombok.Getter;
@@ -28,6 +31,7 @@ import org.hl7.fhir.r4.model.Address;
 import org.hl7.fhir.r4.model.Extension;
 import org.hl7.fhir.r4.model.HumanName;
 import org.openmrs.BaseOpenmrsData;
+import org.openmrs.Patient;
 import org.openmrs.Person;
 import org.openmrs.PersonAddress;
 import org.openmrs.PersonAttribute;
@@ -42,6 +46,7 @@ import org.openmrs.module.fhir2.api.translators.PersonAttributeTranslator;
 import org.openmrs.module.fhir2.api.translators.PersonNameTranslator;
 import org.openmrs.module.fhir2.api.translators.PersonTranslator;
 import org.openmrs.module.fhir2.api.translators.TelecomTranslator;
+import org.openmrs.module.fhir2.api.util.ReferenceResolutionCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -81,6 +86,21 @@ public class PersonTranslatorImpl implements PersonTranslator {
 	@Setter(value = PROTECTED, onMethod_ = @Autowired)
 	private PersonAttributeTranslator personAttributeTranslator;
 	
+	@Override
+	public void prefetch(@Nonnull Collection<Person> persons) {
+		List<String> patientUuids = persons.stream().filter(Person::getIsPatient).map(Person::getUuid)
+		        .collect(Collectors.toList());
+		if (patientUuids.isEmpty()) {
+			return;
+		}
+		
+		Map<String, Patient> patients = patientDao.get(patientUuids).stream()
+		        .collect(Collectors.toMap(Patient::getUuid, Function.identity(), (first, second) -> first));
+		for (String uuid : patientUuids) {
+			ReferenceResolutionCache.put(Patient.class, uuid, patients.get(uuid));
+		}
+	}
+	
 	@Override
 	public org.hl7.fhir.r4.model.Person toFhirResource(@Nonnull Person openmrsPerson) {
 		notNull(openmrsPerson, "The Openmrs Person object should not be null");
@@ -106,8 +126,10 @@ public class PersonTranslatorImpl implements PersonTranslator {
 		person.addTelecom(telecomTranslator.toFhirResource(openmrsPerson));
 		
 		if (openmrsPerson.getIsPatient()) {
+			Patient patient = ReferenceResolutionCache.resolve(Patient.class, openmrsPerson.getUuid(),
+			    () -> patientDao.get(openmrsPerson.getUuid()));
 			person.addLink(new org.hl7.fhir.r4.model.Person.PersonLinkComponent()
-			        .setTarget(patientReferenceTranslator.toFhirResource(patientDao.get(openmrsPerson.getUuid()))));
+			        .setTarget(patientReferenceTranslator.toFhirResource(patient)));
 		}
 		
 		Set<PersonAttribute> attributeSet = openmrsPerson.getAttributes();
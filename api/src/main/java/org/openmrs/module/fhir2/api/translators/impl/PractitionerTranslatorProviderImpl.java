@@ -15,8 +15,10 @@ import static org.openmrs.module.fhir2.api.translators.impl.FhirTranslatorUtils.
 
 import javax.annotation.Nonnull;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.stream.Collectors;
 
@@ -42,12 +44,16 @@ import org.openmrs.module.fhir2.api.translators.PersonAddressTranslator;
 import org.openmrs.module.fhir2.api.translators.PersonNameTranslator;
 import org.openmrs.module.fhir2.api.translators.PractitionerTranslator;
 import org.openmrs.module.fhir2.api.translators.TelecomTranslator;
+import org.openmrs.module.fhir2.api.util.ReferenceResolutionCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 @Component
 public class PractitionerTranslatorProviderImpl implements PractitionerTranslator<Provider> {
 	
+	private static final String CONTACT_ATTRIBUTES = PractitionerTranslatorProviderImpl.class.getName()
+	        + ".contactAttributes";
+	
 	@Getter(PROTECTED)
 	@Setter(value = PROTECTED, onMethod_ = @Autowired)
 	private PersonNameTranslator nameTranslator;
@@ -119,6 +125,24 @@ public class PractitionerTranslatorProviderImpl implements PractitionerTranslato
 		return existingProvider;
 	}
 	
+	@Override
+	public void prefetch(@Nonnull Collection<Provider> providers) {
+		String providerContactPointAttributeType = globalPropertyService
+		        .getGlobalProperty(FhirConstants.PROVIDER_CONTACT_POINT_ATTRIBUTE_TYPE);
+		
+		if (providerContactPointAttributeType == null || providerContactPointAttributeType.isEmpty()
+		        || providers.isEmpty()) {
+			return;
+		}
+		
+		Map<Provider, List<ProviderAttribute>> contactAttributes = fhirPractitionerDao
+		        .getActiveAttributesByPractitionersAndAttributeTypeUuid(providers, providerContactPointAttributeType);
+		for (Provider provider : providers) {
+			ReferenceResolutionCache.put(CONTACT_ATTRIBUTES, provider.getUuid(),
+			    contactAttributes.getOrDefault(provider, Collections.emptyList()));
+		}
+	}
+	
 	@Override
 	public Practitioner toFhirResource(@Nonnull Provider provider) {
 		if (provider == null) {
@@ -163,9 +187,10 @@ public class PractitionerTranslatorProviderImpl implements PractitionerTranslato
 			return Collections.emptyList();
 		}
 		
-		return fhirPractitionerDao
-		        .getActiveAttributesByPractitionerAndAttributeTypeUuid(provider, providerContactPointAttributeType).stream()
-		        .map(telecomTranslator::toFhirResource).collect(Collectors.toList());
+		List<ProviderAttribute> contactAttributes = ReferenceResolutionCache.resolve(CONTACT_ATTRIBUTES,
+		    provider.getUuid(), () -> fhirPractitionerDao.getActiveAttributesByPractitionerAndAttributeTypeUuid(provider,
+		        providerContactPointAttributeType));
+		return contactAttributes.stream().map(telecomTranslator::toFhirResource).collect(Collectors.toList());
 	}
 	
 	@Override
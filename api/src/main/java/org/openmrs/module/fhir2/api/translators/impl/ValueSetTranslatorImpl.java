@@ -32,6 +32,7 @@ import org.openmrs.ConceptReferenceTerm;
 import org.openmrs.ConceptSet;
 import org.openmrs.ConceptSource;
 import org.openmrs.module.fhir2.api.FhirConceptSourceService;
+import org.openmrs.module.fhir2.api.cache.ConceptSourceUrlIndex;
 import org.openmrs.module.fhir2.api.translators.ValueSetReferenceTranslator;
 import org.openmrs.module.fhir2.api.translators.ValueSetTranslator;
 import org.openmrs.module.fhir2.model.FhirConceptSource;
@@ -50,6 +51,10 @@ public class ValueSetTranslatorImpl implements ValueSetTranslator {
 	@Setter(value = PROTECTED, onMethod_ = @Autowired)
 	private ValueSetReferenceTranslator valueSetReferenceTranslator;
 	
+	@Getter(PROTECTED)
+	@Setter(value = PROTECTED, onMethod_ = @Autowired)
+	private ConceptSourceUrlIndex conceptSourceUrlIndex;
+	
 	@Override
 	public Concept toOpenmrsType(@Nonnull ValueSet resource) {
 		return null;
@@ -136,6 +141,10 @@ public class ValueSetTranslatorImpl implements ValueSetTranslator {
 	}
 	
 	private String conceptSourceToURL(ConceptSource conceptSource) {
+		if (conceptSourceUrlIndex != null) {
+			return conceptSourceUrlIndex.getUrl(conceptSource);
+		}
+		
 		return conceptSourceService.getFhirConceptSource(conceptSource).map(FhirConceptSource::getUrl).orElse(null);
 	}
 }
@@ -16,6 +16,7 @@ import static org.openmrs.module.fhir2.api.translators.impl.FhirTranslatorUtils.
 
 import javax.annotation.Nonnull;
 
+import java.util.Collection;
 import java.util.Collections;
 
 import lombok.Getter;
@@ -50,6 +51,11 @@ public class VisitTranslatorImpl extends BaseEncounterTranslator implements Enco
 	@Setter(value = PROTECTED, onMethod_ = @Autowired)
 	private EncounterPeriodTranslator<Visit> visitPeriodTranslator;
 	
+	@Override
+	public void prefetch(@Nonnull Collection<Visit> visits) {
+		prefetchLocationClasses(visits.stream().map(Visit::getLocation));
+	}
+	
 	@Override
 	public Encounter toFhirResource(@Nonnull Visit visit) {
 		notNull(visit, "The OpenMrs Visit object should not be null");
@@ -0,0 +1,97 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.util;
+
+import javax.annotation.Nonnull;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Encodes a list of ints, typically database ids, as a compact array of bytes. Each value is stored
+ * as the zig-zag encoded difference from the previous value written as a variable length integer,
+ * so runs of ids that are close together, which is the common case for search results, take one or
+ * two bytes per id rather than four.
+ */
+public final class CompactIntArray {
+	
+	private CompactIntArray() {
+	}
+	
+	/**
+	 * Encodes the supplied values
+	 *
+	 * @param values the values to encode
+	 * @return the encoded values
+	 */
+	public static byte[] encode(@Nonnull int[] values) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(values.length * 2 + 5);
+		writeVarInt(out, values.length);
+		
+		int previous = 0;
+		for (int value : values) {
+			int delta = value - previous;
+			writeVarInt(out, (delta << 1) ^ (delta >> 31));
+			previous = value;
+		}
+		
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Decodes values previously encoded with {@link #encode(int[])}
+	 *
+	 * @param bytes the encoded values
+	 * @return the decoded values
+	 * @throws IllegalArgumentException if the supplied bytes are not a valid encoding
+	 */
+	public static int[] decode(@Nonnull byte[] bytes) {
+		int[] position = new int[] { 0 };
+		int length = readVarInt(bytes, position);
+		if (length < 0) {
+			throw new IllegalArgumentException("Invalid length " + length);
+		}
+		
+		int[] values = new int[length];
+		int previous = 0;
+		for (int i = 0; i < length; i++) {
+			int zigZag = readVarInt(bytes, position);
+			previous += (zigZag >>> 1) ^ -(zigZag & 1);
+			values[i] = previous;
+		}
+		
+		return values;
+	}
+	
+	private static void writeVarInt(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		
+		out.write(value);
+	}
+	
+	private static int readVarInt(byte[] bytes, int[] position) {
+		int result = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			if (position[0] >= bytes.length) {
+				throw new IllegalArgumentException("Unexpected end of encoded values");
+			}
+			
+			byte b = bytes[position[0]++];
+			result |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return result;
+			}
+		}
+		
+		throw new IllegalArgumentException("Malformed variable length integer");
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.util;
+
+import java.util.Date;
+
+import lombok.AllArgsConstructor;
+
+/**
+ * Holds the conditions of a conditional read, i.e. the {@code If-None-Match} and
+ * {@code If-Modified-Since} headers of a request to read a single resource. These are recorded by an
+ * interceptor when the request is received so that the service can answer {@code 304 Not Modified}
+ * as soon as it has loaded the object being read, without translating it.
+ */
+public final class ConditionalReadContext {
+	
+	private static final ThreadLocal<Conditions> conditions = new ThreadLocal<>();
+	
+	private ConditionalReadContext() {
+	}
+	
+	/**
+	 * Records the conditions for a read of a resource on the current thread
+	 *
+	 * @param resourceType the type of the resource being read
+	 * @param id the id of the resource being read
+	 * @param versionId the version id from the {@code If-None-Match} header, or null
+	 * @param modifiedSince the date from the {@code If-Modified-Since} header, or null
+	 */
+	public static void set(String resourceType, String id, String versionId, Date modifiedSince) {
+		if (resourceType == null || id == null || (versionId == null && modifiedSince == null)) {
+			conditions.remove();
+		} else {
+			conditions.set(new Conditions(resourceType, id, versionId, modifiedSince));
+		}
+	}
+	
+	public static void clear() {
+		conditions.remove();
+	}
+	
+	/**
+	 * Determines whether the client already holds the current version of the resource being read. As
+	 * for HTTP, {@code If-None-Match} takes precedence over {@code If-Modified-Since}, which is only
+	 * precise to the second.
+	 *
+	 * @param resourceType the type of the resource
+	 * @param id the id of the resource
+	 * @param lastUpdated when the object the resource is translated from was last updated
+	 * @return true if this is the resource being read and it has not been modified
+	 */
+	public static boolean isNotModified(String resourceType, String id, Date lastUpdated) {
+		Conditions current = conditions.get();
+		if (current == null || lastUpdated == null || !current.resourceType.equals(resourceType)
+		        || !current.id.equals(id)) {
+			return false;
+		}
+		
+		if (current.versionId != null) {
+			return current.versionId.equals(String.valueOf(lastUpdated.getTime()));
+		}
+		
+		return lastUpdated.getTime() / 1000 <= current.modifiedSince.getTime() / 1000;
+	}
+	
+	@AllArgsConstructor
+	private static final class Conditions {
+		
+		private final String resourceType;
+		
+		private final String id;
+		
+		private final String versionId;
+		
+		private final Date modifiedSince;
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.util;
+
+import javax.annotation.PreDestroy;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.CacheStats;
+import lombok.AccessLevel;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.fhir2.FhirConstants;
+import org.openmrs.module.fhir2.api.cache.FhirCacheManager;
+import org.openmrs.module.fhir2.api.search.SearchQueryIncludeExecutor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports the statistics the module records about its own performance: the hits, misses, evictions
+ * and load times of each cache of the {@link FhirCacheManager} and the time taken to load the
+ * resources for each {@code _include} and {@code _revinclude}. Every figure counts from when the
+ * module was started.
+ * <p/>
+ * Once started, the report is logged every {@link FhirConstants#OPENMRS_FHIR_STATISTICS_REPORT_INTERVAL}
+ * minutes. Nothing is logged while the property is not set.
+ */
+@Slf4j
+@Component
+public class FhirStatisticsReporter {
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private FhirCacheManager cacheManager;
+	
+	@Setter(value = AccessLevel.PROTECTED, onMethod_ = @Autowired)
+	private SearchQueryIncludeExecutor includeExecutor;
+	
+	private ScheduledExecutorService executor;
+	
+	private long lastReport = System.nanoTime();
+	
+	/**
+	 * @return the statistics of every cache and include, one per line
+	 */
+	public String getReport() {
+		StringBuilder report = new StringBuilder("FHIR cache statistics:");
+		Map<String, CacheStats> statistics = cacheManager.getStatistics();
+		if (statistics.isEmpty()) {
+			report.append(" no cache has been used");
+		}
+		
+		statistics.forEach((name, stats) -> report.append(String.format(Locale.ROOT,
+		    "%n  %s: %d hits, %d misses (%.1f%% hit rate), %d evictions, %.1f ms average load time", name,
+		    stats.hitCount(), stats.missCount(), stats.hitRate() * 100, stats.evictionCount(),
+		    stats.averageLoadPenalty() / TimeUnit.MILLISECONDS.toNanos(1))));
+		
+		report.append(String.format("%nFHIR include statistics:"));
+		Map<String, SearchQueryIncludeExecutor.IncludeTiming> timings = new TreeMap<>(includeExecutor.getTimings());
+		if (timings.isEmpty()) {
+			report.append(" no include has been run");
+		}
+		
+		timings.forEach((name, timing) -> report.append(String.format(Locale.ROOT,
+		    "%n  %s: run %d times in %d ms (at most %d ms at once), loading %d resources", name, timing.getCount(),
+		    timing.getTotalMillis(), timing.getMaxMillis(), timing.getResources())));
+		
+		return report.toString();
+	}
+	
+	/**
+	 * Starts logging the report every {@link FhirConstants#OPENMRS_FHIR_STATISTICS_REPORT_INTERVAL}
+	 * minutes. The property is checked every minute, so changes to it take effect without a restart.
+	 */
+	public synchronized void start() {
+		if (executor == null) {
+			executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "fhir2-statistics");
+				thread.setDaemon(true);
+				return thread;
+			});
+			executor.scheduleWithFixedDelay(this::reportIfDue, 1, 1, TimeUnit.MINUTES);
+		}
+	}
+	
+	@PreDestroy
+	public synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+	
+	protected void reportIfDue() {
+		// an exception would stop any further reports being scheduled
+		try {
+			int interval;
+			Context.openSession();
+			try {
+				interval = FhirGlobalPropertyHolder
+				        .getGlobalPropertyAsInteger(FhirConstants.OPENMRS_FHIR_STATISTICS_REPORT_INTERVAL, 0);
+			}
+			finally {
+				Context.closeSession();
+			}
+			
+			long now = System.nanoTime();
+			if (interval > 0 && now - lastReport >= TimeUnit.MINUTES.toNanos(interval)) {
+				lastReport = now;
+				log.info(getReport());
+			}
+		}
+		catch (RuntimeException e) {
+			log.warn("Could not report the FHIR module statistics", e);
+		}
+	}
+}
@@ -10,13 +10,20 @@
 package org.openmrs.module.fhir2.api.util;
 
 import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang.StringUtils;
 import org.hl7.fhir.r4.model.CodeableConcept;
@@ -77,6 +84,16 @@ public class FhirUtils {
 	        + "|VerificationResult|VisionPrescription)"
 	        + "/(?<id>[A-Za-z0-9\\-.]{1,64})(?:/_history/(?<version>[A-Za-z0-9\\-.]{1,64}))?");
 	
+	/**
+	 * Localizations looked up by {@link #getLocalization(String, String)}, keyed by class, uuid and
+	 * locale. Codes without a localization are stored as an empty value, so that they are not looked
+	 * up again either. Entries expire so that messages added at runtime are eventually picked up, but
+	 * the cache should be cleared with {@link #clearMetadataTranslationCache()} whenever the message
+	 * properties are reloaded.
+	 */
+	private static final Cache<LocalizationKey, Optional<String>> localizationCache = CacheBuilder.newBuilder()
+	        .maximumSize(10000).expireAfterWrite(1, TimeUnit.HOURS).recordStats().build();
+	
 	public static String newUuid() {
 		return UUID.randomUUID().toString();
 	}
@@ -235,18 +252,54 @@ public class FhirUtils {
 		}
 		
 		String code = "ui.i18n." + shortClassName + ".name." + uuid;
-		String localization = null;
+		String localization;
 		try {
-			localization = Context.getMessageSourceService().getMessage(code, null, Context.getLocale());
+			Locale locale = Context.getLocale();
+			LocalizationKey key = new LocalizationKey(shortClassName, uuid, locale);
+			Optional<String> cached = localizationCache.getIfPresent(key);
+			if (cached != null) {
+				return cached.orElse(null);
+			}
+			
+			localization = Context.getMessageSourceService().getMessage(code, null, locale);
+			if (localization == null || localization.equals(code)) {
+				localization = null;
+			}
+			
+			localizationCache.put(key, Optional.ofNullable(localization));
 		}
 		catch (Exception e) {
+			// lookups that fail are not cached, so they are retried once the message source is available
 			log.info("Caught exception while attempting to localize code [{}]", code, e);
-		}
-		
-		if (localization == null || localization.equals(code)) {
 			return null;
-		} else {
-			return localization;
 		}
+		
+		return localization;
+	}
+	
+	/**
+	 * Discards all cached metadata localizations. This must be called whenever the message properties
+	 * are reloaded.
+	 */
+	public static void clearMetadataTranslationCache() {
+		localizationCache.invalidateAll();
+	}
+	
+	/**
+	 * @return the hit and miss counts of the metadata localization cache since startup
+	 */
+	public static CacheStats getMetadataTranslationCacheStats() {
+		return localizationCache.stats();
+	}
+	
+	@EqualsAndHashCode
+	@AllArgsConstructor
+	private static class LocalizationKey {
+		
+		private final String shortClassName;
+		
+		private final String uuid;
+		
+		private final Locale locale;
 	}
 }
@@ -0,0 +1,146 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the OpenMRS objects that references have been resolved to while a unit of work, such as
+ * a chunk of a bulk import, is running on the current thread, so that a patient, encounter or
+ * concept referred to by many resources is only loaded once. Translators also use it to hold the
+ * data they have prefetched for a page of objects, under a named namespace, until each object of the
+ * page has been translated.
+ * <p/>
+ * Outside of a scope opened with {@link #open()} every lookup goes straight to its loader. The
+ * cached objects belong to the Hibernate session that loaded them, so a scope should be closed
+ * before that session is cleared.
+ */
+public final class ReferenceResolutionCache {
+	
+	private static final ThreadLocal<Map<Object, Map<String, Optional<?>>>> cache = new ThreadLocal<>();
+	
+	private ReferenceResolutionCache() {
+	}
+	
+	/**
+	 * Starts caching resolved references on the current thread
+	 *
+	 * @return the scope, which stops caching and discards the cached objects when closed
+	 */
+	public static Scope open() {
+		if (cache.get() != null) {
+			// already inside a scope; the outer scope is responsible for clearing the cache
+			return () -> {};
+		}
+		
+		cache.set(new HashMap<>());
+		return cache::remove;
+	}
+	
+	/**
+	 * @return true if references are currently being cached on this thread
+	 */
+	public static boolean isOpen() {
+		return cache.get() != null;
+	}
+	
+	/**
+	 * Resolves a key to an object, using the object previously resolved for the same key if references
+	 * are being cached
+	 *
+	 * @param type the type of object the key identifies
+	 * @param key the key, e.g. a uuid
+	 * @param loader loads the object if it has not already been resolved; may return null
+	 * @return the object or null if the key could not be resolved
+	 */
+	public static <T> T resolve(Class<T> type, String key, Supplier<T> loader) {
+		return doResolve(type, key, loader);
+	}
+	
+	/**
+	 * Resolves a key to some data held under a namespace, e.g. the contact attributes of a person, using
+	 * the data previously loaded or prefetched for the same key if references are being cached
+	 *
+	 * @param namespace the name of the kind of data, which always holds data of the same type
+	 * @param key the key, e.g. the uuid of the object the data belongs to
+	 * @param loader loads the data if it has not already been loaded; may return null
+	 * @return the data or null if there is none
+	 */
+	public static <T> T resolve(String namespace, String key, Supplier<T> loader) {
+		return doResolve(namespace, key, loader);
+	}
+	
+	/**
+	 * Records the object a key resolves to, e.g. one that has just been created or that was loaded
+	 * together with others. Does nothing if references are not being cached.
+	 *
+	 * @param type the type of object the key identifies
+	 * @param key the key, e.g. a uuid
+	 * @param value the object
+	 */
+	public static <T> void put(Class<T> type, String key, T value) {
+		doPut(type, key, value);
+	}
+	
+	/**
+	 * Records the data a key resolves to under a namespace, e.g. data prefetched for a page of objects.
+	 * Does nothing if references are not being cached.
+	 *
+	 * @param namespace the name of the kind of data, which always holds data of the same type
+	 * @param key the key, e.g. the uuid of the object the data belongs to
+	 * @param value the data
+	 */
+	public static void put(String namespace, String key, Object value) {
+		doPut(namespace, key, value);
+	}
+	
+	/**
+	 * Discards everything cached on the current thread without closing the scope
+	 */
+	public static void clear() {
+		Map<Object, Map<String, Optional<?>>> scopeCache = cache.get();
+		if (scopeCache != null) {
+			scopeCache.clear();
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static <T> T doResolve(Object namespace, String key, Supplier<T> loader) {
+		Map<Object, Map<String, Optional<?>>> scopeCache = cache.get();
+		if (scopeCache == null || key == null) {
+			return loader.get();
+		}
+		
+		Map<String, Optional<?>> namespaceCache = scopeCache.computeIfAbsent(namespace, n -> new HashMap<>());
+		Optional<?> resolved = namespaceCache.get(key);
+		if (resolved == null) {
+			resolved = Optional.ofNullable(loader.get());
+			namespaceCache.put(key, resolved);
+		}
+		
+		return (T) resolved.orElse(null);
+	}
+	
+	private static void doPut(Object namespace, String key, Object value) {
+		Map<Object, Map<String, Optional<?>>> scopeCache = cache.get();
+		if (scopeCache != null && key != null) {
+			scopeCache.computeIfAbsent(namespace, n -> new HashMap<>()).put(key, Optional.ofNullable(value));
+		}
+	}
+	
+	public interface Scope extends AutoCloseable {
+		
+		@Override
+		void close();
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.model;
+
+import javax.persistence.CascadeType;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.OrderBy;
+import javax.persistence.Table;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import org.openmrs.User;
+
+/**
+ * A bulk data export requested through the $export operation. The position the export has reached
+ * is recorded after each chunk of resources is written, so that an export that was interrupted can
+ * be resumed from where it stopped.
+ */
+@Data
+@NoArgsConstructor
+@EqualsAndHashCode(onlyExplicitlyIncluded = true)
+@Entity
+@Table(name = "fhir_bulk_export_job")
+public class FhirBulkExportJob implements Serializable {
+	
+	public enum ExportLevel {
+		SYSTEM,
+		PATIENT,
+		GROUP
+	}
+	
+	public enum ExportStatus {
+		ACCEPTED,
+		IN_PROGRESS,
+		COMPLETED,
+		FAILED
+	}
+	
+	private static final long serialVersionUID = 1L;
+	
+	@EqualsAndHashCode.Include
+	@Id
+	@GeneratedValue(strategy = GenerationType.AUTO)
+	@Column(name = "fhir_bulk_export_job_id")
+	private Integer id;
+	
+	@Column(name = "uuid", nullable = false, unique = true, length = 38)
+	private String uuid;
+	
+	@Column(name = "status", nullable = false, length = 20)
+	@Enumerated(EnumType.STRING)
+	private ExportStatus status;
+	
+	@Column(name = "export_level", nullable = false, length = 20)
+	@Enumerated(EnumType.STRING)
+	private ExportLevel exportLevel;
+	
+	/**
+	 * The uuid of the cohort whose members are exported by a Group-level export
+	 */
+	@Column(name = "group_uuid", length = 38)
+	private String groupUuid;
+	
+	/**
+	 * The comma-separated resource types to export, in the order they are exported
+	 */
+	@Column(name = "resource_types", nullable = false, length = 1024)
+	private String resourceTypes;
+	
+	/**
+	 * Only resources changed at or after this time are exported
+	 */
+	@Column(name = "since")
+	private Date since;
+	
+	@Column(name = "request_url", nullable = false, length = 2048)
+	private String requestUrl;
+	
+	@Column(name = "transaction_time", nullable = false)
+	private Date transactionTime;
+	
+	/**
+	 * The resource type currently being exported
+	 */
+	@Column(name = "current_resource_type", length = 50)
+	private String currentResourceType;
+	
+	/**
+	 * For Group-level exports, the index of the batch of group members currently being exported
+	 */
+	@Column(name = "current_patient_batch")
+	private Integer currentPatientBatch;
+	
+	/**
+	 * The primary key of the last object written for the current resource type and batch of group
+	 * members
+	 */
+	@Column(name = "last_id")
+	private Integer lastId;
+	
+	@Column(name = "error", length = 1024)
+	private String error;
+	
+	@ManyToOne(fetch = FetchType.LAZY)
+	@JoinColumn(name = "creator", nullable = false)
+	private User creator;
+	
+	@Column(name = "date_created", nullable = false)
+	private Date dateCreated;
+	
+	@Column(name = "date_completed")
+	private Date dateCompleted;
+	
+	@OneToMany(cascade = CascadeType.ALL, orphanRemoval = true)
+	@JoinColumn(name = "fhir_bulk_export_job_id", nullable = false)
+	@OrderBy("id")
+	private List<FhirBulkExportOutput> outputs = new ArrayList<>();
+}
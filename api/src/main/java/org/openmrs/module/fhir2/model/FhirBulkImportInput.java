@@ -0,0 +1,80 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.model;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import java.io.Serializable;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+/**
+ * An NDJSON file read by a {@link FhirBulkImportJob}, holding resources of one type
+ */
+@Data
+@NoArgsConstructor
+@EqualsAndHashCode(onlyExplicitlyIncluded = true)
+@Entity
+@Table(name = "fhir_bulk_import_input")
+public class FhirBulkImportInput implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	@EqualsAndHashCode.Include
+	@Id
+	@GeneratedValue(strategy = GenerationType.AUTO)
+	@Column(name = "fhir_bulk_import_input_id")
+	private Integer id;
+	
+	@Column(name = "resource_type", nullable = false, length = 50)
+	private String resourceType;
+	
+	/**
+	 * The url the input was requested from, or the name given to an uploaded file
+	 */
+	@Column(name = "url", nullable = false, length = 2048)
+	private String url;
+	
+	@Column(name = "file_path", nullable = false, length = 2048)
+	private String filePath;
+	
+	/**
+	 * The number of lines read from the file, including blank lines and lines that could not be
+	 * imported
+	 */
+	@Column(name = "line_count", nullable = false)
+	private Integer lineCount = 0;
+	
+	@Column(name = "imported_count", nullable = false)
+	private Integer importedCount = 0;
+	
+	@Column(name = "error_count", nullable = false)
+	private Integer errorCount = 0;
+	
+	/**
+	 * The position in the file of the first line following the last committed chunk
+	 */
+	@Column(name = "file_offset", nullable = false)
+	private Long fileOffset = 0L;
+	
+	/**
+	 * The length of the error file when the last chunk was committed. Anything written after this is
+	 * discarded when the import is restarted.
+	 */
+	@Column(name = "error_file_length", nullable = false)
+	private Long errorFileLength = 0L;
+}
@@ -0,0 +1,103 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.model;
+
+import javax.persistence.CascadeType;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.OrderBy;
+import javax.persistence.Table;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import org.openmrs.User;
+
+/**
+ * A bulk data import requested through the $import operation. The position reached in each input
+ * file is committed together with each chunk of imported resources, so that an import that was
+ * interrupted can be restarted from the last committed chunk.
+ */
+@Data
+@NoArgsConstructor
+@EqualsAndHashCode(onlyExplicitlyIncluded = true)
+@Entity
+@Table(name = "fhir_bulk_import_job")
+public class FhirBulkImportJob implements Serializable {
+	
+	public enum ImportStatus {
+		ACCEPTED,
+		IN_PROGRESS,
+		COMPLETED,
+		FAILED
+	}
+	
+	private static final long serialVersionUID = 1L;
+	
+	@EqualsAndHashCode.Include
+	@Id
+	@GeneratedValue(strategy = GenerationType.AUTO)
+	@Column(name = "fhir_bulk_import_job_id")
+	private Integer id;
+	
+	@Column(name = "uuid", nullable = false, unique = true, length = 38)
+	private String uuid;
+	
+	@Column(name = "status", nullable = false, length = 20)
+	@Enumerated(EnumType.STRING)
+	private ImportStatus status;
+	
+	@Column(name = "request_url", nullable = false, length = 2048)
+	private String requestUrl;
+	
+	@Column(name = "transaction_time", nullable = false)
+	private Date transactionTime;
+	
+	/**
+	 * The index of the input currently being imported
+	 */
+	@Column(name = "current_input")
+	private Integer currentInput;
+	
+	@Column(name = "error", length = 1024)
+	private String error;
+	
+	@ManyToOne(fetch = FetchType.LAZY)
+	@JoinColumn(name = "creator", nullable = false)
+	private User creator;
+	
+	@Column(name = "date_created", nullable = false)
+	private Date dateCreated;
+	
+	@Column(name = "date_completed")
+	private Date dateCompleted;
+	
+	/**
+	 * The files to import, in the order they are imported
+	 */
+	@OneToMany(cascade = CascadeType.ALL, orphanRemoval = true)
+	@JoinColumn(name = "fhir_bulk_import_job_id", nullable = false)
+	@OrderBy("id")
+	private List<FhirBulkImportInput> inputs = new ArrayList<>();
+}
@@ -0,0 +1,58 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.model;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+
+import java.io.Serializable;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import org.openmrs.Location;
+
+/**
+ * One row of the closure of the {@link Location} hierarchy. There is a row for every pair of a
+ * location and one of its ancestors, including a row at depth 0 relating each location to itself, so
+ * that every location below a given location can be found with a single join.
+ */
+@Data
+@NoArgsConstructor
+@EqualsAndHashCode(onlyExplicitlyIncluded = true)
+@Entity
+@Table(name = "fhir_location_ancestor")
+public class FhirLocationAncestor implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	@EqualsAndHashCode.Include
+	@Id
+	@GeneratedValue(strategy = GenerationType.AUTO)
+	@Column(name = "fhir_location_ancestor_id")
+	private Integer id;
+	
+	@ManyToOne
+	@JoinColumn(name = "ancestor_id", nullable = false)
+	private Location ancestor;
+	
+	@ManyToOne
+	@JoinColumn(name = "descendant_id", nullable = false)
+	private Location descendant;
+	
+	@Column(name = "depth", nullable = false)
+	private Integer depth;
+}
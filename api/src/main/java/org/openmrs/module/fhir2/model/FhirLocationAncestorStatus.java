@@ -0,0 +1,48 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.model;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import java.io.Serializable;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+/**
+ * The single row recording whether the {@link FhirLocationAncestor} closure table can be used. It is
+ * kept in the database, as every server sharing the database uses the same closure table.
+ * {@code generation} is incremented whenever the table is set aside, so that a rebuild started
+ * before then does not put the table back in use.
+ */
+@Data
+@NoArgsConstructor
+@EqualsAndHashCode(onlyExplicitlyIncluded = true)
+@Entity
+@Table(name = "fhir_location_ancestor_status")
+public class FhirLocationAncestorStatus implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	@EqualsAndHashCode.Include
+	@Id
+	@Column(name = "fhir_location_ancestor_status_id")
+	private Integer id;
+	
+	@Column(name = "built", nullable = false)
+	private Boolean built;
+	
+	@Column(name = "generation", nullable = false)
+	private Long generation;
+}
@@ -0,0 +1,73 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.model;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+/**
+ * A snapshot of a search that has more than one page of results, persisted so that later pages can
+ * be served from any node and after a restart. Where the number of results is small enough, the ids
+ * of the matching objects are stored so that later pages are loaded by id rather than by re-running
+ * the search.
+ */
+@Data
+@NoArgsConstructor
+@EqualsAndHashCode(onlyExplicitlyIncluded = true)
+@Entity
+@Table(name = "fhir_search_snapshot")
+public class FhirSearchSnapshot implements Serializable {
+	
+	private static final long serialVersionUID = 1L;
+	
+	@EqualsAndHashCode.Include
+	@Id
+	@GeneratedValue(strategy = GenerationType.AUTO)
+	@Column(name = "fhir_search_snapshot_id")
+	private Integer id;
+	
+	@Column(name = "uuid", nullable = false, unique = true, length = 38)
+	private String uuid;
+	
+	@Column(name = "fhir_version", nullable = false, length = 20)
+	private String fhirVersion;
+	
+	@Column(name = "dao_bean", nullable = false)
+	private String daoBean;
+	
+	@Column(name = "translator_bean", nullable = false)
+	private String translatorBean;
+	
+	@Column(name = "search_parameters", nullable = false, length = 65535)
+	private String searchParameters;
+	
+	@Column(name = "result_ids")
+	private byte[] resultIds;
+	
+	@Column(name = "result_count")
+	private Integer resultCount;
+	
+	@Column(name = "date_created", nullable = false)
+	private Date dateCreated;
+	
+	@Column(name = "expires", nullable = false)
+	private Date expires;
+}
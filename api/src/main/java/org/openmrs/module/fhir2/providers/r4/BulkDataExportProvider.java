@@ -0,0 +1,175 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.providers.r4;
+
+import static lombok.AccessLevel.PACKAGE;
+import static lombok.AccessLevel.PROTECTED;
+
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import ca.uhn.fhir.rest.annotation.IdParam;
+import ca.uhn.fhir.rest.annotation.Operation;
+import ca.uhn.fhir.rest.annotation.OperationParam;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.Getter;
+import lombok.Setter;
+import org.apache.commons.lang3.StringUtils;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.InstantType;
+import org.hl7.fhir.r4.model.StringType;
+import org.openmrs.module.fhir2.api.FhirBulkExportService;
+import org.openmrs.module.fhir2.api.annotations.R4Provider;
+import org.openmrs.module.fhir2.model.FhirBulkExportJob;
+import org.openmrs.module.fhir2.model.FhirBulkExportJob.ExportLevel;
+import org.openmrs.module.fhir2.model.FhirBulkExportOutput;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Implements the kick-off, status and file request flow of the FHIR Bulk Data Access
+ * specification for the system, Patient and Group level $export operations. See
+ * https://hl7.org/fhir/uv/bulkdata/export/index.html
+ */
+@Component("BulkDataExportFhirR4Provider")
+@R4Provider
+public class BulkDataExportProvider {
+	
+	public static final String EXPORT_OPERATION = "$export";
+	
+	public static final String EXPORT_POLL_STATUS_OPERATION = "$export-poll-status";
+	
+	public static final String EXPORT_DOWNLOAD_OPERATION = "$export-download";
+	
+	public static final String NDJSON_CONTENT_TYPE = "application/fhir+ndjson";
+	
+	private static final List<String> OUTPUT_FORMATS = Arrays.asList(NDJSON_CONTENT_TYPE, "application/ndjson", "ndjson");
+	
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+	
+	@Getter(PROTECTED)
+	@Setter(value = PACKAGE, onMethod_ = @Autowired)
+	private FhirBulkExportService bulkExportService;
+	
+	@Operation(name = EXPORT_OPERATION, manualResponse = true, idempotent = true)
+	public void exportSystem(@OperationParam(name = "_outputFormat") StringType outputFormat,
+	        @OperationParam(name = "_type") StringType type, @OperationParam(name = "_since") InstantType since,
+	        ServletRequestDetails requestDetails) {
+		startExport(ExportLevel.SYSTEM, null, outputFormat, type, since, requestDetails);
+	}
+	
+	@Operation(name = EXPORT_OPERATION, typeName = "Patient", manualResponse = true, idempotent = true)
+	public void exportPatients(@OperationParam(name = "_outputFormat") StringType outputFormat,
+	        @OperationParam(name = "_type") StringType type, @OperationParam(name = "_since") InstantType since,
+	        ServletRequestDetails requestDetails) {
+		startExport(ExportLevel.PATIENT, null, outputFormat, type, since, requestDetails);
+	}
+	
+	@Operation(name = EXPORT_OPERATION, typeName = "Group", manualResponse = true, idempotent = true)
+	public void exportGroup(@IdParam IdType groupId, @OperationParam(name = "_outputFormat") StringType outputFormat,
+	        @OperationParam(name = "_type") StringType type, @OperationParam(name = "_since") InstantType since,
+	        ServletRequestDetails requestDetails) {
+		startExport(ExportLevel.GROUP, groupId.getIdPart(), outputFormat, type, since, requestDetails);
+	}
+	
+	@Operation(name = EXPORT_POLL_STATUS_OPERATION, manualResponse = true, idempotent = true)
+	public void exportPollStatus(@OperationParam(name = "_jobId", min = 1) StringType jobId,
+	        ServletRequestDetails requestDetails) throws IOException {
+		FhirBulkExportJob job = bulkExportService.getExportJob(jobId.getValue());
+		HttpServletResponse response = requestDetails.getServletResponse();
+		
+		switch (job.getStatus()) {
+			case ACCEPTED:
+			case IN_PROGRESS:
+				response.setStatus(HttpServletResponse.SC_ACCEPTED);
+				response.addHeader("X-Progress", job.getCurrentResourceType() == null ? "Accepted"
+				        : "Exporting " + job.getCurrentResourceType() + " resources");
+				response.addHeader(Constants.HEADER_RETRY_AFTER, "10");
+				return;
+			case FAILED:
+				throw new InternalErrorException("Export " + job.getUuid() + " failed: " + job.getError());
+			case COMPLETED:
+				break;
+		}
+		
+		ObjectNode manifest = objectMapper.createObjectNode();
+		manifest.put("transactionTime", new InstantType(job.getTransactionTime()).getValueAsString());
+		manifest.put("request", job.getRequestUrl());
+		manifest.put("requiresAccessToken", true);
+		
+		ArrayNode outputs = manifest.putArray("output");
+		for (FhirBulkExportOutput output : job.getOutputs()) {
+			if (output.getResourceCount() == 0) {
+				continue;
+			}
+			
+			outputs.addObject().put("type", output.getResourceType())
+			        .put("url",
+			            requestDetails.getFhirServerBase() + "/" + EXPORT_DOWNLOAD_OPERATION + "?_jobId=" + job.getUuid()
+			                    + "&_type=" + output.getResourceType())
+			        .put("count", output.getResourceCount());
+		}
+		manifest.putArray("error");
+		
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType(Constants.CT_JSON);
+		response.setCharacterEncoding(Constants.CHARSET_NAME_UTF8);
+		objectMapper.writeValue(response.getWriter(), manifest);
+	}
+	
+	@Operation(name = EXPORT_DOWNLOAD_OPERATION, manualResponse = true, idempotent = true)
+	public void exportDownload(@OperationParam(name = "_jobId", min = 1) StringType jobId,
+	        @OperationParam(name = "_type", min = 1) StringType type, ServletRequestDetails requestDetails)
+	        throws IOException {
+		File file = bulkExportService.getExportFile(jobId.getValue(), type.getValue());
+		HttpServletResponse response = requestDetails.getServletResponse();
+		
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType(NDJSON_CONTENT_TYPE);
+		response.setContentLengthLong(file.length());
+		try (OutputStream out = response.getOutputStream()) {
+			Files.copy(file.toPath(), out);
+		}
+	}
+	
+	private void startExport(ExportLevel exportLevel, String groupUuid, StringType outputFormat, StringType type,
+	        InstantType since, ServletRequestDetails requestDetails) {
+		if (outputFormat != null && outputFormat.hasValue() && !OUTPUT_FORMATS.contains(outputFormat.getValue())) {
+			throw new InvalidRequestException("Unsupported _outputFormat " + outputFormat.getValue());
+		}
+		
+		List<String> resourceTypes = null;
+		if (type != null && StringUtils.isNotBlank(type.getValue())) {
+			resourceTypes = Arrays.asList(StringUtils.stripAll(StringUtils.split(type.getValue(), ',')));
+		}
+		
+		Date sinceDate = since == null ? null : since.getValue();
+		FhirBulkExportJob job = bulkExportService.startExport(exportLevel, groupUuid, resourceTypes, sinceDate,
+		    requestDetails.getCompleteUrl());
+		
+		HttpServletResponse response = requestDetails.getServletResponse();
+		response.setStatus(HttpServletResponse.SC_ACCEPTED);
+		response.addHeader(Constants.HEADER_CONTENT_LOCATION,
+		    requestDetails.getFhirServerBase() + "/" + EXPORT_POLL_STATUS_OPERATION + "?_jobId=" + job.getUuid());
+	}
+}
@@ -0,0 +1,208 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.providers.r4;
+
+import static lombok.AccessLevel.PACKAGE;
+import static lombok.AccessLevel.PROTECTED;
+import static org.openmrs.module.fhir2.providers.r4.BulkDataExportProvider.NDJSON_CONTENT_TYPE;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ca.uhn.fhir.rest.annotation.Operation;
+import ca.uhn.fhir.rest.annotation.OperationParam;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.EncodingEnum;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.Getter;
+import lombok.Setter;
+import org.apache.commons.lang3.StringUtils;
+import org.hl7.fhir.r4.model.IntegerType;
+import org.hl7.fhir.r4.model.InstantType;
+import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.PrimitiveType;
+import org.hl7.fhir.r4.model.StringType;
+import org.openmrs.module.fhir2.api.FhirBulkImportService;
+import org.openmrs.module.fhir2.api.annotations.R4Provider;
+import org.openmrs.module.fhir2.model.FhirBulkImportInput;
+import org.openmrs.module.fhir2.model.FhirBulkImportJob;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Implements the kick-off, status and error file requests of the system level $import operation,
+ * following the FHIR Bulk Data Import proposal. An import can either be requested with a Parameters
+ * resource listing NDJSON files in the import directory by type and url, or by posting a single
+ * NDJSON file with the _type of its resources.
+ */
+@Component("BulkDataImportFhirR4Provider")
+@R4Provider
+public class BulkDataImportProvider {
+	
+	public static final String IMPORT_OPERATION = "$import";
+	
+	public static final String IMPORT_POLL_STATUS_OPERATION = "$import-poll-status";
+	
+	public static final String IMPORT_ERRORS_OPERATION = "$import-errors";
+	
+	private static final List<String> INPUT_FORMATS = Arrays.asList(NDJSON_CONTENT_TYPE, "application/ndjson", "ndjson");
+	
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+	
+	@Getter(PROTECTED)
+	@Setter(value = PACKAGE, onMethod_ = @Autowired)
+	private FhirBulkImportService bulkImportService;
+	
+	@Operation(name = IMPORT_OPERATION, manualRequest = true, manualResponse = true)
+	public void importResources(ServletRequestDetails requestDetails) throws IOException {
+		HttpServletRequest request = requestDetails.getServletRequest();
+		String contentType = StringUtils.substringBefore(request.getContentType(), ";");
+		
+		FhirBulkImportJob job;
+		if (contentType != null && INPUT_FORMATS.contains(contentType.trim())) {
+			String type = request.getParameter("_type");
+			if (StringUtils.isBlank(type)) {
+				throw new InvalidRequestException("The _type of the resources in an uploaded file must be supplied");
+			}
+			
+			job = bulkImportService.startUpload(type.trim(), request.getInputStream(), requestDetails.getCompleteUrl());
+		} else {
+			job = bulkImportService.startImport(getInputs(requestDetails), requestDetails.getCompleteUrl());
+		}
+		
+		HttpServletResponse response = requestDetails.getServletResponse();
+		response.setStatus(HttpServletResponse.SC_ACCEPTED);
+		response.addHeader(Constants.HEADER_CONTENT_LOCATION,
+		    requestDetails.getFhirServerBase() + "/" + IMPORT_POLL_STATUS_OPERATION + "?_jobId=" + job.getUuid());
+	}
+	
+	@Operation(name = IMPORT_POLL_STATUS_OPERATION, manualResponse = true, idempotent = true)
+	public void importPollStatus(@OperationParam(name = "_jobId", min = 1) StringType jobId,
+	        ServletRequestDetails requestDetails) throws IOException {
+		FhirBulkImportJob job = bulkImportService.getImportJob(jobId.getValue());
+		HttpServletResponse response = requestDetails.getServletResponse();
+		
+		switch (job.getStatus()) {
+			case ACCEPTED:
+			case IN_PROGRESS:
+				response.setStatus(HttpServletResponse.SC_ACCEPTED);
+				response.addHeader("X-Progress", getProgress(job));
+				response.addHeader(Constants.HEADER_RETRY_AFTER, "10");
+				return;
+			case FAILED:
+				throw new InternalErrorException("Import " + job.getUuid() + " failed: " + job.getError());
+			case COMPLETED:
+				break;
+		}
+		
+		ObjectNode manifest = objectMapper.createObjectNode();
+		manifest.put("transactionTime", new InstantType(job.getTransactionTime()).getValueAsString());
+		manifest.put("request", job.getRequestUrl());
+		
+		ArrayNode outputs = manifest.putArray("output");
+		ArrayNode errors = manifest.putArray("error");
+		for (int index = 0; index < job.getInputs().size(); index++) {
+			FhirBulkImportInput input = job.getInputs().get(index);
+			outputs.addObject().put("type", input.getResourceType()).put("inputUrl", input.getUrl()).put("count",
+			    input.getImportedCount());
+			
+			if (input.getErrorCount() > 0) {
+				errors.addObject().put("type", "OperationOutcome").put("inputUrl", input.getUrl())
+				        .put("url",
+				            requestDetails.getFhirServerBase() + "/" + IMPORT_ERRORS_OPERATION + "?_jobId=" + job.getUuid()
+				                    + "&_input=" + index)
+				        .put("count", input.getErrorCount());
+			}
+		}
+		
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType(Constants.CT_JSON);
+		response.setCharacterEncoding(Constants.CHARSET_NAME_UTF8);
+		objectMapper.writeValue(response.getWriter(), manifest);
+	}
+	
+	@Operation(name = IMPORT_ERRORS_OPERATION, manualResponse = true, idempotent = true)
+	public void importErrors(@OperationParam(name = "_jobId", min = 1) StringType jobId,
+	        @OperationParam(name = "_input", min = 1) IntegerType input, ServletRequestDetails requestDetails)
+	        throws IOException {
+		File file = bulkImportService.getErrorFile(jobId.getValue(), input.getValue());
+		HttpServletResponse response = requestDetails.getServletResponse();
+		
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType(NDJSON_CONTENT_TYPE);
+		response.setContentLengthLong(file.length());
+		try (OutputStream out = response.getOutputStream()) {
+			Files.copy(file.toPath(), out);
+		}
+	}
+	
+	private List<FhirBulkImportInput> getInputs(ServletRequestDetails requestDetails) throws IOException {
+		EncodingEnum encoding = EncodingEnum.forContentType(requestDetails.getServletRequest().getContentType());
+		
+		Parameters parameters;
+		try (Reader reader = requestDetails.getServletRequest().getReader()) {
+			parameters = (encoding == null ? EncodingEnum.JSON : encoding).newParser(requestDetails.getFhirContext())
+			        .parseResource(Parameters.class, reader);
+		}
+		
+		String inputFormat = getValue(parameters.getParameter(), "inputFormat");
+		if (inputFormat != null && !INPUT_FORMATS.contains(inputFormat)) {
+			throw new InvalidRequestException("Unsupported inputFormat " + inputFormat);
+		}
+		
+		List<FhirBulkImportInput> inputs = new ArrayList<>();
+		for (Parameters.ParametersParameterComponent parameter : parameters.getParameter()) {
+			if (!"input".equals(parameter.getName())) {
+				continue;
+			}
+			
+			FhirBulkImportInput input = new FhirBulkImportInput();
+			input.setResourceType(getValue(parameter.getPart(), "type"));
+			input.setUrl(getValue(parameter.getPart(), "url"));
+			if (input.getResourceType() == null || input.getUrl() == null) {
+				throw new InvalidRequestException("Each input must have a type and a url");
+			}
+			
+			inputs.add(input);
+		}
+		
+		return inputs;
+	}
+	
+	private static String getValue(List<Parameters.ParametersParameterComponent> parameters, String name) {
+		return parameters.stream().filter(parameter -> name.equals(parameter.getName()))
+		        .filter(parameter -> parameter.getValue() instanceof PrimitiveType)
+		        .map(parameter -> ((PrimitiveType<?>) parameter.getValue()).getValueAsString()).findFirst().orElse(null);
+	}
+	
+	private static String getProgress(FhirBulkImportJob job) {
+		if (job.getCurrentInput() == null) {
+			return "Accepted";
+		}
+		
+		FhirBulkImportInput input = job.getInputs().get(job.getCurrentInput());
+		return "Importing input " + (job.getCurrentInput() + 1) + " of " + job.getInputs().size() + ", "
+		        + input.getLineCount() + " lines read";
+	}
+}
@@ -0,0 +1,41 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.providers.r4;
+
+import static lombok.AccessLevel.PACKAGE;
+import static lombok.AccessLevel.PROTECTED;
+
+import ca.uhn.fhir.rest.annotation.Transaction;
+import ca.uhn.fhir.rest.annotation.TransactionParam;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import lombok.Getter;
+import lombok.Setter;
+import org.hl7.fhir.r4.model.Bundle;
+import org.openmrs.module.fhir2.api.FhirTransactionService;
+import org.openmrs.module.fhir2.api.annotations.R4Provider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Accepts transaction and batch Bundles posted to the base of the server
+ */
+@Component("TransactionFhirR4Provider")
+@R4Provider
+public class TransactionProvider {
+	
+	@Getter(PROTECTED)
+	@Setter(value = PACKAGE, onMethod_ = @Autowired)
+	private FhirTransactionService transactionService;
+	
+	@Transaction
+	public Bundle transaction(@TransactionParam Bundle bundle, RequestDetails requestDetails) {
+		return transactionService.processBundle(bundle, requestDetails);
+	}
+}
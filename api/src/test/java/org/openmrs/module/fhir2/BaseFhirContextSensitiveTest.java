@@ -11,6 +11,7 @@ package org.openmrs.module.fhir2;
 
 import org.junit.Before;
 import org.openmrs.api.cache.CacheConfig;
+import org.openmrs.module.fhir2.api.cache.FhirCacheManager;
 import org.openmrs.module.fhir2.api.util.FhirGlobalPropertyHolder;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,10 +23,14 @@ public abstract class BaseFhirContextSensitiveTest extends BaseModuleContextSens
 	@Autowired
 	CacheConfig cacheConfig;
 	
+	@Autowired
+	FhirCacheManager fhirCacheManager;
+	
 	@Before
 	public void setupBaseFhirContextSensitive() {
 		// Needed until TRUNK-6299 in place
 		cacheConfig.cacheManager().getCacheNames().forEach(name -> cacheConfig.cacheManager().getCache(name).clear());
+		fhirCacheManager.clearAll();
 		FhirGlobalPropertyHolder.reset();
 	}
 }
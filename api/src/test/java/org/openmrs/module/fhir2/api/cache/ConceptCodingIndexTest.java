@@ -0,0 +1,147 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasSize;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.hl7.fhir.r4.model.Coding;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.ConceptMap;
+import org.openmrs.module.fhir2.FhirConstants;
+import org.openmrs.module.fhir2.api.cache.ConceptCodingIndex.MappedCode;
+import org.openmrs.module.fhir2.model.FhirConceptSource;
+
+public class ConceptCodingIndexTest {
+	
+	private static final String LOINC_URL = "http://loinc.org";
+	
+	private ConceptCodingIndex conceptCodingIndex;
+	
+	private Concept concept;
+	
+	private int loads;
+	
+	@Before
+	public void setup() {
+		conceptCodingIndex = new ConceptCodingIndex();
+		concept = new Concept(1);
+		loads = 0;
+	}
+	
+	@Test
+	public void getMappedCodings_shouldOnlyLoadTheCodingsOfAConceptOnce() {
+		conceptCodingIndex.getMappedCodings(concept, this::load);
+		List<Coding> result = conceptCodingIndex.getMappedCodings(concept, this::load);
+		
+		assertThat(loads, equalTo(1));
+		assertThat(result, hasSize(1));
+		assertThat(result.get(0).getCode(), equalTo("1234-5"));
+		assertThat(conceptCodingIndex.getSize(), equalTo(1));
+		assertThat(conceptCodingIndex.getHitCount(), equalTo(1L));
+		assertThat(conceptCodingIndex.getMissCount(), equalTo(1L));
+		assertThat(conceptCodingIndex.getEstimatedMemoryFootprint(), greaterThan(0L));
+	}
+	
+	@Test
+	public void getMappedCodings_shouldNotIndexAConceptWithoutAnId() {
+		Concept newConcept = new Concept();
+		
+		conceptCodingIndex.getMappedCodings(newConcept, this::load);
+		conceptCodingIndex.getMappedCodings(newConcept, this::load);
+		
+		assertThat(loads, equalTo(2));
+		assertThat(conceptCodingIndex.getSize(), equalTo(0));
+	}
+	
+	@Test
+	public void invalidate_shouldReloadAConceptWhoseMappingsChanged() {
+		conceptCodingIndex.getMappedCodings(concept, this::load);
+		
+		ConceptMap conceptMap = new ConceptMap();
+		conceptMap.setConcept(concept);
+		conceptCodingIndex.invalidate(conceptMap);
+		conceptCodingIndex.getMappedCodings(concept, this::load);
+		
+		assertThat(loads, equalTo(2));
+	}
+	
+	@Test
+	public void getMappedCodings_shouldNotIndexCodingsLoadedWhileTheConceptWasInvalidated() {
+		List<Coding> result = conceptCodingIndex.getMappedCodings(concept, c -> {
+			conceptCodingIndex.invalidate(c);
+			return load(c);
+		});
+		
+		assertThat(result, hasSize(1));
+		assertThat(conceptCodingIndex.getSize(), equalTo(0));
+		
+		conceptCodingIndex.getMappedCodings(concept, this::load);
+		
+		assertThat(loads, equalTo(2));
+		assertThat(conceptCodingIndex.getSize(), equalTo(1));
+	}
+	
+	@Test
+	public void getMappedCodings_shouldNotIndexCodingsLoadedWhileTheIndexWasCleared() {
+		conceptCodingIndex.getMappedCodings(concept, c -> {
+			conceptCodingIndex.invalidate(new FhirConceptSource());
+			return load(c);
+		});
+		
+		assertThat(conceptCodingIndex.getSize(), equalTo(0));
+	}
+	
+	@Test
+	public void invalidate_shouldRemoveEveryConceptWhenAFhirConceptSourceChanges() {
+		conceptCodingIndex.getMappedCodings(concept, this::load);
+		conceptCodingIndex.getMappedCodings(new Concept(2), c -> Collections.emptyList());
+		
+		conceptCodingIndex.invalidate(new FhirConceptSource());
+		
+		assertThat(conceptCodingIndex.getSize(), equalTo(0));
+	}
+	
+	@Test
+	public void toCodings_shouldOnlyUseTheSameAsMappingForASystemWithSeveralMappings() {
+		List<Coding> result = ConceptCodingIndex
+		        .toCodings(Arrays.asList(new MappedCode(LOINC_URL, false, "NARROWER-THAN", "1234-6"),
+		            new MappedCode(LOINC_URL, true, "SAME-AS", "1234-5"),
+		            new MappedCode(FhirConstants.SNOMED_SYSTEM_URI, false, "BROADER-THAN", "5678")));
+		
+		assertThat(result, hasSize(2));
+		assertThat(result.stream().filter(coding -> LOINC_URL.equals(coding.getSystem())).findFirst().get().getCode(),
+		    equalTo("1234-5"));
+	}
+	
+	@Test
+	public void toCodings_shouldIgnoreASystemWithSeveralMappingsButNoSameAsMapping() {
+		List<Coding> result = ConceptCodingIndex
+		        .toCodings(Arrays.asList(new MappedCode(LOINC_URL, false, "NARROWER-THAN", "1234-6"),
+		            new MappedCode(LOINC_URL, false, "BROADER-THAN", "1234-7")));
+		
+		assertThat(result, empty());
+	}
+	
+	private List<Coding> load(Concept concept) {
+		loads++;
+		return ConceptCodingIndex
+		        .toCodings(Collections.singletonList(new MappedCode(LOINC_URL, true, "SAME-AS", "1234-5")));
+	}
+}
@@ -0,0 +1,236 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.empty;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.hibernate.HibernateException;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.query.Query;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openmrs.Concept;
+import org.openmrs.ConceptMap;
+import org.openmrs.ConceptMapType;
+import org.openmrs.ConceptReferenceTerm;
+import org.openmrs.ConceptSource;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConceptReverseIndexTest {
+	
+	private static final String LOINC_URL = "http://loinc.org";
+	
+	private static final String CONCEPT_UUID = "a09ab2c5-878e-4905-b25d-5784167d0216";
+	
+	private static final String NARROWER_THAN_UUID = "35543629-7d8c-11e1-909d-c80aa9edcf4e";
+	
+	@Mock
+	private SessionFactory sessionFactory;
+	
+	@Mock
+	private StatelessSession session;
+	
+	@Mock
+	private Query<?> conceptQuery;
+	
+	@Mock
+	private Query<?> sourceQuery;
+	
+	@Mock
+	private Query<?> mappingQuery;
+	
+	@Mock
+	private Query<?> refreshQuery;
+	
+	private ConceptReverseIndex conceptReverseIndex;
+	
+	private ConceptSource loinc;
+	
+	@Before
+	public void setup() {
+		// builds and refreshes run on the calling thread, so that their results can be checked straight away
+		conceptReverseIndex = new ConceptReverseIndex() {
+			
+			@Override
+			protected synchronized ExecutorService getExecutor() {
+				return MoreExecutors.newDirectExecutorService();
+			}
+		};
+		conceptReverseIndex.setSessionFactory(sessionFactory);
+		
+		loinc = new ConceptSource(3);
+	}
+	
+	@Test
+	public void lookup_shouldNotAnswerBeforeTheIndexIsBuilt() {
+		assertThat(conceptReverseIndex.lookup(loinc, "1234-5").isPresent(), is(false));
+		assertThat(conceptReverseIndex.getConceptIds(LOINC_URL, Collections.singletonList("1234-5")).isPresent(),
+		    is(false));
+	}
+	
+	@Test
+	public void lookup_shouldPreferTheConceptWithASameAsMapping() {
+		build();
+		
+		assertThat(conceptReverseIndex.lookup(loinc, "1234-5").get().getPreferredConceptId(), equalTo(1));
+	}
+	
+	@Test
+	public void lookup_shouldChooseTheOnlyConceptMappedToACode() {
+		build();
+		
+		assertThat(conceptReverseIndex.lookup(loinc, "1234-6").get().getPreferredConceptId(), equalTo(2));
+	}
+	
+	@Test
+	public void lookup_shouldAnswerThatNoConceptIsMappedToAnUnknownCode() {
+		build();
+		
+		assertThat(conceptReverseIndex.lookup(loinc, "9999-9").get().getPreferredConceptId(), nullValue());
+	}
+	
+	@Test
+	public void getConceptIds_shouldReturnEveryConceptMappedToTheCodesIgnoringCase() {
+		build();
+		
+		assertThat(conceptReverseIndex.getConceptIds(LOINC_URL, Arrays.asList("la-1", "1234-6")).get(),
+		    containsInAnyOrder(4, 2));
+	}
+	
+	@Test
+	public void getConceptId_shouldReturnTheIdOfAConceptByUuid() {
+		build();
+		
+		assertThat(conceptReverseIndex.getConceptId(CONCEPT_UUID), equalTo(1));
+	}
+	
+	@Test
+	public void invalidateAll_shouldStopTheIndexFromAnswering() {
+		build();
+		
+		conceptReverseIndex.invalidateAll();
+		
+		assertThat(conceptReverseIndex.lookup(loinc, "1234-5").isPresent(), is(false));
+	}
+	
+	@Test
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public void invalidate_shouldLookUpTheCodesOfAChangedMappingAgain() {
+		rebuild();
+		stubRefresh();
+		when(refreshQuery.list()).thenReturn((List) Arrays.asList(
+		    new Object[] { 2, 3, "1234-6", NARROWER_THAN_UUID, "NARROWER-THAN" },
+		    new Object[] { 4, 3, "1234-6", ConceptMapType.SAME_AS_MAP_TYPE_UUID, "SAME-AS" }));
+		
+		// concept 4 is now mapped to 1234-6 instead of LA-1
+		conceptReverseIndex.invalidate(newConceptMap(new Concept(4), "1234-6"));
+		
+		assertThat(conceptReverseIndex.lookup(loinc, "1234-6").get().getPreferredConceptId(), equalTo(4));
+		assertThat(conceptReverseIndex.getConceptIds(LOINC_URL, Collections.singletonList("LA-1")).get(), empty());
+		assertThat(conceptReverseIndex.getConceptIds(LOINC_URL, Collections.singletonList("1234-5")).get(),
+		    containsInAnyOrder(1, 2));
+	}
+	
+	@Test
+	public void invalidate_shouldNotAnswerForAChangedCodeUntilItHasBeenLookedUpAgain() {
+		rebuild();
+		stubRefresh();
+		when(refreshQuery.list()).thenThrow(new HibernateException("Could not refresh"));
+		
+		conceptReverseIndex.invalidate(newConceptMap(new Concept(4), "1234-6"));
+		
+		assertThat(conceptReverseIndex.lookup(loinc, "1234-6").isPresent(), is(false));
+		assertThat(conceptReverseIndex.lookup(loinc, "LA-1").isPresent(), is(false));
+		assertThat(conceptReverseIndex.lookup(loinc, "1234-5").isPresent(), is(true));
+	}
+	
+	@Test
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public void invalidate_shouldLookUpTheCodeOfAMappingOfANewConceptAgain() {
+		rebuild();
+		stubRefresh();
+		when(refreshQuery.list()).thenReturn((List) Arrays.asList(
+		    new Object[] { 2, 3, "1234-6", NARROWER_THAN_UUID, "NARROWER-THAN" },
+		    new Object[] { 5, 3, "1234-6", ConceptMapType.SAME_AS_MAP_TYPE_UUID, "SAME-AS" }));
+		
+		// a new concept has no id until it has been inserted
+		Concept concept = new Concept();
+		conceptReverseIndex.invalidate(concept);
+		conceptReverseIndex.invalidate(newConceptMap(concept, "1234-6"));
+		
+		assertThat(conceptReverseIndex.getConceptIds(LOINC_URL, Collections.singletonList("1234-6")).get(),
+		    containsInAnyOrder(2, 5));
+	}
+	
+	private ConceptMap newConceptMap(Concept concept, String code) {
+		ConceptReferenceTerm term = new ConceptReferenceTerm();
+		term.setConceptSource(loinc);
+		term.setCode(code);
+		
+		ConceptMap conceptMap = new ConceptMap();
+		conceptMap.setConcept(concept);
+		conceptMap.setConceptReferenceTerm(term);
+		return conceptMap;
+	}
+	
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private void stubRefresh() {
+		when(session.createQuery(contains("lower(t.code) in"))).thenReturn((Query) refreshQuery);
+		when(refreshQuery.setParameterList(eq("codes"), anyCollection())).thenReturn((Query) refreshQuery);
+	}
+	
+	private void build() {
+		stubBuild();
+		conceptReverseIndex.build();
+	}
+	
+	// unlike build(), this also starts keeping the index up to date with changes
+	private void rebuild() {
+		stubBuild();
+		conceptReverseIndex.rebuild();
+	}
+	
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private void stubBuild() {
+		when(sessionFactory.openStatelessSession()).thenReturn(session);
+		when(session.createQuery(startsWith("select c.conceptId"))).thenReturn((Query) conceptQuery);
+		when(session.createQuery(startsWith("select f.url"))).thenReturn((Query) sourceQuery);
+		when(session.createQuery(startsWith("select m.concept"))).thenReturn((Query) mappingQuery);
+		
+		when(conceptQuery.list()).thenReturn((List) Collections.singletonList(new Object[] { 1, CONCEPT_UUID }));
+		when(sourceQuery.list()).thenReturn((List) Collections.singletonList(new Object[] { LOINC_URL, 3 }));
+		when(mappingQuery.list()).thenReturn((List) Arrays.asList(
+		    new Object[] { 1, 3, "1234-5", ConceptMapType.SAME_AS_MAP_TYPE_UUID, "SAME-AS" },
+		    new Object[] { 2, 3, "1234-5", NARROWER_THAN_UUID, "NARROWER-THAN" },
+		    new Object[] { 2, 3, "1234-6", NARROWER_THAN_UUID, "NARROWER-THAN" },
+		    new Object[] { 4, 3, "LA-1", ConceptMapType.SAME_AS_MAP_TYPE_UUID, "SAME-AS" }));
+		
+	}
+}
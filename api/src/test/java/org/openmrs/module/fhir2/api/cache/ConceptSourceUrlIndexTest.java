@@ -0,0 +1,132 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.query.Query;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openmrs.ConceptSource;
+import org.openmrs.Duration;
+import org.openmrs.module.fhir2.FhirConstants;
+import org.openmrs.module.fhir2.api.dao.FhirConceptSourceDao;
+import org.openmrs.module.fhir2.model.FhirConceptSource;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConceptSourceUrlIndexTest {
+	
+	private static final String LOINC_URL = "http://loinc.org";
+	
+	private static final String CIEL_URL = "https://openconceptlab.org/orgs/CIEL/sources/CIEL";
+	
+	@Mock
+	private SessionFactory sessionFactory;
+	
+	@Mock
+	private StatelessSession session;
+	
+	@Mock
+	private Query<?> query;
+	
+	@Mock
+	private FhirConceptSourceDao fhirConceptSourceDao;
+	
+	private ConceptSourceUrlIndex conceptSourceUrlIndex;
+	
+	private ConceptSource loinc;
+	
+	@Before
+	public void setup() {
+		conceptSourceUrlIndex = new ConceptSourceUrlIndex();
+		conceptSourceUrlIndex.setSessionFactory(sessionFactory);
+		conceptSourceUrlIndex.setFhirConceptSourceDao(fhirConceptSourceDao);
+		
+		loinc = new ConceptSource(3);
+	}
+	
+	@Test
+	public void getUrl_shouldLookUpTheFhirConceptSourceBeforeTheModuleHasStarted() {
+		FhirConceptSource fhirLoinc = new FhirConceptSource();
+		fhirLoinc.setConceptSource(loinc);
+		fhirLoinc.setUrl(LOINC_URL);
+		when(fhirConceptSourceDao.getFhirConceptSourceByConceptSource(loinc)).thenReturn(Optional.of(fhirLoinc));
+		
+		assertThat(conceptSourceUrlIndex.getUrl(loinc), equalTo(LOINC_URL));
+		verifyNoInteractions(sessionFactory);
+	}
+	
+	@Test
+	public void getUrl_shouldUseTheSnapshotOnceBuilt() {
+		rebuild();
+		
+		assertThat(conceptSourceUrlIndex.getUrl(loinc), equalTo(LOINC_URL));
+		assertThat(conceptSourceUrlIndex.getUrl(new ConceptSource(4)), equalTo(CIEL_URL));
+		assertThat(conceptSourceUrlIndex.getUrl(new ConceptSource(5)), nullValue());
+		verify(query, times(1)).list();
+		verifyNoInteractions(fhirConceptSourceDao);
+	}
+	
+	@Test
+	public void getUrl_shouldFallBackToSnomedForSourcesWithTheSnomedHl7Code() {
+		rebuild();
+		
+		ConceptSource snomed = new ConceptSource(6);
+		snomed.setHl7Code(Duration.SNOMED_CT_CONCEPT_SOURCE_HL7_CODE);
+		
+		assertThat(conceptSourceUrlIndex.getUrl(snomed), equalTo(FhirConstants.SNOMED_SYSTEM_URI));
+	}
+	
+	@Test
+	public void invalidate_shouldReplaceTheSnapshotWhenAFhirConceptSourceChanges() {
+		rebuild();
+		
+		conceptSourceUrlIndex.invalidate(new FhirConceptSource());
+		conceptSourceUrlIndex.getUrl(loinc);
+		
+		verify(query, times(2)).list();
+	}
+	
+	@Test
+	public void invalidate_shouldKeepTheSnapshotForOtherChanges() {
+		rebuild();
+		
+		conceptSourceUrlIndex.invalidate(new Object());
+		conceptSourceUrlIndex.getUrl(loinc);
+		
+		verify(query, times(1)).list();
+	}
+	
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private void rebuild() {
+		when(sessionFactory.openStatelessSession()).thenReturn(session);
+		when(session.createQuery(anyString())).thenReturn((Query) query);
+		when(query.list()).thenReturn((List) Arrays.asList(new Object[] { 3, LOINC_URL }, new Object[] { 4, CIEL_URL },
+		    new Object[] { 3, "http://example.com/duplicate" }));
+		
+		conceptSourceUrlIndex.rebuild();
+	}
+}
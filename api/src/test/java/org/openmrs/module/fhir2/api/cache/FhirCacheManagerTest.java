@@ -0,0 +1,163 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.cache.CacheStats;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openmrs.Concept;
+import org.openmrs.GlobalProperty;
+import org.openmrs.Location;
+import org.openmrs.module.fhir2.api.FhirGlobalPropertyService;
+import org.openmrs.module.fhir2.model.FhirConceptSource;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FhirCacheManagerTest {
+	
+	private static final String CONCEPT_SOURCES = "fhir2GetFhirConceptSources";
+	
+	private static final String IDENTIFIER_URLS = "fhir2GetFhirUrlForIdentifier";
+	
+	private static final String TEST_CACHE = "fhir2TestCache";
+	
+	@Mock
+	private FhirGlobalPropertyService globalPropertyService;
+	
+	private FhirCacheManager cacheManager;
+	
+	@Before
+	public void setup() {
+		cacheManager = new FhirCacheManager();
+		cacheManager.setGlobalPropertyService(globalPropertyService);
+		
+		when(globalPropertyService.getGlobalPropertyAsInteger(anyString(), anyInt()))
+		        .thenAnswer(invocation -> invocation.getArgument(1));
+	}
+	
+	@Test
+	public void getCache_shouldReturnTheSameCacheForTheSameName() {
+		FhirCache cache = cacheManager.getCache(TEST_CACHE);
+		
+		assertThat(cache.getName(), equalTo(TEST_CACHE));
+		assertThat(cacheManager.getCache(TEST_CACHE), sameInstance(cache));
+		assertThat(cacheManager.getCacheNames(), equalTo(Collections.singleton(TEST_CACHE)));
+	}
+	
+	@Test
+	public void getCache_shouldLoadEachValueOnceAndRecordStatistics() {
+		FhirCache cache = cacheManager.getCache(TEST_CACHE);
+		AtomicInteger loads = new AtomicInteger();
+		
+		assertThat(cache.get("key", () -> "value" + loads.incrementAndGet()), equalTo("value1"));
+		assertThat(cache.get("key", () -> "value" + loads.incrementAndGet()), equalTo("value1"));
+		
+		CacheStats stats = cacheManager.getStatistics().get(TEST_CACHE);
+		assertThat(loads.get(), equalTo(1));
+		assertThat(stats.hitCount(), equalTo(1L));
+		assertThat(stats.missCount(), equalTo(1L));
+		assertThat(stats.loadSuccessCount(), equalTo(1L));
+	}
+	
+	@Test
+	public void getCache_shouldCacheNullValues() {
+		FhirCache cache = cacheManager.getCache(TEST_CACHE);
+		AtomicInteger loads = new AtomicInteger();
+		
+		assertThat(cache.get("key", () -> {
+			loads.incrementAndGet();
+			return null;
+		}), nullValue());
+		
+		assertThat(cache.get("key"), notNullValue());
+		assertThat(cache.get("key").get(), nullValue());
+		assertThat(cache.get("key", String.class), nullValue());
+		assertThat(loads.get(), equalTo(1));
+	}
+	
+	@Test
+	public void getCache_shouldBoundTheCacheByTheConfiguredMaximumSize() {
+		when(globalPropertyService.getGlobalPropertyAsInteger(eq("fhir2.cache." + TEST_CACHE + ".maximumSize"), anyInt()))
+		        .thenReturn(2);
+		FhirCache cache = cacheManager.getCache(TEST_CACHE);
+		
+		for (int i = 0; i < 10; i++) {
+			cache.put(i, "value" + i);
+		}
+		
+		assertThat(cache.getSize(), lessThanOrEqualTo(2L));
+		assertThat(cache.getStats().evictionCount(), equalTo(10L - cache.getSize()));
+	}
+	
+	@Test
+	public void getCache_shouldBoundTheCacheByTheConfiguredMaximumWeight() {
+		when(globalPropertyService.getGlobalPropertyAsInteger(eq("fhir2.cache." + TEST_CACHE + ".maximumWeight"), anyInt()))
+		        .thenReturn(1);
+		FhirCache cache = cacheManager.getCache(TEST_CACHE);
+		
+		cache.put("small", "value");
+		cache.put("large", Collections.nCopies(10, "value"));
+		
+		assertThat(cache.get("small", String.class), equalTo("value"));
+		assertThat(cache.get("large"), nullValue());
+	}
+	
+	@Test
+	public void onApplicationEvent_shouldOnlyClearTheCachesThatDependOnTheChangedObject() {
+		cacheManager.getCache(CONCEPT_SOURCES).put("key", "value");
+		cacheManager.getCache(IDENTIFIER_URLS).put("key", "value");
+		
+		cacheManager.onApplicationEvent(new FhirCacheInvalidationEvent(new FhirConceptSource()));
+		
+		assertThat(cacheManager.getCache(CONCEPT_SOURCES).get("key"), nullValue());
+		assertThat(cacheManager.getCache(IDENTIFIER_URLS).get("key").get(), equalTo("value"));
+	}
+	
+	@Test
+	public void onApplicationEvent_shouldRecreateTheCacheWhenItsSettingsChange() {
+		FhirCache cache = cacheManager.getCache(TEST_CACHE);
+		FhirCache otherCache = cacheManager.getCache(CONCEPT_SOURCES);
+		
+		cacheManager.onApplicationEvent(new FhirCacheInvalidationEvent(
+		        new GlobalProperty("fhir2.cache." + TEST_CACHE + ".maximumSize", "10")));
+		
+		assertThat(cacheManager.getStatistics(), not(hasKey(TEST_CACHE)));
+		assertThat(cacheManager.getCache(TEST_CACHE), not(sameInstance(cache)));
+		assertThat(cacheManager.getCache(CONCEPT_SOURCES), sameInstance(otherCache));
+	}
+	
+	@Test
+	public void isObserved_shouldOnlyObserveDependenciesAndCacheSettings() {
+		assertThat(FhirCacheManager.isObserved(new Concept()), is(true));
+		assertThat(FhirCacheManager.isObserved(new GlobalProperty("fhir2.cache." + TEST_CACHE + ".maximumSize")), is(true));
+		assertThat(FhirCacheManager.isObserved(new GlobalProperty("fhir2.paging.default")), is(false));
+		assertThat(FhirCacheManager.isObserved(new Location()), is(false));
+		assertThat(FhirCacheManager.isObserved(null), is(false));
+	}
+}
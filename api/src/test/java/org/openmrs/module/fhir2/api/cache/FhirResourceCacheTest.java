@@ -0,0 +1,257 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+import javax.annotation.Nonnull;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.Obs;
+import org.openmrs.PatientIdentifier;
+import org.openmrs.PersonName;
+import org.openmrs.module.fhir2.api.translators.OpenmrsFhirTranslator;
+
+public class FhirResourceCacheTest {
+	
+	private Locale locale = Locale.ENGLISH;
+	
+	private FhirResourceCache resourceCache;
+	
+	private CountingTranslator translator;
+	
+	private CountingObservationTranslator observationTranslator;
+	
+	private org.openmrs.Patient patient;
+	
+	@Before
+	public void setup() {
+		resourceCache = new FhirResourceCache() {
+			
+			@Override
+			protected Locale getLocale() {
+				return locale;
+			}
+		};
+		translator = new CountingTranslator();
+		observationTranslator = new CountingObservationTranslator();
+		patient = newPatient(1, "Smith");
+	}
+	
+	@Test
+	public void get_shouldOnlyTranslateAnUnchangedObjectOnce() {
+		Patient first = resourceCache.get(translator, patient);
+		Patient second = resourceCache.get(translator, patient);
+		
+		assertThat(translator.translations, equalTo(1));
+		assertThat(second.getNameFirstRep().getFamily(), equalTo("Smith"));
+		assertThat(second, not(sameInstance(first)));
+		assertThat(resourceCache.getHitCount(), equalTo(1L));
+		assertThat(resourceCache.getMissCount(), equalTo(1L));
+	}
+	
+	@Test
+	public void get_shouldNotBeAffectedByChangesToReturnedResources() {
+		resourceCache.get(translator, patient).getNameFirstRep().setFamily("Changed");
+		
+		assertThat(resourceCache.get(translator, patient).getNameFirstRep().getFamily(), equalTo("Smith"));
+	}
+	
+	@Test
+	public void get_shouldTranslateAgainOnceTheObjectHasBeenUpdated() {
+		resourceCache.get(translator, patient);
+		patient.setPersonDateChanged(new Date(patient.getPersonDateCreated().getTime() + 1000));
+		patient.setDateChanged(patient.getPersonDateChanged());
+		resourceCache.get(translator, patient);
+		
+		assertThat(translator.translations, equalTo(2));
+	}
+	
+	@Test
+	public void invalidate_shouldRemoveThePersonADependentRowBelongsTo() {
+		resourceCache.get(translator, patient);
+		resourceCache.invalidate(patient.getPersonName());
+		resourceCache.get(translator, patient);
+		
+		assertThat(translator.translations, equalTo(2));
+	}
+	
+	@Test
+	public void get_shouldTranslateAgainForAnotherLocale() {
+		resourceCache.get(translator, patient);
+		locale = Locale.FRENCH;
+		resourceCache.get(translator, patient);
+		resourceCache.get(translator, patient);
+		
+		assertThat(translator.translations, equalTo(2));
+	}
+	
+	@Test
+	public void get_shouldNotStoreAResourceTranslatedWhileEntriesWereRemoved() {
+		// the name is changed by another thread while the patient is being translated
+		translator.duringTranslation = () -> resourceCache.invalidate(patient.getPersonName());
+		resourceCache.get(translator, patient);
+		
+		translator.duringTranslation = null;
+		resourceCache.get(translator, patient);
+		resourceCache.get(translator, patient);
+		
+		assertThat(translator.translations, equalTo(2));
+	}
+	
+	@Test
+	public void invalidate_shouldRemoveTheEntriesOfEveryLocale() {
+		resourceCache.get(translator, patient);
+		locale = Locale.FRENCH;
+		resourceCache.get(translator, patient);
+		
+		resourceCache.invalidate(patient);
+		
+		assertThat(resourceCache.getSize(), equalTo(0L));
+	}
+	
+	@Test
+	public void invalidate_shouldOnlyRemoveTheObservationsOfThePersonWhoseNameChanged() {
+		org.openmrs.Patient otherPatient = newPatient(2, "Jones");
+		resourceCache.get(observationTranslator, newObs(10, patient));
+		resourceCache.get(observationTranslator, newObs(11, otherPatient));
+		
+		resourceCache.invalidate(patient.getPersonName());
+		resourceCache.get(observationTranslator, newObs(10, patient));
+		resourceCache.get(observationTranslator, newObs(11, otherPatient));
+		
+		assertThat(observationTranslator.translations, equalTo(3));
+	}
+	
+	@Test
+	public void invalidate_shouldRemoveTheObservationsOfThePatientWhoseIdentifierChanged() {
+		PatientIdentifier identifier = new PatientIdentifier("1000X", null, null);
+		identifier.setPatient(patient);
+		resourceCache.get(translator, patient);
+		resourceCache.get(observationTranslator, newObs(10, patient));
+		
+		resourceCache.invalidate(identifier);
+		resourceCache.get(translator, patient);
+		resourceCache.get(observationTranslator, newObs(10, patient));
+		
+		assertThat(translator.translations, equalTo(2));
+		assertThat(observationTranslator.translations, equalTo(2));
+	}
+	
+	@Test
+	public void invalidate_shouldRemoveEverythingWhenSharedMetadataChanges() {
+		org.openmrs.Patient otherPatient = newPatient(2, "Jones");
+		resourceCache.get(translator, patient);
+		resourceCache.get(translator, otherPatient);
+		
+		resourceCache.invalidate(new Concept(3));
+		
+		assertThat(resourceCache.getSize(), equalTo(0L));
+	}
+	
+	@Test
+	public void getAll_shouldOnlyTranslateObjectsThatAreNotCached() {
+		org.openmrs.Patient otherPatient = newPatient(2, "Jones");
+		resourceCache.get(translator, otherPatient);
+		
+		List<Patient> result = resourceCache.getAll(translator, Arrays.asList(patient, otherPatient, patient));
+		
+		assertThat(result.stream().map(p -> p.getNameFirstRep().getFamily()).collect(Collectors.toList()),
+		    contains("Smith", "Jones"));
+		assertThat(translator.translations, equalTo(2));
+		assertThat(translator.batches, equalTo(1));
+	}
+	
+	private static org.openmrs.Patient newPatient(int id, String familyName) {
+		org.openmrs.Patient patient = new org.openmrs.Patient(id);
+		patient.setPersonDateCreated(new Date(1000L * id));
+		patient.setDateCreated(patient.getPersonDateCreated());
+		
+		PersonName name = new PersonName("John", null, familyName);
+		name.setPerson(patient);
+		patient.addName(name);
+		return patient;
+	}
+	
+	private static Obs newObs(int id, org.openmrs.Patient patient) {
+		Obs obs = new Obs(id);
+		obs.setPerson(patient);
+		obs.setDateCreated(new Date(1000L * id));
+		return obs;
+	}
+	
+	private static class CountingTranslator implements OpenmrsFhirTranslator<org.openmrs.Patient, Patient> {
+		
+		private int translations = 0;
+		
+		private int batches = 0;
+		
+		private Runnable duringTranslation;
+		
+		@Override
+		public Patient toFhirResource(@Nonnull org.openmrs.Patient data) {
+			translations++;
+			if (duringTranslation != null) {
+				duringTranslation.run();
+			}
+			
+			Patient patient = new Patient();
+			patient.setId(data.getUuid());
+			patient.addName().setFamily(data.getFamilyName());
+			return patient;
+		}
+		
+		@Override
+		public List<Patient> toFhirResources(Collection<org.openmrs.Patient> data) {
+			batches++;
+			return data.stream().map(this::toFhirResource).collect(Collectors.toList());
+		}
+		
+		@Override
+		public org.openmrs.Patient toOpenmrsType(@Nonnull Patient resource) {
+			throw new UnsupportedOperationException();
+		}
+	}
+	
+	private static class CountingObservationTranslator implements OpenmrsFhirTranslator<Obs, Observation> {
+		
+		private int translations = 0;
+		
+		@Override
+		public Observation toFhirResource(@Nonnull Obs data) {
+			translations++;
+			
+			Observation observation = new Observation();
+			observation.setId(data.getUuid());
+			observation.getSubject().setDisplay(data.getPerson().getPersonName().getFullName());
+			return observation;
+		}
+		
+		@Override
+		public Obs toOpenmrsType(@Nonnull Observation resource) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
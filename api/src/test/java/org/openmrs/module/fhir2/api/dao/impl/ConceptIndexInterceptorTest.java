@@ -0,0 +1,149 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.dao.impl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.query.Query;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openmrs.Concept;
+import org.openmrs.ConceptMap;
+import org.openmrs.ConceptMapType;
+import org.openmrs.ConceptReferenceTerm;
+import org.openmrs.ConceptSource;
+import org.openmrs.module.fhir2.api.cache.ConceptReverseIndex;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConceptIndexInterceptorTest {
+	
+	private static final String LOINC_URL = "http://loinc.org";
+	
+	private static final String CODE = "1234-6";
+	
+	private static final String NARROWER_THAN_UUID = "35543629-7d8c-11e1-909d-c80aa9edcf4e";
+	
+	@Mock
+	private SessionFactory sessionFactory;
+	
+	@Mock
+	private StatelessSession session;
+	
+	@Mock
+	private Query<?> conceptQuery;
+	
+	@Mock
+	private Query<?> sourceQuery;
+	
+	@Mock
+	private Query<?> mappingQuery;
+	
+	@Mock
+	private Query<?> refreshQuery;
+	
+	private ConceptReverseIndex conceptReverseIndex;
+	
+	private ConceptIndexInterceptor interceptor;
+	
+	@Before
+	public void setup() {
+		conceptReverseIndex = new DirectConceptReverseIndex(sessionFactory);
+		
+		interceptor = new ConceptIndexInterceptor();
+		interceptor.setConceptReverseIndex(conceptReverseIndex);
+	}
+	
+	@After
+	public void tearDown() {
+		// clears the state held for the current thread
+		interceptor.setConceptReverseIndex(null);
+		interceptor.afterTransactionCompletion(null);
+	}
+	
+	@Test
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public void onSave_shouldIndexTheMappingsOfANewConceptOnceItHasBeenSaved() {
+		buildIndex();
+		Object[] existingMapping = new Object[] { 2, 3, CODE, NARROWER_THAN_UUID, "NARROWER-THAN" };
+		when(refreshQuery.list()).thenReturn((List) Collections.singletonList(existingMapping),
+		    (List) Arrays.asList(existingMapping,
+		        new Object[] { 5, 3, CODE, ConceptMapType.SAME_AS_MAP_TYPE_UUID, "SAME-AS" }));
+		
+		// the ids of new concepts are generated by the database, so they are not known when the concept is saved
+		Concept concept = new Concept();
+		ConceptReferenceTerm term = new ConceptReferenceTerm();
+		term.setConceptSource(new ConceptSource(3));
+		term.setCode(CODE);
+		ConceptMap conceptMap = new ConceptMap(term, null);
+		concept.addConceptMapping(conceptMap);
+		
+		interceptor.onSave(concept, null, null, null, null);
+		interceptor.onSave(conceptMap, null, null, null, null);
+		
+		concept.setConceptId(5);
+		interceptor.afterTransactionCompletion(null);
+		
+		assertThat(conceptReverseIndex.getConceptId(concept.getUuid()), equalTo(5));
+		assertThat(conceptReverseIndex.getConceptIds(LOINC_URL, Collections.singletonList(CODE)).get(),
+		    containsInAnyOrder(2, 5));
+	}
+	
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private void buildIndex() {
+		when(sessionFactory.openStatelessSession()).thenReturn(session);
+		when(session.createQuery(startsWith("select c.conceptId"))).thenReturn((Query) conceptQuery);
+		when(session.createQuery(startsWith("select f.url"))).thenReturn((Query) sourceQuery);
+		when(session.createQuery(startsWith("select m.concept"))).thenReturn((Query) mappingQuery);
+		when(session.createQuery(contains("lower(t.code) in"))).thenReturn((Query) refreshQuery);
+		when(refreshQuery.setParameterList(eq("codes"), anyCollection())).thenReturn((Query) refreshQuery);
+		
+		when(conceptQuery.list()).thenReturn((List) Collections.emptyList());
+		when(sourceQuery.list()).thenReturn((List) Collections.singletonList(new Object[] { LOINC_URL, 3 }));
+		when(mappingQuery.list()).thenReturn((List) Collections
+		        .singletonList(new Object[] { 2, 3, CODE, NARROWER_THAN_UUID, "NARROWER-THAN" }));
+		
+		conceptReverseIndex.rebuild();
+	}
+	
+	/**
+	 * Builds and refreshes the index on the calling thread, so that the results can be checked straight
+	 * away
+	 */
+	private static class DirectConceptReverseIndex extends ConceptReverseIndex {
+		
+		private DirectConceptReverseIndex(SessionFactory sessionFactory) {
+			setSessionFactory(sessionFactory);
+		}
+		
+		@Override
+		protected synchronized ExecutorService getExecutor() {
+			return MoreExecutors.newDirectExecutorService();
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.dao.impl;
+
+import static java.util.Collections.singletonList;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+import org.hibernate.HibernateException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openmrs.Concept;
+import org.openmrs.ConceptMap;
+import org.openmrs.ConceptReferenceTerm;
+import org.openmrs.module.fhir2.api.dao.FhirConceptTokenDao;
+import org.openmrs.module.fhir2.model.FhirConceptSource;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConceptTokenInterceptorTest {
+	
+	private static final Integer CONCEPT_ID = 5085;
+	
+	@Mock
+	private FhirConceptTokenDao conceptTokenDao;
+	
+	private ConceptTokenInterceptor interceptor;
+	
+	@Before
+	public void setup() {
+		interceptor = new ConceptTokenInterceptor();
+		interceptor.setConceptTokenDao(conceptTokenDao);
+	}
+	
+	@After
+	public void tearDown() {
+		// clears the state held for the current thread
+		interceptor.setConceptTokenDao(null);
+		interceptor.afterTransactionCompletion(null);
+	}
+	
+	@Test
+	public void beforeTransactionCompletion_shouldUpdateTheTokensOfConceptsWhoseMappingsChanged() {
+		interceptor.onSave(newConceptMap(), 1, null, null, null);
+		
+		complete();
+		
+		verify(conceptTokenDao).updateTokens(singletonList(CONCEPT_ID));
+		verify(conceptTokenDao).clearCache();
+		verify(conceptTokenDao, never()).rebuildTokensInBackground();
+	}
+	
+	@Test
+	public void beforeTransactionCompletion_shouldSetTheTokensAsideAndRebuildThemIfTheyCannotBeUpdated() {
+		doThrow(new HibernateException("Could not update")).when(conceptTokenDao).updateTokens(any());
+		interceptor.onSave(newConceptMap(), 1, null, null, null);
+		
+		complete();
+		
+		verify(conceptTokenDao).invalidateTokens();
+		verify(conceptTokenDao).rebuildTokensInBackground();
+	}
+	
+	@Test
+	public void afterTransactionCompletion_shouldRebuildTheTokensInsteadOfUpdatingThemWhenATermCodeChanges() {
+		interceptor.onSave(newConceptMap(), 1, null, null, null);
+		interceptor.onFlushDirty(new ConceptReferenceTerm(), 1, new Object[] { "8480-6" }, new Object[] { "8462-4" },
+		    new String[] { "code" }, null);
+		
+		complete();
+		
+		verify(conceptTokenDao, never()).updateTokens(any());
+		verify(conceptTokenDao).rebuildTokensInBackground();
+	}
+	
+	@Test
+	public void afterTransactionCompletion_shouldRebuildTheTokensWhenAFhirConceptSourceIsSaved() {
+		interceptor.onSave(new FhirConceptSource(), 1, null, null, null);
+		
+		complete();
+		
+		verify(conceptTokenDao).rebuildTokensInBackground();
+	}
+	
+	@Test
+	public void afterTransactionCompletion_shouldIgnoreChangesThatDoNotAffectTheTokens() {
+		interceptor.onFlushDirty(new ConceptReferenceTerm(), 1, new Object[] { "Systolic" }, new Object[] { "Systole" },
+		    new String[] { "name" }, null);
+		
+		complete();
+		
+		verifyNoInteractions(conceptTokenDao);
+	}
+	
+	private void complete() {
+		interceptor.beforeTransactionCompletion(null);
+		interceptor.afterTransactionCompletion(null);
+	}
+	
+	private static ConceptMap newConceptMap() {
+		ConceptMap conceptMap = new ConceptMap();
+		conceptMap.setConcept(new Concept(CONCEPT_ID));
+		return conceptMap;
+	}
+}
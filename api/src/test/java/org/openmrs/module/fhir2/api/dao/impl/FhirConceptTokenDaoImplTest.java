@@ -0,0 +1,182 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.dao.impl;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import ca.uhn.fhir.rest.param.TokenAndListParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import org.hibernate.SessionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Obs;
+import org.openmrs.module.fhir2.BaseFhirContextSensitiveTest;
+import org.openmrs.module.fhir2.FhirConstants;
+import org.openmrs.module.fhir2.api.dao.FhirConceptTokenDao;
+import org.openmrs.module.fhir2.api.dao.FhirObservationDao;
+import org.openmrs.module.fhir2.api.search.param.SearchParameterMap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.util.AopTestUtils;
+
+public class FhirConceptTokenDaoImplTest extends BaseFhirContextSensitiveTest {
+	
+	private static final String OBS_DATA_XML = "org/openmrs/module/fhir2/api/dao/impl/FhirObservationDaoImplTest_initial_data_suppl.xml";
+	
+	private static final String LOINC_SYSTEM_URL = "http://loinc.org";
+	
+	private static final String CIEL_SYSTEM_URN = "https://openconceptlab.org/orgs/CIEL/sources/CIEL";
+	
+	private static final String LOINC_SYSTOLIC_BP = "8480-6";
+	
+	private static final String SYSTOLIC_BP_OBS_UUID = "b0b9c14f-2123-4c0f-9a5c-918e192629f0";
+	
+	private static final String DIASTOLIC_BP_OBS_UUID = "f0af1014-37db-43ea-ab6d-560459aa6573";
+	
+	@Autowired
+	private FhirConceptTokenDao conceptTokenDao;
+	
+	@Autowired
+	private SessionFactory sessionFactory;
+	
+	@Autowired
+	private FhirObservationDao observationDao;
+	
+	@Before
+	public void setup() throws Exception {
+		executeDataSet(OBS_DATA_XML);
+		rebuildTokens();
+	}
+	
+	@After
+	public void tearDown() {
+		// the rows are rolled back with the test, but whether the table was built and the cached results are not
+		conceptTokenDao.invalidateTokens();
+	}
+	
+	@Test
+	public void getConceptIds_shouldNotResolveTokensBeforeTheTableIsBuilt() {
+		FhirConceptTokenDaoImpl unbuiltDao = new FhirConceptTokenDaoImpl();
+		unbuiltDao.setSessionFactory(sessionFactory);
+		
+		assertThat(unbuiltDao.getConceptIds(LOINC_SYSTEM_URL, singletonList(LOINC_SYSTOLIC_BP)).isPresent(), is(false));
+	}
+	
+	@Test
+	public void rebuildTokens_shouldResolveTokensToTheMappedConcepts() {
+		assertThat(getConceptIds(LOINC_SYSTEM_URL, LOINC_SYSTOLIC_BP), contains(5085));
+		assertThat(getConceptIds(CIEL_SYSTEM_URN, "5085", "5086"), containsInAnyOrder(5085, 5086));
+		assertThat(getConceptIds(LOINC_SYSTEM_URL, "5085"), empty());
+	}
+	
+	@Test
+	public void updateTokens_shouldAddNewMappings() {
+		sessionFactory.getCurrentSession()
+		        .createSQLQuery("insert into concept_reference_map (concept_map_id, concept_id, concept_reference_term_id, "
+		                + "concept_map_type_id, creator, date_created, uuid) "
+		                + "values (100, 5086, 20, 2, 1, '2005-01-01 00:00:00.0', 'c6c4d5f2-52e1-4a3f-b30e-8c0e4d0a4e7d')")
+		        .executeUpdate();
+		
+		conceptTokenDao.updateTokens(singleton(5086));
+		
+		assertThat(getConceptIds(LOINC_SYSTEM_URL, LOINC_SYSTOLIC_BP), containsInAnyOrder(5085, 5086));
+	}
+	
+	@Test
+	public void updateTokens_shouldRemoveDeletedMappings() {
+		assertThat(getConceptIds(LOINC_SYSTEM_URL, LOINC_SYSTOLIC_BP), contains(5085));
+		sessionFactory.getCurrentSession().createSQLQuery("delete from concept_reference_map where concept_map_id = 19")
+		        .executeUpdate();
+		
+		conceptTokenDao.updateTokens(singleton(5085));
+		
+		assertThat(getConceptIds(LOINC_SYSTEM_URL, LOINC_SYSTOLIC_BP), empty());
+		assertThat(getConceptIds(CIEL_SYSTEM_URN, "5085"), contains(5085));
+	}
+	
+	@Test
+	public void invalidateTokens_shouldStopTokensBeingResolvedUntilTheTableIsRebuilt() {
+		conceptTokenDao.invalidateTokens();
+		
+		assertThat(conceptTokenDao.getConceptIds(LOINC_SYSTEM_URL, singletonList(LOINC_SYSTOLIC_BP)).isPresent(),
+		    is(false));
+		
+		rebuildTokens();
+		
+		assertThat(getConceptIds(LOINC_SYSTEM_URL, LOINC_SYSTOLIC_BP), contains(5085));
+	}
+	
+	@Test
+	public void searchByCode_shouldMatchTheConceptsOfTheTokenTable() {
+		// a token the concept mappings do not have, so only a search that uses the token table finds this obs
+		sessionFactory.getCurrentSession().createSQLQuery(
+		    "insert into fhir_concept_token (system_url, code, concept_id) values ('" + LOINC_SYSTEM_URL + "', '"
+		            + LOINC_SYSTOLIC_BP + "', 5086)")
+		        .executeUpdate();
+		conceptTokenDao.clearCache();
+		
+		List<String> uuids = searchByCode(LOINC_SYSTEM_URL, LOINC_SYSTOLIC_BP);
+		
+		assertThat(uuids, hasItem(SYSTOLIC_BP_OBS_UUID));
+		assertThat(uuids, hasItem(DIASTOLIC_BP_OBS_UUID));
+	}
+	
+	@Test
+	public void searchByCode_shouldMatchTheConceptMappingsWhileTheTableIsSetAside() {
+		conceptTokenDao.invalidateTokens();
+		
+		List<String> uuids = searchByCode(LOINC_SYSTEM_URL, LOINC_SYSTOLIC_BP);
+		
+		assertThat(uuids, hasItem(SYSTOLIC_BP_OBS_UUID));
+		assertThat(uuids, not(hasItem(DIASTOLIC_BP_OBS_UUID)));
+	}
+	
+	@Test
+	public void searchByCode_shouldMatchNothingWhenTheTableHasNoConceptForTheCode() {
+		// the concept mappings still have the code, so a search that fell back to them would find the obs
+		sessionFactory.getCurrentSession()
+		        .createSQLQuery("delete from fhir_concept_token where code = '" + LOINC_SYSTOLIC_BP + "'").executeUpdate();
+		conceptTokenDao.clearCache();
+		
+		assertThat(searchByCode(LOINC_SYSTEM_URL, LOINC_SYSTOLIC_BP), empty());
+	}
+	
+	private void rebuildTokens() {
+		// the table is rebuilt in the background outside of tests, where it would not see the test data
+		FhirConceptTokenDaoImpl dao = AopTestUtils.getUltimateTargetObject(conceptTokenDao);
+		dao.rebuildTokens();
+	}
+	
+	private List<String> searchByCode(String system, String code) {
+		SearchParameterMap theParams = new SearchParameterMap().addParameter(FhirConstants.CODED_SEARCH_HANDLER,
+		    new TokenAndListParam().addAnd(new TokenParam(system, code)));
+		
+		return observationDao.getSearchResults(theParams).stream().map(Obs::getUuid).collect(Collectors.toList());
+	}
+	
+	private List<Integer> getConceptIds(String system, String... codes) {
+		Optional<List<Integer>> conceptIds = conceptTokenDao.getConceptIds(system, asList(codes));
+		assertThat(conceptIds.isPresent(), is(true));
+		return conceptIds.get();
+	}
+}
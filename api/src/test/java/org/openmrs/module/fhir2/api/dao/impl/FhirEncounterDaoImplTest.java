@@ -15,13 +15,20 @@ import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.openmrs.test.OpenmrsMatchers.hasId;
 
 import java.util.List;
+import java.util.stream.Collectors;
 
 import ca.uhn.fhir.rest.param.HasAndListParam;
 import ca.uhn.fhir.rest.param.HasOrListParam;
 import ca.uhn.fhir.rest.param.HasParam;
+import ca.uhn.fhir.rest.param.NumberParam;
+import ca.uhn.fhir.rest.param.ReferenceAndListParam;
+import ca.uhn.fhir.rest.param.ReferenceOrListParam;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.param.StringParam;
 import org.hibernate.SessionFactory;
 import org.junit.Before;
 import org.junit.Test;
@@ -57,6 +64,8 @@ public class FhirEncounterDaoImplTest extends BaseFhirContextSensitiveTest {
 	
 	private static final Integer ENCOUNTER_WITH_ONLY_COMPLETED_DRUG_ORDER = 2005;
 	
+	private static final Integer LASTN_PATIENT_ID = 7;
+	
 	private static final String ENCOUNTER_INITIAL_DATA_XML = "org/openmrs/module/fhir2/api/dao/impl/FhirEncounterDaoImpl_2_2Test_initial_data.xml";
 	
 	@Autowired
@@ -308,4 +317,46 @@ public class FhirEncounterDaoImplTest extends BaseFhirContextSensitiveTest {
 		assertThat("Encounter without Drug Orders is not returned", matchingResources,
 		    not(hasItem(hasId(ENCOUNTER_WITH_NO_DRUG_ORDERS_ID))));
 	}
+	
+	@Test
+	public void getLastnEncountersSubquery_shouldSelectTheSameEncountersAsGetSearchResultUuids() {
+		String patientUuid = Context.getPatientService().getPatient(LASTN_PATIENT_ID).getUuid();
+		SearchParameterMap theParams = new SearchParameterMap()
+		        .addParameter(FhirConstants.PATIENT_REFERENCE_SEARCH_HANDLER,
+		            new ReferenceAndListParam().addAnd(new ReferenceOrListParam().add(new ReferenceParam(patientUuid))))
+		        .addParameter(FhirConstants.MAX_SEARCH_HANDLER, new NumberParam(2))
+		        .addParameter(FhirConstants.LASTN_ENCOUNTERS_SEARCH_HANDLER, new StringParam());
+		
+		@SuppressWarnings("unchecked")
+		List<Integer> ids = dao.getLastnEncountersSubquery(theParams)
+		        .getExecutableCriteria(sessionFactory.getCurrentSession()).list();
+		List<String> expectedUuids = dao.getSearchResultUuids(theParams);
+		
+		List<String> uuids = ids.stream().map(id -> Context.getEncounterService().getEncounter(id).getUuid())
+		        .collect(Collectors.toList());
+		
+		assertThat(uuids.isEmpty(), equalTo(false));
+		assertThat(uuids, containsInAnyOrder(expectedUuids.toArray()));
+	}
+	
+	@Test
+	public void getLastnEncountersSubquery_shouldSelectEveryEncounterWhenThereAreFewerDatesThanMax() {
+		String patientUuid = Context.getPatientService().getPatient(LASTN_PATIENT_ID).getUuid();
+		SearchParameterMap theParams = new SearchParameterMap()
+		        .addParameter(FhirConstants.PATIENT_REFERENCE_SEARCH_HANDLER,
+		            new ReferenceAndListParam().addAnd(new ReferenceOrListParam().add(new ReferenceParam(patientUuid))))
+		        .addParameter(FhirConstants.MAX_SEARCH_HANDLER, new NumberParam(1000))
+		        .addParameter(FhirConstants.LASTN_ENCOUNTERS_SEARCH_HANDLER, new StringParam());
+		
+		@SuppressWarnings("unchecked")
+		List<Integer> ids = dao.getLastnEncountersSubquery(theParams)
+		        .getExecutableCriteria(sessionFactory.getCurrentSession()).list();
+		List<String> expectedUuids = dao.getSearchResultUuids(theParams);
+		
+		List<String> uuids = ids.stream().map(id -> Context.getEncounterService().getEncounter(id).getUuid())
+		        .collect(Collectors.toList());
+		
+		assertThat(uuids.isEmpty(), equalTo(false));
+		assertThat(uuids, containsInAnyOrder(expectedUuids.toArray()));
+	}
 }
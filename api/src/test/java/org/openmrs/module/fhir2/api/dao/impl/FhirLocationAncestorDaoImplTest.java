@@ -0,0 +1,123 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.dao.impl;
+
+import static java.util.Collections.singleton;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Location;
+import org.openmrs.api.LocationService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.fhir2.BaseFhirContextSensitiveTest;
+import org.openmrs.module.fhir2.api.dao.FhirLocationAncestorDao;
+import org.openmrs.module.fhir2.api.dao.FhirLocationDao;
+import org.springframework.beans.factory.annotation.Autowired;
+
+public class FhirLocationAncestorDaoImplTest extends BaseFhirContextSensitiveTest {
+	
+	private static final String LOCATION_INITIAL_DATA_XML = "org/openmrs/module/fhir2/api/dao/impl/FhirLocationDaoImplTest_initial_data.xml";
+	
+	private static final String ROOT_LOCATION_UUID = "76cd2d30-2411-44ef-84ea-8b7473256a6a";
+	
+	private static final String CHILD_LOCATION_UUID = "396ad089-789a-4290-be8c-9cd88909f1fa";
+	
+	private static final String GRANDCHILD_LOCATION_UUID = "e7b8a6d4-3b2a-4f8b-8b6e-1f8b8e6e1f8b";
+	
+	private static final String GREAT_GRANDCHILD_LOCATION_UUID = "f47ac10b-58cc-4372-a567-0e02b2c3d479";
+	
+	@Autowired
+	private FhirLocationAncestorDao locationAncestorDao;
+	
+	@Autowired
+	private FhirLocationDao fhirLocationDao;
+	
+	@Autowired
+	private LocationService locationService;
+	
+	@Before
+	public void setup() throws Exception {
+		executeDataSet(LOCATION_INITIAL_DATA_XML);
+		locationAncestorDao.rebuildAncestors();
+	}
+	
+	@Test
+	public void rebuildAncestors_shouldRelateLocationsToEveryAncestor() {
+		assertThat(getAncestorNames(GREAT_GRANDCHILD_LOCATION_UUID),
+		    containsInAnyOrder("Test location 11", "Test location 8", "Test location 4"));
+		assertThat(getAncestorNames(ROOT_LOCATION_UUID), empty());
+	}
+	
+	@Test
+	public void updateAncestors_shouldMoveDescendantsWithTheirParent() {
+		Location grandchild = locationService.getLocationByUuid(GRANDCHILD_LOCATION_UUID);
+		grandchild.setParentLocation(locationService.getLocationByUuid(CHILD_LOCATION_UUID));
+		locationService.saveLocation(grandchild);
+		Context.flushSession();
+		
+		locationAncestorDao.updateAncestors(singleton(grandchild.getLocationId()));
+		
+		assertThat(getAncestorNames(GRANDCHILD_LOCATION_UUID), containsInAnyOrder("Test location 6", "Test location 4"));
+		assertThat(getAncestorNames(GREAT_GRANDCHILD_LOCATION_UUID),
+		    containsInAnyOrder("Test location 11", "Test location 6", "Test location 4"));
+	}
+	
+	@Test
+	public void updateAncestors_shouldAddNewLocations() {
+		Location location = new Location();
+		location.setName("Test location 13");
+		location.setParentLocation(locationService.getLocationByUuid(GREAT_GRANDCHILD_LOCATION_UUID));
+		locationService.saveLocation(location);
+		Context.flushSession();
+		
+		locationAncestorDao.updateAncestors(singleton(location.getLocationId()));
+		
+		assertThat(getAncestorNames(location.getUuid()),
+		    containsInAnyOrder("Test location 12", "Test location 11", "Test location 8", "Test location 4"));
+	}
+	
+	@Test
+	public void getAncestors_shouldWalkTheHierarchyWhileTheTableIsSetAside() {
+		Location grandchild = locationService.getLocationByUuid(GRANDCHILD_LOCATION_UUID);
+		grandchild.setParentLocation(locationService.getLocationByUuid(CHILD_LOCATION_UUID));
+		locationService.saveLocation(grandchild);
+		Context.flushSession();
+		
+		locationAncestorDao.invalidateAncestors();
+		
+		assertThat(getAncestorNames(GREAT_GRANDCHILD_LOCATION_UUID),
+		    containsInAnyOrder("Test location 11", "Test location 6", "Test location 4"));
+		assertThat(getAncestorNames(ROOT_LOCATION_UUID), empty());
+	}
+	
+	@Test
+	public void invalidateAncestors_shouldSetTheTableAsideUntilItIsRebuilt() {
+		assertThat(locationAncestorDao.isBuilt(), is(true));
+		
+		locationAncestorDao.invalidateAncestors();
+		
+		assertThat(locationAncestorDao.isBuilt(), is(false));
+		
+		locationAncestorDao.rebuildAncestors();
+		
+		assertThat(locationAncestorDao.isBuilt(), is(true));
+	}
+	
+	private List<String> getAncestorNames(String uuid) {
+		return fhirLocationDao.getAncestors(singleton(uuid)).stream().map(Location::getName).collect(Collectors.toList());
+	}
+}
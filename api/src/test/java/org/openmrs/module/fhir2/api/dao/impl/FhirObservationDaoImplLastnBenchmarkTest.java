@@ -0,0 +1,216 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.dao.impl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assume.assumeTrue;
+
+import javax.persistence.Parameter;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import ca.uhn.fhir.rest.param.NumberParam;
+import ca.uhn.fhir.rest.param.ReferenceAndListParam;
+import ca.uhn.fhir.rest.param.ReferenceOrListParam;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.param.StringParam;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.query.NativeQuery;
+import org.junit.After;
+import org.junit.Test;
+import org.openmrs.Patient;
+import org.openmrs.api.PatientService;
+import org.openmrs.module.fhir2.BaseFhirContextSensitiveTest;
+import org.openmrs.module.fhir2.FhirConstants;
+import org.openmrs.module.fhir2.api.dao.FhirObservationDao;
+import org.openmrs.module.fhir2.api.search.param.SearchParameterMap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.util.AopTestUtils;
+
+/**
+ * Compares the window function and in-memory implementations of the Observation $lastn operation on
+ * a seeded set of observations. The window function implementation is run whenever the test database
+ * can rank rows, whatever the database reports about its version, and the query it builds is always
+ * checked. The timings are only measured when the {@code fhir2.benchmark} system property is set,
+ * e.g. {@code mvn test -Dtest=FhirObservationDaoImplLastnBenchmarkTest -Dfhir2.benchmark=true}.
+ */
+@Slf4j
+public class FhirObservationDaoImplLastnBenchmarkTest extends BaseFhirContextSensitiveTest {
+	
+	private static final int PATIENT_ID = 7;
+	
+	private static final int MAX = 3;
+	
+	private static final int BENCHMARK_ITERATIONS = 20;
+	
+	@Autowired
+	private FhirObservationDao dao;
+	
+	@Autowired
+	private PatientService patientService;
+	
+	@After
+	public void tearDown() {
+		getDaoImpl().setWindowFunctionsSupported(null);
+	}
+	
+	@Test
+	public void createLastnQuery_shouldRankTheObservationsOfEachConceptByDate() {
+		NativeQuery<?> query = getDaoImpl().createLastnQuery(getLastnParams(), "ranked.obs_id", "");
+		
+		String sql = query.getQueryString().toLowerCase();
+		assertThat(sql, containsString("dense_rank() over (partition by"));
+		assertThat(sql, containsString(".concept_id order by"));
+		assertThat(sql, containsString(".obs_datetime desc) as obs_rank"));
+		assertThat(sql, endsWith("ranked.obs_rank <= ?"));
+		
+		// the patient is bound first and the maximum number of dates per concept last
+		int last = query.getParameters().stream().mapToInt(Parameter::getPosition).max().getAsInt();
+		assertThat(query.getParameterValue(last), equalTo(MAX));
+	}
+	
+	@Test
+	public void lastn_shouldReturnTheSameObservationsWithAndWithoutWindowFunctions() throws SQLException {
+		assumeTrue("the test database cannot rank rows", canRankRows());
+		seedObservations(5, 20);
+		
+		List<Integer> windowIds = getLastnIds(true);
+		List<Integer> loopIds = getLastnIds(false);
+		
+		assertThat(windowIds, not(empty()));
+		// observations sharing a date may be returned in any order by the in-memory implementation
+		assertThat(windowIds, containsInAnyOrder(loopIds.toArray()));
+		assertThat(getLastnCount(true), equalTo(getLastnCount(false)));
+	}
+	
+	@Test
+	public void lastn_benchmarkWindowFunctionsAgainstInMemoryGrouping() throws SQLException {
+		assumeTrue(Boolean.getBoolean("fhir2.benchmark"));
+		assumeTrue("the test database cannot rank rows", canRankRows());
+		seedObservations(20, 500);
+		
+		long windowNanos = time(() -> getLastnIds(true));
+		long loopNanos = time(() -> getLastnIds(false));
+		
+		log.info("$lastn over {} observations: window functions {} ms, in-memory grouping {} ms", 20 * 500,
+		    TimeUnit.NANOSECONDS.toMillis(windowNanos) / BENCHMARK_ITERATIONS,
+		    TimeUnit.NANOSECONDS.toMillis(loopNanos) / BENCHMARK_ITERATIONS);
+	}
+	
+	private long time(Supplier<?> search) {
+		// warm up
+		search.get();
+		
+		long start = System.nanoTime();
+		for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+			search.get();
+		}
+		
+		return System.nanoTime() - start;
+	}
+	
+	private List<Integer> getLastnIds(boolean windowFunctionsSupported) {
+		getDaoImpl().setWindowFunctionsSupported(windowFunctionsSupported);
+		SearchParameterMap theParams = getLastnParams();
+		theParams.setFromIndex(0);
+		theParams.setToIndex(Integer.MAX_VALUE);
+		return dao.getSearchResultIds(theParams);
+	}
+	
+	private int getLastnCount(boolean windowFunctionsSupported) {
+		getDaoImpl().setWindowFunctionsSupported(windowFunctionsSupported);
+		return dao.getSearchResultsCount(getLastnParams());
+	}
+	
+	private SearchParameterMap getLastnParams() {
+		Patient patient = patientService.getPatient(PATIENT_ID);
+		ReferenceAndListParam patientReference = new ReferenceAndListParam()
+		        .addAnd(new ReferenceOrListParam().add(new ReferenceParam().setValue(patient.getUuid())));
+		
+		return new SearchParameterMap().addParameter(FhirConstants.PATIENT_REFERENCE_SEARCH_HANDLER, patientReference)
+		        .addParameter(FhirConstants.MAX_SEARCH_HANDLER, new NumberParam(MAX))
+		        .addParameter(FhirConstants.LASTN_OBSERVATION_SEARCH_HANDLER, new StringParam());
+	}
+	
+	/**
+	 * Inserts a number of numeric observations for each of the given number of concepts. Every fifth
+	 * observation shares its date with another, so that the ranking of ties is compared too.
+	 */
+	private void seedObservations(int conceptCount, int observationsPerConcept) throws SQLException {
+		Connection connection = getConnection();
+		
+		List<Integer> conceptIds = new ArrayList<>(conceptCount);
+		try (PreparedStatement statement = connection
+		        .prepareStatement("select concept_id from concept where retired = false order by concept_id")) {
+			statement.setMaxRows(conceptCount);
+			try (ResultSet resultSet = statement.executeQuery()) {
+				while (resultSet.next()) {
+					conceptIds.add(resultSet.getInt(1));
+				}
+			}
+		}
+		
+		LocalDateTime start = LocalDateTime.of(2020, 1, 1, 8, 0);
+		try (PreparedStatement statement = connection.prepareStatement(
+		    "insert into obs (person_id, concept_id, obs_datetime, value_numeric, status, creator, date_created, voided, uuid)"
+		            + " values (?, ?, ?, ?, 'FINAL', 1, ?, false, ?)")) {
+			for (Integer conceptId : conceptIds) {
+				for (int i = 0; i < observationsPerConcept; i++) {
+					Timestamp obsDatetime = Timestamp.valueOf(start.minusDays(i % 5 == 1 ? i - 1 : i));
+					statement.setInt(1, PATIENT_ID);
+					statement.setInt(2, conceptId);
+					statement.setTimestamp(3, obsDatetime);
+					statement.setDouble(4, i);
+					statement.setTimestamp(5, obsDatetime);
+					statement.setString(6, UUID.randomUUID().toString());
+					statement.addBatch();
+				}
+			}
+			
+			statement.executeBatch();
+		}
+	}
+	
+	/**
+	 * Checks whether the database can run {@code DENSE_RANK()} by running it, so that the window
+	 * function implementation is not skipped because of what the database reports about its version
+	 */
+	private boolean canRankRows() throws SQLException {
+		try (Statement statement = getConnection().createStatement()) {
+			statement.executeQuery("select dense_rank() over (order by concept_id) from concept").close();
+			return true;
+		}
+		catch (SQLException e) {
+			log.info("The test database does not support window functions: {}", e.getMessage());
+			return false;
+		}
+	}
+	
+	private FhirObservationDaoImpl getDaoImpl() {
+		return AopTestUtils.getUltimateTargetObject(dao);
+	}
+}
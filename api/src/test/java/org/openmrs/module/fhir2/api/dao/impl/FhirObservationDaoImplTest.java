@@ -10,14 +10,24 @@
 package org.openmrs.module.fhir2.api.dao.impl;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
 
+import ca.uhn.fhir.rest.api.SortOrderEnum;
+import ca.uhn.fhir.rest.api.SortSpec;
 import ca.uhn.fhir.rest.param.TokenAndListParam;
 import ca.uhn.fhir.rest.param.TokenParam;
+import org.hl7.fhir.r4.model.Observation;
 import org.junit.Before;
 import org.junit.Test;
 import org.openmrs.Obs;
@@ -75,4 +85,86 @@ public class FhirObservationDaoImplTest extends BaseFhirContextSensitiveTest {
 		assertThat(obs, notNullValue());
 	}
 	
+	@Test
+	public void search_shouldReturnSamePageWithKeysetAsWithOffset() {
+		SearchParameterMap keysetParams = new SearchParameterMap()
+		        .setSortSpec(new SortSpec(Observation.SP_DATE, SortOrderEnum.DESC));
+		keysetParams.setFromIndex(0);
+		keysetParams.setToIndex(3);
+		dao.getSearchResults(keysetParams);
+		
+		assertThat(keysetParams.getCursor(), notNullValue());
+		assertThat(keysetParams.getCursor().getPosition(), equalTo(3));
+		
+		keysetParams.setFromIndex(3);
+		keysetParams.setToIndex(6);
+		List<String> keysetPage = dao.getSearchResults(keysetParams).stream().map(Obs::getUuid)
+		        .collect(Collectors.toList());
+		
+		SearchParameterMap offsetParams = new SearchParameterMap()
+		        .setSortSpec(new SortSpec(Observation.SP_DATE, SortOrderEnum.DESC));
+		offsetParams.setFromIndex(3);
+		offsetParams.setToIndex(6);
+		List<String> offsetPage = dao.getSearchResults(offsetParams).stream().map(Obs::getUuid)
+		        .collect(Collectors.toList());
+		
+		assertThat(keysetPage, not(empty()));
+		assertThat(keysetPage, equalTo(offsetPage));
+	}
+	
+	@Test
+	public void getSearchResultIds_shouldReturnIdsInSearchOrder() {
+		SearchParameterMap theParams = new SearchParameterMap()
+		        .setSortSpec(new SortSpec(Observation.SP_DATE, SortOrderEnum.DESC));
+		List<Integer> expectedIds = dao.getSearchResults(theParams).stream().map(Obs::getId).collect(Collectors.toList());
+		
+		theParams.setCursor(null);
+		List<Integer> ids = dao.getSearchResultIds(theParams);
+		
+		assertThat(ids, not(empty()));
+		assertThat(ids, equalTo(expectedIds));
+	}
+	
+	@Test
+	public void getSearchResultsByIds_shouldPreserveOrderOfIds() {
+		SearchParameterMap theParams = new SearchParameterMap()
+		        .setSortSpec(new SortSpec(Observation.SP_DATE, SortOrderEnum.DESC));
+		List<Integer> ids = dao.getSearchResultIds(theParams);
+		Collections.reverse(ids);
+		
+		List<Integer> results = dao.getSearchResultsByIds(ids).stream().map(Obs::getId).collect(Collectors.toList());
+		
+		assertThat(results, equalTo(ids));
+	}
+	
+	@Test
+	public void search_shouldReadOneRowAheadToDetermineWhetherThereAreMoreResults() {
+		SearchParameterMap theParams = new SearchParameterMap()
+		        .setSortSpec(new SortSpec(Observation.SP_DATE, SortOrderEnum.DESC));
+		int total = dao.getSearchResultIds(theParams).size();
+		
+		theParams.setLookahead(true);
+		theParams.setFromIndex(0);
+		theParams.setToIndex(total - 1);
+		assertThat(dao.getSearchResults(theParams), hasSize(total - 1));
+		assertThat(theParams.getHasMoreResults(), equalTo(true));
+		
+		theParams.setCursor(null);
+		theParams.setToIndex(total);
+		assertThat(dao.getSearchResults(theParams), hasSize(total));
+		assertThat(theParams.getHasMoreResults(), equalTo(false));
+	}
+	
+	@Test
+	public void supportsWindowFunctions_shouldDetectDatabasesThatSupportDenseRank() {
+		assertThat(FhirObservationDaoImpl.supportsWindowFunctions("MySQL", "8.0.23", 8, 0), is(true));
+		assertThat(FhirObservationDaoImpl.supportsWindowFunctions("MySQL", "5.7.33", 5, 7), is(false));
+		assertThat(FhirObservationDaoImpl.supportsWindowFunctions("MySQL", "5.5.5-10.4.12-MariaDB", 5, 5), is(true));
+		assertThat(FhirObservationDaoImpl.supportsWindowFunctions("MySQL", "5.5.5-10.1.48-MariaDB", 5, 5), is(false));
+		assertThat(FhirObservationDaoImpl.supportsWindowFunctions("MariaDB", "10.3.27-MariaDB", 10, 3), is(true));
+		assertThat(FhirObservationDaoImpl.supportsWindowFunctions("PostgreSQL", "12.6", 12, 6), is(true));
+		assertThat(FhirObservationDaoImpl.supportsWindowFunctions("H2", "1.4.200 (2019-10-14)", 1, 4), is(true));
+		assertThat(FhirObservationDaoImpl.supportsWindowFunctions("H2", "1.4.190 (2015-10-11)", 1, 4), is(false));
+		assertThat(FhirObservationDaoImpl.supportsWindowFunctions("Apache Derby", "10.14.2.0", 10, 14), is(false));
+	}
 }
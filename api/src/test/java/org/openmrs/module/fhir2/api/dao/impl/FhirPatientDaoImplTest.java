@@ -12,20 +12,29 @@ package org.openmrs.module.fhir2.api.dao.impl;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hl7.fhir.r4.model.Patient.SP_BIRTHDATE;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
 
+import ca.uhn.fhir.rest.api.SortOrderEnum;
+import ca.uhn.fhir.rest.api.SortSpec;
 import ca.uhn.fhir.rest.param.HasAndListParam;
 import ca.uhn.fhir.rest.param.HasOrListParam;
 import ca.uhn.fhir.rest.param.HasParam;
+import org.hibernate.Hibernate;
 import org.hibernate.SessionFactory;
 import org.junit.Before;
 import org.junit.Test;
 import org.openmrs.Patient;
 import org.openmrs.module.fhir2.BaseFhirContextSensitiveTest;
 import org.openmrs.module.fhir2.FhirConstants;
+import org.openmrs.module.fhir2.api.search.param.FetchProfile;
 import org.openmrs.module.fhir2.api.search.param.SearchParameterMap;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -142,4 +151,67 @@ public class FhirPatientDaoImplTest extends BaseFhirContextSensitiveTest {
 		assertThat(result, notNullValue());
 		assertThat(result, empty());
 	}
+	
+	@Test
+	public void getSearchResults_shouldLoadTheAssociationsOfTheFetchProfileWithThePage() {
+		sessionFactory.getCurrentSession().clear();
+		
+		SearchParameterMap theParams = new SearchParameterMap();
+		theParams.setFetchProfile(FetchProfile.SUMMARY);
+		List<Patient> result = dao.getSearchResults(theParams);
+		
+		assertThat(result, not(empty()));
+		for (Patient patient : result) {
+			assertThat(Hibernate.isInitialized(patient.getNames()), is(true));
+			assertThat(Hibernate.isInitialized(patient.getIdentifiers()), is(true));
+			assertThat(Hibernate.isInitialized(patient.getAddresses()), is(false));
+		}
+	}
+	
+	@Test
+	public void getSearchResults_shouldLoadAllAssociationsOfTheFullFetchProfileWithThePage() {
+		sessionFactory.getCurrentSession().clear();
+		
+		List<Patient> result = dao.getSearchResults(new SearchParameterMap());
+		
+		assertThat(result, not(empty()));
+		for (Patient patient : result) {
+			assertThat(Hibernate.isInitialized(patient.getAddresses()), is(true));
+			assertThat(Hibernate.isInitialized(patient.getAttributes()), is(true));
+		}
+	}
+	
+	@Test
+	public void getSearchResults_shouldNotSkipPatientsWithoutABirthdateWhenPagingByBirthdate() {
+		sessionFactory.getCurrentSession()
+		        .createSQLQuery("update person set birthdate = null where person_id in (2, 5, 7)").executeUpdate();
+		sessionFactory.getCurrentSession()
+		        .createSQLQuery("update person set birthdate = '1975-04-08' where person_id in (4, 6, 8)").executeUpdate();
+		
+		for (SortOrderEnum sortOrder : SortOrderEnum.values()) {
+			SearchParameterMap theParams = new SearchParameterMap().setSortSpec(new SortSpec(SP_BIRTHDATE, sortOrder));
+			List<Integer> expectedIds = dao.getSearchResults(theParams).stream().map(Patient::getId)
+			        .collect(Collectors.toList());
+			
+			assertThat(getIdsPageByPage(sortOrder, 2), equalTo(expectedIds));
+		}
+	}
+	
+	private List<Integer> getIdsPageByPage(SortOrderEnum sortOrder, int pageSize) {
+		SearchParameterMap theParams = new SearchParameterMap().setSortSpec(new SortSpec(SP_BIRTHDATE, sortOrder));
+		List<Integer> ids = new ArrayList<>();
+		for (int fromIndex = 0;; fromIndex += pageSize) {
+			theParams.setFromIndex(fromIndex);
+			theParams.setToIndex(fromIndex + pageSize);
+			List<Patient> page = dao.getSearchResults(theParams);
+			page.stream().map(Patient::getId).forEach(ids::add);
+			
+			if (page.size() < pageSize) {
+				return ids;
+			}
+			
+			// every following page, including those after a patient without a birthdate, is loaded using the keyset
+			assertThat(theParams.getCursor(), notNullValue());
+		}
+	}
 }
@@ -0,0 +1,104 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.dao.impl;
+
+import static java.util.Collections.singletonList;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+import org.hibernate.HibernateException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openmrs.Location;
+import org.openmrs.module.fhir2.api.dao.FhirLocationAncestorDao;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LocationAncestorInterceptorTest {
+	
+	private static final Integer LOCATION_ID = 12;
+	
+	private static final Integer OLD_PARENT_ID = 11;
+	
+	private static final Integer NEW_PARENT_ID = 6;
+	
+	@Mock
+	private FhirLocationAncestorDao locationAncestorDao;
+	
+	private LocationAncestorInterceptor interceptor;
+	
+	@Before
+	public void setup() {
+		interceptor = new LocationAncestorInterceptor();
+		interceptor.setLocationAncestorDao(locationAncestorDao);
+	}
+	
+	@After
+	public void tearDown() {
+		// clears the state held for the current thread
+		interceptor.setLocationAncestorDao(null);
+		interceptor.afterTransactionCompletion(null);
+	}
+	
+	@Test
+	public void beforeTransactionCompletion_shouldUpdateTheAncestorsOfNewLocations() {
+		interceptor.onSave(new Location(LOCATION_ID), LOCATION_ID, null, null, null);
+		
+		complete();
+		
+		verify(locationAncestorDao).updateAncestors(singletonList(LOCATION_ID));
+		verify(locationAncestorDao, never()).invalidateAncestors();
+		verify(locationAncestorDao, never()).rebuildAncestorsInBackground();
+	}
+	
+	@Test
+	public void beforeTransactionCompletion_shouldUpdateTheAncestorsOfLocationsMovedToADifferentParent() {
+		interceptor.onFlushDirty(new Location(LOCATION_ID), LOCATION_ID, new Object[] { new Location(NEW_PARENT_ID) },
+		    new Object[] { new Location(OLD_PARENT_ID) }, new String[] { "parentLocation" }, null);
+		
+		complete();
+		
+		verify(locationAncestorDao).updateAncestors(singletonList(LOCATION_ID));
+	}
+	
+	@Test
+	public void beforeTransactionCompletion_shouldSetTheTableAsideAndRebuildItIfTheAncestorsCannotBeUpdated() {
+		doThrow(new HibernateException("Could not update")).when(locationAncestorDao).updateAncestors(any());
+		interceptor.onSave(new Location(LOCATION_ID), LOCATION_ID, null, null, null);
+		
+		complete();
+		
+		verify(locationAncestorDao).invalidateAncestors();
+		verify(locationAncestorDao).rebuildAncestorsInBackground();
+	}
+	
+	@Test
+	public void beforeTransactionCompletion_shouldIgnoreChangesThatDoNotMoveALocation() {
+		interceptor.onFlushDirty(new Location(LOCATION_ID), LOCATION_ID,
+		    new Object[] { "Test location 12", new Location(OLD_PARENT_ID) },
+		    new Object[] { "Test location", new Location(OLD_PARENT_ID) }, new String[] { "name", "parentLocation" },
+		    null);
+		
+		complete();
+		
+		verifyNoInteractions(locationAncestorDao);
+	}
+	
+	private void complete() {
+		interceptor.beforeTransactionCompletion(null);
+		interceptor.afterTransactionCompletion(null);
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.impl;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import ca.uhn.fhir.context.FhirContext;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.PatientService;
+import org.openmrs.module.fhir2.BaseFhirContextSensitiveTest;
+import org.openmrs.module.fhir2.FhirConstants;
+import org.openmrs.module.fhir2.api.util.FhirGlobalPropertyHolder;
+import org.openmrs.module.fhir2.model.FhirBulkExportJob;
+import org.openmrs.module.fhir2.model.FhirBulkExportJob.ExportLevel;
+import org.openmrs.module.fhir2.model.FhirBulkExportJob.ExportStatus;
+import org.openmrs.module.fhir2.model.FhirBulkExportOutput;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+
+public class FhirBulkExportServiceImplTest extends BaseFhirContextSensitiveTest {
+	
+	private static final String REQUEST_URL = "http://localhost/ws/fhir2/R4/$export?_type=Patient";
+	
+	@Rule
+	public TemporaryFolder exportFolder = new TemporaryFolder();
+	
+	@Autowired
+	@Qualifier("adminService")
+	private AdministrationService administrationService;
+	
+	@Autowired
+	private PatientService patientService;
+	
+	@Autowired
+	@Qualifier("fhirR4")
+	private FhirContext fhirContext;
+	
+	@Autowired
+	private FhirBulkExportServiceImpl bulkExportService;
+	
+	@Before
+	public void setup() {
+		administrationService.saveGlobalProperty(new GlobalProperty(FhirConstants.OPENMRS_FHIR_EXPORT_DIRECTORY,
+		        exportFolder.getRoot().getAbsolutePath()));
+		FhirGlobalPropertyHolder.reset();
+	}
+	
+	@Test
+	public void runExportJob_shouldWriteOneResourcePerLine() throws Exception {
+		FhirBulkExportJob job = bulkExportService.createExportJob(ExportLevel.SYSTEM, null,
+		    Collections.singletonList(FhirConstants.PATIENT), null, REQUEST_URL);
+		
+		bulkExportService.runExportJob(job.getUuid());
+		
+		job = bulkExportService.getExportJob(job.getUuid());
+		assertThat(job.getStatus(), equalTo(ExportStatus.COMPLETED));
+		assertThat(job.getOutputs(), hasSize(1));
+		
+		List<String> expectedUuids = getPatientUuidsInIdOrder();
+		assertThat(job.getOutputs().get(0).getResourceCount(), equalTo(expectedUuids.size()));
+		assertThat(readPatientIds(bulkExportService.getExportFile(job.getUuid(), FhirConstants.PATIENT)),
+		    equalTo(expectedUuids));
+	}
+	
+	@Test
+	public void runExportJob_shouldResumeFromTheLastRecordedPosition() throws Exception {
+		List<org.openmrs.Patient> patients = patientService.getAllPatients();
+		patients.sort(Comparator.comparing(org.openmrs.Patient::getId));
+		
+		FhirBulkExportJob job = bulkExportService.createExportJob(ExportLevel.SYSTEM, null,
+		    Collections.singletonList(FhirConstants.PATIENT), null, REQUEST_URL);
+		
+		// simulate an export interrupted after writing the first patient and part of the second
+		String firstLine = "{\"resourceType\":\"Patient\",\"id\":\"" + patients.get(0).getUuid() + "\"}\n";
+		File directory = new File(exportFolder.getRoot(), job.getUuid());
+		assertThat(directory.mkdirs(), is(true));
+		Files.write(new File(directory, FhirConstants.PATIENT + FhirBulkExportServiceImpl.NDJSON_EXTENSION).toPath(),
+		    (firstLine + "{\"resourceType\":\"Pat").getBytes(UTF_8));
+		
+		FhirBulkExportOutput output = new FhirBulkExportOutput();
+		output.setResourceType(FhirConstants.PATIENT);
+		output.setResourceCount(1);
+		output.setFileLength((long) firstLine.getBytes(UTF_8).length);
+		job.getOutputs().add(output);
+		job.setStatus(ExportStatus.IN_PROGRESS);
+		job.setCurrentResourceType(FhirConstants.PATIENT);
+		job.setLastId(patients.get(0).getId());
+		
+		bulkExportService.runExportJob(job.getUuid());
+		
+		job = bulkExportService.getExportJob(job.getUuid());
+		assertThat(job.getStatus(), equalTo(ExportStatus.COMPLETED));
+		assertThat(job.getOutputs().get(0).getResourceCount(), equalTo(patients.size()));
+		assertThat(readPatientIds(bulkExportService.getExportFile(job.getUuid(), FhirConstants.PATIENT)),
+		    equalTo(getPatientUuidsInIdOrder()));
+	}
+	
+	@Test
+	public void getSupportedResourceTypes_shouldOnlyIncludePatientCompartmentTypesForPatientExports() {
+		List<String> resourceTypes = bulkExportService.getSupportedResourceTypes(ExportLevel.PATIENT);
+		
+		assertThat(resourceTypes.contains(FhirConstants.PATIENT), is(true));
+		assertThat(resourceTypes.contains(FhirConstants.OBSERVATION), is(true));
+		assertThat(resourceTypes.contains(FhirConstants.LOCATION), is(false));
+		assertThat(bulkExportService.getSupportedResourceTypes(ExportLevel.SYSTEM).contains(FhirConstants.LOCATION),
+		    is(true));
+	}
+	
+	private List<String> getPatientUuidsInIdOrder() {
+		return patientService.getAllPatients().stream().sorted(Comparator.comparing(org.openmrs.Patient::getId))
+		        .map(org.openmrs.Patient::getUuid).collect(Collectors.toList());
+	}
+	
+	private List<String> readPatientIds(File file) throws Exception {
+		return Files.readAllLines(file.toPath(), UTF_8).stream()
+		        .map(line -> fhirContext.newJsonParser().parseResource(Patient.class, line).getIdElement().getIdPart())
+		        .collect(Collectors.toList());
+	}
+}
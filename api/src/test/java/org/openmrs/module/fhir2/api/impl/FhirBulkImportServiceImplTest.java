@@ -0,0 +1,186 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.impl;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.APIAuthenticationException;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.LocationService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.fhir2.BaseFhirContextSensitiveTest;
+import org.openmrs.module.fhir2.FhirConstants;
+import org.openmrs.module.fhir2.api.util.FhirGlobalPropertyHolder;
+import org.openmrs.module.fhir2.api.util.FhirUtils;
+import org.openmrs.module.fhir2.model.FhirBulkImportInput;
+import org.openmrs.module.fhir2.model.FhirBulkImportJob;
+import org.openmrs.module.fhir2.model.FhirBulkImportJob.ImportStatus;
+import org.openmrs.util.PrivilegeConstants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+
+public class FhirBulkImportServiceImplTest extends BaseFhirContextSensitiveTest {
+	
+	private static final String REQUEST_URL = "http://localhost/ws/fhir2/R4/$import";
+	
+	private static final String FIRST_LOCATION_UUID = "c7d9f6a2-0b4e-4c55-9d2a-6a1f4b0e1a01";
+	
+	private static final String SECOND_LOCATION_UUID = "c7d9f6a2-0b4e-4c55-9d2a-6a1f4b0e1a02";
+	
+	private static final String FIRST_LINE = "{\"resourceType\":\"Location\",\"id\":\"" + FIRST_LOCATION_UUID
+	        + "\",\"name\":\"First Imported Location\"}\n";
+	
+	private static final String SECOND_LINE = "{\"resourceType\":\"Location\",\"id\":\"" + SECOND_LOCATION_UUID
+	        + "\",\"name\":\"Second Imported Location\"}\n";
+	
+	@Rule
+	public TemporaryFolder importFolder = new TemporaryFolder();
+	
+	@Autowired
+	@Qualifier("adminService")
+	private AdministrationService administrationService;
+	
+	@Autowired
+	private LocationService locationService;
+	
+	@Autowired
+	private FhirBulkImportServiceImpl bulkImportService;
+	
+	@Before
+	public void setup() {
+		administrationService.saveGlobalProperty(new GlobalProperty(FhirConstants.OPENMRS_FHIR_IMPORT_DIRECTORY,
+		        importFolder.getRoot().getAbsolutePath()));
+		FhirGlobalPropertyHolder.reset();
+	}
+	
+	@Test
+	public void runImportJob_shouldImportValidLinesAndRecordAnErrorForEachInvalidLine() throws Exception {
+		FhirBulkImportJob job = createImportJob(FIRST_LINE + "not json\n\n"
+		        + "{\"resourceType\":\"Location\",\"description\":\"A location without a name\"}\n" + SECOND_LINE);
+		
+		bulkImportService.runImportJob(job.getUuid());
+		
+		job = bulkImportService.getImportJob(job.getUuid());
+		assertThat(job.getStatus(), equalTo(ImportStatus.COMPLETED));
+		
+		FhirBulkImportInput input = job.getInputs().get(0);
+		assertThat(input.getLineCount(), equalTo(5));
+		assertThat(input.getImportedCount(), equalTo(2));
+		assertThat(input.getErrorCount(), equalTo(2));
+		assertThat(locationService.getLocationByUuid(FIRST_LOCATION_UUID), notNullValue());
+		assertThat(locationService.getLocationByUuid(SECOND_LOCATION_UUID), notNullValue());
+		
+		List<String> errors = Files.readAllLines(bulkImportService.getErrorFile(job.getUuid(), 0).toPath(), UTF_8);
+		assertThat(errors, hasSize(2));
+		assertThat(errors.get(0), containsString("Line 2: "));
+		assertThat(errors.get(1), containsString("Line 4: "));
+	}
+	
+	@Test
+	public void runImportJob_shouldRestartFromTheLastCommittedChunk() throws Exception {
+		FhirBulkImportJob job = createImportJob(FIRST_LINE + SECOND_LINE);
+		
+		// simulate an import interrupted after the chunk holding the first line was committed
+		FhirBulkImportInput input = job.getInputs().get(0);
+		input.setLineCount(1);
+		input.setImportedCount(1);
+		input.setFileOffset((long) FIRST_LINE.getBytes(UTF_8).length);
+		job.setStatus(ImportStatus.IN_PROGRESS);
+		job.setCurrentInput(0);
+		
+		bulkImportService.runImportJob(job.getUuid());
+		
+		job = bulkImportService.getImportJob(job.getUuid());
+		assertThat(job.getStatus(), equalTo(ImportStatus.COMPLETED));
+		assertThat(job.getInputs().get(0).getLineCount(), equalTo(2));
+		assertThat(job.getInputs().get(0).getImportedCount(), equalTo(2));
+		assertThat(locationService.getLocationByUuid(FIRST_LOCATION_UUID), nullValue());
+		assertThat(locationService.getLocationByUuid(SECOND_LOCATION_UUID), notNullValue());
+	}
+	
+	@Test
+	public void runImportJob_shouldFailWhenTheUserCannotSaveTheImportedType() throws Exception {
+		FhirBulkImportJob job = createImportJob(FIRST_LINE);
+		
+		Context.logout();
+		bulkImportService.runImportJob(job.getUuid());
+		authenticate();
+		
+		job = bulkImportService.getImportJob(job.getUuid());
+		assertThat(job.getStatus(), equalTo(ImportStatus.FAILED));
+		assertThat(job.getError(), containsString(PrivilegeConstants.MANAGE_LOCATIONS));
+		assertThat(job.getInputs().get(0).getImportedCount(), equalTo(0));
+		assertThat(locationService.getLocationByUuid(FIRST_LOCATION_UUID), nullValue());
+	}
+	
+	@Test(expected = APIAuthenticationException.class)
+	public void startImport_shouldRejectUsersWithoutThePrivilegesToSaveTheImportedType() throws Exception {
+		importFolder.newFile("locations.ndjson");
+		
+		FhirBulkImportInput input = new FhirBulkImportInput();
+		input.setResourceType(FhirConstants.LOCATION);
+		input.setUrl("locations.ndjson");
+		
+		Context.logout();
+		bulkImportService.startImport(Collections.singletonList(input), REQUEST_URL);
+	}
+	
+	@Test(expected = InvalidRequestException.class)
+	public void startImport_shouldRejectFilesOutsideTheImportDirectory() throws Exception {
+		File outside = File.createTempFile("locations", ".ndjson");
+		outside.deleteOnExit();
+		
+		FhirBulkImportInput input = new FhirBulkImportInput();
+		input.setResourceType(FhirConstants.LOCATION);
+		input.setUrl(outside.toURI().toString());
+		
+		bulkImportService.startImport(Collections.singletonList(input), REQUEST_URL);
+	}
+	
+	@Test(expected = InvalidRequestException.class)
+	public void startImport_shouldRejectUnsupportedResourceTypes() throws Exception {
+		importFolder.newFile("groups.ndjson");
+		
+		FhirBulkImportInput input = new FhirBulkImportInput();
+		input.setResourceType(FhirConstants.GROUP);
+		input.setUrl("groups.ndjson");
+		
+		bulkImportService.startImport(Collections.singletonList(input), REQUEST_URL);
+	}
+	
+	private FhirBulkImportJob createImportJob(String content) throws Exception {
+		File file = importFolder.newFile("locations.ndjson");
+		Files.write(file.toPath(), content.getBytes(UTF_8));
+		
+		FhirBulkImportInput input = new FhirBulkImportInput();
+		input.setResourceType(FhirConstants.LOCATION);
+		input.setUrl(file.getName());
+		input.setFilePath(file.getPath());
+		
+		return bulkImportService.createImportJob(FhirUtils.newUuid(), Collections.singletonList(input), REQUEST_URL);
+	}
+}
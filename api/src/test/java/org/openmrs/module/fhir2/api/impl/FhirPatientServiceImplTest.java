@@ -47,6 +47,7 @@ import ca.uhn.fhir.rest.param.StringAndListParam;
 import ca.uhn.fhir.rest.param.StringParam;
 import ca.uhn.fhir.rest.param.TokenAndListParam;
 import ca.uhn.fhir.rest.param.TokenParam;
+import ca.uhn.fhir.rest.server.exceptions.NotModifiedException;
 import com.github.dnault.xmlpatch.repackaged.joptsimple.internal.Strings;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.CodeableConcept;
@@ -73,6 +74,7 @@ import org.openmrs.module.fhir2.api.search.param.OpenmrsPatientSearchParams;
 import org.openmrs.module.fhir2.api.search.param.PatientSearchParams;
 import org.openmrs.module.fhir2.api.search.param.SearchParameterMap;
 import org.openmrs.module.fhir2.api.translators.PatientTranslator;
+import org.openmrs.module.fhir2.api.util.ConditionalReadContext;
 
 @RunWith(MockitoJUnitRunner.class)
 public class FhirPatientServiceImplTest {
@@ -194,6 +196,21 @@ public class FhirPatientServiceImplTest {
 		assertThat(result.getId(), equalTo(PATIENT_UUID));
 	}
 	
+	@Test(expected = NotModifiedException.class)
+	public void getPatientByUuid_shouldNotTranslateAPatientTheClientAlreadyHas() {
+		Date dateCreated = new Date();
+		patient.setDateCreated(dateCreated);
+		when(dao.get(PATIENT_UUID)).thenReturn(patient);
+		
+		ConditionalReadContext.set("Patient", PATIENT_UUID, String.valueOf(dateCreated.getTime()), null);
+		try {
+			patientService.get(PATIENT_UUID);
+		}
+		finally {
+			ConditionalReadContext.clear();
+		}
+	}
+	
 	@Test
 	public void getById_shouldReturnPatientById() {
 		when(dao.getPatientById(1)).thenReturn(patient);
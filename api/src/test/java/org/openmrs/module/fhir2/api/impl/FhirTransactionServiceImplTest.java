@@ -0,0 +1,106 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.impl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.startsWith;
+
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Location;
+import org.hl7.fhir.r4.model.Reference;
+import org.junit.Test;
+import org.openmrs.api.LocationService;
+import org.openmrs.module.fhir2.BaseFhirContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+public class FhirTransactionServiceImplTest extends BaseFhirContextSensitiveTest {
+	
+	private static final String WARD_URN = "urn:uuid:0f6b1d5e-6d3c-4f53-a1a4-3d3d2b8f7c01";
+	
+	private static final String HOSPITAL_URN = "urn:uuid:0f6b1d5e-6d3c-4f53-a1a4-3d3d2b8f7c02";
+	
+	@Autowired
+	private LocationService locationService;
+	
+	@Autowired
+	private FhirTransactionServiceImpl transactionService;
+	
+	@Test
+	public void processBundle_shouldCreateReferencedResourcesFirstAndReplaceTheirUrns() {
+		Bundle bundle = new Bundle().setType(Bundle.BundleType.TRANSACTION);
+		addCreate(bundle, WARD_URN, new Location().setName("Transaction Ward").setPartOf(new Reference(HOSPITAL_URN)));
+		addCreate(bundle, HOSPITAL_URN, new Location().setName("Transaction Hospital"));
+		
+		Bundle response = transactionService.processBundle(bundle, null);
+		
+		assertThat(response.getType(), equalTo(Bundle.BundleType.TRANSACTIONRESPONSE));
+		assertThat(response.getEntry(), hasSize(2));
+		assertThat(response.getEntry().get(0).getResponse().getStatus(), equalTo("201 Created"));
+		assertThat(response.getEntry().get(1).getResponse().getStatus(), equalTo("201 Created"));
+		
+		String wardUuid = new IdType(response.getEntry().get(0).getResponse().getLocation()).getIdPart();
+		String hospitalUuid = new IdType(response.getEntry().get(1).getResponse().getLocation()).getIdPart();
+		
+		org.openmrs.Location ward = locationService.getLocationByUuid(wardUuid);
+		assertThat(ward, notNullValue());
+		assertThat(ward.getParentLocation(), notNullValue());
+		assertThat(ward.getParentLocation().getUuid(), equalTo(hospitalUuid));
+		assertThat(((Location) response.getEntry().get(0).getResource()).getPartOf().getReference(),
+		    equalTo("Location/" + hospitalUuid));
+	}
+	
+	@Test(expected = InvalidRequestException.class)
+	public void processBundle_shouldRejectAReferenceToAnUrnThatIsNotCreated() {
+		Bundle bundle = new Bundle().setType(Bundle.BundleType.TRANSACTION);
+		addCreate(bundle, WARD_URN, new Location().setName("Transaction Ward").setPartOf(new Reference(HOSPITAL_URN)));
+		
+		transactionService.processBundle(bundle, null);
+	}
+	
+	@Test(expected = InvalidRequestException.class)
+	public void processBundle_shouldRejectCreatesThatReferToEachOther() {
+		Bundle bundle = new Bundle().setType(Bundle.BundleType.TRANSACTION);
+		addCreate(bundle, WARD_URN, new Location().setName("Transaction Ward").setPartOf(new Reference(HOSPITAL_URN)));
+		addCreate(bundle, HOSPITAL_URN,
+		    new Location().setName("Transaction Hospital").setPartOf(new Reference(WARD_URN)));
+		
+		transactionService.processBundle(bundle, null);
+	}
+	
+	@Test
+	public void processBundle_shouldReportTheOutcomeOfEachEntryOfABatch() {
+		Bundle bundle = new Bundle().setType(Bundle.BundleType.BATCH);
+		addCreate(bundle, WARD_URN, new Location().setName("Batch Ward"));
+		bundle.addEntry().getRequest().setMethod(Bundle.HTTPVerb.GET).setUrl("Location/no-such-location");
+		
+		Bundle response = transactionService.processBundle(bundle, null);
+		
+		assertThat(response.getType(), equalTo(Bundle.BundleType.BATCHRESPONSE));
+		assertThat(response.getEntry().get(0).getResponse().getStatus(), equalTo("201 Created"));
+		assertThat(response.getEntry().get(1).getResponse().getStatus(), not(startsWith("2")));
+		assertThat(response.getEntry().get(1).getResponse().getOutcome(), notNullValue());
+	}
+	
+	@Test(expected = InvalidRequestException.class)
+	public void processBundle_shouldRejectBundlesThatAreNotTransactionsOrBatches() {
+		transactionService.processBundle(new Bundle().setType(Bundle.BundleType.COLLECTION), null);
+	}
+	
+	private void addCreate(Bundle bundle, String fullUrl, Location location) {
+		bundle.addEntry().setFullUrl(fullUrl).setResource(location).getRequest().setMethod(Bundle.HTTPVerb.POST)
+		        .setUrl("Location");
+	}
+}
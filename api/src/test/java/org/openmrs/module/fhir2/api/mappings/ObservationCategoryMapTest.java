@@ -0,0 +1,110 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.mappings;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.query.Query;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ObservationCategoryMapTest {
+	
+	private static final String TEST_CLASS_UUID = "8d4907b2-c2cc-11de-8d13-0010c6dffd0f";
+	
+	private static final String FINDING_CLASS_UUID = "8d491a9a-c2cc-11de-8d13-0010c6dffd0f";
+	
+	private static final String LAB_SET_CLASS_UUID = "8d492026-c2cc-11de-8d13-0010c6dffd0f";
+	
+	@Mock
+	private SessionFactory sessionFactory;
+	
+	@Mock
+	private StatelessSession session;
+	
+	@Mock
+	private Query<?> query;
+	
+	private ObservationCategoryMap categoryMap;
+	
+	@Before
+	public void setup() {
+		categoryMap = new ObservationCategoryMap();
+		categoryMap.setSessionFactory(sessionFactory);
+	}
+	
+	@Test
+	public void getConceptClassIds_shouldNotAnswerBeforeTheMappingsAreLoaded() {
+		assertThat(categoryMap.getConceptClassIds("laboratory").isPresent(), is(false));
+	}
+	
+	@Test
+	public void getCategory_shouldUseTheLoadedMappings() {
+		reload();
+		
+		assertThat(categoryMap.getCategory(TEST_CLASS_UUID), equalTo("laboratory"));
+		assertThat(categoryMap.getCategory(FINDING_CLASS_UUID), equalTo("exam"));
+		assertThat(categoryMap.getCategory("unmapped"), nullValue());
+		verify(query, times(1)).list();
+	}
+	
+	@Test
+	public void getConceptClassIds_shouldListTheConceptClassesMappedToACategory() {
+		reload();
+		
+		assertThat(categoryMap.getConceptClassIds("laboratory").get(), contains(1, 8));
+		assertThat(categoryMap.getConceptClassIds("vital-signs").get(), empty());
+	}
+	
+	@Test
+	public void getConceptClassIds_shouldIgnoreTheCaseOfTheCategory() {
+		reload();
+		
+		assertThat(categoryMap.getConceptClassIds("Laboratory").get(), contains(1, 8));
+	}
+	
+	@Test
+	public void invalidate_shouldLoadTheMappingsAgain() {
+		reload();
+		
+		categoryMap.invalidate();
+		categoryMap.getCategory(TEST_CLASS_UUID);
+		
+		verify(query, times(2)).list();
+	}
+	
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private void reload() {
+		when(sessionFactory.openStatelessSession()).thenReturn(session);
+		when(session.createQuery(anyString())).thenReturn((Query) query);
+		when(query.list()).thenReturn((List) Arrays.asList(new Object[] { TEST_CLASS_UUID, 1, "laboratory" },
+		    new Object[] { FINDING_CLASS_UUID, 2, "exam" }, new Object[] { LAB_SET_CLASS_UUID, 8, "laboratory" }));
+		
+		categoryMap.reload();
+	}
+}
@@ -46,15 +46,21 @@ import ca.uhn.fhir.rest.param.TokenParam;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.Encounter;
 import org.hl7.fhir.r4.model.Location;
+import org.hl7.fhir.r4.model.OperationOutcome;
 import org.junit.Before;
 import org.junit.Test;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.AdministrationService;
 import org.openmrs.module.fhir2.BaseFhirContextSensitiveTest;
 import org.openmrs.module.fhir2.FhirConstants;
+import org.openmrs.module.fhir2.api.dao.FhirLocationAncestorDao;
 import org.openmrs.module.fhir2.api.dao.FhirLocationDao;
 import org.openmrs.module.fhir2.api.search.param.SearchParameterMap;
 import org.openmrs.module.fhir2.api.translators.LocationTranslator;
+import org.openmrs.module.fhir2.api.util.FhirGlobalPropertyHolder;
 import org.openmrs.test.SkipBaseSetup;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 
 @SkipBaseSetup
 public class LocationSearchQueryTest extends BaseFhirContextSensitiveTest {
@@ -97,6 +103,8 @@ public class LocationSearchQueryTest extends BaseFhirContextSensitiveTest {
 	
 	private static final String LOCATION_ANCESTOR_TEST_UUID = "76cd2d30-2411-44ef-84ea-8b7473256a6a";
 	
+	private static final String LOCATION_GREAT_GRANDCHILD_UUID = "f47ac10b-58cc-4372-a567-0e02b2c3d479";
+	
 	private static final String DATE_CREATED = "2005-01-01";
 	
 	private static final String DATE_CHANGED = "2010-03-31";
@@ -121,10 +129,18 @@ public class LocationSearchQueryTest extends BaseFhirContextSensitiveTest {
 	@Autowired
 	private LocationTranslator translator;
 	
+	@Autowired
+	private FhirLocationAncestorDao locationAncestorDao;
+	
+	@Autowired
+	@Qualifier("adminService")
+	private AdministrationService administrationService;
+	
 	@Before
 	public void setup() throws Exception {
 		executeDataSet(INITIAL_XML_DATASET_PACKAGE_PATH);
 		executeDataSet(LOCATION_INITIAL_DATA_XML);
+		locationAncestorDao.rebuildAncestors();
 		authenticate();
 	}
 	
@@ -489,6 +505,80 @@ public class LocationSearchQueryTest extends BaseFhirContextSensitiveTest {
 		assertThat(resultList.size(), equalTo(1)); // no parent resource included with the result list
 	}
 	
+	@Test
+	public void searchForLocations_shouldAddEveryAncestorLocationToReturnedResultsWhenIterating() {
+		HashSet<Include> includes = new HashSet<>();
+		includes.add(new Include("Location:partof", true));
+		
+		TokenAndListParam uuid = new TokenAndListParam().addAnd(new TokenParam(LOCATION_GREAT_GRANDCHILD_UUID));
+		
+		SearchParameterMap theParams = new SearchParameterMap().addParameter(FhirConstants.INCLUDE_SEARCH_HANDLER, includes)
+		        .addParameter(FhirConstants.COMMON_SEARCH_HANDLER, FhirConstants.ID_PROPERTY, uuid);
+		
+		IBundleProvider results = search(theParams);
+		assertThat(results.size(), equalTo(1));
+		
+		List<Location> resultList = get(results);
+		
+		assertThat(resultList, hasSize(equalTo(4)));
+		List<String> locationNames = resultList.stream().map(Location::getName).collect(Collectors.toList());
+		assertThat(locationNames, hasItem("Test location 12"));
+		assertThat(locationNames, hasItem("Test location 11")); // parent
+		assertThat(locationNames, hasItem("Test location 8")); // grandparent
+		assertThat(locationNames, hasItem("Test location 4")); // great grandparent
+	}
+	
+	@Test
+	public void searchForLocations_shouldLimitReverseIncludedLocationsAndWarnWhenTheLimitIsReached() {
+		administrationService
+		        .saveGlobalProperty(new GlobalProperty(FhirConstants.OPENMRS_FHIR_REVERSE_INCLUDE_MAXIMUM_RESULTS, "1"));
+		FhirGlobalPropertyHolder.reset();
+		
+		TokenAndListParam uuid = new TokenAndListParam().addAnd(new TokenParam(LOCATION_ANCESTOR_TEST_UUID));
+		
+		HashSet<Include> revIncludes = new HashSet<>();
+		revIncludes.add(new Include("Location:partof"));
+		
+		SearchParameterMap theParams = new SearchParameterMap()
+		        .addParameter(FhirConstants.COMMON_SEARCH_HANDLER, FhirConstants.ID_PROPERTY, uuid)
+		        .addParameter(FhirConstants.REVERSE_INCLUDE_SEARCH_HANDLER, revIncludes);
+		
+		IBundleProvider results = search(theParams);
+		assertThat(results.size(), equalTo(1));
+		
+		List<IBaseResource> resultList = results.getResources(START_INDEX, END_INDEX);
+		
+		assertThat(resultList, hasSize(equalTo(3))); // the location, one of its children and a warning
+		assertThat(resultList.stream().filter(it -> it instanceof Location).count(), equalTo(2L));
+		assertThat(resultList.get(2), instanceOf(OperationOutcome.class));
+		assertThat(((OperationOutcome) resultList.get(2)).getIssueFirstRep().getSeverity(),
+		    equalTo(OperationOutcome.IssueSeverity.WARNING));
+	}
+	
+	@Test
+	public void searchForLocations_shouldNotWarnWhenAsManyLocationsAsTheLimitAreReverseIncluded() {
+		administrationService
+		        .saveGlobalProperty(new GlobalProperty(FhirConstants.OPENMRS_FHIR_REVERSE_INCLUDE_MAXIMUM_RESULTS, "1"));
+		FhirGlobalPropertyHolder.reset();
+		
+		TokenAndListParam uuid = new TokenAndListParam().addAnd(new TokenParam(LOCATION_PARENT_UUID));
+		
+		HashSet<Include> revIncludes = new HashSet<>();
+		revIncludes.add(new Include("Location:partof"));
+		
+		SearchParameterMap theParams = new SearchParameterMap()
+		        .addParameter(FhirConstants.COMMON_SEARCH_HANDLER, FhirConstants.ID_PROPERTY, uuid)
+		        .addParameter(FhirConstants.REVERSE_INCLUDE_SEARCH_HANDLER, revIncludes);
+		
+		IBundleProvider results = search(theParams);
+		assertThat(results.size(), equalTo(1));
+		
+		List<IBaseResource> resultList = results.getResources(START_INDEX, END_INDEX);
+		
+		assertThat(resultList, hasSize(equalTo(2))); // the location and its only child
+		assertThat(resultList.stream().filter(it -> it instanceof OperationOutcome).count(), equalTo(0L));
+	}
+	
 	@Test
 	public void searchForLocations_shouldAddReverseIncludedLocationToReturnedResults() {
 		TokenAndListParam uuid = new TokenAndListParam().addAnd(new TokenParam(LOCATION_PARENT_UUID));
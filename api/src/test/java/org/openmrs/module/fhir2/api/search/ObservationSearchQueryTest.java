@@ -74,6 +74,7 @@ import org.openmrs.module.fhir2.FhirConstants;
 import org.openmrs.module.fhir2.FhirTestConstants;
 import org.openmrs.module.fhir2.api.dao.FhirEncounterDao;
 import org.openmrs.module.fhir2.api.dao.FhirObservationDao;
+import org.openmrs.module.fhir2.api.mappings.ObservationCategoryMap;
 import org.openmrs.module.fhir2.api.search.param.SearchParameterMap;
 import org.openmrs.module.fhir2.api.translators.ObservationTranslator;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -164,6 +165,9 @@ public class ObservationSearchQueryTest extends BaseFhirContextSensitiveTest {
 	@Autowired
 	private FhirEncounterDao encounterDao;
 	
+	@Autowired
+	private ObservationCategoryMap categoryMap;
+	
 	@Before
 	public void setup() throws Exception {
 		executeDataSet(OBS_DATA_XML);
@@ -707,6 +711,35 @@ public class ObservationSearchQueryTest extends BaseFhirContextSensitiveTest {
 		    hasProperty("categoryFirstRep", hasProperty("codingFirstRep", hasProperty("code", equalTo("laboratory"))))));
 	}
 	
+	@Test
+	public void searchForObs_shouldReturnObsByCategoryUsingTheLoadedMappingsRegardlessOfCase() {
+		categoryMap.reload();
+		TokenAndListParam categories = new TokenAndListParam().addAnd(new TokenParam().setValue("LABORATORY"));
+		
+		SearchParameterMap theParams = new SearchParameterMap();
+		theParams.addParameter(FhirConstants.CATEGORY_SEARCH_HANDLER, categories);
+		
+		IBundleProvider results = search(theParams);
+		
+		assertThat(results, notNullValue());
+		assertThat(results.size(), equalTo(17));
+	}
+	
+	@Test
+	public void searchForObs_shouldReturnNoObsForACategoryWithoutConceptClasses() {
+		categoryMap.reload();
+		TokenAndListParam categories = new TokenAndListParam().addAnd(new TokenParam().setValue("unmapped-category"));
+		
+		SearchParameterMap theParams = new SearchParameterMap();
+		theParams.addParameter(FhirConstants.CATEGORY_SEARCH_HANDLER, categories);
+		
+		IBundleProvider results = search(theParams);
+		
+		assertThat(results, notNullValue());
+		assertThat(results.size(), equalTo(0));
+		assertThat(get(results), empty());
+	}
+	
 	@Test
 	public void searchForObs_shouldSortObsAsRequested() {
 		SortSpec sort = new SortSpec();
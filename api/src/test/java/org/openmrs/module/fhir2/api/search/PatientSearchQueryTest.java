@@ -30,6 +30,7 @@ import static org.hl7.fhir.r4.model.Patient.SP_FAMILY;
 import static org.hl7.fhir.r4.model.Patient.SP_GIVEN;
 import static org.openmrs.module.fhir2.matchers.FhirMatchers.isDeceased;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -37,6 +38,7 @@ import java.util.Map;
 import java.util.stream.Collectors;
 
 import ca.uhn.fhir.model.api.Include;
+import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
 import ca.uhn.fhir.rest.api.SortOrderEnum;
 import ca.uhn.fhir.rest.api.SortSpec;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
@@ -51,18 +53,26 @@ import org.hl7.fhir.r4.model.AllergyIntolerance;
 import org.hl7.fhir.r4.model.DiagnosticReport;
 import org.hl7.fhir.r4.model.Encounter;
 import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Medication;
 import org.hl7.fhir.r4.model.MedicationRequest;
 import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.OperationOutcome;
 import org.hl7.fhir.r4.model.Patient;
 import org.hl7.fhir.r4.model.ServiceRequest;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.AdministrationService;
 import org.openmrs.module.fhir2.BaseFhirContextSensitiveTest;
 import org.openmrs.module.fhir2.FhirConstants;
 import org.openmrs.module.fhir2.api.dao.FhirPatientDao;
 import org.openmrs.module.fhir2.api.search.param.SearchParameterMap;
 import org.openmrs.module.fhir2.api.translators.PatientTranslator;
+import org.openmrs.module.fhir2.api.util.FhirGlobalPropertyHolder;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 
 public class PatientSearchQueryTest extends BaseFhirContextSensitiveTest {
 	
@@ -146,6 +156,10 @@ public class PatientSearchQueryTest extends BaseFhirContextSensitiveTest {
 	@Autowired
 	private SearchQuery<org.openmrs.Patient, Patient, FhirPatientDao, PatientTranslator, SearchQueryInclude<Patient>> searchQuery;
 	
+	@Autowired
+	@Qualifier("adminService")
+	private AdministrationService administrationService;
+	
 	@Before
 	public void setup() throws Exception {
 		for (String search_data : PATIENT_SEARCH_DATA_FILES) {
@@ -153,6 +167,12 @@ public class PatientSearchQueryTest extends BaseFhirContextSensitiveTest {
 		}
 	}
 	
+	@After
+	public void resetReverseIncludePageSize() {
+		((SearchQueryIncludeImpl<Patient>) searchQueryInclude)
+		        .setReverseIncludePageSize(SearchQueryIncludeImpl.REVERSE_INCLUDE_PAGE_SIZE);
+	}
+	
 	private IBundleProvider search(SearchParameterMap theParams) {
 		return searchQuery.getQueryResults(theParams, dao, translator, searchQueryInclude);
 	}
@@ -182,6 +202,40 @@ public class PatientSearchQueryTest extends BaseFhirContextSensitiveTest {
 		assertThat(resultList, hasSize(greaterThan(1)));
 	}
 	
+	@Test
+	public void searchForPatients_shouldReturnPatientsWithSeveralMatchingNamesOnlyOnce() {
+		SearchParameterMap theParams = new SearchParameterMap().addParameter(FhirConstants.NAME_SEARCH_HANDLER, "name",
+		    new StringAndListParam().addAnd(new StringParam("o").setContains(true)));
+		
+		IBundleProvider results = search(theParams);
+		
+		assertThat(results, notNullValue());
+		
+		List<Patient> resultList = get(results);
+		
+		assertThat(resultList, not(empty()));
+		assertThat(resultList, hasSize(results.size()));
+		assertThat(resultList.stream().map(Patient::getIdElement).map(IdType::getIdPart).collect(Collectors.toSet()),
+		    hasSize(resultList.size()));
+	}
+	
+	@Test
+	public void searchForPatients_shouldReturnPatientsOnlyOnceWhenQueryMatchesSeveralNamesAndIdentifiers() {
+		SearchParameterMap theParams = new SearchParameterMap().addParameter(FhirConstants.QUERY_SEARCH_HANDLER,
+		    new StringAndListParam().addAnd(new StringParam("o").setContains(true)));
+		
+		IBundleProvider results = search(theParams);
+		
+		assertThat(results, notNullValue());
+		
+		List<Patient> resultList = get(results);
+		
+		assertThat(resultList, not(empty()));
+		assertThat(resultList, hasSize(results.size()));
+		assertThat(resultList.stream().map(Patient::getIdElement).map(IdType::getIdPart).collect(Collectors.toSet()),
+		    hasSize(resultList.size()));
+	}
+	
 	@Test
 	public void searchForPatients_shouldReturnMultiplePatientsForPartialMatch() {
 		SearchParameterMap theParams = new SearchParameterMap().addParameter(FhirConstants.NAME_SEARCH_HANDLER, "name",
@@ -865,6 +919,83 @@ public class PatientSearchQueryTest extends BaseFhirContextSensitiveTest {
 		    hasProperty("subject", hasProperty("referenceElement", hasProperty("idPart", equalTo(PATIENT_OTHER3_UUID)))))));
 	}
 	
+	@Test
+	public void searchForPatients_shouldReverseIncludeEveryPageOfMedicationRequestsWithTheirIteratedIncludes() {
+		((SearchQueryIncludeImpl<Patient>) searchQueryInclude).setReverseIncludePageSize(2);
+		
+		List<IBaseResource> resultList = searchForPatientWithMedicationRequestsAndMedications();
+		
+		List<MedicationRequest> medicationRequests = resultList.stream().filter(it -> it instanceof MedicationRequest)
+		        .map(it -> (MedicationRequest) it).collect(Collectors.toList());
+		assertThat(medicationRequests, hasSize(6));
+		assertThat(resultList.stream().filter(it -> it instanceof OperationOutcome).count(), equalTo(0L));
+		
+		List<String> medicationIds = resultList.stream().filter(it -> it instanceof Medication)
+		        .map(it -> it.getIdElement().getIdPart()).collect(Collectors.toList());
+		medicationRequests.stream().filter(MedicationRequest::hasMedicationReference).forEach(
+		    it -> assertThat(medicationIds, hasItem(it.getMedicationReference().getReferenceElement().getIdPart())));
+	}
+	
+	@Test
+	public void searchForPatients_shouldLimitPagedReverseIncludesWithIteratedIncludesAndWarnWhenTheLimitIsReached() {
+		((SearchQueryIncludeImpl<Patient>) searchQueryInclude).setReverseIncludePageSize(2);
+		administrationService
+		        .saveGlobalProperty(new GlobalProperty(FhirConstants.OPENMRS_FHIR_REVERSE_INCLUDE_MAXIMUM_RESULTS, "4"));
+		FhirGlobalPropertyHolder.reset();
+		
+		try {
+			List<IBaseResource> resultList = searchForPatientWithMedicationRequestsAndMedications();
+			
+			assertThat(resultList.stream().filter(it -> it instanceof MedicationRequest).count(), equalTo(4L));
+			assertThat(resultList.stream().filter(it -> it instanceof OperationOutcome).count(), equalTo(1L));
+		}
+		finally {
+			FhirGlobalPropertyHolder.reset();
+		}
+	}
+	
+	private List<IBaseResource> searchForPatientWithMedicationRequestsAndMedications() {
+		TokenAndListParam uuid = new TokenAndListParam().addAnd(new TokenParam(PATIENT_OTHER3_UUID));
+		HashSet<Include> includes = new HashSet<>();
+		includes.add(new Include("MedicationRequest:medication", true));
+		HashSet<Include> revIncludes = new HashSet<>();
+		revIncludes.add(new Include("MedicationRequest:patient"));
+		
+		SearchParameterMap theParams = new SearchParameterMap()
+		        .addParameter(FhirConstants.COMMON_SEARCH_HANDLER, FhirConstants.ID_PROPERTY, uuid)
+		        .addParameter(FhirConstants.INCLUDE_SEARCH_HANDLER, includes)
+		        .addParameter(FhirConstants.REVERSE_INCLUDE_SEARCH_HANDLER, revIncludes);
+		
+		IBundleProvider results = search(theParams);
+		
+		assertThat(results.size(), equalTo(1));
+		return results.getResources(START_INDEX, END_INDEX);
+	}
+	
+	@Test
+	public void searchForPatients_shouldReverseIncludeEveryMedicationRequestWhenNoTotalIsRequested() {
+		SearchRequestContext.setTotalMode(SearchTotalModeEnum.NONE);
+		
+		try {
+			TokenAndListParam uuid = new TokenAndListParam().addAnd(new TokenParam(PATIENT_OTHER3_UUID));
+			HashSet<Include> revIncludes = new HashSet<>();
+			revIncludes.add(new Include("MedicationRequest:patient"));
+			
+			SearchParameterMap theParams = new SearchParameterMap()
+			        .addParameter(FhirConstants.COMMON_SEARCH_HANDLER, FhirConstants.ID_PROPERTY, uuid)
+			        .addParameter(FhirConstants.REVERSE_INCLUDE_SEARCH_HANDLER, revIncludes);
+			
+			List<IBaseResource> resultList = search(theParams).getResources(START_INDEX, END_INDEX);
+			
+			assertThat(resultList, hasSize(7));
+			assertThat(resultList.stream().filter(it -> it instanceof MedicationRequest).count(), equalTo(6L));
+			assertThat(SearchRequestContext.getTotalMode(), equalTo(SearchTotalModeEnum.NONE));
+		}
+		finally {
+			SearchRequestContext.setTotalMode(null);
+		}
+	}
+	
 	@Test
 	public void searchForPatients_shouldReverseIncludeServiceRequestsWithReturnedResults() {
 		TokenAndListParam uuid = new TokenAndListParam().addAnd(new TokenParam(PATIENT_OTHER3_UUID));
@@ -1327,4 +1458,68 @@ public class PatientSearchQueryTest extends BaseFhirContextSensitiveTest {
 		
 		assertThat(resultList, hasSize(44));
 	}
+	
+	@Test
+	public void searchForPatient_shouldReturnTheCompartmentsInPatientEverythingTypeWhenNoTotalIsRequested() {
+		SearchRequestContext.setTotalMode(SearchTotalModeEnum.NONE);
+		
+		try {
+			SearchParameterMap theParams = new SearchParameterMap()
+			        .addParameter(FhirConstants.EVERYTHING_SEARCH_HANDLER, "");
+			
+			HashSet<Include> revIncludes = new HashSet<>();
+			
+			revIncludes.add(new Include(FhirConstants.OBSERVATION + ":" + FhirConstants.INCLUDE_PATIENT_PARAM));
+			revIncludes.add(new Include(FhirConstants.ALLERGY_INTOLERANCE + ":" + FhirConstants.INCLUDE_PATIENT_PARAM));
+			revIncludes.add(new Include(FhirConstants.DIAGNOSTIC_REPORT + ":" + FhirConstants.INCLUDE_PATIENT_PARAM));
+			revIncludes.add(new Include(FhirConstants.ENCOUNTER + ":" + FhirConstants.INCLUDE_PATIENT_PARAM));
+			revIncludes.add(new Include(FhirConstants.MEDICATION_REQUEST + ":" + FhirConstants.INCLUDE_PATIENT_PARAM));
+			revIncludes.add(new Include(FhirConstants.SERVICE_REQUEST + ":" + FhirConstants.INCLUDE_PATIENT_PARAM));
+			revIncludes.add(new Include(FhirConstants.PROCEDURE_REQUEST + ":" + FhirConstants.INCLUDE_PATIENT_PARAM));
+			
+			theParams.addParameter(FhirConstants.REVERSE_INCLUDE_SEARCH_HANDLER, revIncludes);
+			
+			// the compartment searches are counted to page through them, whatever total the client asked for
+			assertThat(getAllResources(search(theParams)), hasSize(44));
+		}
+		finally {
+			SearchRequestContext.setTotalMode(null);
+		}
+	}
+	
+	@Test
+	public void searchForPatient_shouldReturnPatientEverythingTypeOnePageOfEntriesAtATime() {
+		SearchParameterMap theParams = new SearchParameterMap().addParameter(FhirConstants.EVERYTHING_SEARCH_HANDLER, "");
+		
+		HashSet<Include> revIncludes = new HashSet<>();
+		
+		revIncludes.add(new Include(FhirConstants.OBSERVATION + ":" + FhirConstants.INCLUDE_PATIENT_PARAM));
+		revIncludes.add(new Include(FhirConstants.ALLERGY_INTOLERANCE + ":" + FhirConstants.INCLUDE_PATIENT_PARAM));
+		revIncludes.add(new Include(FhirConstants.DIAGNOSTIC_REPORT + ":" + FhirConstants.INCLUDE_PATIENT_PARAM));
+		revIncludes.add(new Include(FhirConstants.ENCOUNTER + ":" + FhirConstants.INCLUDE_PATIENT_PARAM));
+		revIncludes.add(new Include(FhirConstants.MEDICATION_REQUEST + ":" + FhirConstants.INCLUDE_PATIENT_PARAM));
+		revIncludes.add(new Include(FhirConstants.SERVICE_REQUEST + ":" + FhirConstants.INCLUDE_PATIENT_PARAM));
+		revIncludes.add(new Include(FhirConstants.PROCEDURE_REQUEST + ":" + FhirConstants.INCLUDE_PATIENT_PARAM));
+		
+		theParams.addParameter(FhirConstants.REVERSE_INCLUDE_SEARCH_HANDLER, revIncludes);
+		
+		IBundleProvider results = search(theParams);
+		
+		assertThat(results, notNullValue());
+		
+		List<IBaseResource> resultList = new ArrayList<>();
+		for (int i = 0; i < results.size(); i += 5) {
+			List<IBaseResource> page = results.getResources(i, i + 5);
+			
+			assertThat(page, hasSize(Math.min(5, results.size() - i)));
+			
+			resultList.addAll(page);
+		}
+		
+		assertThat(resultList, hasSize(44));
+		assertThat(resultList.stream().map(it -> it.getIdElement().toUnqualifiedVersionless().getValue()).distinct().count(),
+		    equalTo(44L));
+		assertThat(resultList.stream().filter(it -> it instanceof Patient).count(),
+		    equalTo((long) search(new SearchParameterMap()).size()));
+	}
 }
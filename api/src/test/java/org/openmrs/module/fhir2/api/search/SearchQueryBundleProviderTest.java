@@ -14,15 +14,20 @@ import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
+import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
 import org.exparity.hamcrest.date.DateMatchers;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.instance.model.api.IPrimitiveType;
@@ -33,8 +38,10 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.openmrs.Obs;
+import org.openmrs.module.fhir2.FhirConstants;
 import org.openmrs.module.fhir2.api.FhirGlobalPropertyService;
 import org.openmrs.module.fhir2.api.dao.FhirObservationDao;
+import org.openmrs.module.fhir2.api.search.param.SearchCursor;
 import org.openmrs.module.fhir2.api.search.param.SearchParameterMap;
 import org.openmrs.module.fhir2.api.translators.ObservationTranslator;
 
@@ -53,11 +60,14 @@ public class SearchQueryBundleProviderTest {
 	@Mock
 	private SearchQueryInclude<Observation> searchQueryInclude;
 	
+	private SearchParameterMap searchParameterMap;
+	
 	private SearchQueryBundleProvider<Obs, Observation> searchQueryBundleProvider;
 	
 	@Before
 	public void setup() {
-		searchQueryBundleProvider = new SearchQueryBundleProvider<>(new SearchParameterMap(), observationDao, translator,
+		searchParameterMap = new SearchParameterMap();
+		searchQueryBundleProvider = new SearchQueryBundleProvider<>(searchParameterMap, observationDao, translator,
 		        globalPropertyService, searchQueryInclude);
 	}
 	
@@ -89,4 +99,84 @@ public class SearchQueryBundleProviderTest {
 		assertThat(searchQueryBundleProvider.getUuid(), not(equalTo(new SearchQueryBundleProvider<>(new SearchParameterMap(),
 		        observationDao, translator, globalPropertyService, searchQueryInclude).getUuid())));
 	}
+	
+	@Test
+	public void shouldKeepCursorWhenPageStartsAfterPreviousPage() {
+		SearchCursor cursor = new SearchCursor(10, new Object[] { new Date() }, 25);
+		searchParameterMap.setCursor(cursor);
+		when(globalPropertyService.getGlobalProperty(FhirConstants.OPENMRS_FHIR_KEYSET_PAGING, "true")).thenReturn("true");
+		when(observationDao.getSearchResults(any())).thenReturn(Collections.emptyList());
+		
+		searchQueryBundleProvider.getResources(10, 20);
+		
+		assertThat(searchParameterMap.getCursor(), equalTo(cursor));
+	}
+	
+	@Test
+	public void shouldDiscardCursorWhenPageDoesNotStartAfterPreviousPage() {
+		searchParameterMap.setCursor(new SearchCursor(10, new Object[] { new Date() }, 25));
+		when(observationDao.getSearchResults(any())).thenReturn(Collections.emptyList());
+		
+		searchQueryBundleProvider.getResources(30, 40);
+		
+		assertThat(searchParameterMap.getCursor(), nullValue());
+	}
+	
+	@Test
+	public void shouldDiscardCursorWhenKeysetPagingIsDisabled() {
+		searchParameterMap.setCursor(new SearchCursor(10, new Object[] { new Date() }, 25));
+		when(globalPropertyService.getGlobalProperty(FhirConstants.OPENMRS_FHIR_KEYSET_PAGING, "true")).thenReturn("false");
+		when(observationDao.getSearchResults(any())).thenReturn(Collections.emptyList());
+		
+		searchQueryBundleProvider.getResources(10, 20);
+		
+		assertThat(searchParameterMap.getCursor(), nullValue());
+	}
+	
+	@Test
+	public void size_shouldNotCountResultsWhenTotalModeIsNone() {
+		searchParameterMap.setTotalMode(SearchTotalModeEnum.NONE);
+		
+		assertThat(searchQueryBundleProvider.size(), nullValue());
+		verify(observationDao, never()).getSearchResultsCount(any());
+	}
+	
+	@Test
+	public void size_shouldBeKnownOnceLastPageIsReadWhenTotalModeIsNone() {
+		searchParameterMap.setTotalMode(SearchTotalModeEnum.NONE);
+		when(observationDao.getSearchResults(any())).thenAnswer(invocation -> {
+			SearchParameterMap theParams = invocation.getArgument(0);
+			assertThat(theParams.isLookahead(), equalTo(true));
+			theParams.setHasMoreResults(false);
+			return Arrays.asList(new Obs(1), new Obs(2));
+		});
+		
+		searchQueryBundleProvider.getResources(10, 20);
+		
+		assertThat(searchQueryBundleProvider.size(), equalTo(12));
+		verify(observationDao, never()).getSearchResultsCount(any());
+	}
+	
+	@Test
+	public void size_shouldRemainUnknownWhileMoreResultsExistWhenTotalModeIsNone() {
+		searchParameterMap.setTotalMode(SearchTotalModeEnum.NONE);
+		when(observationDao.getSearchResults(any())).thenAnswer(invocation -> {
+			((SearchParameterMap) invocation.getArgument(0)).setHasMoreResults(true);
+			return Arrays.asList(new Obs(1), new Obs(2));
+		});
+		
+		searchQueryBundleProvider.getResources(0, 2);
+		
+		assertThat(searchQueryBundleProvider.size(), nullValue());
+	}
+	
+	@Test
+	public void getResources_shouldNotLoadResultsForCountOnlySearch() {
+		searchParameterMap.setCountOnly(true);
+		when(observationDao.getSearchResultsCount(any())).thenReturn(42);
+		
+		assertThat(searchQueryBundleProvider.getResources(0, 10), empty());
+		assertThat(searchQueryBundleProvider.size(), equalTo(42));
+		verify(observationDao, never()).getSearchResults(any());
+	}
 }
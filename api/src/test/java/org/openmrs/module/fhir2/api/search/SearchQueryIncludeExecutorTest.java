@@ -0,0 +1,121 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.search;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.fhir2.BaseFhirContextSensitiveTest;
+import org.openmrs.module.fhir2.FhirConstants;
+import org.openmrs.module.fhir2.api.util.FhirGlobalPropertyHolder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+
+public class SearchQueryIncludeExecutorTest extends BaseFhirContextSensitiveTest {
+	
+	@Autowired
+	@Qualifier("adminService")
+	private AdministrationService administrationService;
+	
+	private SearchQueryIncludeExecutor includeExecutor;
+	
+	@Before
+	public void setup() {
+		includeExecutor = new SearchQueryIncludeExecutor();
+	}
+	
+	@After
+	public void tearDown() {
+		includeExecutor.shutdown();
+	}
+	
+	@Test
+	public void invokeAll_shouldRunTasksOnTheCallingThreadByDefault() {
+		List<Collection<String>> results = includeExecutor.invokeAll(getTasks());
+		
+		String caller = Thread.currentThread().getName();
+		assertThat(results, contains(Collections.singletonList(caller), Collections.singletonList(caller),
+		    Collections.singletonList(caller)));
+	}
+	
+	@Test
+	public void invokeAll_shouldRunTasksConcurrentlyAndKeepTheirOrder() {
+		administrationService
+		        .saveGlobalProperty(new GlobalProperty(FhirConstants.OPENMRS_FHIR_INCLUDE_MAXIMUM_THREADS, "2"));
+		FhirGlobalPropertyHolder.reset();
+		
+		List<Collection<String>> results = includeExecutor.invokeAll(getTasks());
+		
+		assertThat(results, hasSize(3));
+		assertThat(results.get(0), contains(Thread.currentThread().getName()));
+		assertThat(results.get(1).iterator().next(), not(equalTo(Thread.currentThread().getName())));
+		assertThat(results.get(2).iterator().next(), not(equalTo(Thread.currentThread().getName())));
+	}
+	
+	@Test
+	public void invokeAll_shouldAuthenticateEachPooledThreadWithItsOwnUserContext() {
+		administrationService
+		        .saveGlobalProperty(new GlobalProperty(FhirConstants.OPENMRS_FHIR_INCLUDE_MAXIMUM_THREADS, "2"));
+		FhirGlobalPropertyHolder.reset();
+		
+		Map<String, Callable<Collection<Object>>> tasks = new LinkedHashMap<>();
+		for (String include : Arrays.asList("_include=Encounter:patient", "_include=Encounter:location",
+		    "_include=Encounter:participant")) {
+			tasks.put(include, () -> Arrays.asList(Context.getUserContext(), Context.getAuthenticatedUser().getUserId()));
+		}
+		
+		List<Collection<Object>> results = includeExecutor.invokeAll(tasks);
+		
+		for (Collection<Object> result : results.subList(1, results.size())) {
+			Iterator<Object> userContextAndUserId = result.iterator();
+			assertThat(userContextAndUserId.next(), not(sameInstance(Context.getUserContext())));
+			assertThat(userContextAndUserId.next(), equalTo(Context.getAuthenticatedUser().getUserId()));
+		}
+	}
+	
+	@Test
+	public void invokeAll_shouldRecordTheTimingOfEachTask() {
+		includeExecutor.invokeAll(getTasks());
+		includeExecutor.invokeAll(getTasks());
+		
+		Map<String, SearchQueryIncludeExecutor.IncludeTiming> timings = includeExecutor.getTimings();
+		assertThat(timings, hasKey("_include=Encounter:patient"));
+		assertThat(timings.get("_include=Encounter:patient").getCount(), equalTo(2L));
+		assertThat(timings.get("_include=Encounter:patient").getResources(), equalTo(2L));
+	}
+	
+	private Map<String, Callable<Collection<String>>> getTasks() {
+		Map<String, Callable<Collection<String>>> tasks = new LinkedHashMap<>();
+		tasks.put("_include=Encounter:patient", () -> Collections.singletonList(Thread.currentThread().getName()));
+		tasks.put("_include=Encounter:location", () -> Collections.singletonList(Thread.currentThread().getName()));
+		tasks.put("_include=Encounter:participant", () -> Collections.singletonList(Thread.currentThread().getName()));
+		return tasks;
+	}
+}
@@ -0,0 +1,310 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.search;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.FhirVersionEnum;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Observation;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openmrs.Obs;
+import org.openmrs.module.fhir2.FhirConstants;
+import org.openmrs.module.fhir2.api.FhirGlobalPropertyService;
+import org.openmrs.module.fhir2.api.dao.FhirDao;
+import org.openmrs.module.fhir2.api.dao.FhirObservationDao;
+import org.openmrs.module.fhir2.api.dao.FhirSearchSnapshotDao;
+import org.openmrs.module.fhir2.api.search.param.SearchParameterMap;
+import org.openmrs.module.fhir2.api.search.param.SearchParameterMapCodec;
+import org.openmrs.module.fhir2.api.translators.ObservationTranslator;
+import org.openmrs.module.fhir2.api.translators.OpenmrsFhirTranslator;
+import org.openmrs.module.fhir2.api.util.CompactIntArray;
+import org.openmrs.module.fhir2.model.FhirSearchSnapshot;
+import org.springframework.beans.factory.ListableBeanFactory;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SearchSnapshotPagingProviderTest {
+	
+	private static final String SEARCH_ID = "3c1e5b4a-8c1f-4a8e-9d0a-2b7f1f0e6d41";
+	
+	private static final String DAO_BEAN = "fhirObservationDaoImpl";
+	
+	private static final String TRANSLATOR_BEAN = "observationTranslatorImpl";
+	
+	@Mock
+	private FhirSearchSnapshotDao searchSnapshotDao;
+	
+	@Mock
+	private FhirGlobalPropertyService globalPropertyService;
+	
+	@Mock
+	private ListableBeanFactory beanFactory;
+	
+	@Mock
+	private FhirObservationDao observationDao;
+	
+	@Mock
+	private ObservationTranslator translator;
+	
+	@Mock
+	private SearchQueryInclude<Observation> searchQueryInclude;
+	
+	@Mock
+	private RequestDetails requestDetails;
+	
+	private SearchParameterMap searchParameterMap;
+	
+	private SearchSnapshotPagingProvider pagingProvider;
+	
+	@Before
+	public void setup() {
+		searchParameterMap = new SearchParameterMap().addParameter(FhirConstants.CODED_SEARCH_HANDLER,
+		    new StringParam("5089"));
+		pagingProvider = new SearchSnapshotPagingProvider(searchSnapshotDao, globalPropertyService, beanFactory);
+	}
+	
+	@Test
+	@SuppressWarnings("rawtypes")
+	public void storeResultList_shouldPersistSearchParametersWithoutRunningTheSearchAgain() {
+		when(requestDetails.getFhirContext()).thenReturn(FhirContext.forR4Cached());
+		Map<String, FhirDao> daos = Collections.singletonMap(DAO_BEAN, observationDao);
+		Map<String, OpenmrsFhirTranslator> translators = Collections.singletonMap(TRANSLATOR_BEAN, translator);
+		when(beanFactory.getBeansOfType(FhirDao.class)).thenReturn(daos);
+		when(beanFactory.getBeansOfType(OpenmrsFhirTranslator.class)).thenReturn(translators);
+		when(globalPropertyService.getGlobalPropertyAsInteger(FhirConstants.OPENMRS_FHIR_SEARCH_SNAPSHOT_TIME_TO_LIVE, 60))
+		        .thenReturn(60);
+		when(observationDao.getSearchResultsCount(any())).thenReturn(3);
+		
+		SearchQueryBundleProvider<Obs, Observation> bundleProvider = new SearchQueryBundleProvider<>(searchParameterMap,
+		        observationDao, translator, globalPropertyService, searchQueryInclude);
+		// the total is counted for the first page before the search is stored
+		bundleProvider.size();
+		
+		String searchId = pagingProvider.storeResultList(requestDetails, bundleProvider);
+		
+		ArgumentCaptor<FhirSearchSnapshot> captor = ArgumentCaptor.forClass(FhirSearchSnapshot.class);
+		verify(searchSnapshotDao).saveSearchSnapshot(captor.capture());
+		verify(observationDao, times(1)).getSearchResultsCount(any());
+		verify(observationDao, never()).getSearchResultIds(any());
+		FhirSearchSnapshot searchSnapshot = captor.getValue();
+		
+		assertThat(searchId, equalTo(bundleProvider.getUuid()));
+		assertThat(searchSnapshot.getUuid(), equalTo(searchId));
+		assertThat(searchSnapshot.getFhirVersion(), equalTo(FhirVersionEnum.R4.name()));
+		assertThat(searchSnapshot.getDaoBean(), equalTo(DAO_BEAN));
+		assertThat(searchSnapshot.getTranslatorBean(), equalTo(TRANSLATOR_BEAN));
+		assertThat(searchSnapshot.getResultCount(), equalTo(3));
+		assertThat(searchSnapshot.getResultIds(), nullValue());
+		assertThat(searchSnapshot.getExpires().after(searchSnapshot.getDateCreated()), equalTo(true));
+		
+		SearchParameterMap storedParameterMap = SearchParameterMapCodec.decode(searchSnapshot.getSearchParameters(),
+		    FhirContext.forR4Cached());
+		assertThat(storedParameterMap.getParameters(FhirConstants.CODED_SEARCH_HANDLER), hasSize(1));
+	}
+	
+	@Test
+	@SuppressWarnings("rawtypes")
+	public void storeResultList_shouldNotPersistSearchWithParametersThatCannotBeEncoded() {
+		when(requestDetails.getFhirContext()).thenReturn(FhirContext.forR4Cached());
+		Map<String, FhirDao> daos = Collections.singletonMap(DAO_BEAN, observationDao);
+		Map<String, OpenmrsFhirTranslator> translators = Collections.singletonMap(TRANSLATOR_BEAN, translator);
+		when(beanFactory.getBeansOfType(FhirDao.class)).thenReturn(daos);
+		when(beanFactory.getBeansOfType(OpenmrsFhirTranslator.class)).thenReturn(translators);
+		
+		searchParameterMap.addParameter(FhirConstants.COMMON_SEARCH_HANDLER, new Date());
+		
+		pagingProvider.storeResultList(requestDetails, new SearchQueryBundleProvider<>(searchParameterMap, observationDao,
+		        translator, globalPropertyService, searchQueryInclude));
+		
+		verify(searchSnapshotDao, never()).saveSearchSnapshot(any());
+	}
+	
+	@Test
+	public void retrieveResultList_shouldPersistIdsOfMatchingObjectsWhenSearchIsFirstRestored() {
+		when(requestDetails.getFhirContext()).thenReturn(FhirContext.forR4Cached());
+		FhirSearchSnapshot searchSnapshot = createSearchSnapshot(FhirVersionEnum.R4, null);
+		when(searchSnapshotDao.getSearchSnapshot(SEARCH_ID)).thenReturn(Optional.of(searchSnapshot));
+		when(beanFactory.getBean(DAO_BEAN, FhirDao.class)).thenReturn(observationDao);
+		when(beanFactory.getBean(TRANSLATOR_BEAN, OpenmrsFhirTranslator.class)).thenReturn(translator);
+		when(beanFactory.getBean(SearchQueryInclude.class)).thenReturn(searchQueryInclude);
+		when(globalPropertyService.getGlobalPropertyAsInteger(FhirConstants.OPENMRS_FHIR_SEARCH_SNAPSHOT_MAXIMUM_RESULTS,
+		    10000)).thenReturn(10000);
+		when(observationDao.getSearchResultIds(any())).thenReturn(Arrays.asList(5, 3, 9));
+		
+		IBundleProvider result = pagingProvider.retrieveResultList(requestDetails, SEARCH_ID);
+		
+		verify(searchSnapshotDao).saveSearchSnapshot(searchSnapshot);
+		assertThat(result, instanceOf(SearchSnapshotBundleProvider.class));
+		assertThat(result.size(), equalTo(3));
+		assertThat(CompactIntArray.decode(searchSnapshot.getResultIds()), equalTo(new int[] { 5, 3, 9 }));
+	}
+	
+	@Test
+	public void retrieveResultList_shouldNotPersistIdsWhenSearchExceedsMaximumResults() {
+		when(requestDetails.getFhirContext()).thenReturn(FhirContext.forR4Cached());
+		FhirSearchSnapshot searchSnapshot = createSearchSnapshot(FhirVersionEnum.R4, null);
+		when(searchSnapshotDao.getSearchSnapshot(SEARCH_ID)).thenReturn(Optional.of(searchSnapshot));
+		when(beanFactory.getBean(DAO_BEAN, FhirDao.class)).thenReturn(observationDao);
+		when(beanFactory.getBean(TRANSLATOR_BEAN, OpenmrsFhirTranslator.class)).thenReturn(translator);
+		when(beanFactory.getBean(SearchQueryInclude.class)).thenReturn(searchQueryInclude);
+		when(globalPropertyService.getGlobalPropertyAsInteger(FhirConstants.OPENMRS_FHIR_SEARCH_SNAPSHOT_MAXIMUM_RESULTS,
+		    10000)).thenReturn(2);
+		when(observationDao.getSearchResultIds(any())).thenReturn(Arrays.asList(5, 3, 9));
+		
+		IBundleProvider result = pagingProvider.retrieveResultList(requestDetails, SEARCH_ID);
+		
+		verify(searchSnapshotDao, never()).saveSearchSnapshot(any());
+		assertThat(result, instanceOf(SearchQueryBundleProvider.class));
+		assertThat(searchSnapshot.getResultIds(), nullValue());
+	}
+	
+	@Test
+	public void retrieveResultList_shouldLoadPagesOfPersistedSearchById() {
+		when(requestDetails.getFhirContext()).thenReturn(FhirContext.forR4Cached());
+		Obs obs3 = new Obs(3);
+		Obs obs9 = new Obs(9);
+		Observation observation3 = new Observation();
+		Observation observation9 = new Observation();
+		when(searchSnapshotDao.getSearchSnapshot(SEARCH_ID))
+		        .thenReturn(Optional.of(createSearchSnapshot(FhirVersionEnum.R4, new int[] { 5, 3, 9 })));
+		when(beanFactory.getBean(DAO_BEAN, FhirDao.class)).thenReturn(observationDao);
+		when(beanFactory.getBean(TRANSLATOR_BEAN, OpenmrsFhirTranslator.class)).thenReturn(translator);
+		when(beanFactory.getBean(SearchQueryInclude.class)).thenReturn(searchQueryInclude);
+		when(observationDao.getSearchResultsByIds(Arrays.asList(3, 9))).thenReturn(Arrays.asList(obs3, obs9));
+		when(translator.toFhirResources(anyList())).thenReturn(Arrays.asList(observation3, observation9));
+		when(searchQueryInclude.getIncludedResources(any(), any())).thenReturn(Collections.emptySet());
+		when(globalPropertyService.getGlobalPropertyAsInteger(FhirConstants.OPENMRS_FHIR_SEARCH_SNAPSHOT_MAXIMUM_RESULTS,
+		    10000)).thenReturn(10000);
+		when(observationDao.getSearchResultIds(any())).thenReturn(Arrays.asList(5, 3, 9));
+		
+		IBundleProvider result = pagingProvider.retrieveResultList(requestDetails, SEARCH_ID);
+		
+		verify(searchSnapshotDao, never()).saveSearchSnapshot(any());
+		assertThat(result, notNullValue());
+		assertThat(result.getUuid(), equalTo(SEARCH_ID));
+		assertThat(result.size(), equalTo(3));
+		
+		List<IBaseResource> resources = result.getResources(1, 3);
+		assertThat(resources, hasSize(2));
+		assertThat(resources.get(0), equalTo(observation3));
+		assertThat(resources.get(1), equalTo(observation9));
+	}
+	
+	@Test
+	public void retrieveResultList_shouldRefreshIdsPersistedByAnEarlierRestore() {
+		when(requestDetails.getFhirContext()).thenReturn(FhirContext.forR4Cached());
+		FhirSearchSnapshot searchSnapshot = createSearchSnapshot(FhirVersionEnum.R4, new int[] { 5, 3, 9 });
+		when(searchSnapshotDao.getSearchSnapshot(SEARCH_ID)).thenReturn(Optional.of(searchSnapshot));
+		when(beanFactory.getBean(DAO_BEAN, FhirDao.class)).thenReturn(observationDao);
+		when(beanFactory.getBean(TRANSLATOR_BEAN, OpenmrsFhirTranslator.class)).thenReturn(translator);
+		when(beanFactory.getBean(SearchQueryInclude.class)).thenReturn(searchQueryInclude);
+		when(globalPropertyService.getGlobalPropertyAsInteger(FhirConstants.OPENMRS_FHIR_SEARCH_SNAPSHOT_MAXIMUM_RESULTS,
+		    10000)).thenReturn(10000);
+		when(observationDao.getSearchResultIds(any())).thenReturn(Arrays.asList(5, 9, 11, 12));
+		
+		IBundleProvider result = pagingProvider.retrieveResultList(requestDetails, SEARCH_ID);
+		
+		verify(searchSnapshotDao).saveSearchSnapshot(searchSnapshot);
+		assertThat(result, instanceOf(SearchSnapshotBundleProvider.class));
+		assertThat(result.size(), equalTo(4));
+		assertThat(CompactIntArray.decode(searchSnapshot.getResultIds()), equalTo(new int[] { 5, 9, 11, 12 }));
+		assertThat(searchSnapshot.getResultCount(), equalTo(4));
+	}
+	
+	@Test
+	public void retrieveResultList_shouldDropPersistedIdsWhenSearchHasGrownPastMaximumResults() {
+		when(requestDetails.getFhirContext()).thenReturn(FhirContext.forR4Cached());
+		FhirSearchSnapshot searchSnapshot = createSearchSnapshot(FhirVersionEnum.R4, new int[] { 5, 3 });
+		when(searchSnapshotDao.getSearchSnapshot(SEARCH_ID)).thenReturn(Optional.of(searchSnapshot));
+		when(beanFactory.getBean(DAO_BEAN, FhirDao.class)).thenReturn(observationDao);
+		when(beanFactory.getBean(TRANSLATOR_BEAN, OpenmrsFhirTranslator.class)).thenReturn(translator);
+		when(beanFactory.getBean(SearchQueryInclude.class)).thenReturn(searchQueryInclude);
+		when(globalPropertyService.getGlobalPropertyAsInteger(FhirConstants.OPENMRS_FHIR_SEARCH_SNAPSHOT_MAXIMUM_RESULTS,
+		    10000)).thenReturn(2);
+		when(observationDao.getSearchResultIds(any())).thenReturn(Arrays.asList(5, 3, 9));
+		
+		IBundleProvider result = pagingProvider.retrieveResultList(requestDetails, SEARCH_ID);
+		
+		verify(searchSnapshotDao).saveSearchSnapshot(searchSnapshot);
+		assertThat(result, instanceOf(SearchQueryBundleProvider.class));
+		assertThat(searchSnapshot.getResultIds(), nullValue());
+		assertThat(searchSnapshot.getResultCount(), nullValue());
+	}
+	
+	@Test(expected = InternalErrorException.class)
+	public void retrieveResultList_shouldThrowWhenStoredSearchCannotBeRestored() {
+		when(requestDetails.getFhirContext()).thenReturn(FhirContext.forR4Cached());
+		when(searchSnapshotDao.getSearchSnapshot(SEARCH_ID))
+		        .thenReturn(Optional.of(createSearchSnapshot(FhirVersionEnum.R4, new int[] { 5, 3, 9 })));
+		when(beanFactory.getBean(DAO_BEAN, FhirDao.class)).thenThrow(new IllegalStateException("no such bean"));
+		
+		pagingProvider.retrieveResultList(requestDetails, SEARCH_ID);
+	}
+	
+	@Test
+	public void retrieveResultList_shouldNotRestoreSearchForOtherFhirVersion() {
+		when(requestDetails.getFhirContext()).thenReturn(FhirContext.forR4Cached());
+		when(searchSnapshotDao.getSearchSnapshot(SEARCH_ID))
+		        .thenReturn(Optional.of(createSearchSnapshot(FhirVersionEnum.DSTU3, new int[] { 5, 3, 9 })));
+		
+		assertThat(pagingProvider.retrieveResultList(requestDetails, SEARCH_ID), nullValue());
+	}
+	
+	@Test
+	public void retrieveResultList_shouldReturnNullForUnknownSearch() {
+		when(searchSnapshotDao.getSearchSnapshot(SEARCH_ID)).thenReturn(Optional.empty());
+		
+		assertThat(pagingProvider.retrieveResultList(requestDetails, SEARCH_ID), nullValue());
+	}
+	
+	private FhirSearchSnapshot createSearchSnapshot(FhirVersionEnum fhirVersion, int[] ids) {
+		FhirSearchSnapshot searchSnapshot = new FhirSearchSnapshot();
+		searchSnapshot.setUuid(SEARCH_ID);
+		searchSnapshot.setFhirVersion(fhirVersion.name());
+		searchSnapshot.setDaoBean(DAO_BEAN);
+		searchSnapshot.setTranslatorBean(TRANSLATOR_BEAN);
+		searchSnapshot.setSearchParameters(SearchParameterMapCodec.encode(searchParameterMap, FhirContext.forR4Cached()));
+		if (ids != null) {
+			searchSnapshot.setResultIds(CompactIntArray.encode(ids));
+			searchSnapshot.setResultCount(ids.length);
+		}
+		searchSnapshot.setDateCreated(new Date());
+		searchSnapshot.setExpires(new Date(System.currentTimeMillis() + 60000));
+		return searchSnapshot;
+	}
+}
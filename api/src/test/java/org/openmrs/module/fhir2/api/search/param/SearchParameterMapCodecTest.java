@@ -0,0 +1,166 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.search.param;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.api.Include;
+import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
+import ca.uhn.fhir.rest.api.SortOrderEnum;
+import ca.uhn.fhir.rest.api.SortSpec;
+import ca.uhn.fhir.rest.param.DateParam;
+import ca.uhn.fhir.rest.param.DateRangeParam;
+import ca.uhn.fhir.rest.param.ReferenceAndListParam;
+import ca.uhn.fhir.rest.param.ReferenceOrListParam;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.param.StringParam;
+import ca.uhn.fhir.rest.param.TokenAndListParam;
+import ca.uhn.fhir.rest.param.TokenOrListParam;
+import ca.uhn.fhir.rest.param.TokenParam;
+import org.junit.Test;
+import org.openmrs.module.fhir2.FhirConstants;
+
+public class SearchParameterMapCodecTest {
+	
+	private static final FhirContext FHIR_CONTEXT = FhirContext.forR4Cached();
+	
+	@Test
+	public void shouldEncodeAndDecodeStringAndTokenParameters() {
+		StringParam name = new StringParam("John", true);
+		TokenAndListParam code = new TokenAndListParam().addAnd(
+		    new TokenOrListParam().add(new TokenParam("http://loinc.org", "5089-1")).add(new TokenParam("5085")));
+		SearchParameterMap searchParameterMap = new SearchParameterMap()
+		        .addParameter(FhirConstants.NAME_SEARCH_HANDLER, FhirConstants.NAME_PROPERTY, name)
+		        .addParameter(FhirConstants.CODED_SEARCH_HANDLER, code);
+		
+		SearchParameterMap result = roundTrip(searchParameterMap);
+		
+		List<PropParam<?>> names = result.getParameters(FhirConstants.NAME_SEARCH_HANDLER);
+		assertThat(names, hasSize(1));
+		assertThat(names.get(0).getPropertyName(), equalTo(FhirConstants.NAME_PROPERTY));
+		assertThat(names.get(0).getParam(), instanceOf(StringParam.class));
+		assertThat(((StringParam) names.get(0).getParam()).getValue(), equalTo("John"));
+		assertThat(((StringParam) names.get(0).getParam()).isExact(), equalTo(true));
+		
+		List<PropParam<?>> codes = result.getParameters(FhirConstants.CODED_SEARCH_HANDLER);
+		assertThat(codes, hasSize(1));
+		assertThat(codes.get(0).getPropertyName(), nullValue());
+		assertThat(codes.get(0).getParam(), instanceOf(TokenAndListParam.class));
+		
+		List<TokenParam> tokens = ((TokenAndListParam) codes.get(0).getParam()).getValuesAsQueryTokens().get(0)
+		        .getValuesAsQueryTokens();
+		assertThat(tokens, hasSize(2));
+		assertThat(tokens.get(0).getSystem(), equalTo("http://loinc.org"));
+		assertThat(tokens.get(0).getValue(), equalTo("5089-1"));
+		assertThat(tokens.get(1).getSystem(), nullValue());
+		assertThat(tokens.get(1).getValue(), equalTo("5085"));
+	}
+	
+	@Test
+	public void shouldEncodeAndDecodeDateRangeAndReferenceParameters() {
+		DateRangeParam date = new DateRangeParam(new DateParam("ge2020-01-01"), new DateParam("lt2021-01-01"));
+		ReferenceAndListParam patient = new ReferenceAndListParam()
+		        .addAnd(new ReferenceOrListParam().add(new ReferenceParam("Patient", "given", "John")));
+		SearchParameterMap searchParameterMap = new SearchParameterMap()
+		        .addParameter(FhirConstants.DATE_RANGE_SEARCH_HANDLER, "obsDatetime", date)
+		        .addParameter(FhirConstants.PATIENT_REFERENCE_SEARCH_HANDLER, patient);
+		
+		SearchParameterMap result = roundTrip(searchParameterMap);
+		
+		List<PropParam<?>> dates = result.getParameters(FhirConstants.DATE_RANGE_SEARCH_HANDLER);
+		assertThat(dates, hasSize(1));
+		assertThat(dates.get(0).getPropertyName(), equalTo("obsDatetime"));
+		DateRangeParam dateRange = (DateRangeParam) dates.get(0).getParam();
+		assertThat(dateRange.getLowerBound().getValueAsQueryToken(FHIR_CONTEXT), equalTo("ge2020-01-01"));
+		assertThat(dateRange.getUpperBound().getValueAsQueryToken(FHIR_CONTEXT), equalTo("lt2021-01-01"));
+		
+		List<PropParam<?>> patients = result.getParameters(FhirConstants.PATIENT_REFERENCE_SEARCH_HANDLER);
+		assertThat(patients, hasSize(1));
+		ReferenceParam reference = ((ReferenceAndListParam) patients.get(0).getParam()).getValuesAsQueryTokens().get(0)
+		        .getValuesAsQueryTokens().get(0);
+		assertThat(reference.getResourceType(), equalTo("Patient"));
+		assertThat(reference.getChain(), equalTo("given"));
+		assertThat(reference.getValue(), equalTo("John"));
+	}
+	
+	@Test
+	public void shouldEncodeAndDecodeIncludesSortAndOtherValues() {
+		Set<Include> includes = new HashSet<>(
+		        Arrays.asList(new Include("Observation:patient"), new Include("Observation:encounter", true)));
+		SortSpec sort = new SortSpec("date", SortOrderEnum.DESC).setChain(new SortSpec("_id"));
+		SearchParameterMap searchParameterMap = new SearchParameterMap()
+		        .addParameter(FhirConstants.INCLUDE_SEARCH_HANDLER, includes)
+		        .addParameter(FhirConstants.EVERYTHING_SEARCH_HANDLER, "")
+		        .addParameter(FhirConstants.EXACT_TOTAL_SEARCH_PARAMETER, Boolean.TRUE).setSortSpec(sort);
+		searchParameterMap.setTotalMode(SearchTotalModeEnum.NONE);
+		
+		SearchParameterMap result = roundTrip(searchParameterMap);
+		
+		assertThat(result.getParameters(FhirConstants.INCLUDE_SEARCH_HANDLER).get(0).getParam(), equalTo(includes));
+		assertThat(result.getParameters(FhirConstants.EVERYTHING_SEARCH_HANDLER).get(0).getParam(), equalTo(""));
+		assertThat(result.getParameters(FhirConstants.EXACT_TOTAL_SEARCH_PARAMETER).get(0).getParam(),
+		    equalTo(Boolean.TRUE));
+		assertThat(result.getTotalMode(), equalTo(SearchTotalModeEnum.NONE));
+		assertThat(result.getSortSpec().getParamName(), equalTo("date"));
+		assertThat(result.getSortSpec().getOrder(), equalTo(SortOrderEnum.DESC));
+		assertThat(result.getSortSpec().getChain().getParamName(), equalTo("_id"));
+		assertThat(result.getSortSpec().getChain().getChain(), nullValue());
+	}
+	
+	@Test
+	public void shouldKeepTheOrderOfRepeatedParameters() {
+		SearchParameterMap searchParameterMap = new SearchParameterMap()
+		        .addParameter(FhirConstants.NAME_SEARCH_HANDLER, new StringParam("John"))
+		        .addParameter(FhirConstants.NAME_SEARCH_HANDLER, new StringParam("Doe"));
+		
+		SearchParameterMap result = roundTrip(searchParameterMap);
+		
+		List<PropParam<?>> names = result.getParameters(FhirConstants.NAME_SEARCH_HANDLER);
+		assertThat(names, hasSize(2));
+		assertThat(Arrays.asList(((StringParam) names.get(0).getParam()).getValue(),
+		    ((StringParam) names.get(1).getParam()).getValue()), contains("John", "Doe"));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void encode_shouldRejectParametersOfOtherTypes() {
+		SearchParameterMap searchParameterMap = new SearchParameterMap().addParameter(FhirConstants.COMMON_SEARCH_HANDLER,
+		    new Date());
+		
+		SearchParameterMapCodec.encode(searchParameterMap, FHIR_CONTEXT);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void decode_shouldRejectParameterTypesOutsideTheHapiParameterPackage() {
+		SearchParameterMapCodec.decode(
+		    "{\"params\":[{\"key\":\"name\",\"type\":\"java.lang.ProcessBuilder\",\"values\":[]}]}", FHIR_CONTEXT);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void decode_shouldRejectInvalidJson() {
+		SearchParameterMapCodec.decode("{", FHIR_CONTEXT);
+	}
+	
+	private SearchParameterMap roundTrip(SearchParameterMap searchParameterMap) {
+		return SearchParameterMapCodec.decode(SearchParameterMapCodec.encode(searchParameterMap, FHIR_CONTEXT),
+		    FHIR_CONTEXT);
+	}
+}
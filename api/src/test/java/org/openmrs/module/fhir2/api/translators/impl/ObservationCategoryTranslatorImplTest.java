@@ -13,6 +13,12 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.notNullValue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.hl7.fhir.r4.model.CodeableConcept;
 import org.junit.Before;
 import org.junit.Test;
@@ -20,7 +26,9 @@ import org.openmrs.Concept;
 import org.openmrs.ConceptClass;
 import org.openmrs.module.fhir2.BaseFhirContextSensitiveTest;
 import org.openmrs.module.fhir2.api.translators.ObservationCategoryTranslator;
+import org.openmrs.module.fhir2.api.util.ReferenceResolutionCache;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 
 public class ObservationCategoryTranslatorImplTest extends BaseFhirContextSensitiveTest {
 	
@@ -39,6 +47,10 @@ public class ObservationCategoryTranslatorImplTest extends BaseFhirContextSensit
 	@Autowired
 	ObservationCategoryTranslator observationCategoryTranslator;
 	
+	@Autowired
+	@Qualifier("sessionFactory")
+	SessionFactory sessionFactory;
+	
 	@Before
 	public void setup() throws Exception {
 		executeDataSet(OBSERVATION_CATEGORY_CONCEPT_CLASS_DATA);
@@ -92,4 +104,33 @@ public class ObservationCategoryTranslatorImplTest extends BaseFhirContextSensit
 		assertThat(codeableConcept, notNullValue());
 		assertThat(codeableConcept.getCoding().get(0).getDisplay(), equalTo("Exam"));
 	}
+	
+	@Test
+	public void shouldLoadTheCategoriesOfPrefetchedConceptsWithOneQuery() {
+		List<Concept> concepts = new ArrayList<>();
+		for (String conceptClassUuid : Arrays.asList(LABORATORY_CONCEPT_CLASS_UUID, PROCEDURE_CONCEPT_CLASS_UUID,
+		    EXAM_CONCEPT_CLASS_UUID)) {
+			ConceptClass conceptClass = new ConceptClass();
+			conceptClass.setUuid(conceptClassUuid);
+			Concept concept = new Concept();
+			concept.setConceptClass(conceptClass);
+			concepts.add(concept);
+		}
+		
+		Statistics statistics = sessionFactory.getStatistics();
+		statistics.setStatisticsEnabled(true);
+		statistics.clear();
+		try (ReferenceResolutionCache.Scope scope = ReferenceResolutionCache.open()) {
+			observationCategoryTranslator.prefetch(concepts);
+			
+			assertThat(observationCategoryTranslator.toFhirResource(concepts.get(0)).getCodingFirstRep().getCode(),
+			    equalTo("laboratory"));
+			assertThat(observationCategoryTranslator.toFhirResource(concepts.get(2)).getCodingFirstRep().getCode(),
+			    equalTo("exam"));
+			assertThat(statistics.getPrepareStatementCount(), equalTo(1L));
+		}
+		finally {
+			statistics.setStatisticsEnabled(false);
+		}
+	}
 }
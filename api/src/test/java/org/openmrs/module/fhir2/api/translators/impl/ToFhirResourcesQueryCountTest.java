@@ -0,0 +1,210 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.translators.impl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Practitioner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Encounter;
+import org.openmrs.GlobalProperty;
+import org.openmrs.Obs;
+import org.openmrs.Person;
+import org.openmrs.Provider;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.fhir2.BaseFhirContextSensitiveTest;
+import org.openmrs.module.fhir2.FhirConstants;
+import org.openmrs.module.fhir2.api.cache.FhirCacheManager;
+import org.openmrs.module.fhir2.api.translators.EncounterTranslator;
+import org.openmrs.module.fhir2.api.translators.ObservationTranslator;
+import org.openmrs.module.fhir2.api.translators.PatientTranslator;
+import org.openmrs.module.fhir2.api.translators.PersonTranslator;
+import org.openmrs.module.fhir2.api.translators.PractitionerTranslator;
+import org.openmrs.module.fhir2.api.util.FhirGlobalPropertyHolder;
+import org.openmrs.module.fhir2.api.util.ReferenceResolutionCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+
+/**
+ * Checks that translating a page of objects does not query the database once per object for the
+ * data each of them is associated with
+ */
+public class ToFhirResourcesQueryCountTest extends BaseFhirContextSensitiveTest {
+	
+	private static final String PATIENT_INITIAL_DATA_XML = "org/openmrs/module/fhir2/api/dao/impl/FhirPatientDaoImplTest_initial_data.xml";
+	
+	private static final String CONTACT_ATTRIBUTE_TYPE_UUID = "3b4a243d-4508-4ecf-aa05-d1260a78e196";
+	
+	private static final String PATIENT_WITH_CONTACT_UUID = "30e2aa2a-4ed1-415d-84c5-ba29016c14b7";
+	
+	private static final String OBSERVATION_CATEGORY_DATA_XML = "org/openmrs/module/fhir2/mapping/FhirObservationCategoryTest_initial_data.xml";
+	
+	private static final String ENCOUNTER_INITIAL_DATA_XML = "org/openmrs/module/fhir2/api/dao/impl/FhirEncounterDaoImplTest_initial_data.xml";
+	
+	private static final String PRACTITIONER_INITIAL_DATA_XML = "org/openmrs/module/fhir2/api/dao/impl/FhirPractitionerDaoImplTest_initial_data.xml";
+	
+	private static final String CONTACT_POINT_DATA_XML = "org/openmrs/module/fhir2/api/dao/impl/FhirContactPointMapDaoImplTest_initial_data.xml";
+	
+	private static final String PROVIDER_CONTACT_ATTRIBUTE_TYPE_UUID = "257daea3-5750-4ff6-8d11-518c49f73556";
+	
+	private static final String PROVIDER_WITH_CONTACT_UUID = "a0c47603-4e92-4be9-af61-c2a32c78926c";
+	
+	private static final String OBSERVATION_CATEGORY_CACHE = "fhir2ObservationCategoryToCodeableConcept";
+	
+	@Autowired
+	@Qualifier("sessionFactory")
+	private SessionFactory sessionFactory;
+	
+	@Autowired
+	@Qualifier("adminService")
+	private AdministrationService administrationService;
+	
+	@Autowired
+	private PatientTranslator patientTranslator;
+	
+	@Autowired
+	private PersonTranslator personTranslator;
+	
+	@Autowired
+	private ObservationTranslator observationTranslator;
+	
+	@Autowired
+	private EncounterTranslator<Encounter> encounterTranslator;
+	
+	@Autowired
+	private PractitionerTranslator<Provider> practitionerTranslator;
+	
+	@Autowired
+	private FhirCacheManager cacheManager;
+	
+	private Statistics statistics;
+	
+	private List<org.openmrs.Patient> patients;
+	
+	@Before
+	public void setup() throws Exception {
+		executeDataSet(PATIENT_INITIAL_DATA_XML);
+		administrationService.saveGlobalProperty(
+		    new GlobalProperty(FhirConstants.PERSON_CONTACT_POINT_ATTRIBUTE_TYPE, CONTACT_ATTRIBUTE_TYPE_UUID));
+		FhirGlobalPropertyHolder.reset();
+		
+		patients = Context.getPatientService().getAllPatients(true);
+		assertThat(patients.size(), greaterThan(2));
+		
+		statistics = sessionFactory.getStatistics();
+		statistics.setStatisticsEnabled(true);
+	}
+	
+	@After
+	public void tearDown() {
+		statistics.setStatisticsEnabled(false);
+	}
+	
+	@Test
+	public void toFhirResources_shouldLoadTheContactDetailsOfAPageOfPatientsTogether() {
+		// the first translation loads everything that is loaded lazily, e.g. names, into the session
+		patientTranslator.toFhirResources(patients);
+		
+		statistics.clear();
+		List<Patient> translated = patientTranslator.toFhirResources(patients);
+		
+		assertThat(statistics.getPrepareStatementCount(), lessThan((long) patients.size()));
+		Patient patientWithContact = translated.stream()
+		        .filter(patient -> patient.getIdElement().getIdPart().equals(PATIENT_WITH_CONTACT_UUID)).findFirst()
+		        .orElseThrow(AssertionError::new);
+		assertThat(patientWithContact.getTelecom(), hasSize(1));
+		assertThat(patientWithContact.getTelecom().get(0).getValue(), equalTo("test@openmrs.org"));
+	}
+	
+	@Test
+	public void toFhirResources_shouldLoadThePatientsForAPageOfPersonsTogether() {
+		List<Person> persons = new ArrayList<>(patients);
+		personTranslator.toFhirResources(persons);
+		
+		statistics.clear();
+		List<org.hl7.fhir.r4.model.Person> translated = personTranslator.toFhirResources(persons);
+		
+		assertThat(statistics.getPrepareStatementCount(), lessThan((long) persons.size()));
+		assertThat(translated.get(0).getLink(), hasSize(1));
+	}
+	
+	@Test
+	public void prefetch_shouldNotLoadTheCategoriesOfObservationsWhoseCategoriesAreCached() throws Exception {
+		executeDataSet(OBSERVATION_CATEGORY_DATA_XML);
+		List<Obs> observations = Context.getObsService().getObservationsByPerson(Context.getPersonService().getPerson(7));
+		assertThat(observations.size(), greaterThan(1));
+		// translating the observations caches their categories
+		observationTranslator.toFhirResources(observations);
+		
+		statistics.clear();
+		try (ReferenceResolutionCache.Scope scope = ReferenceResolutionCache.open()) {
+			observationTranslator.prefetch(observations);
+		}
+		
+		assertThat(statistics.getPrepareStatementCount(), equalTo(0L));
+		
+		cacheManager.getCache(OBSERVATION_CATEGORY_CACHE).clear();
+		statistics.clear();
+		try (ReferenceResolutionCache.Scope scope = ReferenceResolutionCache.open()) {
+			observationTranslator.prefetch(observations);
+		}
+		
+		assertThat(statistics.getPrepareStatementCount(), equalTo(1L));
+	}
+	
+	@Test
+	public void toFhirResources_shouldLoadTheClassesOfAPageOfEncountersTogether() throws Exception {
+		executeDataSet(ENCOUNTER_INITIAL_DATA_XML);
+		List<Encounter> encounters = Context.getEncounterService().getEncountersByPatientId(2);
+		assertThat(encounters.size(), greaterThan(1));
+		encounterTranslator.toFhirResources(encounters);
+		
+		statistics.clear();
+		List<org.hl7.fhir.r4.model.Encounter> translated = encounterTranslator.toFhirResources(encounters);
+		
+		assertThat(statistics.getPrepareStatementCount(), lessThan((long) encounters.size()));
+		assertThat(translated, hasSize(encounters.size()));
+	}
+	
+	@Test
+	public void toFhirResources_shouldLoadTheContactDetailsOfAPageOfPractitionersTogether() throws Exception {
+		executeDataSet(PRACTITIONER_INITIAL_DATA_XML);
+		executeDataSet(CONTACT_POINT_DATA_XML);
+		administrationService.saveGlobalProperty(
+		    new GlobalProperty(FhirConstants.PROVIDER_CONTACT_POINT_ATTRIBUTE_TYPE, PROVIDER_CONTACT_ATTRIBUTE_TYPE_UUID));
+		FhirGlobalPropertyHolder.reset();
+		
+		List<Provider> providers = Context.getProviderService().getAllProviders();
+		assertThat(providers.size(), greaterThan(2));
+		practitionerTranslator.toFhirResources(providers);
+		
+		statistics.clear();
+		List<Practitioner> translated = practitionerTranslator.toFhirResources(providers);
+		
+		assertThat(statistics.getPrepareStatementCount(), lessThan((long) providers.size()));
+		Practitioner practitionerWithContact = translated.stream()
+		        .filter(practitioner -> practitioner.getIdElement().getIdPart().equals(PROVIDER_WITH_CONTACT_UUID))
+		        .findFirst().orElseThrow(AssertionError::new);
+		assertThat(practitionerWithContact.getTelecom(), hasSize(1));
+	}
+}
@@ -0,0 +1,53 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+
+import org.junit.Test;
+
+public class CompactIntArrayTest {
+	
+	@Test
+	public void shouldRoundTripEmptyArray() {
+		assertThat(CompactIntArray.decode(CompactIntArray.encode(new int[0])), equalTo(new int[0]));
+	}
+	
+	@Test
+	public void shouldRoundTripUnorderedValues() {
+		int[] values = new int[] { 7, 3, 1000000, 1000001, 0, -5, Integer.MAX_VALUE, Integer.MIN_VALUE, 42 };
+		
+		assertThat(CompactIntArray.decode(CompactIntArray.encode(values)), equalTo(values));
+	}
+	
+	@Test
+	public void shouldUseLessSpaceThanFixedWidthIntsForNearbyValues() {
+		int[] values = new int[1000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = 500000 + i * 3;
+		}
+		
+		byte[] encoded = CompactIntArray.encode(values);
+		
+		assertThat(encoded.length, lessThan(values.length * 2));
+		assertThat(CompactIntArray.decode(encoded), equalTo(values));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void shouldRejectTruncatedInput() {
+		byte[] encoded = CompactIntArray.encode(new int[] { 1, 2, 300 });
+		byte[] truncated = new byte[encoded.length - 1];
+		System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+		
+		CompactIntArray.decode(truncated);
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.Date;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ConditionalReadContextTest {
+	
+	private static final String PATIENT_UUID = "a7e04421-525f-442f-8138-05b619d16def";
+	
+	private static final Date LAST_UPDATED = new Date(1600000000123L);
+	
+	@After
+	public void tearDown() {
+		ConditionalReadContext.clear();
+	}
+	
+	@Test
+	public void isNotModified_shouldCompareTheVersionIdOfTheResourceBeingRead() {
+		ConditionalReadContext.set("Patient", PATIENT_UUID, "1600000000123", null);
+		
+		assertThat(ConditionalReadContext.isNotModified("Patient", PATIENT_UUID, LAST_UPDATED), is(true));
+		assertThat(ConditionalReadContext.isNotModified("Patient", PATIENT_UUID, new Date(1600000000124L)), is(false));
+		assertThat(ConditionalReadContext.isNotModified("Person", PATIENT_UUID, LAST_UPDATED), is(false));
+	}
+	
+	@Test
+	public void isNotModified_shouldCompareTheLastUpdatedDateToTheSecond() {
+		ConditionalReadContext.set("Patient", PATIENT_UUID, null, new Date(1600000000000L));
+		
+		assertThat(ConditionalReadContext.isNotModified("Patient", PATIENT_UUID, LAST_UPDATED), is(true));
+		assertThat(ConditionalReadContext.isNotModified("Patient", PATIENT_UUID, new Date(1600000001000L)), is(false));
+	}
+	
+	@Test
+	public void isNotModified_shouldBeFalseWithoutConditions() {
+		ConditionalReadContext.set("Patient", PATIENT_UUID, null, null);
+		
+		assertThat(ConditionalReadContext.isNotModified("Patient", PATIENT_UUID, LAST_UPDATED), is(false));
+	}
+}
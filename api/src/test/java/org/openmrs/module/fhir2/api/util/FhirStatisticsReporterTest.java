@@ -0,0 +1,74 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.CacheStats;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openmrs.module.fhir2.api.cache.FhirCacheManager;
+import org.openmrs.module.fhir2.api.search.SearchQueryIncludeExecutor;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FhirStatisticsReporterTest {
+	
+	private static final String CONCEPT_SOURCES = "fhir2GetFhirConceptSources";
+	
+	private static final String REVERSE_INCLUDE = "_revinclude=Observation:patient";
+	
+	@Mock
+	private FhirCacheManager cacheManager;
+	
+	@Mock
+	private SearchQueryIncludeExecutor includeExecutor;
+	
+	private FhirStatisticsReporter reporter;
+	
+	@Before
+	public void setup() {
+		reporter = new FhirStatisticsReporter();
+		reporter.setCacheManager(cacheManager);
+		reporter.setIncludeExecutor(includeExecutor);
+	}
+	
+	@Test
+	public void getReport_shouldReportTheStatisticsOfEachCache() {
+		when(cacheManager.getStatistics()).thenReturn(Collections.singletonMap(CONCEPT_SOURCES,
+		    new CacheStats(3, 1, 1, 0, TimeUnit.MILLISECONDS.toNanos(20), 2)));
+		when(includeExecutor.getTimings()).thenReturn(Collections.emptyMap());
+		
+		String report = reporter.getReport();
+		
+		assertThat(report, containsString(
+		    CONCEPT_SOURCES + ": 3 hits, 1 misses (75.0% hit rate), 2 evictions, 20.0 ms average load time"));
+		assertThat(report, containsString("no include has been run"));
+	}
+	
+	@Test
+	public void getReport_shouldReportTheTimingsOfEachInclude() {
+		when(cacheManager.getStatistics()).thenReturn(Collections.emptyMap());
+		when(includeExecutor.getTimings())
+		        .thenReturn(Collections.singletonMap(REVERSE_INCLUDE, new SearchQueryIncludeExecutor.IncludeTiming()));
+		
+		String report = reporter.getReport();
+		
+		assertThat(report, containsString("no cache has been used"));
+		assertThat(report, containsString(REVERSE_INCLUDE + ": run 0 times in 0 ms"));
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Location;
+import org.openmrs.api.context.Context;
+import org.openmrs.messagesource.MessageSourceService;
+import org.openmrs.messagesource.MutableMessageSource;
+import org.openmrs.messagesource.PresentationMessage;
+import org.openmrs.messagesource.impl.CachedMessageSource;
+import org.openmrs.module.fhir2.BaseFhirContextSensitiveTest;
+
+public class FhirUtilsMetadataTranslationTest extends BaseFhirContextSensitiveTest {
+	
+	private static final String LOCATION_UUID = "6e3d4d1d-0dd6-4a6b-9b1a-3b2c1e2b0f6a";
+	
+	private static final String LOCATION_NAME = "Unknown Location";
+	
+	private static final String LOCALIZED_NAME = "Lieu inconnu";
+	
+	private MutableMessageSource originalMessageSource;
+	
+	private CachedMessageSource messageSource;
+	
+	private Location location;
+	
+	@Before
+	public void setup() {
+		MessageSourceService messageSourceService = Context.getMessageSourceService();
+		originalMessageSource = messageSourceService.getActiveMessageSource();
+		
+		messageSource = new CachedMessageSource();
+		messageSource.setUseCodeAsDefaultMessage(true);
+		messageSourceService.setActiveMessageSource(messageSource);
+		
+		location = new Location();
+		location.setUuid(LOCATION_UUID);
+		location.setName(LOCATION_NAME);
+		
+		FhirUtils.clearMetadataTranslationCache();
+	}
+	
+	@After
+	public void tearDown() {
+		Context.getMessageSourceService().setActiveMessageSource(originalMessageSource);
+		FhirUtils.clearMetadataTranslationCache();
+	}
+	
+	@Test
+	public void getMetadataTranslation_shouldOnlyLookUpAMissingLocalizationOnce() {
+		long hits = FhirUtils.getMetadataTranslationCacheStats().hitCount();
+		
+		assertThat(FhirUtils.getMetadataTranslation(location), equalTo(LOCATION_NAME));
+		addLocalization();
+		
+		assertThat(FhirUtils.getMetadataTranslation(location), equalTo(LOCATION_NAME));
+		assertThat(FhirUtils.getMetadataTranslationCacheStats().hitCount(), equalTo(hits + 1));
+	}
+	
+	@Test
+	public void getMetadataTranslation_shouldLookUpTheLocalizationAgainOnceTheCacheIsCleared() {
+		assertThat(FhirUtils.getMetadataTranslation(location), equalTo(LOCATION_NAME));
+		addLocalization();
+		
+		FhirUtils.clearMetadataTranslationCache();
+		
+		assertThat(FhirUtils.getMetadataTranslation(location), equalTo(LOCALIZED_NAME));
+	}
+	
+	private void addLocalization() {
+		messageSource.addPresentation(new PresentationMessage("ui.i18n.Location.name." + LOCATION_UUID,
+		        Context.getLocale(), LOCALIZED_NAME, null));
+	}
+}
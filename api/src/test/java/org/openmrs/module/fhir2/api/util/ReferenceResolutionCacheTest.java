@@ -0,0 +1,102 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.api.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ReferenceResolutionCacheTest {
+	
+	@Test
+	public void shouldAlwaysCallTheLoaderOutsideOfAScope() {
+		AtomicInteger loads = new AtomicInteger();
+		
+		ReferenceResolutionCache.resolve(String.class, "key", () -> "value" + loads.incrementAndGet());
+		String value = ReferenceResolutionCache.resolve(String.class, "key", () -> "value" + loads.incrementAndGet());
+		
+		assertThat(value, equalTo("value2"));
+		assertThat(ReferenceResolutionCache.isOpen(), is(false));
+	}
+	
+	@Test
+	public void shouldLoadEachKeyOnceWithinAScope() {
+		AtomicInteger loads = new AtomicInteger();
+		
+		try (ReferenceResolutionCache.Scope scope = ReferenceResolutionCache.open()) {
+			ReferenceResolutionCache.resolve(String.class, "key", () -> "value" + loads.incrementAndGet());
+			String value = ReferenceResolutionCache.resolve(String.class, "key", () -> "value" + loads.incrementAndGet());
+			
+			assertThat(value, equalTo("value1"));
+		}
+		
+		assertThat(ReferenceResolutionCache.isOpen(), is(false));
+	}
+	
+	@Test
+	public void shouldRememberKeysThatCouldNotBeResolved() {
+		AtomicInteger loads = new AtomicInteger();
+		
+		try (ReferenceResolutionCache.Scope scope = ReferenceResolutionCache.open()) {
+			ReferenceResolutionCache.resolve(String.class, "missing", () -> {
+				loads.incrementAndGet();
+				return null;
+			});
+			String value = ReferenceResolutionCache.resolve(String.class, "missing", () -> "value");
+			
+			assertThat(value, nullValue());
+			assertThat(loads.get(), equalTo(1));
+		}
+	}
+	
+	@Test
+	public void shouldKeepTypesApart() {
+		try (ReferenceResolutionCache.Scope scope = ReferenceResolutionCache.open()) {
+			ReferenceResolutionCache.put(String.class, "key", "string");
+			
+			assertThat(ReferenceResolutionCache.resolve(Integer.class, "key", () -> 1), equalTo(1));
+			assertThat(ReferenceResolutionCache.resolve(String.class, "key", () -> "other"), equalTo("string"));
+		}
+	}
+	
+	@Test
+	public void shouldReturnDataPrefetchedUnderANamespace() {
+		try (ReferenceResolutionCache.Scope scope = ReferenceResolutionCache.open()) {
+			ReferenceResolutionCache.put("contactPoints", "key", Collections.singletonList("value"));
+			
+			List<String> value = ReferenceResolutionCache.resolve("contactPoints", "key", Collections::emptyList);
+			
+			assertThat(value, contains("value"));
+			assertThat(ReferenceResolutionCache.resolve(String.class, "key", () -> "other"), equalTo("other"));
+		}
+	}
+	
+	@Test
+	public void shouldOnlyEndTheOutermostScope() {
+		try (ReferenceResolutionCache.Scope outer = ReferenceResolutionCache.open()) {
+			ReferenceResolutionCache.put(String.class, "key", "value");
+			
+			try (ReferenceResolutionCache.Scope inner = ReferenceResolutionCache.open()) {
+				assertThat(ReferenceResolutionCache.isOpen(), is(true));
+			}
+			
+			assertThat(ReferenceResolutionCache.isOpen(), is(true));
+			assertThat(ReferenceResolutionCache.resolve(String.class, "key", () -> "other"), equalTo("value"));
+		}
+	}
+}
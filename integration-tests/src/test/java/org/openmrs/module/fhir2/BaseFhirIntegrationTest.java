@@ -42,6 +42,7 @@ import org.hl7.fhir.instance.model.api.IBaseOperationOutcome;
 import org.hl7.fhir.instance.model.api.IDomainResource;
 import org.junit.Before;
 import org.openmrs.api.cache.CacheConfig;
+import org.openmrs.module.fhir2.api.cache.FhirCacheManager;
 import org.openmrs.module.fhir2.api.util.FhirGlobalPropertyHolder;
 import org.openmrs.module.fhir2.web.servlet.FhirRestServlet;
 import org.openmrs.web.test.BaseModuleWebContextSensitiveTest;
@@ -70,6 +71,9 @@ public abstract class BaseFhirIntegrationTest<T extends IResourceProvider, U ext
 	@Autowired
 	CacheConfig cacheConfig;
 	
+	@Autowired
+	FhirCacheManager fhirCacheManager;
+	
 	@Autowired
 	private ConfigurableApplicationContext ctx;
 	
@@ -93,6 +97,7 @@ public abstract class BaseFhirIntegrationTest<T extends IResourceProvider, U ext
 	public void setup() throws Exception {
 		// Needed until TRUNK-6299 in place
 		cacheConfig.cacheManager().getCacheNames().forEach(name -> cacheConfig.cacheManager().getCache(name).clear());
+		fhirCacheManager.clearAll();
 		
 		FhirGlobalPropertyHolder.reset();
 		jsonParser = getFhirContext().newJsonParser();
@@ -24,21 +24,39 @@ package org.openmrs.module.fhir2.narrative;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
 
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.narrative2.ThymeleafNarrativeGenerator;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
 import lombok.Getter;
+import lombok.Setter;
 import org.apache.commons.lang.Validate;
+import org.hl7.fhir.instance.model.api.IBaseReference;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.hl7.fhir.r4.model.DomainResource;
+import org.hl7.fhir.r4.model.Narrative;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.fhir2.api.cache.FhirNarrativeCache;
 import org.springframework.context.MessageSource;
 
 /**
  * Class for carrying out the task of narrative generation
+ * <p/>
+ * If a {@link FhirNarrativeCache} is set, rendered narratives are cached by resource type, id, version
+ * and locale, so a resource that is read or searched repeatedly is only run through the Thymeleaf
+ * templates until it or something it refers to changes. Resources without a version are always
+ * rendered.
  */
 public class OpenmrsThymeleafNarrativeGenerator extends ThymeleafNarrativeGenerator {
 	
-	private boolean isInitialized;
+	private volatile boolean isInitialized;
+	
+	@Getter
+	@Setter
+	private FhirNarrativeCache narrativeCache;
 	
 	@Getter
 	private List<String> propertyFiles;
@@ -71,7 +89,36 @@ public class OpenmrsThymeleafNarrativeGenerator extends ThymeleafNarrativeGenera
 			initialize();
 		}
 		
-		return super.populateResourceNarrative(theFhirContext, theResource);
+		FhirNarrativeCache cache = narrativeCache;
+		if (cache == null || !(theResource instanceof DomainResource) || !theResource.getIdElement().hasIdPart()
+		        || theResource.getMeta().getVersionId() == null) {
+			return super.populateResourceNarrative(theFhirContext, theResource);
+		}
+		
+		String resourceType = theFhirContext.getResourceType(theResource);
+		String id = theResource.getIdElement().getIdPart();
+		String versionId = theResource.getMeta().getVersionId();
+		Locale locale = Context.getLocale();
+		
+		Narrative text = ((DomainResource) theResource).getText();
+		String div = cache.get(resourceType, id, versionId, locale);
+		if (div != null) {
+			text.setDivAsString(div);
+			text.setStatus(Narrative.NarrativeStatus.GENERATED);
+			return true;
+		}
+		
+		long generation = cache.getGeneration();
+		boolean generated = super.populateResourceNarrative(theFhirContext, theResource);
+		if (generated && !text.getDiv().isEmpty()) {
+			// a narrative may show the display of each reference, so it is removed when a referenced object changes
+			List<IIdType> references = theFhirContext.newTerser()
+			        .getAllPopulatedChildElementsOfType(theResource, IBaseReference.class).stream()
+			        .map(IBaseReference::getReferenceElement).collect(Collectors.toList());
+			cache.put(resourceType, id, versionId, locale, text.getDivAsString(), references, generation);
+		}
+		
+		return generated;
 	}
 	
 	/**
@@ -84,7 +131,12 @@ public class OpenmrsThymeleafNarrativeGenerator extends ThymeleafNarrativeGenera
 		this.propertyFiles = propertyFiles;
 	}
 	
-	private synchronized void initialize() {
+	/**
+	 * Reads the manifest and its templates. This is done on first use if it has not been done already,
+	 * but should be called when the generator is installed so that the first request does not pay for
+	 * it.
+	 */
+	public synchronized void initialize() {
 		if (!isInitialized) {
 			List<String> propertyFile = getPropertyFiles();
 			try {
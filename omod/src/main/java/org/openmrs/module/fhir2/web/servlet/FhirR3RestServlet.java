@@ -46,4 +46,11 @@ public class FhirR3RestServlet extends FhirRestServlet {
 	public void setResourceProviders(Collection<IResourceProvider> theProviders) {
 		super.setResourceProviders(theProviders);
 	}
+	
+	@Override
+	@Autowired(required = false)
+	@R3Provider
+	public void setOperationProviders(Collection<Object> theProviders) {
+		super.setOperationProviders(theProviders);
+	}
 }
@@ -44,11 +44,16 @@ import org.openmrs.module.fhir2.FhirActivator;
 import org.openmrs.module.fhir2.FhirConstants;
 import org.openmrs.module.fhir2.api.FhirGlobalPropertyService;
 import org.openmrs.module.fhir2.api.annotations.R4Provider;
+import org.openmrs.module.fhir2.api.cache.FhirNarrativeCache;
+import org.openmrs.module.fhir2.api.dao.FhirSearchSnapshotDao;
+import org.openmrs.module.fhir2.api.search.SearchSnapshotPagingProvider;
 import org.openmrs.module.fhir2.api.spi.ModuleLifecycleListener;
 import org.openmrs.module.fhir2.narrative.OpenmrsThymeleafNarrativeGenerator;
 import org.openmrs.module.fhir2.web.authentication.RequireAuthenticationInterceptor;
-import org.openmrs.module.fhir2.web.util.DisableCacheInterceptor;
+import org.openmrs.module.fhir2.web.util.CacheControlInterceptor;
+import org.openmrs.module.fhir2.web.util.ConditionalReadInterceptor;
 import org.openmrs.module.fhir2.web.util.NarrativeUtils;
+import org.openmrs.module.fhir2.web.util.SearchTotalInterceptor;
 import org.openmrs.module.fhir2.web.util.SummaryInterceptor;
 import org.openmrs.module.fhir2.web.util.SupportMergePatchInterceptor;
 import org.openmrs.util.OpenmrsClassLoader;
@@ -73,6 +78,12 @@ public class FhirRestServlet extends RestfulServer implements ModuleLifecycleLis
 	@Setter(value = AccessLevel.PUBLIC, onMethod_ = { @Autowired })
 	private FhirGlobalPropertyService globalPropertyService;
 	
+	@Setter(value = AccessLevel.PUBLIC, onMethod_ = { @Autowired(required = false) })
+	private FhirSearchSnapshotDao searchSnapshotDao;
+	
+	@Setter(value = AccessLevel.PUBLIC, onMethod_ = { @Autowired(required = false) })
+	private FhirNarrativeCache narrativeCache;
+	
 	@Setter(value = AccessLevel.PUBLIC, onMethod_ = { @Qualifier("hapiLoggingInterceptor"), @Autowired })
 	private LoggingInterceptor loggingInterceptor;
 	
@@ -148,8 +159,10 @@ public class FhirRestServlet extends RestfulServer implements ModuleLifecycleLis
 
 		registerInterceptor(loggingInterceptor);
 		registerInterceptor(new RequireAuthenticationInterceptor());
-		registerInterceptor(new DisableCacheInterceptor());
+		registerInterceptor(new CacheControlInterceptor());
+		registerInterceptor(new ConditionalReadInterceptor());
 		registerInterceptor(new SummaryInterceptor());
+		registerInterceptor(new SearchTotalInterceptor());
 		registerInterceptor(new SupportMergePatchInterceptor());
 
 		String narrativesOverridePropertyFile = NarrativeUtils.getValidatedPropertiesFilePath(
@@ -164,8 +177,11 @@ public class FhirRestServlet extends RestfulServer implements ModuleLifecycleLis
 			narrativePropertiesFiles = DEFAULT_NARRATIVE_FILES;
 		}
 
-		getFhirContext()
-				.setNarrativeGenerator(new OpenmrsThymeleafNarrativeGenerator(messageSource, narrativePropertiesFiles));
+		OpenmrsThymeleafNarrativeGenerator narrativeGenerator = new OpenmrsThymeleafNarrativeGenerator(messageSource,
+				narrativePropertiesFiles);
+		narrativeGenerator.setNarrativeCache(narrativeCache);
+		narrativeGenerator.initialize();
+		getFhirContext().setNarrativeGenerator(narrativeGenerator);
 
 		started = true;
 	}
@@ -206,19 +222,43 @@ public class FhirRestServlet extends RestfulServer implements ModuleLifecycleLis
 		super.setResourceProviders(theProviders);
 	}
 	
+	/**
+	 * Registers the providers for operations that are not tied to a single resource type, e.g. the
+	 * bulk data $export operation
+	 */
+	@Autowired(required = false)
+	@R4Provider
+	public void setOperationProviders(Collection<Object> theProviders) {
+		registerProviders(getOperationProviders(theProviders));
+	}
+	
 	@Override
 	@Autowired
 	public void setServerAddressStrategy(IServerAddressStrategy theServerAddressStrategy) {
 		super.setServerAddressStrategy(theServerAddressStrategy);
 	}
 	
+	protected List<Object> getOperationProviders(Collection<?> theProviders) {
+		return theProviders.stream().filter(provider -> !(provider instanceof IResourceProvider))
+		        .collect(Collectors.toList());
+	}
+	
 	private BasePagingProvider createPagingProvider() {
 		int defaultPageSize = globalPropertyService.getGlobalPropertyAsInteger(FhirConstants.OPENMRS_FHIR_DEFAULT_PAGE_SIZE,
 		    10);
 		int maximumPageSize = globalPropertyService.getGlobalPropertyAsInteger(FhirConstants.OPENMRS_FHIR_MAXIMUM_PAGE_SIZE,
 		    100);
 		
-		BasePagingProvider pagingProvider = new FifoMemoryPagingProvider(100);
+		// searches are persisted so that later pages can be loaded on any node, but tests may not provide the
+		// database-backed store
+		BasePagingProvider pagingProvider;
+		ConfigurableApplicationContext ctx = FhirActivator.getApplicationContext();
+		if (searchSnapshotDao != null && ctx != null) {
+			pagingProvider = new SearchSnapshotPagingProvider(searchSnapshotDao, globalPropertyService, ctx);
+		} else {
+			pagingProvider = new FifoMemoryPagingProvider(100);
+		}
+		
 		pagingProvider.setDefaultPageSize(defaultPageSize);
 		pagingProvider.setMaximumPageSize(maximumPageSize);
 		return pagingProvider;
@@ -255,16 +295,21 @@ public class FhirRestServlet extends RestfulServer implements ModuleLifecycleLis
 				setResourceProviders(ctx.getBeansOfType(IResourceProvider.class).entrySet().stream()
 				        .filter(entry -> validBeanNames.contains(entry.getKey())).map(Map.Entry::getValue)
 				        .collect(Collectors.toList()));
+				registerProviders(
+				    getOperationProviders(validBeanNames.stream().map(ctx::getBean).collect(Collectors.toList())));
 				
 				registerInterceptor(ctx.getBean("hapiLoggingInterceptor", LoggingInterceptor.class));
 				registerInterceptor(new RequireAuthenticationInterceptor());
-				registerInterceptor(new DisableCacheInterceptor());
+				registerInterceptor(new CacheControlInterceptor());
+				registerInterceptor(new ConditionalReadInterceptor());
 				registerInterceptor(new SummaryInterceptor());
+				registerInterceptor(new SearchTotalInterceptor());
 				registerInterceptor(new SupportMergePatchInterceptor());
 				
 				setAdministrationService(ctx.getBean("adminService", AdministrationService.class));
 				setGlobalPropertyService(ctx.getBean(FhirGlobalPropertyService.class));
 				setServerAddressStrategy(ctx.getBean(IServerAddressStrategy.class));
+				setSearchSnapshotDao(ctx.getBean(FhirSearchSnapshotDao.class));
 				setPagingProvider(createPagingProvider());
 				
 				administrationService.addGlobalPropertyListener(fhirRestServletListener);
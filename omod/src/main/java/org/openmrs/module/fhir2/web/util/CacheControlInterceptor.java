@@ -0,0 +1,69 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.web.util;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import org.openmrs.module.fhir2.FhirConstants;
+import org.openmrs.module.fhir2.api.util.FhirGlobalPropertyHolder;
+
+/**
+ * Sets the {@code Cache-Control} header of responses to reads and searches. The value used for a
+ * resource type can be configured with the {@code fhir2.cacheControl.<resource type>} global
+ * property, e.g. {@code fhir2.cacheControl.Location}. By default, responses are not stored.
+ * <p/>
+ * The version of a resource, which is returned as its {@code ETag} and {@code Last-Modified}, only
+ * reflects the row it is translated from, not rows such as the names or identifiers of a patient.
+ * Allowing a type to be stored, e.g. with {@code private, no-cache}, should only be done for types
+ * where a client can tolerate not seeing changes to those rows until the row itself changes.
+ */
+@Interceptor
+public class CacheControlInterceptor {
+	
+	static final String DEFAULT_CACHE_CONTROL = "no-store";
+	
+	@Hook(Pointcut.SERVER_OUTGOING_RESPONSE)
+	public boolean handleOutgoingResponse(RequestDetails requestDetails) {
+		String cacheControl = getCacheControl(requestDetails.getRestOperationType(), requestDetails.getResourceName());
+		if (cacheControl != null) {
+			requestDetails.getResponse().addHeader(Constants.HEADER_CACHE_CONTROL, cacheControl);
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * @param operationType the operation a request is for
+	 * @param resourceName the type of resource the request is for, if any
+	 * @return true if clients may store the responses to the operation, and so revalidate them later
+	 */
+	static boolean mayBeStored(RestOperationTypeEnum operationType, String resourceName) {
+		String cacheControl = getCacheControl(operationType, resourceName);
+		return cacheControl != null && !cacheControl.contains(DEFAULT_CACHE_CONTROL);
+	}
+	
+	private static String getCacheControl(RestOperationTypeEnum operationType, String resourceName) {
+		if (operationType != RestOperationTypeEnum.READ && operationType != RestOperationTypeEnum.VREAD
+		        && operationType != RestOperationTypeEnum.SEARCH_TYPE) {
+			return null;
+		}
+		
+		if (resourceName == null) {
+			return DEFAULT_CACHE_CONTROL;
+		}
+		
+		return FhirGlobalPropertyHolder.getGlobalProperty(FhirConstants.OPENMRS_FHIR_CACHE_CONTROL_PREFIX + resourceName,
+		    DEFAULT_CACHE_CONTROL);
+	}
+}
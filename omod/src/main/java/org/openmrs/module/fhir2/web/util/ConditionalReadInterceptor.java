@@ -0,0 +1,60 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.web.util;
+
+import java.util.Date;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.param.ParameterUtil;
+import ca.uhn.fhir.util.DateUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.hl7.fhir.instance.model.api.IIdType;
+import org.openmrs.module.fhir2.api.util.ConditionalReadContext;
+
+/**
+ * Records the {@code If-None-Match} and {@code If-Modified-Since} headers of a read so that a
+ * {@code 304 Not Modified} response can be returned without translating the resource. The weak ETags
+ * compared with {@code If-None-Match} are the {@code meta.versionId} of each resource, which the
+ * server already returns in the {@code ETag} header.
+ * <p/>
+ * As those versions do not reflect changes to the rows a resource depends on, conditions are only
+ * recorded for types that clients have been allowed to store by {@link CacheControlInterceptor}.
+ */
+@Interceptor
+public class ConditionalReadInterceptor {
+	
+	@Hook(Pointcut.SERVER_INCOMING_REQUEST_PRE_HANDLED)
+	public void handleConditionalRead(RequestDetails requestDetails, RestOperationTypeEnum operationType) {
+		IIdType id = requestDetails.getId();
+		if (operationType != RestOperationTypeEnum.READ || id == null || !id.hasIdPart()
+		        || !CacheControlInterceptor.mayBeStored(operationType, requestDetails.getResourceName())) {
+			ConditionalReadContext.clear();
+			return;
+		}
+		
+		String ifNoneMatch = requestDetails.getHeader(Constants.HEADER_IF_NONE_MATCH);
+		String versionId = StringUtils.isBlank(ifNoneMatch) ? null : ParameterUtil.parseETagValue(ifNoneMatch);
+		
+		String ifModifiedSince = requestDetails.getHeader(Constants.HEADER_IF_MODIFIED_SINCE);
+		Date modifiedSince = StringUtils.isBlank(ifModifiedSince) ? null : DateUtils.parseDate(ifModifiedSince);
+		
+		ConditionalReadContext.set(requestDetails.getResourceName(), id.getIdPart(), versionId, modifiedSince);
+	}
+	
+	@Hook(Pointcut.SERVER_PROCESSING_COMPLETED)
+	public void processingCompleted() {
+		ConditionalReadContext.clear();
+	}
+}
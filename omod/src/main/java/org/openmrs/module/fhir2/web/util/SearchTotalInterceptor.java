@@ -0,0 +1,38 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.web.util;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.SearchTotalModeEnum;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import org.openmrs.module.fhir2.api.search.SearchRequestContext;
+
+/**
+ * Records the {@code _total} parameter so that searches created during the request can skip
+ * ({@code _total=none}) or estimate ({@code _total=estimate}) the count of matching results.
+ */
+@Interceptor
+public class SearchTotalInterceptor {
+	
+	@Hook(Pointcut.SERVER_INCOMING_REQUEST_POST_PROCESSED)
+	public void handleTotalMode(RequestDetails requestDetails) {
+		String[] total = requestDetails.getParameters().get(Constants.PARAM_SEARCH_TOTAL_MODE);
+		SearchRequestContext
+		        .setTotalMode(total != null && total.length > 0 ? SearchTotalModeEnum.fromCode(total[0]) : null);
+	}
+	
+	@Hook(Pointcut.SERVER_PROCESSING_COMPLETED)
+	public void processingCompleted() {
+		SearchRequestContext.setTotalMode(null);
+	}
+}
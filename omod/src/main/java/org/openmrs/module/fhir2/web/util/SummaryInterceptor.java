@@ -13,18 +13,30 @@ import ca.uhn.fhir.interceptor.api.Hook;
 import ca.uhn.fhir.interceptor.api.Interceptor;
 import ca.uhn.fhir.interceptor.api.Pointcut;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
+import org.openmrs.module.fhir2.api.search.SearchRequestContext;
+import org.openmrs.module.fhir2.api.search.param.FetchProfile;
 
+/**
+ * Handles {@code _summary=count} by marking searches created during the request as count-only, so
+ * that the total is counted but no resources are loaded or translated. For other values of
+ * {@code _summary}, and for {@code _elements}, it records the {@link FetchProfile} used to load
+ * the results of those searches.
+ */
 @Interceptor
 public class SummaryInterceptor {
 	
 	@Hook(Pointcut.SERVER_INCOMING_REQUEST_POST_PROCESSED)
 	public void handleSummaryCount(RequestDetails requestDetails) {
-		if (requestDetails.getParameters().containsKey("_summary")) {
-			if (requestDetails.getParameters().get("_summary")[0].equals("count")) {
-				if (!requestDetails.getParameters().containsKey("_count")) {
-					requestDetails.addParameter("_count", new String[] { "1" });
-				}
-			}
-		}
+		String[] summary = requestDetails.getParameters().get("_summary");
+		String summaryMode = summary != null && summary.length > 0 ? summary[0] : null;
+		SearchRequestContext.setCountOnly("count".equals(summaryMode));
+		SearchRequestContext.setFetchProfile(
+		    FetchProfile.forRequest(summaryMode, requestDetails.getParameters().containsKey("_elements")));
+	}
+	
+	@Hook(Pointcut.SERVER_PROCESSING_COMPLETED)
+	public void processingCompleted() {
+		SearchRequestContext.setCountOnly(false);
+		SearchRequestContext.setFetchProfile(null);
 	}
 }
@@ -0,0 +1,206 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.narrative;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.Collections;
+import java.util.Locale;
+
+import org.hl7.fhir.r4.model.Person;
+import org.hl7.fhir.r4.model.Reference;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.ConceptSource;
+import org.openmrs.PersonName;
+import org.openmrs.module.fhir2.api.cache.FhirNarrativeCache;
+
+/**
+ * Tests for caching of the narratives rendered by OpenmrsThymeleafNarrativeGenerator
+ */
+public class NarrativeCacheTest extends BaseFhirNarrativeTest {
+	
+	private static final String PERSON_ID = "c4b1ba19-4fa0-4ec3-b0a6-2a1e2d2ae2a0";
+	
+	private static final String OTHER_PERSON_ID = "0b42f99b-776e-4388-8f6f-84357ae2a8fb";
+	
+	private FhirNarrativeCache narrativeCache;
+	
+	@Before
+	public void setupNarrativeCache() {
+		narrativeCache = new FhirNarrativeCache();
+		((OpenmrsThymeleafNarrativeGenerator) ctx.getNarrativeGenerator()).setNarrativeCache(narrativeCache);
+	}
+	
+	@Test
+	public void shouldReuseTheNarrativeOfTheSameVersionOfAResource() {
+		ctx.getNarrativeGenerator().populateResourceNarrative(ctx, person("1", "Chalmers"));
+		
+		Person result = person("1", "Windsor");
+		ctx.getNarrativeGenerator().populateResourceNarrative(ctx, result);
+		
+		assertThat(result.getText().getStatusAsString(), equalTo("generated"));
+		assertThat(result.getText().getDivAsString(), containsString("CHALMERS"));
+	}
+	
+	@Test
+	public void shouldRenderTheNarrativeOfANewVersionOfAResource() {
+		ctx.getNarrativeGenerator().populateResourceNarrative(ctx, person("1", "Chalmers"));
+		
+		Person result = person("2", "Windsor");
+		ctx.getNarrativeGenerator().populateResourceNarrative(ctx, result);
+		
+		assertThat(result.getText().getDivAsString(), containsString("WINDSOR"));
+		assertThat(result.getText().getDivAsString(), not(containsString("CHALMERS")));
+	}
+	
+	@Test
+	public void shouldAlwaysRenderTheNarrativeOfAResourceWithoutAVersion() {
+		ctx.getNarrativeGenerator().populateResourceNarrative(ctx, person(null, "Chalmers"));
+		
+		Person result = person(null, "Windsor");
+		ctx.getNarrativeGenerator().populateResourceNarrative(ctx, result);
+		
+		assertThat(result.getText().getDivAsString(), containsString("WINDSOR"));
+	}
+	
+	@Test
+	public void shouldRenderTheNarrativeAgainWhenTheObjectChanges() {
+		ctx.getNarrativeGenerator().populateResourceNarrative(ctx, person("1", "Chalmers"));
+		
+		org.openmrs.Person changed = new org.openmrs.Person();
+		changed.setUuid(PERSON_ID);
+		narrativeCache.invalidate(changed);
+		
+		Person result = person("1", "Windsor");
+		ctx.getNarrativeGenerator().populateResourceNarrative(ctx, result);
+		
+		assertThat(result.getText().getDivAsString(), containsString("WINDSOR"));
+	}
+	
+	@Test
+	public void shouldKeepTheNarrativeWhenAnUnrelatedObjectChanges() {
+		ctx.getNarrativeGenerator().populateResourceNarrative(ctx, person("1", "Chalmers"));
+		
+		org.openmrs.Person changed = new org.openmrs.Person();
+		changed.setUuid(OTHER_PERSON_ID);
+		narrativeCache.invalidate(changed);
+		
+		Person result = person("1", "Windsor");
+		ctx.getNarrativeGenerator().populateResourceNarrative(ctx, result);
+		
+		assertThat(result.getText().getDivAsString(), containsString("CHALMERS"));
+	}
+	
+	@Test
+	public void shouldRenderEveryNarrativeAgainWhenDisplayedMetadataChanges() {
+		ctx.getNarrativeGenerator().populateResourceNarrative(ctx, person("1", "Chalmers"));
+		
+		narrativeCache.invalidate(new ConceptSource());
+		
+		Person result = person("1", "Windsor");
+		ctx.getNarrativeGenerator().populateResourceNarrative(ctx, result);
+		
+		assertThat(result.getText().getDivAsString(), containsString("WINDSOR"));
+	}
+	
+	@Test
+	public void shouldRenderTheNarrativesOfAPersonAndOfResourcesReferringToThePersonAgainWhenANameChanges() {
+		ctx.getNarrativeGenerator().populateResourceNarrative(ctx, person("1", "Chalmers"));
+		Person referring = person(OTHER_PERSON_ID, "1", "Chalmers");
+		referring.addLink().setTarget(new Reference("Patient/" + PERSON_ID));
+		ctx.getNarrativeGenerator().populateResourceNarrative(ctx, referring);
+		
+		org.openmrs.Person person = new org.openmrs.Person();
+		person.setUuid(PERSON_ID);
+		PersonName name = new PersonName("Peter", null, "Windsor");
+		name.setPerson(person);
+		narrativeCache.invalidate(name);
+		
+		Person result = person("1", "Windsor");
+		ctx.getNarrativeGenerator().populateResourceNarrative(ctx, result);
+		Person referringResult = person(OTHER_PERSON_ID, "1", "Windsor");
+		ctx.getNarrativeGenerator().populateResourceNarrative(ctx, referringResult);
+		
+		assertThat(result.getText().getDivAsString(), containsString("WINDSOR"));
+		assertThat(referringResult.getText().getDivAsString(), containsString("WINDSOR"));
+	}
+	
+	@Test
+	public void shouldKeepTheNarrativesOfOtherPeopleWhenANameChanges() {
+		ctx.getNarrativeGenerator().populateResourceNarrative(ctx, person(OTHER_PERSON_ID, "1", "Chalmers"));
+		
+		org.openmrs.Person person = new org.openmrs.Person();
+		person.setUuid(PERSON_ID);
+		PersonName name = new PersonName("Peter", null, "Windsor");
+		name.setPerson(person);
+		narrativeCache.invalidate(name);
+		
+		Person result = person(OTHER_PERSON_ID, "1", "Windsor");
+		ctx.getNarrativeGenerator().populateResourceNarrative(ctx, result);
+		
+		assertThat(result.getText().getDivAsString(), containsString("CHALMERS"));
+	}
+	
+	@Test
+	public void shouldRenderTheNarrativesReferringToPractitionersAgainWhenANameChanges() {
+		Person referring = person(OTHER_PERSON_ID, "1", "Chalmers");
+		referring.addLink().setTarget(new Reference("Practitioner/f9badd80-ab76-11e2-9e96-0800200c9a66"));
+		ctx.getNarrativeGenerator().populateResourceNarrative(ctx, referring);
+		
+		org.openmrs.Person person = new org.openmrs.Person();
+		person.setUuid(PERSON_ID);
+		PersonName name = new PersonName("Peter", null, "Windsor");
+		name.setPerson(person);
+		narrativeCache.invalidate(name);
+		
+		Person result = person(OTHER_PERSON_ID, "1", "Windsor");
+		ctx.getNarrativeGenerator().populateResourceNarrative(ctx, result);
+		
+		assertThat(result.getText().getDivAsString(), containsString("WINDSOR"));
+	}
+	
+	@Test
+	public void shouldNotStoreANarrativeRenderedWhileNarrativesWereRemoved() {
+		long generation = narrativeCache.getGeneration();
+		narrativeCache.invalidateAll();
+		narrativeCache.put("Person", PERSON_ID, "1", Locale.ENGLISH, "<div>stale</div>", Collections.emptyList(),
+		    generation);
+		
+		assertThat(narrativeCache.get("Person", PERSON_ID, "1", Locale.ENGLISH), nullValue());
+	}
+	
+	@Test
+	public void shouldAlwaysRenderTheNarrativeWithoutACache() {
+		((OpenmrsThymeleafNarrativeGenerator) ctx.getNarrativeGenerator()).setNarrativeCache(null);
+		ctx.getNarrativeGenerator().populateResourceNarrative(ctx, person("1", "Chalmers"));
+		
+		Person result = person("1", "Windsor");
+		ctx.getNarrativeGenerator().populateResourceNarrative(ctx, result);
+		
+		assertThat(result.getText().getDivAsString(), containsString("WINDSOR"));
+	}
+	
+	private Person person(String versionId, String familyName) {
+		return person(PERSON_ID, versionId, familyName);
+	}
+	
+	private Person person(String id, String versionId, String familyName) {
+		Person person = new Person();
+		person.setId(id);
+		person.getMeta().setVersionId(versionId);
+		person.addName().setFamily(familyName).addGiven("Peter");
+		return person;
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public License,
+ * v. 2.0. If a copy of the MPL was not distributed with this file, You can
+ * obtain one at http://mozilla.org/MPL/2.0/. OpenMRS is also distributed under
+ * the terms of the Healthcare Disclaimer located at http://openmrs.org/license.
+ *
+ * Copyright (C) OpenMRS Inc. OpenMRS is a registered trademark and the OpenMRS
+ * graphic logo is a trademark of OpenMRS Inc.
+ */
+package org.openmrs.module.fhir2.web.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.when;
+
+import java.util.Date;
+
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.util.DateUtils;
+import org.hl7.fhir.r4.model.IdType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openmrs.GlobalProperty;
+import org.openmrs.module.fhir2.FhirConstants;
+import org.openmrs.module.fhir2.api.util.ConditionalReadContext;
+import org.openmrs.module.fhir2.api.util.FhirGlobalPropertyHolder;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConditionalReadInterceptorTest {
+	
+	private static final String PATIENT_UUID = "a7e04421-525f-442f-8138-05b619d16def";
+	
+	private static final String PATIENT_CACHE_CONTROL = FhirConstants.OPENMRS_FHIR_CACHE_CONTROL_PREFIX + "Patient";
+	
+	private static final Date LAST_UPDATED = new Date(1600000000000L);
+	
+	@Mock
+	private RequestDetails requestDetails;
+	
+	private ConditionalReadInterceptor interceptor;
+	
+	@Before
+	public void setup() {
+		interceptor = new ConditionalReadInterceptor();
+		new FhirGlobalPropertyHolder().globalPropertyChanged(new GlobalProperty(PATIENT_CACHE_CONTROL, "private, no-cache"));
+		
+		when(requestDetails.getId()).thenReturn(new IdType("Patient", PATIENT_UUID));
+		when(requestDetails.getResourceName()).thenReturn("Patient");
+	}
+	
+	@After
+	public void tearDown() {
+		ConditionalReadContext.clear();
+		FhirGlobalPropertyHolder.reset();
+	}
+	
+	@Test
+	public void handleConditionalRead_shouldRecordIfNoneMatch() {
+		when(requestDetails.getHeader(Constants.HEADER_IF_NONE_MATCH))
+		        .thenReturn("W/\"" + LAST_UPDATED.getTime() + "\"");
+		
+		interceptor.handleConditionalRead(requestDetails, RestOperationTypeEnum.READ);
+		
+		assertThat(ConditionalReadContext.isNotModified("Patient", PATIENT_UUID, LAST_UPDATED), is(true));
+		assertThat(ConditionalReadContext.isNotModified("Patient", PATIENT_UUID, new Date(LAST_UPDATED.getTime() + 1)),
+		    is(false));
+	}
+	
+	@Test
+	public void handleConditionalRead_shouldRecordIfModifiedSince() {
+		when(requestDetails.getHeader(Constants.HEADER_IF_MODIFIED_SINCE)).thenReturn(DateUtils.formatDate(LAST_UPDATED));
+		
+		interceptor.handleConditionalRead(requestDetails, RestOperationTypeEnum.READ);
+		
+		assertThat(ConditionalReadContext.isNotModified("Patient", PATIENT_UUID, LAST_UPDATED), is(true));
+		assertThat(ConditionalReadContext.isNotModified("Patient", PATIENT_UUID, new Date(LAST_UPDATED.getTime() + 1000)),
+		    is(false));
+	}
+	
+	@Test
+	public void handleConditionalRead_shouldNotRecordConditionsForTypesClientsMayNotStore() {
+		new FhirGlobalPropertyHolder().globalPropertyDeleted(PATIENT_CACHE_CONTROL);
+		
+		interceptor.handleConditionalRead(requestDetails, RestOperationTypeEnum.READ);
+		
+		assertThat(ConditionalReadContext.isNotModified("Patient", PATIENT_UUID, LAST_UPDATED), is(false));
+	}
+	
+	@Test
+	public void processingCompleted_shouldClearTheConditions() {
+		when(requestDetails.getHeader(Constants.HEADER_IF_NONE_MATCH))
+		        .thenReturn("W/\"" + LAST_UPDATED.getTime() + "\"");
+		interceptor.handleConditionalRead(requestDetails, RestOperationTypeEnum.READ);
+		
+		interceptor.processingCompleted();
+		
+		assertThat(ConditionalReadContext.isNotModified("Patient", PATIENT_UUID, LAST_UPDATED), is(false));
+	}
+}